@@ -39,6 +39,7 @@ import org.apache.mahout.common.AbstractJob;
 import org.apache.mahout.common.HadoopUtil;
 import org.apache.mahout.common.commandline.DefaultOptionCreator;
 import org.dkpro.bigdata.collocations.CollocMapper.Window;
+import org.dkpro.bigdata.io.hadoop.TypeSystemProjection;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -226,6 +227,10 @@ public final class CollocDriver
         con.setInt(CollocReducer.MIN_SUPPORT, minSupport);
         con.set(WINDOW_TYPE, mode.toString());
         con.setInt(WINDOW_SIZE, winsize);
+        if (con.get(TypeSystemProjection.PARAM_INPUT_TYPES) == null) {
+            // Skip all annotations the mapper does not need when reading the CASes
+            con.set(TypeSystemProjection.PARAM_INPUT_TYPES, CollocMapper.INPUT_TYPES);
+        }
 
         if (mode.toString().equalsIgnoreCase("DOCUMENT")) {
             con.setInt("mapred.job.map.memory.mb", 3000);
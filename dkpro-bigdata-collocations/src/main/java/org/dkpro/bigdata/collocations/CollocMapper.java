@@ -39,6 +39,8 @@ import org.apache.uima.resource.metadata.ResourceMetaData;
 import org.apache.uima.resource.metadata.impl.ResourceMetaData_impl;
 import org.apache.uima.util.XMLParser;
 import org.dkpro.bigdata.io.hadoop.CASWritable;
+import org.dkpro.bigdata.io.hadoop.SharedCasPool;
+import org.dkpro.bigdata.io.hadoop.TypeSystemProjection;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.w3c.dom.Element;
@@ -64,6 +66,14 @@ public class CollocMapper
 
     private static final int DEFAULT_MAX_SHINGLE_SIZE = 2;
 
+    /**
+     * The only annotation types the mapper looks at, used as the default input types of the job
+     * (see {@link TypeSystemProjection#PARAM_INPUT_TYPES}).
+     */
+    public static final String INPUT_TYPES = Sentence.class.getName() + ","
+            + Token.class.getName() + "," + Lemma.class.getName() + "," + Stem.class.getName()
+            + "," + POS.class.getName();
+
     public enum Count
     {
         NGRAM_TOTAL, OVERFLOW, MULTIWORD, EMITTED_UNIGRAM, SENTENCES, LEMMA, DOCSIZE, EMPTYDOC, WINDOWS
@@ -502,6 +512,8 @@ public class CollocMapper
     {
         super.setup(context);
         Configuration conf = context.getConfiguration();
+        // Only deserialize the input types
+        SharedCasPool.configure(conf);
         this.window = conf.getInt(CollocDriver.WINDOW_SIZE, 3);
         this.windowMode = Window
                 .valueOf(conf.get(CollocDriver.WINDOW_TYPE, Window.SENTENCE.name()));
@@ -0,0 +1,81 @@
+/*******************************************************************************
+ * Copyright 2012-13
+ * TU Darmstadt, UKP Lab and FG Sprachtechnologie
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.dkpro.bigdata.hadoop;
+
+import java.io.IOException;
+
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.FileSplit;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.MapRunnable;
+import org.apache.hadoop.mapred.OutputCollector;
+import org.apache.hadoop.mapred.RecordReader;
+import org.apache.hadoop.mapred.Reporter;
+import org.apache.hadoop.util.ReflectionUtils;
+import org.dkpro.bigdata.io.hadoop.CASWritable;
+import org.dkpro.bigdata.io.hadoop.DeltaCasWritable;
+
+/**
+ * Runs a {@link DkproMapper} and tells it where each input record was read
+ * from, so that the mapper can emit {@link DeltaCasWritable}s referring to the
+ * record. Used by {@link DkproHadoopDriver} if <code>dkpro.shuffle.delta</code>
+ * is enabled.
+ */
+public class DeltaCasMapRunner implements
+		MapRunnable<Text, CASWritable, Text, CASWritable> {
+	private DkproMapper mapper;
+
+	@Override
+	public void configure(JobConf job) {
+		mapper = (DkproMapper) ReflectionUtils.newInstance(
+				job.getMapperClass(), job);
+	}
+
+	@Override
+	public void run(RecordReader<Text, CASWritable> input,
+			OutputCollector<Text, CASWritable> output, Reporter reporter)
+			throws IOException {
+		try {
+			final Path path = ((FileSplit) reporter.getInputSplit()).getPath();
+			final Text key = input.createKey();
+			final CASWritable value = input.createValue();
+			long blockPosition = -1;
+			long lastEnd = -1;
+			int index = 0;
+			while (true) {
+				final long start = input.getPos();
+				if (!input.next(key, value)) {
+					break;
+				}
+				// all records of a compressed block end at the end of the block
+				final long end = input.getPos();
+				if (end != lastEnd) {
+					blockPosition = start;
+					index = 0;
+				} else {
+					index++;
+				}
+				lastEnd = end;
+				mapper.setInputRecord(path, blockPosition, index);
+				mapper.map(key, value, output, reporter);
+			}
+		} finally {
+			mapper.close();
+		}
+	}
+}
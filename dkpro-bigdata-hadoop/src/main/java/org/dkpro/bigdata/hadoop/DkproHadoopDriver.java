@@ -22,13 +22,17 @@ import static org.apache.uima.fit.pipeline.SimplePipeline.runPipeline;
 import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.util.List;
 
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.conf.Configured;
 import org.apache.hadoop.filecache.DistributedCache;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.compress.DefaultCodec;
 import org.apache.hadoop.mapred.FileInputFormat;
 import org.apache.hadoop.mapred.FileOutputFormat;
 import org.apache.hadoop.mapred.JobClient;
@@ -43,10 +47,18 @@ import org.apache.hadoop.util.Tool;
 import org.apache.uima.analysis_engine.AnalysisEngine;
 import org.apache.uima.analysis_engine.AnalysisEngineDescription;
 import org.apache.uima.collection.CollectionReader;
+import org.apache.uima.collection.CollectionReaderDescription;
 import org.apache.uima.fit.factory.AnalysisEngineFactory;
 import org.apache.uima.resource.ResourceInitializationException;
+import org.dkpro.bigdata.io.hadoop.BinCasWithTypeSystemRefWritable;
 import org.dkpro.bigdata.io.hadoop.BinCasWithTypeSystemWritable;
 import org.dkpro.bigdata.io.hadoop.CASWritableSequenceFileWriter;
+import org.dkpro.bigdata.io.hadoop.CollectionReaderInputFormat;
+import org.dkpro.bigdata.io.hadoop.DeltaCasWritable;
+import org.dkpro.bigdata.io.hadoop.DictionaryDeflateCodec;
+import org.dkpro.bigdata.io.hadoop.DictionaryTrainer;
+import org.dkpro.bigdata.io.hadoop.DuplicateFilter;
+import org.dkpro.bigdata.io.hadoop.TypeSystemRegistry;
 
 /**
  * Base class for running UIMA Pipelines on the cluster, see also
@@ -59,11 +71,42 @@ public abstract class DkproHadoopDriver
     extends Configured
     implements Tool, EngineFactory
 {
+    /**
+     * Number of sequence files written at the same time when importing the collection.
+     */
+    public static final String INGEST_SHARDS = "dkpro.ingest.shards";
+
+    /**
+     * Maximum number of records per imported sequence file, 0 for no limit.
+     */
+    public static final String INGEST_MAX_RECORDS = "dkpro.ingest.max-records";
+
+    /**
+     * Maximum size of the uncompressed records per imported sequence file in megabytes, 0 for no
+     * limit.
+     */
+    public static final String INGEST_MAX_MEGABYTES = "dkpro.ingest.max-mb";
+
+    /**
+     * Compression codec of the imported sequence files.
+     */
+    public static final String INGEST_CODEC = "dkpro.ingest.codec";
+
+    /**
+     * Compression type of the imported sequence files, <code>BLOCK</code> (the default) or
+     * <code>RECORD</code>.
+     */
+    public static final String INGEST_COMPRESSION_TYPE = "dkpro.ingest.compression-type";
+
     private Class<? extends DkproMapper> mapperClass = DkproMapper.class;
     private Class<? extends DkproReducer> reducerClass = DkproReducer.class;
 
+    private static final Log LOG = LogFactory.getLog(DkproHadoopDriver.class);
+
     private JobConf job;
 
+    private RunningJob runningJob;
+
     public abstract Class getInputFormatClass();
 
     /**
@@ -95,6 +138,15 @@ public abstract class DkproHadoopDriver
         this.reducerClass = reducerClass;
     }
 
+    /**
+     * Returns the job started by the last call of {@link #run(String[])}, e.g. to read its
+     * counters. Null if no job was started yet.
+     */
+    public RunningJob getRunningJob()
+    {
+        return this.runningJob;
+    }
+
     /**
      * Implement this method to configure your job.
      * 
@@ -156,6 +208,15 @@ public abstract class DkproHadoopDriver
                     CASWritableSequenceFileWriter.class, // createTypeSystemDescription(),
                     CASWritableSequenceFileWriter.PARAM_PATH, inputPath.toString(),
                     CASWritableSequenceFileWriter.PARAM_COMPRESS, true,
+                    CASWritableSequenceFileWriter.PARAM_CODEC, job.get(INGEST_CODEC,
+                            DefaultCodec.class.getName()),
+                    CASWritableSequenceFileWriter.PARAM_COMPRESSION_TYPE, job.get(
+                            INGEST_COMPRESSION_TYPE, "BLOCK"),
+                    CASWritableSequenceFileWriter.PARAM_SHARDS, job.getInt(INGEST_SHARDS, 1),
+                    CASWritableSequenceFileWriter.PARAM_MAX_RECORDS, job.getInt(
+                            INGEST_MAX_RECORDS, 0),
+                    CASWritableSequenceFileWriter.PARAM_MAX_MEGABYTES, job.getInt(
+                            INGEST_MAX_MEGABYTES, 0),
                     CASWritableSequenceFileWriter.PARAM_FS, job.get(("fs.default.name"), "file:/"));
             runPipeline(reader, xcasWriter);
         }
@@ -192,7 +253,13 @@ public abstract class DkproHadoopDriver
         // setup some sensible defaults
         this.job.setMapperClass(this.mapperClass);
         this.job.setReducerClass(this.reducerClass);
-        if (getInputFormatClass() != null) {
+        final CollectionReaderDescription readerDescription = buildCollectionReaderDescription();
+        if (readerDescription != null) {
+            // Read the collection in the map tasks instead of importing it first
+            CollectionReaderInputFormat.setCollectionReader(this.job, readerDescription);
+            this.job.setInputFormat(CollectionReaderInputFormat.class);
+        }
+        else if (getInputFormatClass() != null) {
             this.job.setInputFormat(getInputFormatClass());
         }
         else {
@@ -200,9 +267,16 @@ public abstract class DkproHadoopDriver
         }
         // this.job.setOutputFormat(TextOutputFormat.class);
         this.job.setMapOutputKeyClass(Text.class);
-        this.job.setMapOutputValueClass(BinCasWithTypeSystemWritable.class);
         this.job.setOutputKeyClass(Text.class);
-        this.job.setOutputValueClass(BinCasWithTypeSystemWritable.class);
+        if (this.job.getBoolean("dkpro.output.typesystem-once", false)) {
+            // Store the type system once instead of in every record
+            this.job.setMapOutputValueClass(BinCasWithTypeSystemRefWritable.class);
+            this.job.setOutputValueClass(BinCasWithTypeSystemRefWritable.class);
+        }
+        else {
+            this.job.setMapOutputValueClass(BinCasWithTypeSystemWritable.class);
+            this.job.setOutputValueClass(BinCasWithTypeSystemWritable.class);
+        }
         this.job.setJobName(this.getClass().getSimpleName());
         // this.job.set("mapred.child.java.opts", "-Xmx1g");
 //        this.job.setInt("mapred.job.map.memory.mb", 1280);
@@ -211,13 +285,52 @@ public abstract class DkproHadoopDriver
         this.job.setNumReduceTasks(0);
         configure(this.job);
 
+        if (this.job.getBoolean("dkpro.shuffle.delta", false)
+                && this.job.getNumReduceTasks() > 0) {
+            if (this.job.getInputFormat() instanceof SequenceFileInputFormat) {
+                // Only ship what the mapper engine changed, reducers read the rest from the input
+                this.job.setMapRunnerClass(DeltaCasMapRunner.class);
+                this.job.setMapOutputValueClass(DeltaCasWritable.class);
+            }
+            else {
+                LOG.warn("dkpro.shuffle.delta requires sequence file input, shuffling full CASes");
+            }
+        }
+
+        byte[] dictionary = null;
+        if (this.job.getBoolean(DictionaryDeflateCodec.PARAM_TRAIN, false)) {
+            dictionary = trainCompressionDictionary();
+        }
+
+        if (this.job.get(TypeSystemRegistry.PARAM_REGISTRY) == null
+                && (BinCasWithTypeSystemRefWritable.class.isAssignableFrom(this.job
+                        .getMapOutputValueClass()) || BinCasWithTypeSystemRefWritable.class
+                        .isAssignableFrom(this.job.getOutputValueClass()))) {
+            // Keep the type systems with the output, so that it can be read by later jobs
+            this.job.set(TypeSystemRegistry.PARAM_REGISTRY, fs.makeQualified(
+                    new Path(outputPath, TypeSystemRegistry.REGISTRY_DIR_NAME)).toString());
+        }
+
+        String duplicates = this.job.get(DuplicateFilter.FILTER);
+        if (duplicates != null) {
+            // Linked into the working directory of every task
+            Path filter = fs.makeQualified(new Path(duplicates));
+            DistributedCache.addCacheFile(new URI(filter.toUri() + "#"
+                    + DuplicateFilter.FILTER_FILE_NAME), this.job);
+        }
+
         // create symlinks for distributed resources
         DistributedCache.createSymlink(this.job);
         // sLogger.info("Running job "+job.getJobName());
 
-        RunningJob runningJob = JobClient.runJob(this.job);
+        this.runningJob = JobClient.runJob(this.job);
         runningJob.waitForCompletion();
         int status = runningJob.getJobState();
+        if (status == JobStatus.SUCCEEDED && dictionary != null && fs.exists(outputPath)) {
+            // Later jobs need the dictionary to read the output
+            DictionaryDeflateCodec.writeDictionary(fs, new Path(outputPath,
+                    DictionaryDeflateCodec.DICTIONARY_FILE_NAME), dictionary);
+        }
         if (status == JobStatus.SUCCEEDED) {
         	return 0;
         } else if (status == JobStatus.FAILED) {
@@ -230,6 +343,42 @@ public abstract class DkproHadoopDriver
 
     }
     
+    /**
+     * Trains a compression dictionary on a sample of the input and uses it to compress the output
+     * and the map output.
+     * 
+     * @return the dictionary, null if none could be trained
+     */
+    private byte[] trainCompressionDictionary()
+        throws IOException
+    {
+        if (!(this.job.getInputFormat() instanceof SequenceFileInputFormat)) {
+            LOG.warn(DictionaryDeflateCodec.PARAM_TRAIN
+                    + " requires sequence file input, using the default codec");
+            return null;
+        }
+        List<byte[]> samples = DictionaryTrainer.sample(this.job,
+                FileInputFormat.getInputPaths(this.job), this.job.getLong(
+                        DictionaryTrainer.PARAM_SAMPLE_SIZE,
+                        DictionaryTrainer.DEFAULT_SAMPLE_SIZE));
+        byte[] dictionary = DictionaryTrainer.train(samples,
+                DictionaryTrainer.MAX_DICTIONARY_SIZE);
+        if (dictionary.length == 0) {
+            LOG.warn("Unable to train a compression dictionary, using the default codec");
+            return null;
+        }
+        LOG.info("Trained a compression dictionary of " + dictionary.length + " bytes on "
+                + samples.size() + " records");
+
+        DictionaryDeflateCodec.setDictionary(this.job, dictionary);
+        FileOutputFormat.setOutputCompressorClass(this.job, DictionaryDeflateCodec.class);
+        if (this.job.getNumReduceTasks() > 0) {
+            this.job.setCompressMapOutput(true);
+            this.job.setMapOutputCompressorClass(DictionaryDeflateCodec.class);
+        }
+        return dictionary;
+    }
+
     private String getUniqueDirectoryName(String dir, FileSystem fs) throws IllegalArgumentException, IOException {
 		int outDirSuffix = 2;
 		String uniqueDir = dir;
@@ -286,6 +435,20 @@ public abstract class DkproHadoopDriver
     {
         return null;
     }
+
+    /**
+     * Overwrite this method to run a UIMA collection reader inside the map tasks, see
+     * {@link CollectionReaderInputFormat}. Unlike {@link #buildCollectionReader()}, the data is
+     * not imported into HDFS before the job starts. The input path is ignored in this case.
+     * 
+     * @return
+     * @throws ResourceInitializationException
+     */
+    public CollectionReaderDescription buildCollectionReaderDescription()
+        throws ResourceInitializationException
+    {
+        return null;
+    }
     
     @Override
     public AnalysisEngineDescription buildReducerEngine(Configuration job)
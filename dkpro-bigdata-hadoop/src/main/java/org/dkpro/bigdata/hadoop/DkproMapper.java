@@ -16,27 +16,59 @@
  ******************************************************************************/
 package org.dkpro.bigdata.hadoop;
 
+import static org.apache.uima.cas.impl.Serialization.deserializeCAS;
+import static org.apache.uima.cas.impl.Serialization.serializeWithCompression;
+
 import java.io.IOException;
+import java.util.LinkedList;
 import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.mapred.JobConf;
 import org.apache.hadoop.mapred.Mapper;
 import org.apache.hadoop.mapred.OutputCollector;
 import org.apache.hadoop.mapred.Reporter;
+import org.apache.hadoop.util.ReflectionUtils;
 import org.apache.uima.analysis_engine.AnalysisEngineDescription;
 import org.apache.uima.analysis_engine.AnalysisEngineProcessException;
 import org.apache.uima.cas.CAS;
 import org.apache.uima.resource.ResourceInitializationException;
+import org.apache.uima.util.CasCopier;
+import org.apache.uima.util.CasPool;
 import org.apache.uima.util.ProcessTrace;
 import org.apache.uima.util.ProcessTraceEvent;
 import org.dkpro.bigdata.io.hadoop.CASWritable;
+import org.dkpro.bigdata.io.hadoop.DeltaCasWritable;
+import org.dkpro.bigdata.io.hadoop.DuplicateFilter;
+import org.dkpro.bigdata.io.hadoop.SharedCasPool;
 
 /**
  * A mapper for building pipelines with M/R. The engine is _NOT_ supposed to be
  * a CasConsumer, the resulting cas will be written to HDFS and can be used as
  * input to a Mapper process again.
  * 
+ * If <code>dkpro.map.threads</code> is set to a value greater than one, the
+ * mapper creates that many engine replicas and processes records on a thread
+ * pool. Output is emitted in input order unless
+ * <code>dkpro.map.threads.preserveorder</code> is set to false.
+ * 
+ * If the map output value class is a {@link DeltaCasWritable} and the mapper is
+ * run by a {@link DeltaCasMapRunner}, only the changes made by the engine are
+ * emitted, together with a reference to the input record.
+ * 
+ * If <code>dkpro.map.deduplicate</code> is set, exact duplicate documents are
+ * dropped before the engine sees them, see {@link DuplicateFilter}.
+ * 
  * @author zorn
  */
 public class DkproMapper extends UIMAMapReduceBase implements
@@ -47,6 +79,27 @@ public class DkproMapper extends UIMAMapReduceBase implements
 
 	private final Random random;
 	private String docLanguage;
+	private DuplicateFilter duplicateFilter;
+
+	// delta mode, the input record currently being mapped
+	private DeltaCasWritable deltaValue;
+	private Path inputPath;
+	private long inputPosition;
+	private int inputIndex;
+	private final DataOutputBuffer copyBuffer = new DataOutputBuffer();
+	private final DataInputBuffer copyIn = new DataInputBuffer();
+
+	// multi-threaded mode
+	private int numThreads = 1;
+	private boolean preserveOrder = true;
+	private ExecutorService executor;
+	private CompletionService<MapResult> completionService;
+	private CasPool casPool;
+	private int casPoolSize;
+	private final LinkedList<Future<MapResult>> pending = new LinkedList<Future<MapResult>>();
+	private int inFlight = 0;
+	private OutputCollector<Text, CASWritable> output;
+	private Reporter reporter;
 
 	public DkproMapper() {
 		super();
@@ -58,6 +111,14 @@ public class DkproMapper extends UIMAMapReduceBase implements
 			OutputCollector<Text, CASWritable> output, Reporter reporter)
 			throws IOException {
 		final CAS aCAS = value.getCAS();
+		SharedCasPool.reportCounters(reporter);
+		if (duplicateFilter != null && aCAS.getDocumentText() != null) {
+			duplicateFilter.setSplit(DuplicateFilter.getInputSplit(reporter));
+			if (duplicateFilter.isDuplicate(key.toString(),
+					aCAS.getDocumentText(), reporter)) {
+				return;
+			}
+		}
 		/*
 		 * SAMPLING: Process and emit only a sample of the corpus
 		 */
@@ -69,32 +130,208 @@ public class DkproMapper extends UIMAMapReduceBase implements
         }
 		reporter.incrCounter("uima", "sampling: NOT SKIPPED", 1);
 
+		if (numThreads > 1) {
+			submit(key, aCAS, output, reporter);
+			return;
+		}
+
 		try {
+			// mark before anything is changed
+			final DeltaCasWritable.Base base = markBase(aCAS);
 			if (docLanguage != null) {
 				aCAS.setDocumentLanguage(docLanguage);
 			}
 			// let uima process the cas
 			final ProcessTrace result = this.engine.process(aCAS);
-			for (final ProcessTraceEvent event : result.getEvents()) {
-				reporter.incrCounter("uima", "map event " + event.getType(), 1);
+			emit(key, aCAS, base, result, output, reporter);
+		} catch (final AnalysisEngineProcessException e) {
+			handleFailure(e, reporter);
+		}
+	}
+
+	/**
+	 * Update counters and write the processed cas.
+	 */
+	private void emit(Text key, CAS aCAS, DeltaCasWritable.Base base,
+			ProcessTrace result, OutputCollector<Text, CASWritable> output, Reporter reporter)
+			throws IOException {
+		for (final ProcessTraceEvent event : result.getEvents()) {
+			reporter.incrCounter("uima", "map event " + event.getType(), 1);
+		}
+
+		final Text outkey = getOutputKey(key, aCAS);
+		// update counters
+		if (aCAS.getDocumentText() != null) {
+            reporter.incrCounter("uima", "overall doc size",
+					aCAS.getDocumentText().length());
+        }
+		if (this.job.getBoolean("dkpro.output.writecas", true)) {
+			outValue.setCAS(aCAS);
+			if (deltaValue != null) {
+				deltaValue.setBase(base);
+			}
+			output.collect(outkey, outValue);
+		}
+	}
+
+	/**
+	 * Called by {@link DeltaCasMapRunner} before each record is mapped.
+	 */
+	void setInputRecord(Path path, long position, int index) {
+		inputPath = path;
+		inputPosition = position;
+		inputIndex = index;
+	}
+
+	/**
+	 * In delta mode, mark the unprocessed input record.
+	 * 
+	 * @return the mark or null if the cas is to be emitted in full
+	 */
+	private DeltaCasWritable.Base markBase(CAS aCAS) throws IOException {
+		if (deltaValue == null || inputPath == null) {
+			return null;
+		}
+		return DeltaCasWritable.markBase(aCAS, inputPath, inputPosition,
+				inputIndex);
+	}
+
+	/**
+	 * Copy a cas for a worker thread. In delta mode the copy must number its
+	 * feature structures like the input record, which CasCopier does not
+	 * guarantee, so it is made by serializing the cas.
+	 */
+	private void copyCas(CAS from, CAS to) throws IOException {
+		if (deltaValue == null) {
+			CasCopier.copyCas(from, to, true);
+			return;
+		}
+		try {
+			copyBuffer.reset();
+			serializeWithCompression(from, copyBuffer, from.getTypeSystem());
+			copyIn.reset(copyBuffer.getData(), copyBuffer.getLength());
+			deserializeCAS(to, copyIn, to.getTypeSystem(), null);
+		} catch (final ResourceInitializationException e) {
+			throw new IOException(e);
+		}
+	}
+
+	private void handleFailure(AnalysisEngineProcessException e,
+			Reporter reporter) throws IOException {
+		reporter.incrCounter("uima", e.toString(), 1);
+		if (failures++ > maxFailures) {
+            throw new IOException(e);
+        }
+	}
+
+	/**
+	 * Result of processing one record on a worker thread.
+	 */
+	private static class MapResult {
+		Text key;
+		CAS cas;
+		DeltaCasWritable.Base base;
+		ProcessTrace trace;
+		AnalysisEngineProcessException error;
+	}
+
+	/**
+	 * Copy the record into a pooled cas and hand it to a worker. The input
+	 * writable is reused by the record reader, so it must not be shared with
+	 * the worker threads.
+	 */
+	private void submit(Text key, CAS aCAS,
+			OutputCollector<Text, CASWritable> output, Reporter reporter)
+			throws IOException {
+		this.output = output;
+		this.reporter = reporter;
+		// make room for the next record first, the pool holds one cas per
+		// record in flight
+		while (inFlight >= casPoolSize) {
+			finish(nextResult(true));
+		}
+
+		final MapResult task = new MapResult();
+		task.key = new Text(key);
+		task.cas = casPool.getCas(0);
+		copyCas(aCAS, task.cas);
+		task.base = markBase(task.cas);
+		if (docLanguage != null) {
+			task.cas.setDocumentLanguage(docLanguage);
+		}
+
+		final Callable<MapResult> work = new Callable<MapResult>() {
+			@Override
+			public MapResult call() {
+				try {
+					task.trace = engine.process(task.cas);
+				} catch (final AnalysisEngineProcessException e) {
+					task.error = e;
+				}
+				return task;
 			}
+		};
+		if (preserveOrder) {
+			pending.add(executor.submit(work));
+		} else {
+			completionService.submit(work);
+		}
+		inFlight++;
+
+		// emit whatever is ready without blocking
+		MapResult done;
+		while ((done = nextResult(false)) != null) {
+			finish(done);
+		}
+	}
 
-			final Text outkey = getOutputKey(key, aCAS);
-			// update counters
-			if (aCAS.getDocumentText() != null) {
-                reporter.incrCounter("uima", "overall doc size",
-						aCAS.getDocumentText().length());
-            }
-			if (this.job.getBoolean("dkpro.output.writecas", true)) {
-				outValue.setCAS(aCAS);
-				output.collect(outkey, outValue);
+	/**
+	 * Fetch the next finished record. In ordered mode this is always the
+	 * oldest record in flight.
+	 * 
+	 * @param block
+	 *            wait for a result if none is ready yet
+	 * @return the result or null if none is ready or none is in flight
+	 */
+	private MapResult nextResult(boolean block) throws IOException {
+		if (inFlight == 0) {
+			return null;
+		}
+		try {
+			Future<MapResult> done;
+			if (preserveOrder) {
+				done = pending.peek();
+				if (!block && !done.isDone()) {
+					return null;
+				}
+				pending.poll();
+			} else {
+				done = block ? completionService.take() : completionService
+						.poll();
+				if (done == null) {
+					return null;
+				}
 			}
-		} catch (final AnalysisEngineProcessException e) {
-			reporter.incrCounter("uima", e.toString(), 1);
-			if (failures++ > maxFailures) {
-                throw new IOException(e);
-            }
+			inFlight--;
+			return done.get();
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException(e);
+		} catch (final ExecutionException e) {
+			throw new IOException(e.getCause());
+		}
+	}
 
+	private void finish(MapResult result) throws IOException {
+		try {
+			if (result.error != null) {
+				handleFailure(result.error, reporter);
+			} else {
+				emit(result.key, result.cas, result.base, result.trace, output,
+						reporter);
+			}
+		} finally {
+			casPool.releaseCas(result.cas);
 		}
 	}
 
@@ -114,15 +351,54 @@ public class DkproMapper extends UIMAMapReduceBase implements
 		return factory.buildMapperEngine(job);
 	}
 
+	@Override
+	protected int getEngineInstances(JobConf job) {
+		return Math.max(1, job.getInt("dkpro.map.threads", 1));
+	}
+
 	@Override
 	public void configure(JobConf job) {
 		super.configure(job);
 		try {
 			// create an output writable of the appropriate type
-			outValue = (CASWritable) job.getMapOutputValueClass().newInstance();
+			outValue = (CASWritable) ReflectionUtils.newInstance(
+					job.getMapOutputValueClass(), job);
+			if (outValue instanceof DeltaCasWritable) {
+				deltaValue = (DeltaCasWritable) outValue;
+			}
 			docLanguage = job.get("dkpro.document.language");
+			if (job.getBoolean("dkpro.map.deduplicate", false)) {
+				duplicateFilter = DuplicateFilter.create(job);
+			}
+			numThreads = getEngineInstances(job);
+			if (numThreads > 1) {
+				preserveOrder = job.getBoolean(
+						"dkpro.map.threads.preserveorder", true);
+				// keep the workers busy while the map thread copies and emits
+				casPoolSize = 2 * numThreads;
+				casPool = new CasPool(casPoolSize, engine);
+				executor = Executors.newFixedThreadPool(numThreads);
+				completionService = new ExecutorCompletionService<MapResult>(
+						executor);
+			}
 		} catch (Exception e) {
 			throw new RuntimeException(e);
 		}
 	}
-}
\ No newline at end of file
+
+	@Override
+	public void close() throws IOException {
+		if (executor != null) {
+			try {
+				// emit the records that are still in flight
+				MapResult done;
+				while ((done = nextResult(true)) != null) {
+					finish(done);
+				}
+			} finally {
+				executor.shutdownNow();
+			}
+		}
+		super.close();
+	}
+}
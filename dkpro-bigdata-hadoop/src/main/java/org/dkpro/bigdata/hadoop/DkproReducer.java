@@ -27,6 +27,7 @@ import org.apache.hadoop.mapred.JobConf;
 import org.apache.hadoop.mapred.OutputCollector;
 import org.apache.hadoop.mapred.Reducer;
 import org.apache.hadoop.mapred.Reporter;
+import org.apache.hadoop.util.ReflectionUtils;
 import org.apache.uima.analysis_engine.AnalysisEngineDescription;
 import org.apache.uima.analysis_engine.AnalysisEngineProcessException;
 import org.apache.uima.cas.CAS;
@@ -34,6 +35,7 @@ import org.apache.uima.resource.ResourceInitializationException;
 import org.apache.uima.util.ProcessTrace;
 import org.apache.uima.util.ProcessTraceEvent;
 import org.dkpro.bigdata.io.hadoop.CASWritable;
+import org.dkpro.bigdata.io.hadoop.SharedCasPool;
 
 /**
  * This class expects a UIMA Consumer as engine, it will not collect the output but will copy
@@ -78,6 +80,7 @@ public class DkproReducer
 
             }
         }
+        SharedCasPool.reportCounters(reporter);
     }
 
     @Override
@@ -91,7 +94,8 @@ public class DkproReducer
     	super.configure(job);
     	try {
     		// create an output writable of the appropriate type
-			outValue = (CASWritable) job.getOutputValueClass().newInstance();
+			outValue = (CASWritable) ReflectionUtils.newInstance(
+					job.getOutputValueClass(), job);
 		} catch (Exception e) {
 			throw new RuntimeException(e);
 		} 
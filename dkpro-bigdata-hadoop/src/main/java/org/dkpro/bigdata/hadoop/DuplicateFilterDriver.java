@@ -0,0 +1,310 @@
+/*******************************************************************************
+ * Copyright 2013
+ * TU Darmstadt, FG Sprachtechnologie
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.dkpro.bigdata.hadoop;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Iterator;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.mapred.FileInputFormat;
+import org.apache.hadoop.mapred.FileOutputFormat;
+import org.apache.hadoop.mapred.InputFormat;
+import org.apache.hadoop.mapred.JobClient;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.MapReduceBase;
+import org.apache.hadoop.mapred.Mapper;
+import org.apache.hadoop.mapred.OutputCollector;
+import org.apache.hadoop.mapred.Reducer;
+import org.apache.hadoop.mapred.Reporter;
+import org.apache.hadoop.mapred.RunningJob;
+import org.apache.hadoop.mapred.SequenceFileInputFormat;
+import org.apache.hadoop.mapred.TextOutputFormat;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+import org.apache.hadoop.util.bloom.BloomFilter;
+import org.dkpro.bigdata.io.hadoop.CASWritable;
+import org.dkpro.bigdata.io.hadoop.CrawlerRecord;
+import org.dkpro.bigdata.io.hadoop.DuplicateFilter;
+import org.dkpro.bigdata.io.hadoop.HtmlTextExtractor;
+
+/**
+ * Pre-pass that builds the shared filter of a {@link DuplicateFilter}: the text of every document
+ * is hashed in the mapper, and the reducers add every copy of a text except one to a Bloom filter.
+ * Copies are identified by their key and their split, so that copies under the same key in
+ * different splits are dropped, too. The filters of the reducers are merged into
+ * <code>&lt;output&gt;/duplicates.bloom</code>, which is shipped to the tasks of a
+ * {@link DkproHadoopDriver} job by setting <code>-Ddkpro.dedup.filter=...</code>. The text output
+ * lists the number of copies of every duplicated text hash.
+ * <p>
+ * The pre-pass must read the input with the same input format and the same split settings (e.g.
+ * <code>mapreduce.job.maps</code> and the minimum and maximum split sizes) as the job that uses
+ * the filter, so that it sees the same keys, texts and splits. The splits of the pre-pass are
+ * listed in the filter, documents in other splits are counted as
+ * {@link DuplicateFilter.Counters#UNKNOWN_SPLIT}. The input format is taken from
+ * <code>dkpro.dedup.input-format</code> (sequence files by default), its values may be
+ * {@link CASWritable}s, {@link CrawlerRecord}s or text.
+ * </p>
+ */
+public class DuplicateFilterDriver
+    extends Configured
+    implements Tool
+{
+    private static final Log LOG = LogFactory.getLog(DuplicateFilterDriver.class);
+
+    public static final String INPUT_FORMAT = "dkpro.dedup.input-format";
+
+    private static final String PART_PREFIX = "bloom-";
+
+    /**
+     * Map output key of the splits seen by the mappers. It is the hash of the empty text, which is
+     * never emitted for a document.
+     */
+    private static final long SPLIT_MARKER = DuplicateFilter.hashText("");
+
+    /**
+     * Maps every document to the hash of its normalised text, with the hash of its key and split
+     * as value.
+     */
+    private static class DocumentHashMapper
+        extends MapReduceBase
+        implements Mapper<Text, Writable, LongWritable, LongWritable>
+    {
+        private HtmlTextExtractor extractor;
+        private final LongWritable hash = new LongWritable();
+        private final LongWritable copy = new LongWritable();
+        private boolean splitEmitted;
+
+        @Override
+        public void configure(JobConf job)
+        {
+            extractor = HtmlTextExtractor.create(job);
+        }
+
+        @Override
+        public void map(Text key, Writable value,
+                OutputCollector<LongWritable, LongWritable> output, Reporter reporter)
+            throws IOException
+        {
+            long splitHash = DuplicateFilter.hashSplit(DuplicateFilter.getInputSplit(reporter));
+            if (!splitEmitted) {
+                // A map task reads a single split
+                hash.set(SPLIT_MARKER);
+                copy.set(splitHash);
+                output.collect(hash, copy);
+                splitEmitted = true;
+            }
+            CharSequence text = getText(value, extractor);
+            if (text == null || !DuplicateFilter.hasText(text)) {
+                // Not a copy of each other, even though their hashes are equal
+                reporter.incrCounter("dedup", "documents without text", 1);
+                return;
+            }
+            hash.set(DuplicateFilter.hashText(text));
+            copy.set(DuplicateFilter.hashCopy(DuplicateFilter.hashKey(key.toString()), splitHash));
+            output.collect(hash, copy);
+        }
+    }
+
+    /**
+     * Adds all copies of a text but the one with the smallest copy hash to the filter of the
+     * reducer, which is written next to the output when the reducer is closed.
+     */
+    private static class DuplicateReducer
+        extends MapReduceBase
+        implements Reducer<LongWritable, LongWritable, LongWritable, LongWritable>
+    {
+        private JobConf job;
+        private BloomFilter filter;
+        private long[] copyHashes = new long[16];
+        private final LongWritable copies = new LongWritable();
+
+        @Override
+        public void configure(JobConf job)
+        {
+            this.job = job;
+            filter = DuplicateFilter.createBloomFilter(job);
+        }
+
+        @Override
+        public void reduce(LongWritable textHash, Iterator<LongWritable> values,
+                OutputCollector<LongWritable, LongWritable> output, Reporter reporter)
+            throws IOException
+        {
+            if (textHash.get() == SPLIT_MARKER) {
+                while (values.hasNext()) {
+                    DuplicateFilter.addSplit(filter, values.next().get());
+                }
+                return;
+            }
+            int n = 0;
+            int kept = 0;
+            while (values.hasNext()) {
+                if (n == copyHashes.length) {
+                    copyHashes = Arrays.copyOf(copyHashes, n * 2);
+                }
+                copyHashes[n] = values.next().get();
+                if (copyHashes[n] < copyHashes[kept]) {
+                    kept = n;
+                }
+                n++;
+            }
+            if (n < 2) {
+                return;
+            }
+            for (int i = 0; i < n; i++) {
+                // Copies under the key and in the split of the kept document are left to the
+                // split-local filter
+                if (copyHashes[i] != copyHashes[kept]) {
+                    DuplicateFilter.addCorpusDuplicate(filter, textHash.get(), copyHashes[i]);
+                    reporter.incrCounter("dedup", "duplicates", 1);
+                }
+            }
+            reporter.incrCounter("dedup", "duplicated texts", 1);
+            copies.set(n);
+            output.collect(textHash, copies);
+        }
+
+        @Override
+        public void close()
+            throws IOException
+        {
+            writeFilterPart(job, filter);
+        }
+    }
+
+    /**
+     * Returns the document text of a {@link CASWritable}, {@link CrawlerRecord} or text value. The
+     * markup of HTML crawler records is removed by <code>extractor</code>, as in the record
+     * readers.
+     */
+    static CharSequence getText(Writable value, HtmlTextExtractor extractor)
+        throws IOException
+    {
+        if (value instanceof CASWritable) {
+            return ((CASWritable) value).getCAS().getDocumentText();
+        }
+        if (value instanceof CrawlerRecord) {
+            return DuplicateFilter.getText((CrawlerRecord) value, extractor);
+        }
+        return value.toString();
+    }
+
+    /**
+     * Writes the filter of a reducer next to its output, committed together with the regular
+     * output of the task.
+     */
+    static void writeFilterPart(JobConf job, BloomFilter filter)
+        throws IOException
+    {
+        Path part = new Path(FileOutputFormat.getWorkOutputPath(job), String.format("%s%05d",
+                PART_PREFIX, job.getInt("mapreduce.task.partition", 0)));
+        DuplicateFilter.writeBloomFilter(part.getFileSystem(job), part, filter);
+    }
+
+    /**
+     * Merges the filters of the reducers in <code>dir</code> into <code>target</code> and deletes
+     * them. All reducers sized their filters from the same configuration.
+     */
+    static void mergeFilterParts(JobConf job, FileSystem fs, Path dir, Path target)
+        throws IOException
+    {
+        BloomFilter merged = DuplicateFilter.createBloomFilter(job);
+        FileStatus[] parts = fs.globStatus(new Path(dir, PART_PREFIX + "*"));
+        for (FileStatus part : parts) {
+            merged.or(DuplicateFilter.readBloomFilter(fs, part.getPath()));
+        }
+        DuplicateFilter.writeBloomFilter(fs, target, merged);
+        for (FileStatus part : parts) {
+            fs.delete(part.getPath(), false);
+        }
+        LOG.info("Wrote duplicate filter to " + fs.makeQualified(target) + ", use it with -D"
+                + DuplicateFilter.FILTER + "=" + fs.makeQualified(target));
+    }
+
+    public static void main(String[] args)
+        throws Exception
+    {
+        System.exit(ToolRunner.run(new DuplicateFilterDriver(), args));
+    }
+
+    /**
+     * Override this method to read the input with a custom input format.
+     */
+    @SuppressWarnings("rawtypes")
+    public Class<? extends InputFormat> getInputFormatClass(JobConf job)
+    {
+        return job.getClass(INPUT_FORMAT, SequenceFileInputFormat.class, InputFormat.class);
+    }
+
+    /**
+     * Override this method to configure your job.
+     *
+     * @param job
+     */
+    public void configure(JobConf job)
+    {
+        // nothing by default
+    }
+
+    @Override
+    public int run(String[] args)
+        throws Exception
+    {
+        if (args.length < 2) {
+            System.out.println("Usage: " + this.getClass().getSimpleName()
+                    + " [hadoop-params] input output [job-params]");
+            System.exit(1);
+        }
+        JobConf job = new JobConf(getConf(), DuplicateFilterDriver.class);
+        final Path outputPath = new Path(args[1]);
+        FileInputFormat.setInputPaths(job, args[0]);
+        FileOutputFormat.setOutputPath(job, outputPath);
+
+        job.setMapperClass(DocumentHashMapper.class);
+        job.setReducerClass(DuplicateReducer.class);
+        job.setInputFormat(getInputFormatClass(job));
+        job.setOutputFormat(TextOutputFormat.class);
+        job.setMapOutputKeyClass(LongWritable.class);
+        job.setMapOutputValueClass(LongWritable.class);
+        job.setOutputKeyClass(LongWritable.class);
+        job.setOutputValueClass(LongWritable.class);
+        job.setJobName(this.getClass().getSimpleName());
+        // The pre-pass has to see every copy
+        job.setBoolean(DuplicateFilter.DEDUPLICATE, false);
+        configure(job);
+
+        final FileSystem fs = outputPath.getFileSystem(job);
+        fs.delete(outputPath, true);
+        RunningJob runningJob = JobClient.runJob(job);
+        if (!runningJob.isSuccessful()) {
+            return 1;
+        }
+
+        mergeFilterParts(job, fs, outputPath, new Path(outputPath,
+                DuplicateFilter.FILTER_FILE_NAME));
+        return 0;
+    }
+}
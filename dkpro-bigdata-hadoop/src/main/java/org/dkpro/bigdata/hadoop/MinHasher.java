@@ -0,0 +1,210 @@
+/*******************************************************************************
+ * Copyright 2013
+ * TU Darmstadt, FG Sprachtechnologie
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.dkpro.bigdata.hadoop;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.apache.hadoop.conf.Configuration;
+import org.dkpro.bigdata.io.hadoop.DuplicateFilter;
+
+/**
+ * Computes MinHash signatures over the word shingles of a text and hashes them into LSH bands.
+ * <p>
+ * Words are maximal runs of letters and digits, compared case-insensitively. The hashes of the
+ * last {@link #SHINGLE_SIZE} words are combined with a rolling polynomial hash, so every shingle
+ * costs one multiplication and subtraction regardless of its size, and each of the
+ * <code>bands * rows</code> MinHash functions is a multiply-add on the shingle hash. Nothing is
+ * allocated per text: the signature array is reused by every call of {@link #compute}.
+ * </p>
+ * <p>
+ * Two texts end up in the same bucket of at least one band with a probability of
+ * <code>1 - (1 - s^rows)^bands</code>, where <code>s</code> is the Jaccard similarity of their
+ * shingle sets. The threshold of this S-curve is about <code>(1 / bands)^(1 / rows)</code>, 0.7 for
+ * the defaults.
+ * </p>
+ */
+public class MinHasher
+{
+    public static final String BANDS = "dkpro.neardup.bands";
+
+    public static final String ROWS = "dkpro.neardup.rows";
+
+    /**
+     * Number of words in a shingle.
+     */
+    public static final String SHINGLE_SIZE = "dkpro.neardup.shingle-size";
+
+    /**
+     * Seed of the hash functions. All tasks of a job must use the same seed.
+     */
+    public static final String SEED = "dkpro.neardup.seed";
+
+    public static final int DEFAULT_BANDS = 16;
+    public static final int DEFAULT_ROWS = 8;
+    public static final int DEFAULT_SHINGLE_SIZE = 5;
+    public static final long DEFAULT_SEED = 42;
+
+    /** Base of the rolling shingle hash */
+    private static final long BASE = 0x9e3779b97f4a7c15L;
+
+    private final int bands;
+    private final int rows;
+    private final int shingleSize;
+
+    /** Coefficients of the hash functions <code>(a * x + b) &gt;&gt;&gt; 32</code> */
+    private final long[] a;
+    private final long[] b;
+
+    private final int[] signature;
+
+    /** Hashes of the words of the current shingle */
+    private final long[] window;
+
+    /** <code>BASE^(shingleSize - 1)</code>, weight of the word leaving the shingle */
+    private final long outWeight;
+
+    public MinHasher(int bands, int rows, int shingleSize, long seed)
+    {
+        if (bands < 1 || rows < 1 || shingleSize < 1) {
+            throw new IllegalArgumentException("Bands, rows and shingle size must be positive");
+        }
+        this.bands = bands;
+        this.rows = rows;
+        this.shingleSize = shingleSize;
+        int numHashes = bands * rows;
+        a = new long[numHashes];
+        b = new long[numHashes];
+        Random random = new Random(seed);
+        for (int i = 0; i < numHashes; i++) {
+            a[i] = random.nextLong() | 1;
+            b[i] = random.nextLong();
+        }
+        signature = new int[numHashes];
+        window = new long[shingleSize];
+        long weight = 1;
+        for (int i = 1; i < shingleSize; i++) {
+            weight *= BASE;
+        }
+        outWeight = weight;
+    }
+
+    public static MinHasher create(Configuration conf)
+    {
+        return new MinHasher(conf.getInt(BANDS, DEFAULT_BANDS), conf.getInt(ROWS, DEFAULT_ROWS),
+                conf.getInt(SHINGLE_SIZE, DEFAULT_SHINGLE_SIZE), conf.getLong(SEED,
+                        DEFAULT_SEED));
+    }
+
+    /**
+     * Computes the signature of the text. Texts with fewer words than a shingle form a single
+     * shingle.
+     *
+     * @return false if the text does not contain any word, the signature is undefined then
+     */
+    public boolean compute(CharSequence text)
+    {
+        Arrays.fill(signature, Integer.MAX_VALUE);
+        long shingle = 0;
+        long word = DuplicateFilter.FNV_OFFSET;
+        boolean inWord = false;
+        int words = 0;
+        int length = text.length();
+        // One step past the end to finish the last word
+        for (int i = 0; i <= length; i++) {
+            char c = i < length ? text.charAt(i) : ' ';
+            if (Character.isLetterOrDigit(c)) {
+                c = Character.toLowerCase(c);
+                word = DuplicateFilter.update(word, c);
+                inWord = true;
+                continue;
+            }
+            if (!inWord) {
+                continue;
+            }
+            // A word ended, roll it into the shingle
+            int slot = words % shingleSize;
+            if (words >= shingleSize) {
+                shingle -= window[slot] * outWeight;
+            }
+            long hash = DuplicateFilter.finish(word);
+            shingle = shingle * BASE + hash;
+            window[slot] = hash;
+            words++;
+            if (words >= shingleSize) {
+                update(shingle);
+            }
+            word = DuplicateFilter.FNV_OFFSET;
+            inWord = false;
+        }
+        if (words > 0 && words < shingleSize) {
+            update(shingle);
+        }
+        return words > 0;
+    }
+
+    private void update(long shingle)
+    {
+        long x = DuplicateFilter.finish(shingle);
+        for (int i = 0; i < signature.length; i++) {
+            int h = (int) ((a[i] * x + b[i]) >>> 32);
+            if (h < signature[i]) {
+                signature[i] = h;
+            }
+        }
+    }
+
+    /**
+     * Returns the signature computed by the last call of {@link #compute}. The array is reused.
+     */
+    public int[] getSignature()
+    {
+        return signature;
+    }
+
+    public int getBands()
+    {
+        return bands;
+    }
+
+    /**
+     * Returns the hash of the rows of the given band. The band index is part of the hash, so the
+     * buckets of all bands can share one key space.
+     */
+    public long getBandHash(int band)
+    {
+        long h = DuplicateFilter.FNV_OFFSET ^ band;
+        for (int i = band * rows; i < (band + 1) * rows; i++) {
+            h = (h ^ signature[i]) * DuplicateFilter.FNV_PRIME;
+        }
+        return DuplicateFilter.finish(h);
+    }
+
+    /**
+     * Estimates the Jaccard similarity of the shingle sets from two signatures.
+     */
+    public static double similarity(int[] signature1, int[] signature2)
+    {
+        int equal = 0;
+        for (int i = 0; i < signature1.length; i++) {
+            if (signature1[i] == signature2[i]) {
+                equal++;
+            }
+        }
+        return equal / (double) signature1.length;
+    }
+}
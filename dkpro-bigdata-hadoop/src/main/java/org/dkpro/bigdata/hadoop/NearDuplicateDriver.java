@@ -0,0 +1,304 @@
+/*******************************************************************************
+ * Copyright 2013
+ * TU Darmstadt, FG Sprachtechnologie
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.dkpro.bigdata.hadoop;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Iterator;
+
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.mapred.FileInputFormat;
+import org.apache.hadoop.mapred.FileOutputFormat;
+import org.apache.hadoop.mapred.InputFormat;
+import org.apache.hadoop.mapred.JobClient;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.MapReduceBase;
+import org.apache.hadoop.mapred.Mapper;
+import org.apache.hadoop.mapred.OutputCollector;
+import org.apache.hadoop.mapred.Reducer;
+import org.apache.hadoop.mapred.Reporter;
+import org.apache.hadoop.mapred.SequenceFileInputFormat;
+import org.apache.hadoop.mapred.SequenceFileOutputFormat;
+import org.apache.hadoop.mapred.TextOutputFormat;
+import org.apache.hadoop.mapred.lib.IdentityMapper;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+import org.apache.hadoop.util.bloom.BloomFilter;
+import org.dkpro.bigdata.io.hadoop.DuplicateFilter;
+import org.dkpro.bigdata.io.hadoop.HtmlTextExtractor;
+
+/**
+ * Finds near duplicate documents with MinHash and locality sensitive hashing, see
+ * {@link MinHasher}.
+ * <p>
+ * The first job computes the signature of every document in the mapper and emits one bucket per
+ * LSH band. The markup of HTML crawler records is removed first, as in
+ * {@link DuplicateFilterDriver}. Documents that share a bucket are candidates, and every candidate is linked to the
+ * candidate with the smallest key. The second job groups these links by document: a document that
+ * is linked to a smaller one is a near duplicate of it and is dropped, all other documents are
+ * kept. The output directory contains
+ * </p>
+ * <ul>
+ * <li><code>clusters/part-*</code>: one line per dropped document, holding the key of the smallest
+ * document it is a near duplicate of and its own key, so the lines of a cluster share their first
+ * column. A document that is only linked to documents which are dropped themselves names the
+ * smallest of these.</li>
+ * <li><code>duplicates.bloom</code>: the keys of the dropped documents, in the format of the shared
+ * filter of a {@link DuplicateFilter}. Pass it to a pipeline with
+ * <code>-Ddkpro.dedup.filter=...</code> and <code>-Ddkpro.map.deduplicate=true</code> to skip the
+ * near duplicates in {@link DkproMapper}.</li>
+ * </ul>
+ * <p>
+ * As in {@link DuplicateFilterDriver}, the input is read with the input format given in
+ * <code>dkpro.dedup.input-format</code>, which must produce the same keys as the input format of
+ * the pipeline.
+ * </p>
+ */
+public class NearDuplicateDriver
+    extends Configured
+    implements Tool
+{
+    /**
+     * Buckets with more documents are ignored. They are usually caused by boilerplate text (error
+     * pages, empty templates) and would make a single reducer link millions of documents.
+     */
+    public static final String MAX_BUCKET_SIZE = "dkpro.neardup.max-bucket-size";
+
+    public static final int DEFAULT_MAX_BUCKET_SIZE = 10000;
+
+    private static final String EDGES_DIR = "edges";
+
+    private static final String CLUSTERS_DIR = "clusters";
+
+    /**
+     * Maps every document to its LSH buckets.
+     */
+    private static class BandMapper
+        extends MapReduceBase
+        implements Mapper<Text, Writable, LongWritable, Text>
+    {
+        private MinHasher minHasher;
+        private HtmlTextExtractor extractor;
+        private final LongWritable bucket = new LongWritable();
+
+        @Override
+        public void configure(JobConf job)
+        {
+            minHasher = MinHasher.create(job);
+            extractor = HtmlTextExtractor.create(job);
+        }
+
+        @Override
+        public void map(Text key, Writable value, OutputCollector<LongWritable, Text> output,
+                Reporter reporter)
+            throws IOException
+        {
+            CharSequence text = DuplicateFilterDriver.getText(value, extractor);
+            if (text == null || !minHasher.compute(text)) {
+                reporter.incrCounter("neardup", "documents without text", 1);
+                return;
+            }
+            for (int band = 0; band < minHasher.getBands(); band++) {
+                bucket.set(minHasher.getBandHash(band));
+                output.collect(bucket, key);
+            }
+        }
+    }
+
+    /**
+     * Links the documents of a bucket to the one with the smallest key.
+     */
+    static class BucketReducer
+        extends MapReduceBase
+        implements Reducer<LongWritable, Text, Text, Text>
+    {
+        private int maxBucketSize;
+        /** Reused across buckets, grows to the largest bucket */
+        private Text[] members = new Text[16];
+
+        @Override
+        public void configure(JobConf job)
+        {
+            maxBucketSize = job.getInt(MAX_BUCKET_SIZE, DEFAULT_MAX_BUCKET_SIZE);
+        }
+
+        @Override
+        public void reduce(LongWritable bucket, Iterator<Text> keys,
+                OutputCollector<Text, Text> output, Reporter reporter)
+            throws IOException
+        {
+            int n = 0;
+            int smallest = 0;
+            while (keys.hasNext()) {
+                Text key = keys.next();
+                if (n == maxBucketSize) {
+                    reporter.incrCounter("neardup", "oversized buckets", 1);
+                    return;
+                }
+                if (n == members.length) {
+                    members = Arrays.copyOf(members, n * 2);
+                }
+                if (members[n] == null) {
+                    members[n] = new Text();
+                }
+                members[n].set(key);
+                if (members[n].compareTo(members[smallest]) < 0) {
+                    smallest = n;
+                }
+                n++;
+            }
+            for (int i = 0; i < n; i++) {
+                // Copies under the same key are not told apart
+                if (!members[i].equals(members[smallest])) {
+                    output.collect(members[i], members[smallest]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Keeps the smallest document every near duplicate is linked to and adds the near duplicates
+     * to the filter of the reducer.
+     */
+    static class ClusterReducer
+        extends MapReduceBase
+        implements Reducer<Text, Text, Text, Text>
+    {
+        private JobConf job;
+        private BloomFilter filter;
+        private final Text representative = new Text();
+
+        @Override
+        public void configure(JobConf job)
+        {
+            this.job = job;
+            filter = DuplicateFilter.createBloomFilter(job);
+        }
+
+        @Override
+        public void reduce(Text duplicate, Iterator<Text> representatives,
+                OutputCollector<Text, Text> output, Reporter reporter)
+            throws IOException
+        {
+            representative.set(representatives.next());
+            while (representatives.hasNext()) {
+                Text other = representatives.next();
+                if (other.compareTo(representative) < 0) {
+                    representative.set(other);
+                }
+            }
+            DuplicateFilter.addNearDuplicate(filter, DuplicateFilter.hashKey(duplicate
+                    .toString()));
+            reporter.incrCounter("neardup", "near duplicates", 1);
+            output.collect(representative, duplicate);
+        }
+
+        @Override
+        public void close()
+            throws IOException
+        {
+            DuplicateFilterDriver.writeFilterPart(job, filter);
+        }
+    }
+
+    public static void main(String[] args)
+        throws Exception
+    {
+        System.exit(ToolRunner.run(new NearDuplicateDriver(), args));
+    }
+
+    /**
+     * Override this method to read the input with a custom input format.
+     */
+    @SuppressWarnings("rawtypes")
+    public Class<? extends InputFormat> getInputFormatClass(JobConf job)
+    {
+        return job.getClass(DuplicateFilterDriver.INPUT_FORMAT, SequenceFileInputFormat.class,
+                InputFormat.class);
+    }
+
+    /**
+     * Override this method to configure your jobs. Called for both jobs.
+     *
+     * @param job
+     */
+    public void configure(JobConf job)
+    {
+        // nothing by default
+    }
+
+    @Override
+    public int run(String[] args)
+        throws Exception
+    {
+        if (args.length < 2) {
+            System.out.println("Usage: " + this.getClass().getSimpleName()
+                    + " [hadoop-params] input output [job-params]");
+            System.exit(1);
+        }
+        final Path outputPath = new Path(args[1]);
+        final Path edges = new Path(outputPath, EDGES_DIR);
+        final Path clusters = new Path(outputPath, CLUSTERS_DIR);
+
+        JobConf bandJob = new JobConf(getConf(), NearDuplicateDriver.class);
+        FileInputFormat.setInputPaths(bandJob, args[0]);
+        FileOutputFormat.setOutputPath(bandJob, edges);
+        bandJob.setMapperClass(BandMapper.class);
+        bandJob.setReducerClass(BucketReducer.class);
+        bandJob.setInputFormat(getInputFormatClass(bandJob));
+        bandJob.setOutputFormat(SequenceFileOutputFormat.class);
+        bandJob.setMapOutputKeyClass(LongWritable.class);
+        bandJob.setMapOutputValueClass(Text.class);
+        bandJob.setOutputKeyClass(Text.class);
+        bandJob.setOutputValueClass(Text.class);
+        bandJob.setJobName(this.getClass().getSimpleName() + " (buckets)");
+        // The job has to see every document
+        bandJob.setBoolean(DuplicateFilter.DEDUPLICATE, false);
+        configure(bandJob);
+
+        final FileSystem fs = outputPath.getFileSystem(bandJob);
+        fs.delete(outputPath, true);
+        if (!JobClient.runJob(bandJob).isSuccessful()) {
+            return 1;
+        }
+
+        JobConf clusterJob = new JobConf(getConf(), NearDuplicateDriver.class);
+        FileInputFormat.setInputPaths(clusterJob, edges);
+        FileOutputFormat.setOutputPath(clusterJob, clusters);
+        clusterJob.setMapperClass(IdentityMapper.class);
+        clusterJob.setReducerClass(ClusterReducer.class);
+        clusterJob.setInputFormat(SequenceFileInputFormat.class);
+        clusterJob.setOutputFormat(TextOutputFormat.class);
+        clusterJob.setOutputKeyClass(Text.class);
+        clusterJob.setOutputValueClass(Text.class);
+        clusterJob.setJobName(this.getClass().getSimpleName() + " (clusters)");
+        configure(clusterJob);
+        if (!JobClient.runJob(clusterJob).isSuccessful()) {
+            return 1;
+        }
+
+        DuplicateFilterDriver.mergeFilterParts(clusterJob, fs, clusters, new Path(outputPath,
+                DuplicateFilter.FILTER_FILE_NAME));
+        fs.delete(edges, true);
+        return 0;
+    }
+}
@@ -28,11 +28,13 @@ import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.mapred.FileOutputFormat;
 import org.apache.hadoop.mapred.JobConf;
 import org.apache.hadoop.mapred.MapReduceBase;
+import org.apache.uima.UIMAFramework;
 import org.apache.uima.analysis_engine.AnalysisEngine;
 import org.apache.uima.analysis_engine.AnalysisEngineDescription;
 import org.apache.uima.analysis_engine.AnalysisEngineProcessException;
 import org.apache.uima.resource.ResourceInitializationException;
 import org.dkpro.bigdata.io.hadoop.CASWritable;
+import org.dkpro.bigdata.io.hadoop.SharedCasPool;
 
 public abstract class UIMAMapReduceBase extends MapReduceBase {
 	protected Class<?> outputValueClass;
@@ -73,6 +75,7 @@ public abstract class UIMAMapReduceBase extends MapReduceBase {
 			this.outputValueClass = job.getOutputValueClass();
 			this.samplingPropability = job.getInt("dkpro.map.samplingratio",
 					100);
+			SharedCasPool.configure(job);
 			final EngineFactory engineFactory = (EngineFactory) Class.forName(
 					job.get("dkpro.uima.factory",
 							DkproHadoopDriver.class.getName())).newInstance();
@@ -121,7 +124,8 @@ public abstract class UIMAMapReduceBase extends MapReduceBase {
 						           resource.getValue().toString());
 			}
 			AnalysisEngineUtil.replaceVariables(engineDescription, variableValues);
-			this.engine = createEngine(engineDescription);
+			this.engine = createEngineReplicas(engineDescription,
+					getEngineInstances(job));
 
 		} catch (final Exception e) {
 			sLogger.fatal("Error while configuring pipeline", e);
@@ -131,6 +135,35 @@ public abstract class UIMAMapReduceBase extends MapReduceBase {
 
 	}
 
+	/**
+	 * Number of engine instances that may process CASes concurrently within
+	 * this task. The default is a single instance.
+	 */
+	protected int getEngineInstances(JobConf job) {
+		return 1;
+	}
+
+	/**
+	 * Create the engine. If more than one instance is requested, UIMA creates
+	 * a pool of replicas behind a single thread-safe engine. All replicas share
+	 * one resource manager, so external resources are loaded only once per
+	 * task.
+	 */
+	private AnalysisEngine createEngineReplicas(
+			AnalysisEngineDescription engineDescription, int instances)
+			throws ResourceInitializationException {
+		if (instances <= 1) {
+			return createEngine(engineDescription);
+		}
+		sLogger.info("Creating " + instances + " engine replicas");
+		final Map<String, Object> params = new HashMap<String, Object>();
+		params.put(AnalysisEngine.PARAM_NUM_SIMULTANEOUS_REQUESTS, instances);
+		// wait for a free replica instead of failing
+		params.put(AnalysisEngine.PARAM_TIMEOUT_PERIOD, 0);
+		return UIMAFramework.produceAnalysisEngine(engineDescription,
+				UIMAFramework.newDefaultResourceManager(), params);
+	}
+
 	@Override
 	public void close() throws IOException {
 		try {
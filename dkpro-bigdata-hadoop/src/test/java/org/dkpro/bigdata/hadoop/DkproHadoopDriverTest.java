@@ -23,21 +23,33 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.FileUtil;
 import org.apache.hadoop.fs.LocatedFileStatus;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.fs.RemoteIterator;
 import org.apache.hadoop.hdfs.MiniDFSCluster;
+import org.apache.hadoop.io.SequenceFile;
 import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.Counters;
 import org.apache.hadoop.mapred.InputFormat;
 import org.apache.hadoop.mapred.JobConf;
 import org.apache.hadoop.util.ToolRunner;
 import org.apache.uima.analysis_engine.AnalysisEngineDescription;
+import org.apache.uima.analysis_engine.AnalysisEngineProcessException;
 import org.apache.uima.collection.CollectionReader;
+import org.apache.uima.fit.component.JCasAnnotator_ImplBase;
+import org.apache.uima.jcas.JCas;
 import org.apache.uima.resource.ResourceInitializationException;
 import org.dkpro.bigdata.hadoop.DkproHadoopDriver;
 import org.dkpro.bigdata.io.hadoop.CASWritable;
+import org.dkpro.bigdata.io.hadoop.Text2CASInputFormat;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Rule;
@@ -106,6 +118,126 @@ public class DkproHadoopDriverTest
         assertEquals("_SUCCESS", files.next().getPath().getName());
     }
 
+    @Test
+    public void testMultiThreadedMapper()
+        throws Exception
+    {
+        runMultiThreadedMapper(true);
+    }
+
+    @Test
+    public void testMultiThreadedMapperUnordered()
+        throws Exception
+    {
+        runMultiThreadedMapper(false);
+    }
+
+    private void runMultiThreadedMapper(boolean preserveOrder)
+        throws Exception
+    {
+        File input = folder.newFolder("mt-input");
+        File output = new File(folder.getRoot(), "mt-output");
+        List<String> expected = new ArrayList<String>();
+        StringBuilder lines = new StringBuilder();
+        int failing = 0;
+        for (int i = 0; i < 40; i++) {
+            String key = String.format("doc%03d", i);
+            if (i % 10 == 3) {
+                lines.append(key).append('\t').append(SlowAnnotator.FAIL).append('\n');
+                failing++;
+            }
+            else {
+                lines.append(key).append('\t').append(i).append('\n');
+                expected.add(key);
+            }
+        }
+        FileUtils.writeStringToFile(new File(input, "input.txt"), lines.toString(), "UTF-8");
+
+        // Runs locally, without the HDFS cluster
+        Configuration conf = new Configuration();
+        conf.set("hadoop.tmp.dir", hadoopTmp.getAbsolutePath());
+        conf.setInt("dkpro.map.threads", 2);
+        conf.setBoolean("dkpro.map.threads.preserveorder", preserveOrder);
+        MultiThreadedDriver driver = new MultiThreadedDriver();
+        String[] args = { input.getAbsolutePath(), output.getAbsolutePath() };
+        assertEquals(0, ToolRunner.run(conf, driver, args));
+
+        // Failed documents are not emitted, all others are
+        List<String> keys = new ArrayList<String>();
+        SequenceFile.Reader reader = new SequenceFile.Reader(FileSystem.getLocal(conf), new Path(
+                output.getAbsolutePath(), "part-00000"), conf);
+        try {
+            Text key = new Text();
+            while (reader.next(key)) {
+                keys.add(key.toString());
+            }
+        }
+        finally {
+            reader.close();
+        }
+        if (!preserveOrder) {
+            Collections.sort(keys);
+        }
+        assertEquals(expected, keys);
+
+        long failures = 0;
+        for (Counters.Counter counter : driver.getRunningJob().getCounters().getGroup("uima")) {
+            if (counter.getName().contains("AnalysisEngineProcessException")) {
+                failures += counter.getValue();
+            }
+        }
+        assertEquals(failing, failures);
+    }
+
+    /**
+     * Takes a different time for every document, so that the replicas finish out of order, and
+     * fails on documents reading {@link #FAIL}.
+     */
+    public static class SlowAnnotator
+        extends JCasAnnotator_ImplBase
+    {
+        static final String FAIL = "FAIL";
+
+        @Override
+        public void process(JCas aJCas)
+            throws AnalysisEngineProcessException
+        {
+            String text = aJCas.getDocumentText().trim();
+            if (text.equals(FAIL)) {
+                throw new AnalysisEngineProcessException(new IllegalStateException(FAIL));
+            }
+            try {
+                Thread.sleep((Integer.parseInt(text) * 7) % 5 * 10);
+            }
+            catch (InterruptedException e) {
+                throw new AnalysisEngineProcessException(e);
+            }
+        }
+    }
+
+    public static class MultiThreadedDriver
+        extends DkproHadoopDriver
+    {
+        @Override
+        public AnalysisEngineDescription buildMapperEngine(Configuration job)
+            throws ResourceInitializationException
+        {
+            return createEngineDescription(SlowAnnotator.class);
+        }
+
+        @Override
+        public void configure(JobConf job)
+        {
+            // defaults
+        }
+
+        @Override
+        public Class<?> getInputFormatClass()
+        {
+            return Text2CASInputFormat.class;
+        }
+    }
+
     public static class Driver
         extends DkproHadoopDriver
     {
@@ -0,0 +1,90 @@
+/*******************************************************************************
+ * Copyright 2012,2013
+ * Ubiquitous Knowledge Processing (UKP) Lab
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.dkpro.bigdata.hadoop;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class MinHasherTest
+{
+    private static final String TEXT = "The quick brown fox jumps over the lazy dog while the "
+            + "farmer watches from the porch of his old wooden house near the river bank and "
+            + "wonders whether it will rain before the harvest is brought in this year";
+
+    @Test
+    public void testNormalisation()
+    {
+        MinHasher hasher = new MinHasher(4, 4, 3, 1);
+        assertTrue(hasher.compute(TEXT));
+        int[] signature = hasher.getSignature().clone();
+        // Case and punctuation are not part of the words
+        assertTrue(hasher.compute(TEXT.toUpperCase().replace(" ", " -- ")));
+        assertArrayEquals(signature, hasher.getSignature());
+
+        assertFalse(hasher.compute(" -- "));
+        // Texts shorter than a shingle still have a signature
+        assertTrue(hasher.compute("two words"));
+    }
+
+    @Test
+    public void testSimilarity()
+    {
+        MinHasher hasher = new MinHasher(16, 8, 3, 1);
+        hasher.compute(TEXT);
+        int[] signature = hasher.getSignature().clone();
+        long[] bands = new long[16];
+        for (int band = 0; band < bands.length; band++) {
+            bands[band] = hasher.getBandHash(band);
+        }
+
+        // One word changed: most shingles are shared
+        hasher.compute(TEXT.replace("lazy", "sleepy"));
+        double near = MinHasher.similarity(signature, hasher.getSignature());
+        assertTrue("Similarity " + near, near > 0.7);
+        int sharedBands = 0;
+        for (int band = 0; band < bands.length; band++) {
+            if (bands[band] == hasher.getBandHash(band)) {
+                sharedBands++;
+            }
+        }
+        assertTrue(sharedBands > 0);
+
+        hasher.compute("A completely different text about the stock market, interest rates and "
+                + "the decisions of the central bank that were announced on monday");
+        double far = MinHasher.similarity(signature, hasher.getSignature());
+        assertTrue("Similarity " + far, far < 0.1);
+        for (int band = 0; band < bands.length; band++) {
+            assertTrue(bands[band] != hasher.getBandHash(band));
+        }
+    }
+
+    @Test
+    public void testSeed()
+    {
+        MinHasher hasher1 = new MinHasher(2, 2, 2, 7);
+        MinHasher hasher2 = new MinHasher(2, 2, 2, 7);
+        hasher1.compute(TEXT);
+        hasher2.compute(TEXT);
+        assertArrayEquals(hasher1.getSignature(), hasher2.getSignature());
+        assertEquals(hasher1.getBandHash(1), hasher2.getBandHash(1));
+    }
+}
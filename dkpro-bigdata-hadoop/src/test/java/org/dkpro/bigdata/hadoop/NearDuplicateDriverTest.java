@@ -0,0 +1,150 @@
+/*******************************************************************************
+ * Copyright 2012,2013
+ * Ubiquitous Knowledge Processing (UKP) Lab
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.dkpro.bigdata.hadoop;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.OutputCollector;
+import org.apache.hadoop.mapred.Reporter;
+import org.dkpro.bigdata.hadoop.NearDuplicateDriver.BucketReducer;
+import org.dkpro.bigdata.hadoop.NearDuplicateDriver.ClusterReducer;
+import org.dkpro.bigdata.io.hadoop.CrawlerRecord;
+import org.dkpro.bigdata.io.hadoop.DuplicateFilter;
+import org.dkpro.bigdata.io.hadoop.HtmlTextExtractor;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class NearDuplicateDriverTest
+{
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testLinking()
+        throws IOException
+    {
+        JobConf job = new JobConf();
+        job.setInt(NearDuplicateDriver.MAX_BUCKET_SIZE, 3);
+        job.setLong(DuplicateFilter.EXPECTED_DOCUMENTS, 1000);
+        job.set("mapreduce.task.output.dir", folder.getRoot().getAbsolutePath());
+        job.setInt("mapreduce.task.partition", 0);
+
+        // Links every member of a bucket to its smallest member
+        BucketReducer buckets = new BucketReducer();
+        buckets.configure(job);
+        Pairs edges = new Pairs();
+        buckets.reduce(new LongWritable(1), texts("c", "a", "b").iterator(), edges,
+                Reporter.NULL);
+        buckets.reduce(new LongWritable(2), texts("d", "b", "b").iterator(), edges,
+                Reporter.NULL);
+        buckets.reduce(new LongWritable(3), texts("e").iterator(), edges, Reporter.NULL);
+        // Too many members
+        buckets.reduce(new LongWritable(4), texts("f", "g", "h", "i").iterator(), edges,
+                Reporter.NULL);
+        buckets.close();
+        assertEquals(asList("c a", "b a", "d b"), edges.pairs);
+
+        // Keeps the smallest document every duplicate is linked to
+        Map<String, List<Text>> byDuplicate = new TreeMap<String, List<Text>>();
+        for (String edge : edges.pairs) {
+            String[] link = edge.split(" ");
+            if (!byDuplicate.containsKey(link[0])) {
+                byDuplicate.put(link[0], new ArrayList<Text>());
+            }
+            byDuplicate.get(link[0]).add(new Text(link[1]));
+        }
+        byDuplicate.get("b").add(new Text("c"));
+        ClusterReducer clusters = new ClusterReducer();
+        clusters.configure(job);
+        Pairs output = new Pairs();
+        for (Map.Entry<String, List<Text>> entry : byDuplicate.entrySet()) {
+            clusters.reduce(new Text(entry.getKey()), entry.getValue().iterator(), output,
+                    Reporter.NULL);
+        }
+        clusters.close();
+        assertEquals(asList("a b", "a c", "b d"), output.pairs);
+
+        // The filter part lists the dropped documents
+        Path part = new Path(folder.getRoot().getAbsolutePath(), "bloom-00000");
+        assertTrue(new File(part.toString()).exists());
+        DuplicateFilter filter = new DuplicateFilter(DuplicateFilter.readBloomFilter(
+                FileSystem.getLocal(job), part));
+        for (String key : asList("b", "c", "d")) {
+            assertTrue(key, filter.isDuplicate(key, "Text of " + key, null));
+        }
+        for (String key : asList("a", "e", "f")) {
+            assertFalse(key, filter.isDuplicate(key, "Text of " + key, null));
+        }
+    }
+
+    @Test
+    public void testTextOfHtmlRecords()
+        throws IOException
+    {
+        CrawlerRecord record = new CrawlerRecord();
+        record.setContent("<html><head><title>Title</title></head><body><nav>Home</nav>"
+                + "<p>Some text</p></body></html>");
+        record.setIsHTML(true);
+        HtmlTextExtractor extractor = new HtmlTextExtractor();
+        assertEquals("Some text", DuplicateFilterDriver.getText(record, extractor).toString());
+
+        record.setIsHTML(false);
+        assertEquals(record.getContent(), DuplicateFilterDriver.getText(record, extractor));
+        assertEquals("plain", DuplicateFilterDriver.getText(new Text("plain"), extractor));
+    }
+
+    private static List<Text> texts(String... keys)
+    {
+        List<Text> texts = new ArrayList<Text>();
+        for (String key : keys) {
+            texts.add(new Text(key));
+        }
+        return texts;
+    }
+
+    /**
+     * Collects the output as space separated pairs.
+     */
+    private static class Pairs
+        implements OutputCollector<Text, Text>
+    {
+        private final List<String> pairs = new ArrayList<String>();
+
+        @Override
+        public void collect(Text key, Text value)
+        {
+            pairs.add(key + " " + value);
+        }
+    }
+}
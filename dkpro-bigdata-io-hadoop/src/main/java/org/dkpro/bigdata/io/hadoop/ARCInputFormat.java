@@ -20,16 +20,16 @@ package org.dkpro.bigdata.io.hadoop;
 import java.io.BufferedInputStream;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
+import java.nio.charset.Charset;
 import java.util.HashSet;
 import java.util.Set;
 
-import org.apache.commons.io.IOUtils;
 import org.apache.commons.io.input.CountingInputStream;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.Text;
-import org.apache.hadoop.mapred.FileInputFormat;
 import org.apache.hadoop.mapred.FileSplit;
 import org.apache.hadoop.mapred.InputSplit;
 import org.apache.hadoop.mapred.JobConf;
@@ -46,19 +46,20 @@ import org.jwat.common.PayloadWithHeaderAbstract;
 //import de.uni_leipzig.asv.encodingdetector.utils.EncodingDetector;
 
 /**
- * Creates ARCRecordReader for Crawler archives in ARC format
+ * Creates ARCRecordReader for Crawler archives in ARC format. Archives with a CDX index are split
+ * at record boundaries, see {@link CrawlArchiveInputFormat}.
  * 
  * @author Johannes Simon
  */
 public class ARCInputFormat
-    extends FileInputFormat<Text, CrawlerRecord>
+    extends CrawlArchiveInputFormat<CrawlerRecord>
 {
     @Override
     public RecordReader<Text, CrawlerRecord> getRecordReader(InputSplit inputSplit,
             JobConf jobConf, Reporter reporter)
         throws IOException
     {
-        return new ARCRecordReader((FileSplit) inputSplit, jobConf);
+        return new ARCRecordReader((FileSplit) inputSplit, jobConf, reporter);
     }
 
     /**
@@ -72,11 +73,23 @@ public class ARCInputFormat
         private final long start;
         private final long end;
         private final CountingInputStream fsin;
+        /** Offset within the file at which <code>fsin</code> starts */
+        private long streamStart = 0;
+        /** Whether the split starts at a record boundary, see {@link RecordAlignedFileSplit} */
+        private boolean aligned = false;
         ArcReader arcReader = null;
+        /** Inflates gzip members ahead of next(), if enabled */
+        private GzipMemberPrefetcher prefetcher = null;
+        /** Reader for the records of the current gzip member when prefetching */
+        private ArcReader memberReader = null;
+        private long memberOffset;
         long lastRecordEnd = -1;
         private final Set<String> contentTypeWhitelist = new HashSet<String>();
         Configuration conf;
 
+        /** Created once, detection happens for every record */
+        private SniffingEncodingDetector encodingDetector;
+
         /*
          * ======================== RecordReader Logic ============================
          */
@@ -95,31 +108,104 @@ public class ARCInputFormat
                 }
             }
             this.conf = conf;
+            encodingDetector = new SniffingEncodingDetector(conf);
         }
 
         /**
          * Creates an ARCRecordReader for the specified <code>split</code> of the input stream that
          * will start at the first valid ARC record header after <code>split.getStart()</code> and
          * continue until a record is read that goes past
-         * <code>split.getStart() + split.getLength()</code>.
+         * <code>split.getStart() + split.getLength()</code>. A {@link RecordAlignedFileSplit} is
+         * read from its start up to the last record starting before its end, as are compressed
+         * archives when gzip members are prefetched (see {@link GzipMemberPrefetcher}).
          */
         public ARCRecordReader(FileSplit split, JobConf jobConf)
             throws IOException
+        {
+            this(split, jobConf, null);
+        }
+
+        /**
+         * @param reporter
+         *            receives the counters of the {@link SniffingEncodingDetector}, may be null
+         */
+        public ARCRecordReader(FileSplit split, JobConf jobConf, Reporter reporter)
+            throws IOException
         {
             start = split.getStart();
             end = start + split.getLength();
             System.out.println("========== " + start + " " + end);
 
             configure(jobConf);
+            encodingDetector.setReporter(reporter);
 
             // Open the file and seek to the start of the split
             Path file = split.getPath();
             FileSystem fs = file.getFileSystem(jobConf);
-            fsin = new CountingInputStream(new BufferedInputStream(fs.open(split.getPath())));
+            FSDataInputStream in = fs.open(split.getPath());
+            aligned = split instanceof RecordAlignedFileSplit;
+            if (file.getName().endsWith(".gz") && GzipMemberPrefetcher.getThreads(jobConf) > 0) {
+                long fileLength = fs.getFileStatus(file).getLen();
+                memberOffset = start;
+                if (!aligned && start > 0) {
+                    // Any gzip member is a record, no need to check the content
+                    memberOffset = RecordBoundaryFinder.findGzipMember(in, start, end, null);
+                    if (memberOffset < 0) {
+                        // No record starts within this split
+                        memberOffset = end;
+                    }
+                }
+                fsin = new CountingInputStream(new BufferedInputStream(in));
+                prefetcher = GzipMemberPrefetcher.create(jobConf, in, memberOffset, end,
+                        fileLength);
+                return;
+            }
+            if (aligned) {
+                in.seek(start);
+                streamStart = start;
+            }
+            fsin = new CountingInputStream(new BufferedInputStream(in));
 
             arcReader = ArcReaderFactory.getReader(fsin);
-            // Start with the first valid record after offset "start"
-            skipToNextRecord(start);
+            if (!aligned) {
+                // Start with the first valid record after offset "start"
+                skipToNextRecord(start);
+            }
+        }
+
+        /**
+         * Returns the next record, or null if there is none. Records of aligned splits and
+         * prefetched gzip members are only returned if they start within this split.
+         */
+        private ArcRecordBase nextRecord()
+            throws IOException
+        {
+            if (prefetcher == null) {
+                ArcRecordBase record = arcReader.getNextRecord();
+                // Records that start at or after the end of the split belong to the next split
+                if (record != null && aligned
+                        && streamStart + arcReader.getStartOffset() >= end) {
+                    return null;
+                }
+                return record;
+            }
+
+            while (true) {
+                if (memberReader != null) {
+                    ArcRecordBase record = memberReader.getNextRecord();
+                    if (record != null) {
+                        return record;
+                    }
+                    memberReader.close();
+                    memberReader = null;
+                }
+                GzipMemberPrefetcher.Member member = prefetcher.next();
+                if (member == null) {
+                    return null;
+                }
+                memberOffset = member.getOffset();
+                memberReader = ArcReaderFactory.getReaderUncompressed(member.getInputStream());
+            }
         }
 
         private void fillCrawlerRecord(ArcRecordBase record, CrawlerRecord crawlerRecord)
@@ -141,21 +227,18 @@ public class ARCInputFormat
             // from/to some encoding. So before that, we have to guess the correct encoding,
             // otherwise
             // we'll potentially trash our data before we process it.
-            byte[] buffer = IOUtils.toByteArray(record.getPayloadContent());
-            Class<?> encodingDetectorClass = conf.getClass("dkpro.input.encodingdetector", DummyEncodingDetector.class);
-			try {
-				EncodingDetector encodingDetector = (EncodingDetector)encodingDetectorClass.newInstance();
-	            // This is the encoding we'll use to decode the bytes into text
-	            String encoding = encodingDetector.getBestEncoding(buffer);
-	            crawlerRecord.setOriginalEncoding(encoding);
-	            crawlerRecord.setContent(new String(buffer, encoding));
-			} catch (InstantiationException e) {
-				// TODO Auto-generated catch block
-				e.printStackTrace();
-			} catch (IllegalAccessException e) {
-				// TODO Auto-generated catch block
-				e.printStackTrace();
-			}
+            crawlerRecord.readRawContent(record.getPayloadContent());
+            String contentType = null;
+            PayloadWithHeaderAbstract payloadHeader = record.getPayload()
+                    .getPayloadHeaderWrapped();
+            if (payloadHeader != null && payloadHeader.getHeader("Content-Type") != null) {
+                contentType = payloadHeader.getHeader("Content-Type").value;
+            }
+            // This is the encoding the content will be decoded with once it is accessed
+            Charset encoding = encodingDetector.detect(contentType,
+                    crawlerRecord.getRawContent(), 0, crawlerRecord.getRawLength());
+            crawlerRecord.setOriginalEncoding(encoding.name());
+            crawlerRecord.setCharset(encoding);
         }
 
         @Override
@@ -166,18 +249,20 @@ public class ARCInputFormat
             boolean atEnd = false;
             long bufferMarkAtEnd = 0;
 
-            while ((arcRecord = arcReader.getNextRecord()) != null) {
-                // Check if arcReader has definitely read over end mark when considering that reader
-                // is buffered
-                // (meaning that (fsin.getCount() > end) is true before we've read the last record
-                // before end)
-                lastRecordEnd = fsin.getCount();
-                if (!atEnd && lastRecordEnd >= end) {
-                    atEnd = true;
-                    bufferMarkAtEnd = lastRecordEnd;
-                }
-                else if (atEnd && lastRecordEnd > bufferMarkAtEnd) {
-                    break;
+            while ((arcRecord = nextRecord()) != null) {
+                if (prefetcher == null && !aligned) {
+                    // Check if arcReader has definitely read over end mark when considering that
+                    // reader is buffered
+                    // (meaning that (fsin.getCount() > end) is true before we've read the last
+                    // record before end)
+                    lastRecordEnd = fsin.getCount();
+                    if (!atEnd && lastRecordEnd >= end) {
+                        atEnd = true;
+                        bufferMarkAtEnd = lastRecordEnd;
+                    }
+                    else if (atEnd && lastRecordEnd > bufferMarkAtEnd) {
+                        break;
+                    }
                 }
                 try {
                     // Make sure only text content is read
@@ -208,7 +293,7 @@ public class ARCInputFormat
                 catch (UnsupportedEncodingException e) {
                     // Skip unreadable records
                     System.err.println("WARNING: Skipping ARC record (byte offset "
-                            + fsin.getCount()
+                            + getPos()
                             + ") due to unsupported encoding. The record may contain binary data.");
                 }
                 catch (Exception e) {
@@ -239,13 +324,19 @@ public class ARCInputFormat
         public long getPos()
             throws IOException
         {
-            return fsin.getCount();
+            if (prefetcher != null) {
+                return memberOffset;
+            }
+            return streamStart + fsin.getCount();
         }
 
         @Override
         public void close()
             throws IOException
         {
+            if (prefetcher != null) {
+                prefetcher.close();
+            }
             fsin.close();
         }
 
@@ -253,7 +344,7 @@ public class ARCInputFormat
         public float getProgress()
             throws IOException
         {
-            return ((float) (fsin.getCount() - start)) / ((float) (end - start));
+            return ((float) (getPos() - start)) / ((float) (end - start));
         }
 
         /*
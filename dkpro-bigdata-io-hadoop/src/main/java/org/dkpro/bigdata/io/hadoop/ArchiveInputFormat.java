@@ -0,0 +1,387 @@
+/*******************************************************************************
+ * Copyright 2013
+ * TU Darmstadt, FG Sprachtechnologie
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.dkpro.bigdata.io.hadoop;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.hadoop.fs.BlockLocation;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.compress.CodecPool;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.CompressionCodecFactory;
+import org.apache.hadoop.io.compress.Decompressor;
+import org.apache.hadoop.mapred.FileInputFormat;
+import org.apache.hadoop.mapred.FileSplit;
+import org.apache.hadoop.mapred.InputSplit;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.JobConfigurable;
+import org.apache.hadoop.mapred.RecordReader;
+import org.apache.hadoop.mapred.Reporter;
+import org.dkpro.bigdata.io.hadoop.Text2CASInputFormat.DocumentMetadataExtractor;
+import org.dkpro.bigdata.io.hadoop.Text2CASInputFormat.DocumentTextExtractor;
+
+import de.tudarmstadt.ukp.dkpro.core.api.metadata.type.DocumentMetaData;
+
+/**
+ * Input format that reads the files in ZIP and TAR archives as documents, without unpacking the
+ * archives first.
+ * <p>
+ * Every file entry becomes one CAS. The key is <code>&lt;archive&gt;!/&lt;entry&gt;</code>, which
+ * is also used as document URI, and the text is the (UTF-8) content of the entry. The
+ * {@link DocumentTextExtractor} and {@link DocumentMetadataExtractor} configured for
+ * {@link Text2CASInputFormat} are applied with the key and the entry content.
+ * </p>
+ * <p>
+ * ZIP archives (<code>.zip</code>) are split using their central directory, uncompressed TAR
+ * archives (<code>.tar</code>) by walking their entry headers. Splits always start at an entry.
+ * Compressed TAR archives (e.g. <code>.tar.gz</code> or <code>.tgz</code>) cannot be split and are
+ * streamed by a single task.
+ * </p>
+ */
+public class ArchiveInputFormat
+    extends FileInputFormat<Text, CASWritable>
+    implements JobConfigurable
+{
+    private static final int ZIP = 0;
+    private static final int TAR = 1;
+    private static final int COMPRESSED_TAR = 2;
+
+    private CompressionCodecFactory compressionCodecs = null;
+
+    @Override
+    public void configure(JobConf job)
+    {
+        compressionCodecs = new CompressionCodecFactory(job);
+    }
+
+    @Override
+    public InputSplit[] getSplits(JobConf job, int numSplits)
+        throws IOException
+    {
+        // Same goal size as FileInputFormat
+        FileStatus[] files = listStatus(job);
+        long totalSize = 0;
+        for (FileStatus file : files) {
+            totalSize += file.getLen();
+        }
+        long goalSize = totalSize / (numSplits == 0 ? 1 : numSplits);
+        long minSize = job.getLong(
+                org.apache.hadoop.mapreduce.lib.input.FileInputFormat.SPLIT_MINSIZE, 1);
+
+        List<InputSplit> splits = new ArrayList<InputSplit>();
+        for (FileStatus file : files) {
+            Path path = file.getPath();
+            if (file.isDirectory() || file.getLen() == 0) {
+                continue;
+            }
+            FileSystem fs = path.getFileSystem(job);
+            BlockLocation[] blocks = fs.getFileBlockLocations(file, 0, file.getLen());
+            long[] offsets;
+            switch (getArchiveType(path)) {
+            case ZIP:
+                offsets = getZipEntryOffsets(fs, path, file.getLen());
+                break;
+            case TAR:
+                offsets = getTarEntryOffsets(fs, path);
+                break;
+            default:
+                splits.add(new FileSplit(path, 0, file.getLen(), blocks[0].getHosts()));
+                continue;
+            }
+            if (offsets.length == 0) {
+                continue;
+            }
+
+            long splitSize = computeSplitSize(goalSize, minSize, file.getBlockSize());
+            for (long[] split : CdxSplitPlanner.planSplits(offsets, file.getLen(), splitSize)) {
+                String[] hosts = blocks[getBlockIndex(blocks, split[0])].getHosts();
+                splits.add(new RecordAlignedFileSplit(path, split[0], split[1], hosts));
+            }
+        }
+        return splits.toArray(new InputSplit[splits.size()]);
+    }
+
+    private static long[] getZipEntryOffsets(FileSystem fs, Path path, long fileLength)
+        throws IOException
+    {
+        FSDataInputStream in = fs.open(path);
+        try {
+            List<ZipDirectory.Entry> entries = ZipDirectory.read(in, fileLength);
+            long[] offsets = new long[entries.size()];
+            for (int i = 0; i < offsets.length; i++) {
+                offsets[i] = entries.get(i).getOffset();
+            }
+            return offsets;
+        }
+        finally {
+            in.close();
+        }
+    }
+
+    private static long[] getTarEntryOffsets(FileSystem fs, Path path)
+        throws IOException
+    {
+        FSDataInputStream in = fs.open(path);
+        try {
+            // Only the headers are read, the content of the entries is skipped
+            TarReader tar = new TarReader(in, 0);
+            List<Long> offsets = new ArrayList<Long>();
+            while (tar.next()) {
+                offsets.add(tar.getEntryOffset());
+            }
+            long[] result = new long[offsets.size()];
+            for (int i = 0; i < result.length; i++) {
+                result[i] = offsets.get(i);
+            }
+            return result;
+        }
+        finally {
+            in.close();
+        }
+    }
+
+    private int getArchiveType(Path path)
+        throws IOException
+    {
+        String name = path.getName().toLowerCase();
+        if (name.endsWith(".zip")) {
+            return ZIP;
+        }
+        if (name.endsWith(".tar")) {
+            return TAR;
+        }
+        CompressionCodec codec = compressionCodecs.getCodec(path);
+        if (codec != null
+                && (name.endsWith(".tgz") || CompressionCodecFactory.removeSuffix(name,
+                        codec.getDefaultExtension()).endsWith(".tar"))) {
+            return COMPRESSED_TAR;
+        }
+        throw new IOException("Unsupported archive [" + path + "], expected .zip, .tar or a "
+                + "compressed .tar");
+    }
+
+    @Override
+    public RecordReader<Text, CASWritable> getRecordReader(InputSplit split, JobConf job,
+            Reporter reporter)
+        throws IOException
+    {
+        SharedCasPool.configure(job);
+        FileSplit fileSplit = (FileSplit) split;
+        DocumentTextExtractor textExtractor = Text2CASInputFormat.getDocumentTextExtractor(job);
+        DocumentMetadataExtractor metadataExtractor = Text2CASInputFormat
+                .getDocumentMetadataExtractor(job);
+        if (getArchiveType(fileSplit.getPath()) == ZIP) {
+            return new ZipRecordReader(fileSplit, job, textExtractor, metadataExtractor);
+        }
+        return new TarRecordReader(fileSplit, job, textExtractor, metadataExtractor,
+                compressionCodecs.getCodec(fileSplit.getPath()));
+    }
+
+    /**
+     * Turns archive entries into CASes.
+     */
+    private abstract static class EntryRecordReader
+        implements RecordReader<Text, CASWritable>
+    {
+        protected final FileSplit split;
+        protected final FSDataInputStream fileIn;
+        private final DocumentTextExtractor textExtractor;
+        private final DocumentMetadataExtractor metadataExtractor;
+        private final Text content = new Text();
+
+        public EntryRecordReader(FileSplit split, JobConf job,
+                DocumentTextExtractor textExtractor, DocumentMetadataExtractor metadataExtractor)
+            throws IOException
+        {
+            this.split = split;
+            this.textExtractor = textExtractor;
+            this.metadataExtractor = metadataExtractor;
+            fileIn = split.getPath().getFileSystem(job).open(split.getPath());
+        }
+
+        protected void createDocument(String entryName, byte[] data, Text key, CASWritable value)
+        {
+            String uri = split.getPath().toString() + "!/" + entryName;
+            key.set(uri);
+            content.set(data);
+            Text2CASInputFormat.createDocument(value.getCAS(), key, content, textExtractor,
+                    metadataExtractor);
+            try {
+                DocumentMetaData metadata = DocumentMetaData.get(value.getCAS());
+                if (metadata.getDocumentUri() == null) {
+                    metadata.setDocumentUri(uri);
+                }
+            }
+            catch (IllegalArgumentException e) {
+                // No metadata
+            }
+        }
+
+        @Override
+        public Text createKey()
+        {
+            return new Text();
+        }
+
+        @Override
+        public CASWritable createValue()
+        {
+            return new CASWritable();
+        }
+
+        @Override
+        public void close()
+            throws IOException
+        {
+            fileIn.close();
+        }
+    }
+
+    /**
+     * Reads the entries whose local header lies in the split, looking them up in the central
+     * directory.
+     */
+    private static class ZipRecordReader
+        extends EntryRecordReader
+    {
+        private final List<ZipDirectory.Entry> entries = new ArrayList<ZipDirectory.Entry>();
+        private int index = 0;
+
+        public ZipRecordReader(FileSplit split, JobConf job,
+                DocumentTextExtractor textExtractor, DocumentMetadataExtractor metadataExtractor)
+            throws IOException
+        {
+            super(split, job, textExtractor, metadataExtractor);
+            long fileLength = split.getPath().getFileSystem(job).getFileStatus(split.getPath())
+                    .getLen();
+            long end = split.getStart() + split.getLength();
+            for (ZipDirectory.Entry entry : ZipDirectory.read(fileIn, fileLength)) {
+                if (entry.getOffset() >= split.getStart() && entry.getOffset() < end) {
+                    entries.add(entry);
+                }
+            }
+        }
+
+        @Override
+        public boolean next(Text key, CASWritable value)
+            throws IOException
+        {
+            if (index >= entries.size()) {
+                return false;
+            }
+            ZipDirectory.Entry entry = entries.get(index++);
+            createDocument(entry.getName(), ZipDirectory.readContent(fileIn, entry), key, value);
+            return true;
+        }
+
+        @Override
+        public long getPos()
+        {
+            return index < entries.size() ? entries.get(index).getOffset() : split.getStart()
+                    + split.getLength();
+        }
+
+        @Override
+        public float getProgress()
+        {
+            return entries.isEmpty() ? 1.0f : (float) index / entries.size();
+        }
+    }
+
+    /**
+     * Reads the entries that start in the split, or all entries of a compressed archive.
+     */
+    private static class TarRecordReader
+        extends EntryRecordReader
+    {
+        private final TarReader tar;
+        private final InputStream in;
+        private final long end;
+        private Decompressor decompressor;
+
+        public TarRecordReader(FileSplit split, JobConf job,
+                DocumentTextExtractor textExtractor, DocumentMetadataExtractor metadataExtractor,
+                CompressionCodec codec)
+            throws IOException
+        {
+            super(split, job, textExtractor, metadataExtractor);
+            if (codec != null) {
+                decompressor = CodecPool.getDecompressor(codec);
+                in = codec.createInputStream(fileIn, decompressor);
+                tar = new TarReader(in, 0);
+                end = Long.MAX_VALUE;
+            }
+            else {
+                fileIn.seek(split.getStart());
+                in = fileIn;
+                tar = new TarReader(in, split.getStart());
+                end = split.getStart() + split.getLength();
+            }
+        }
+
+        @Override
+        public boolean next(Text key, CASWritable value)
+            throws IOException
+        {
+            if (!tar.next() || tar.getEntryOffset() >= end) {
+                return false;
+            }
+            createDocument(tar.getName(), tar.readContent(), key, value);
+            return true;
+        }
+
+        @Override
+        public long getPos()
+            throws IOException
+        {
+            return fileIn.getPos();
+        }
+
+        @Override
+        public float getProgress()
+            throws IOException
+        {
+            if (split.getLength() == 0) {
+                return 0.0f;
+            }
+            return Math.min(1.0f, (float) (fileIn.getPos() - split.getStart())
+                    / split.getLength());
+        }
+
+        @Override
+        public void close()
+            throws IOException
+        {
+            try {
+                in.close();
+            }
+            finally {
+                if (decompressor != null) {
+                    CodecPool.returnDecompressor(decompressor);
+                    decompressor = null;
+                }
+            }
+        }
+    }
+}
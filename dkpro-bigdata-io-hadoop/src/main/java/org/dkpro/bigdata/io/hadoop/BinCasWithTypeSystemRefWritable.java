@@ -0,0 +1,97 @@
+/*******************************************************************************
+ * Copyright 2010,2012
+ * Ubiquitous Knowledge Processing (UKP) Lab
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.dkpro.bigdata.io.hadoop;
+
+import static org.apache.uima.cas.impl.Serialization.deserializeCAS;
+import static org.apache.uima.cas.impl.Serialization.serializeWithCompression;
+
+import java.io.IOException;
+
+import org.apache.hadoop.conf.Configurable;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.MD5Hash;
+import org.apache.uima.cas.CAS;
+import org.apache.uima.cas.CASRuntimeException;
+import org.apache.uima.resource.ResourceInitializationException;
+
+/**
+ * Like {@link BinCasWithTypeSystemWritable}, but instead of the type system itself every record
+ * only carries its fingerprint. The type system is stored once in a {@link TypeSystemRegistry}.
+ * <p>
+ * Within a single JVM no further configuration is necessary. For records that are read by other
+ * tasks (shuffle, output), set {@link TypeSystemRegistry#PARAM_REGISTRY} to a directory on a
+ * shared file system. {@link org.apache.hadoop.util.ReflectionUtils} passes the job configuration
+ * to this writable.
+ * </p>
+ */
+public class BinCasWithTypeSystemRefWritable
+    extends CASWritable
+    implements Configurable
+{
+    private Configuration conf;
+
+    private final MD5Hash fingerprint = new MD5Hash();
+
+    @Override
+    public void setConf(Configuration conf)
+    {
+        this.conf = conf;
+    }
+
+    @Override
+    public Configuration getConf()
+    {
+        return conf;
+    }
+
+    @Override
+    protected void readCAS(DataInputBuffer in)
+        throws IOException
+    {
+        fingerprint.readFields(in);
+        try {
+            deserializeCAS(getCAS(), in, TypeSystemRegistry.lookup(fingerprint, conf), null);
+        }
+        catch (CASRuntimeException e) {
+            throw new IOException(e);
+        }
+        catch (ResourceInitializationException e) {
+            throw new IOException(e);
+        }
+    }
+
+    @Override
+    protected void writeCAS(DataOutputBuffer out)
+        throws IOException
+    {
+        CAS cas = getCAS();
+        try {
+            CAS template = TypeSystemProjection.getOutputTemplate(cas);
+            TypeSystemRegistry.register(template, conf).write(out);
+            serializeWithCompression(cas, out, template.getTypeSystem());
+        }
+        catch (CASRuntimeException e) {
+            throw new IOException(e);
+        }
+        catch (ResourceInitializationException e) {
+            throw new IOException(e);
+        }
+    }
+}
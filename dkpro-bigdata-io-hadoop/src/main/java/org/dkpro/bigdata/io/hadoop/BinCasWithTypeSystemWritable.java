@@ -18,23 +18,16 @@
 package org.dkpro.bigdata.io.hadoop;
 
 import static org.apache.uima.cas.impl.Serialization.deserializeCAS;
-import static org.apache.uima.cas.impl.Serialization.serializeCASMgr;
 import static org.apache.uima.cas.impl.Serialization.serializeWithCompression;
 
 import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
-import java.io.DataInput;
-import java.io.DataInputStream;
-import java.io.DataOutput;
-import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
-import java.util.zip.DeflaterOutputStream;
 import java.util.zip.InflaterInputStream;
 
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
 import org.apache.uima.cas.CAS;
-import org.apache.uima.cas.CASException;
 import org.apache.uima.cas.CASRuntimeException;
 import org.apache.uima.cas.impl.CASMgrSerializer;
 import org.apache.uima.cas.impl.TypeSystemImpl;
@@ -46,34 +39,25 @@ public class BinCasWithTypeSystemWritable
     TypeSystemImpl ts = null;
 
     @Override
-    public void readFields(DataInput in)
+    protected void readCAS(DataInputBuffer in)
         throws IOException
     {
-        ByteArrayInputStream bis = null;
-        DataInputStream datis = null;
-        InflaterInputStream iis = null;
-        ObjectInputStream ois = null;
+        int offset = in.readInt();
         try {
-            int dataLength = in.readInt();
-            byte[] data = new byte[dataLength];
-            in.readFully(data);
-            bis = new ByteArrayInputStream(data);
-            datis = new DataInputStream(bis);
-            int offset = datis.readInt();
-            datis.close();
-
-            iis = new InflaterInputStream(bis);
-
-            ois = new ObjectInputStream(iis);
             if (ts == null) {
-                CASMgrSerializer casMgrSerializer = (CASMgrSerializer) ois.readObject();
-                ts = casMgrSerializer.getTypeSystem();
-                ts.commit();
+                ObjectInputStream ois = new ObjectInputStream(new InflaterInputStream(
+                        new ByteArrayInputStream(in.getData(), in.getPosition(), offset)));
+                try {
+                    CASMgrSerializer casMgrSerializer = (CASMgrSerializer) ois.readObject();
+                    ts = casMgrSerializer.getTypeSystem();
+                    ts.commit();
+                }
+                finally {
+                    ois.close();
+                }
             }
-            bis.close();
-            bis = new ByteArrayInputStream(data, offset + 4, dataLength - 4 - offset);
-            deserializeCAS(cas, bis, ts, null);
-
+            in.skipBytes(offset);
+            deserializeCAS(getCAS(), in, ts, null);
         }
         catch (CASRuntimeException e) {
             throw new IOException(e);
@@ -84,65 +68,26 @@ public class BinCasWithTypeSystemWritable
         catch (ClassNotFoundException e) {
             throw new IOException(e);
         }
-        finally {
-            ois.close();
-            iis.close();
-            datis.close();
-            bis.close();
-
-        }
-
     }
 
     @Override
-    public void write(DataOutput out)
+    protected void writeCAS(DataOutputBuffer out)
         throws IOException
     {
-        ByteArrayOutputStream aOS = new ByteArrayOutputStream(400);
-        DataOutputStream docOS = new DataOutputStream(aOS);
-
         try {
-            writeTypeSystem(cas, docOS);
-            serializeWithCompression(cas, docOS, cas.getTypeSystem());
-            docOS.flush();
-            docOS.close();
-
-            out.writeInt(aOS.size());
-            byte[] byteArray = aOS.toByteArray();
-
-            out.write(byteArray);
+            CAS cas = getCAS();
+            CAS template = TypeSystemProjection.getOutputTemplate(cas);
+            // The type system is only serialized once, see TypeSystemRegistry
+            byte[] typeSystem = TypeSystemRegistry.getSerialized(template);
+            out.writeInt(typeSystem.length);
+            out.write(typeSystem);
+            serializeWithCompression(cas, out, template.getTypeSystem());
         }
         catch (CASRuntimeException e) {
             throw new IOException(e);
         }
         catch (ResourceInitializationException e) {
             throw new IOException(e);
-
-        }
-
-    }
-
-    private void writeTypeSystem(CAS cas, DataOutputStream aOS)
-        throws IOException
-    {
-
-        ByteArrayOutputStream bos = new ByteArrayOutputStream(512);
-        DeflaterOutputStream dos = new DeflaterOutputStream(bos);
-        ObjectOutputStream typeOS = new ObjectOutputStream(dos);
-
-        CASMgrSerializer casMgrSerializer;
-        try {
-            casMgrSerializer = serializeCASMgr(cas.getJCas().getCasImpl());
-            typeOS.writeObject(casMgrSerializer);
-        }
-        catch (CASException e) {
-            throw new IOException(e);
         }
-        typeOS.flush();
-        dos.flush();
-        dos.finish();
-        aOS.writeInt(bos.size());
-        bos.writeTo(aOS);
-        aOS.flush();
     }
 }
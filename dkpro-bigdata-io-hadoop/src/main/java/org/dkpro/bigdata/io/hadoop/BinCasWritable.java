@@ -20,19 +20,21 @@ package org.dkpro.bigdata.io.hadoop;
 import static org.apache.uima.cas.impl.Serialization.deserializeCAS;
 import static org.apache.uima.cas.impl.Serialization.serializeWithCompression;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
-import java.io.DataInput;
-import java.io.DataOutput;
-import java.io.DataOutputStream;
 import java.io.IOException;
 
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.uima.cas.CAS;
 import org.apache.uima.cas.CASRuntimeException;
 import org.apache.uima.resource.ResourceInitializationException;
 
 /**
  * This Writable serializes the CAS in binary form *without* Typesystem. Use this only when you will
  * process the files with _exactly_ the same Typesystem again (e.g. for intermediate output.
+ * <p>
+ * Input types ({@link TypeSystemProjection#PARAM_INPUT_TYPES}) are applied when reading. Output
+ * types are not, as a reader could not tell which types were written.
+ * </p>
  * 
  * @author zorn
  * 
@@ -42,17 +44,12 @@ public class BinCasWritable
 {
 
     @Override
-    public void readFields(DataInput in)
+    protected void readCAS(DataInputBuffer in)
         throws IOException
     {
-        int dataLength = in.readInt();
-        byte[] data = new byte[dataLength];
-        in.readFully(data);
-
-        ByteArrayInputStream bis = new ByteArrayInputStream(data);
         try {
-
-            deserializeCAS(cas, bis, cas.getTypeSystem(), null);
+            CAS cas = getCAS();
+            deserializeCAS(cas, in, SharedCasPool.getSourceTypeSystem(cas.getTypeSystem()), null);
         }
         catch (CASRuntimeException e) {
             throw new IOException(e);
@@ -60,35 +57,22 @@ public class BinCasWritable
         catch (ResourceInitializationException e) {
             throw new IOException(e);
         }
-
     }
 
     @Override
-    public void write(DataOutput out)
+    protected void writeCAS(DataOutputBuffer out)
         throws IOException
     {
-        ByteArrayOutputStream aOS = new ByteArrayOutputStream(400);
-        DataOutputStream docOS = new DataOutputStream(aOS);
-
         try {
-
-            serializeWithCompression(cas, docOS, cas.getTypeSystem());
-            docOS.flush();
-            docOS.close();
-
-            out.writeInt(aOS.size());
-            byte[] byteArray = aOS.toByteArray();
-
-            out.write(byteArray);
+            CAS cas = getCAS();
+            serializeWithCompression(cas, out, cas.getTypeSystem());
         }
         catch (CASRuntimeException e) {
             throw new IOException(e);
         }
         catch (ResourceInitializationException e) {
             throw new IOException(e);
-
         }
-
     }
 
 }
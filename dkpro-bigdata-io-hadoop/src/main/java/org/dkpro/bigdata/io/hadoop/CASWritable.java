@@ -16,25 +16,33 @@
  ******************************************************************************/
 package org.dkpro.bigdata.io.hadoop;
 
-import static org.apache.uima.fit.factory.TypeSystemDescriptionFactory.createTypeSystemDescription;
-
-import java.io.ByteArrayInputStream;
 import java.io.DataInput;
 import java.io.DataOutput;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.StringWriter;
 
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
 import org.apache.hadoop.io.Writable;
 import org.apache.uima.cas.CAS;
+import org.apache.uima.cas.TypeSystem;
 import org.apache.uima.cas.impl.XCASDeserializer;
 import org.apache.uima.cas.impl.XCASSerializer;
 import org.apache.uima.resource.ResourceInitializationException;
-import org.apache.uima.util.CasCreationUtils;
 import org.apache.uima.util.XMLSerializer;
 import org.xml.sax.SAXException;
 
 /**
- * hadoop.io.Writable implementation for use with a CAS.
+ * hadoop.io.Writable implementation for use with a CAS. The CAS is taken from the
+ * {@link SharedCasPool} when it is first needed.
+ * <p>
+ * Records are written as an int length followed by the serialized CAS. The buffers used for this
+ * are owned by the writable and reused, and when writing to a {@link DataOutputBuffer} or reading
+ * from a {@link DataInputBuffer} (as Hadoop does for the shuffle and for sequence files) the CAS
+ * is serialized in place, respectively deserialized without copying. Subclasses only implement
+ * {@link #readCAS(DataInputBuffer)} and {@link #writeCAS(DataOutputBuffer)}.
+ * </p>
  * 
  * @author Johannes Simon
  * 
@@ -45,24 +53,48 @@ public class CASWritable
 
     protected CAS cas;
 
+    /** Whether <code>cas</code> was taken from the pool by this writable */
+    private boolean pooled = false;
+
+    /** Reused for every record, see {@link #readFields(DataInput)} and {@link #write(DataOutput)} */
+    private final DataOutputBuffer recordBuffer = new DataOutputBuffer();
+    private final DataInputBuffer recordIn = new DataInputBuffer();
+
+    private XCASSerializer xcasSerializer;
+    private TypeSystem xcasTypeSystem;
+
     public CASWritable()
     {
-
-        try {
-            cas = CasCreationUtils.createCas(createTypeSystemDescription(), null, null);
-        }
-        catch (ResourceInitializationException e) {
-            e.printStackTrace();
-        }
     }
 
+    /**
+     * Sets the CAS to write. A CAS this writable took from the {@link SharedCasPool} is returned
+     * to the pool.
+     */
     public void setCAS(CAS cas)
     {
+        if (pooled && cas != this.cas) {
+            SharedCasPool.release(this.cas);
+            pooled = false;
+        }
         this.cas = cas;
     }
 
+    /**
+     * Returns the CAS of this writable, taking one from the {@link SharedCasPool} if none has
+     * been set or read yet.
+     */
     public CAS getCAS()
     {
+        if (cas == null) {
+            try {
+                cas = SharedCasPool.acquire();
+                pooled = true;
+            }
+            catch (ResourceInitializationException e) {
+                throw new IllegalStateException(e);
+            }
+        }
         return cas;
     }
 
@@ -98,27 +130,83 @@ public class CASWritable
     public void readFields(DataInput in)
         throws IOException
     {
-        int dataLength = in.readInt();
-        byte[] data = new byte[dataLength];
-        in.readFully(data);
-        String serializedCAS = new String(data, "UTF-8");
-        try {
-            XCASDeserializer.deserialize(new ByteArrayInputStream(serializedCAS.getBytes("UTF-8")),
-                    cas);
+        int length = in.readInt();
+        if (in instanceof DataInputBuffer) {
+            // Deserialize straight from the caller's buffer
+            DataInputBuffer source = (DataInputBuffer) in;
+            recordIn.reset(source.getData(), source.getPosition(), length);
+            if (source.skipBytes(length) != length) {
+                throw new EOFException("CAS record of " + length + " bytes is truncated");
+            }
         }
-        catch (SAXException e) {
-            e.printStackTrace();
+        else {
+            recordBuffer.reset();
+            recordBuffer.write(in, length);
+            recordIn.reset(recordBuffer.getData(), length);
         }
+        readCAS(recordIn);
     }
 
     @Override
     public void write(DataOutput out)
         throws IOException
     {
-        String str = toString();
-        byte[] data = str.getBytes("UTF-8");
-        out.writeInt(data.length);
-        out.write(data);
+        if (out instanceof DataOutputBuffer) {
+            // Serialize in place and fill in the length afterwards
+            DataOutputBuffer target = (DataOutputBuffer) out;
+            int lengthPos = target.getLength();
+            target.writeInt(0);
+            writeCAS(target);
+            int length = target.getLength() - lengthPos - 4;
+            byte[] data = target.getData();
+            data[lengthPos] = (byte) (length >>> 24);
+            data[lengthPos + 1] = (byte) (length >>> 16);
+            data[lengthPos + 2] = (byte) (length >>> 8);
+            data[lengthPos + 3] = (byte) length;
+        }
+        else {
+            recordBuffer.reset();
+            writeCAS(recordBuffer);
+            out.writeInt(recordBuffer.getLength());
+            out.write(recordBuffer.getData(), 0, recordBuffer.getLength());
+        }
+    }
+
+    /**
+     * Deserializes a record into the CAS. <code>in</code> holds exactly one record, without its
+     * length prefix.
+     */
+    protected void readCAS(DataInputBuffer in)
+        throws IOException
+    {
+        try {
+            XCASDeserializer.deserialize(in, getCAS());
+        }
+        catch (SAXException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * Serializes the CAS to <code>out</code>. The length prefix is written by the caller.
+     */
+    protected void writeCAS(DataOutputBuffer out)
+        throws IOException
+    {
+        // Never write "null", an unset writable holds an empty CAS
+        CAS cas = getCAS();
+        if (xcasSerializer == null || xcasTypeSystem != cas.getTypeSystem()) {
+            xcasTypeSystem = cas.getTypeSystem();
+            xcasSerializer = new XCASSerializer(xcasTypeSystem);
+        }
+        // Unformatted output contains no newlines, same as toString()
+        XMLSerializer xmlSerializer = new XMLSerializer(out, false);
+        try {
+            xcasSerializer.serialize(cas, xmlSerializer.getContentHandler());
+        }
+        catch (SAXException e) {
+            throw new IOException(e);
+        }
     }
 
 }
@@ -17,16 +17,27 @@
  ******************************************************************************/
 package org.dkpro.bigdata.io.hadoop;
 
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.net.URI;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.DataOutputBuffer;
 import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.SequenceFile.CompressionType;
 import org.apache.hadoop.io.SequenceFile.Writer;
 import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.compress.CodecPool;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.CompressionOutputStream;
+import org.apache.hadoop.io.compress.Compressor;
+import org.apache.hadoop.util.ReflectionUtils;
 import org.apache.uima.analysis_engine.AnalysisEngineProcessException;
 import org.apache.uima.fit.component.JCasConsumer_ImplBase;
 import org.apache.uima.fit.descriptor.ConfigurationParameter;
@@ -39,6 +50,13 @@ import de.tudarmstadt.ukp.dkpro.core.api.parameter.ComponentParameters;
 /**
  * Write CASes to HDFS sequence files
  * 
+ * The CASes are serialized on the pipeline thread, since the pipeline reuses the CAS as soon as
+ * {@link #process(JCas)} returns. Compressing and writing the records is left to one thread per
+ * shard, the records are distributed round-robin over the shards. Each shard rolls over to a new
+ * file when {@link #PARAM_MAX_RECORDS} or {@link #PARAM_MAX_MEGABYTES} is reached. Files are named
+ * <code>part-00000</code>, <code>part-00001</code>, ... in the order they are opened. The files
+ * are closed when the collection is complete, or when the component is destroyed before.
+ * 
  * @author Richard Eckart de Castilho, Hans-Peter Zorn
  */
 public class CASWritableSequenceFileWriter extends JCasConsumer_ImplBase {
@@ -63,83 +81,190 @@ public class CASWritableSequenceFileWriter extends JCasConsumer_ImplBase {
 	private File typeSystemFile;
 
 	/**
-	 * Enabled/disable hadoop compression. If this is set, all files will have
-	 * the ".gz" ending.
+	 * Enabled/disable compression of the sequence files.
 	 */
 	public static final String PARAM_COMPRESS = "Compress";
 
 	@ConfigurationParameter(name = PARAM_COMPRESS, mandatory = true, defaultValue = "false")
 	private boolean compress;
 
+	/**
+	 * Codec used if {@link #PARAM_COMPRESS} is set.
+	 */
+	public static final String PARAM_CODEC = "CompressionCodec";
+	@ConfigurationParameter(name = PARAM_CODEC, mandatory = true, defaultValue = "org.apache.hadoop.io.compress.DefaultCodec")
+	private String codecClass;
+
+	/**
+	 * Compression type if {@link #PARAM_COMPRESS} is set, <code>BLOCK</code> or
+	 * <code>RECORD</code>.
+	 */
+	public static final String PARAM_COMPRESSION_TYPE = "CompressionType";
+	@ConfigurationParameter(name = PARAM_COMPRESSION_TYPE, mandatory = true, defaultValue = "BLOCK")
+	private String compressionType;
+
+	/**
+	 * Number of files written at the same time, each by its own thread.
+	 */
+	public static final String PARAM_SHARDS = "Shards";
+	@ConfigurationParameter(name = PARAM_SHARDS, mandatory = true, defaultValue = "1")
+	private int shardCount;
+
+	/**
+	 * Maximum number of records per file, 0 for no limit.
+	 */
+	public static final String PARAM_MAX_RECORDS = "MaxRecordsPerFile";
+	@ConfigurationParameter(name = PARAM_MAX_RECORDS, mandatory = true, defaultValue = "0")
+	private int maxRecords;
+
+	/**
+	 * Maximum size of the (uncompressed) records per file in megabytes, 0 for
+	 * no limit.
+	 */
+	public static final String PARAM_MAX_MEGABYTES = "MaxMegabytesPerFile";
+	@ConfigurationParameter(name = PARAM_MAX_MEGABYTES, mandatory = true, defaultValue = "0")
+	private int maxMegabytes;
+
 	public static final String PARAM_FS = "HadoopFs";
 	@ConfigurationParameter(name = PARAM_FS, mandatory = true, defaultValue = "hdfs://10.130.21.11:8020")
 	private String fileSystemName;
 
-	private Writer writer;
+	/** Records waiting to be written, per shard */
+	private static final int QUEUE_SIZE = 64;
+
+	/** Tells a shard thread to finish */
+	private static final Record END = new Record(null, null, false);
+
+	private Configuration conf;
+	private FileSystem fs;
+	private CompressionCodec codec;
+	private CompressionType type;
+	private Shard[] shards;
+	private final AtomicInteger fileCount = new AtomicInteger();
+	private volatile Throwable failure;
 	private int i = 0;
-	private CASWritable casWritable;;
+	private long recordCount = 0;
+	private CASWritable casWritable;
+	private final DataOutputBuffer keyBuffer = new DataOutputBuffer();
+	private final DataOutputBuffer valueBuffer = new DataOutputBuffer();
 
-	@SuppressWarnings("deprecation")
 	@Override
 	public void initialize(org.apache.uima.UimaContext context)
 			throws org.apache.uima.resource.ResourceInitializationException {
 		super.initialize(context);
-		final Configuration conf = new Configuration(false);
+		this.conf = new Configuration(false);
 		this.casWritable = new BinCasWritable();
 		this.path = new File(
 				(String) context.getConfigParameterValue(PARAM_PATH));
 		conf.set("fs.default.name", this.fileSystemName);
-		// Compress Map output
-		if (this.compress) {
-			System.out.println("compressing");
-			conf.set("mapred.output.compress", "true");
-
-			conf.set("mapred.map.output.compression.codec",
-					"org.apache.hadoop.io.compress.SnappyCodec");
-		} else
-			conf.set("mapred.output.compress", "false");
-		final String filename = this.path + "/" + "part-00000";
 		try {
-			final FileSystem fs = FileSystem.get(URI.create(filename), conf);
-			final Path path = new Path(URI.create(filename).toString());
-			this.writer = SequenceFile.createWriter(fs, conf, path, Text.class,
-					BinCasWritable.class);
-
+			if (this.compress) {
+				this.codec = (CompressionCodec) ReflectionUtils.newInstance(
+						Class.forName(this.codecClass), conf);
+				this.type = CompressionType.valueOf(this.compressionType);
+			}
+			this.fs = FileSystem.get(URI.create(this.path.toString()), conf);
+		} catch (final ClassNotFoundException e) {
+			throw new ResourceInitializationException(e);
 		} catch (final IOException e) {
 			throw new ResourceInitializationException(e);
+		} catch (final IllegalArgumentException e) {
+			// Unknown compression type
+			throw new ResourceInitializationException(e);
 		}
 
+		this.shards = new Shard[Math.max(1, this.shardCount)];
+		for (int s = 0; s < this.shards.length; s++) {
+			this.shards[s] = new Shard();
+			this.shards[s].start();
+		}
 	};
 
 	@Override
 	public void collectionProcessComplete()
 			throws AnalysisEngineProcessException {
 		try {
-			this.writer.close();
-		} catch (final IOException e) {
-			// TODO Auto-generated catch block
-			throw new AnalysisEngineProcessException();
+			closeShards();
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new AnalysisEngineProcessException(e);
 		}
+		checkFailure();
 	};
 
+	@Override
+	public void destroy() {
+		// The pipeline was aborted, close the files written so far so that
+		// they are complete
+		try {
+			closeShards();
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		if (this.failure != null) {
+			getLogger().error("Writing sequence files failed", this.failure);
+		}
+		super.destroy();
+	}
+
+	/**
+	 * Lets the shard threads write their pending records and close their files.
+	 */
+	private void closeShards() throws InterruptedException {
+		if (this.shards == null) {
+			return;
+		}
+		for (final Shard shard : this.shards) {
+			if (shard.isAlive()) {
+				shard.queue.put(END);
+			}
+		}
+		for (final Shard shard : this.shards) {
+			shard.join();
+		}
+		this.shards = null;
+	}
+
 	@Override
 	public void process(JCas aJCas) throws AnalysisEngineProcessException {
+		checkFailure();
 		final DocumentMetaData meta = DocumentMetaData.get(aJCas);
 
 		String documentKey = createKeyFromDocument(meta);
 
 		try {
-
+			// Serialize now, the CAS is reused once we return
+			keyBuffer.reset();
+			new Text(documentKey).write(keyBuffer);
+			valueBuffer.reset();
 			casWritable.setCAS(aJCas.getCas());
-			this.writer.append(new Text(documentKey), casWritable);
+			casWritable.write(valueBuffer);
+			casWritable.setCAS(null);
 
-			// TypeSystemUtil.typeSystem2TypeSystemDescription(aJCas.getTypeSystem()).toXML(typeOS);
+			final Record record = new Record(copy(keyBuffer), copy(valueBuffer),
+					false);
+			this.shards[(int) (this.recordCount++ % this.shards.length)].queue.put(record);
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new AnalysisEngineProcessException(e);
 		} catch (final Exception e) {
 			throw new AnalysisEngineProcessException(e);
 		}
 
 	}
 
+	private void checkFailure() throws AnalysisEngineProcessException {
+		if (this.failure != null) {
+			throw new AnalysisEngineProcessException(this.failure);
+		}
+	}
+
+	private static byte[] copy(DataOutputBuffer buffer) {
+		final byte[] data = new byte[buffer.getLength()];
+		System.arraycopy(buffer.getData(), 0, data, 0, data.length);
+		return data;
+	}
+
 	/**
 	 * Try to figure our a meaningful key from the document metadata
 	 * 
@@ -170,4 +295,147 @@ public class CASWritableSequenceFileWriter extends JCasConsumer_ImplBase {
 		}
 		return relativeDocumentPath;
 	}
+
+	/**
+	 * A serialized key/value pair.
+	 */
+	private static class Record implements SequenceFile.ValueBytes {
+		private final byte[] key;
+		private final byte[] value;
+
+		/** Whether the value has been compressed for a record compressed file */
+		private final boolean compressed;
+
+		Record(byte[] key, byte[] value, boolean compressed) {
+			this.key = key;
+			this.value = value;
+			this.compressed = compressed;
+		}
+
+		/**
+		 * Returns the record with its value compressed on its own, as record
+		 * compressed sequence files expect. They take the compressed size from
+		 * {@link #getSize()}, so the value cannot be compressed while writing.
+		 */
+		Record compress(CompressionCodec codec) throws IOException {
+			final DataOutputBuffer buffer = new DataOutputBuffer();
+			final Compressor compressor = CodecPool.getCompressor(codec);
+			try {
+				final CompressionOutputStream cout = codec.createOutputStream(
+						buffer, compressor);
+				cout.write(value);
+				cout.finish();
+			} finally {
+				CodecPool.returnCompressor(compressor);
+			}
+			return new Record(key, copy(buffer), true);
+		}
+
+		@Override
+		public void writeUncompressedBytes(DataOutputStream out)
+				throws IOException {
+			if (compressed) {
+				throw new IOException("Record is compressed");
+			}
+			out.write(value);
+		}
+
+		@Override
+		public void writeCompressedBytes(DataOutputStream out)
+				throws IOException {
+			if (!compressed) {
+				throw new IOException("Record is not compressed");
+			}
+			out.write(value);
+		}
+
+		@Override
+		public int getSize() {
+			return value.length;
+		}
+	}
+
+	/**
+	 * Writes the records of one shard, rolling over to a new file when it is
+	 * full.
+	 */
+	private class Shard extends Thread {
+		private final BlockingQueue<Record> queue = new ArrayBlockingQueue<Record>(
+				QUEUE_SIZE);
+		private Writer writer;
+		private long records;
+		private long bytes;
+
+		Shard() {
+			super("sequence-file-writer");
+			setDaemon(true);
+		}
+
+		@Override
+		public void run() {
+			try {
+				roll();
+			} catch (final Throwable e) {
+				failure = e;
+			}
+			try {
+				Record record;
+				while ((record = queue.take()) != END) {
+					// After a failure, keep draining so that the pipeline does
+					// not block
+					if (failure == null) {
+						try {
+							write(record);
+						} catch (final Throwable e) {
+							failure = e;
+						}
+					}
+				}
+			} catch (final InterruptedException e) {
+				failure = e;
+			}
+			try {
+				if (writer != null) {
+					writer.close();
+				}
+			} catch (final IOException e) {
+				if (failure == null) {
+					failure = e;
+				}
+			}
+		}
+
+		private void write(Record record) throws IOException {
+			if ((maxRecords > 0 && records >= maxRecords)
+					|| (maxMegabytes > 0 && bytes >= maxMegabytes * 1024L * 1024L)) {
+				roll();
+			}
+			final long size = record.key.length + record.value.length;
+			if (type == CompressionType.RECORD) {
+				record = record.compress(codec);
+			}
+			writer.appendRaw(record.key, 0, record.key.length, record);
+			records++;
+			bytes += size;
+		}
+
+		private void roll() throws IOException {
+			if (writer != null) {
+				writer.close();
+				writer = null;
+			}
+			final Path file = new Path(URI.create(path + "/"
+					+ String.format("part-%05d", fileCount.getAndIncrement()))
+					.toString());
+			if (codec != null) {
+				writer = SequenceFile.createWriter(fs, conf, file, Text.class,
+						BinCasWritable.class, type, codec);
+			} else {
+				writer = SequenceFile.createWriter(fs, conf, file, Text.class,
+						BinCasWritable.class, CompressionType.NONE);
+			}
+			records = 0;
+			bytes = 0;
+		}
+	}
 }
@@ -0,0 +1,1061 @@
+/*******************************************************************************
+ * Copyright 2013
+ * TU Darmstadt, FG Sprachtechnologie
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.dkpro.bigdata.io.hadoop;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableUtils;
+import org.apache.uima.cas.CAS;
+import org.apache.uima.cas.Feature;
+import org.apache.uima.cas.FeatureStructure;
+import org.apache.uima.cas.Type;
+import org.apache.uima.cas.TypeSystem;
+import org.apache.uima.cas.impl.LowLevelCAS;
+import org.apache.uima.cas.text.AnnotationFS;
+
+/**
+ * Columnar container for annotated documents.
+ * <p>
+ * Consecutive documents are stored in groups. Within a group, the document ids and languages,
+ * the document texts and the annotations of each type are stored in separate deflate compressed
+ * columns, so a reader only reads and inflates the columns of the types it needs. A footer lists
+ * the columns of each group and a sorted index of the document ids, which allows to look up a
+ * single document without scanning the file.
+ * </p>
+ * <p>
+ * Only the initial view is stored. For each annotation type, the offsets and the features with a
+ * primitive range or an annotation range are kept; other features, e.g. arrays, are dropped.
+ * Offsets are delta coded and strings are dictionary coded per column.
+ * </p>
+ * <p>
+ * Layout: <code>magic version (column)* index footer footerOffset magic</code>.
+ * </p>
+ *
+ * @see CasColumnInputFormat
+ * @see CasColumnOutputFormat
+ */
+public class CasColumnFile
+{
+    private static final byte[] MAGIC = { 'C', 'A', 'S', 'C' };
+    private static final int VERSION = 1;
+    private static final int TRAILER_LENGTH = 8 + MAGIC.length;
+
+    /** Column holding the document ids and languages */
+    private static final int META_COLUMN = -2;
+
+    /** Column holding the document texts */
+    private static final int TEXT_COLUMN = -1;
+
+    private static final byte STRING = 0;
+    private static final byte BOOLEAN = 1;
+    private static final byte BYTE = 2;
+    private static final byte SHORT = 3;
+    private static final byte INTEGER = 4;
+    private static final byte LONG = 5;
+    private static final byte FLOAT = 6;
+    private static final byte DOUBLE = 7;
+    private static final byte ANNOTATION = 8;
+
+    private CasColumnFile()
+    {
+        // only nested classes
+    }
+
+    /**
+     * Writes documents to a column file. Documents are buffered until the texts of the current
+     * group reach the group size.
+     */
+    public static class Writer
+        implements Closeable
+    {
+        private final FSDataOutputStream out;
+        private final long groupSize;
+        private final List<TypeSchema> types = new ArrayList<TypeSchema>();
+        private final Map<String, Integer> typeIndexes = new HashMap<String, Integer>();
+        private final List<Group> groups = new ArrayList<Group>();
+        private final List<IndexEntry> index = new ArrayList<IndexEntry>();
+        private final ColumnWriter meta = new ColumnWriter(META_COLUMN);
+        private final ColumnWriter text = new ColumnWriter(TEXT_COLUMN);
+        private final Map<Integer, ColumnWriter> columns = new TreeMap<Integer, ColumnWriter>();
+        private final DataOutputBuffer raw = new DataOutputBuffer();
+        private final byte[] buffer = new byte[64 * 1024];
+        private final Deflater deflater = new Deflater();
+        private int groupDocuments = 0;
+        private long groupLength = 0;
+
+        /**
+         * @param groupSize
+         *            number of text characters after which a group is completed
+         */
+        public Writer(FileSystem fs, Path path, long groupSize)
+            throws IOException
+        {
+            this(fs.create(path), groupSize);
+        }
+
+        public Writer(FSDataOutputStream out, long groupSize)
+            throws IOException
+        {
+            this.out = out;
+            this.groupSize = groupSize;
+            out.write(MAGIC);
+            out.writeByte(VERSION);
+        }
+
+        public void append(String id, CAS cas)
+            throws IOException
+        {
+            Text.writeString(meta.data, id);
+            meta.writeString(cas.getDocumentLanguage());
+            String documentText = cas.getDocumentText() != null ? cas.getDocumentText() : "";
+            Text.writeString(text.data, documentText);
+
+            // Group the annotations by their exact type and number them for references
+            TypeSystem ts = cas.getTypeSystem();
+            Type documentAnnotation = ts.getType(CAS.TYPE_NAME_DOCUMENT_ANNOTATION);
+            LowLevelCAS llc = cas.getLowLevelCAS();
+            Map<Type, List<AnnotationFS>> annotations =
+                    new LinkedHashMap<Type, List<AnnotationFS>>();
+            Map<Integer, int[]> ordinals = new HashMap<Integer, int[]>();
+            for (AnnotationFS annotation : cas.getAnnotationIndex()) {
+                Type type = annotation.getType();
+                if (type.equals(documentAnnotation)) {
+                    // Created again when the text is set
+                    continue;
+                }
+                List<AnnotationFS> list = annotations.get(type);
+                if (list == null) {
+                    list = new ArrayList<AnnotationFS>();
+                    annotations.put(type, list);
+                }
+                ordinals.put(llc.ll_getFSRef(annotation),
+                        new int[] { getTypeIndex(ts, type), list.size() });
+                list.add(annotation);
+            }
+
+            for (Map.Entry<Type, List<AnnotationFS>> entry : annotations.entrySet()) {
+                int typeIndex = getTypeIndex(ts, entry.getKey());
+                ColumnWriter column = columns.get(typeIndex);
+                if (column == null) {
+                    column = new ColumnWriter(typeIndex);
+                    columns.put(typeIndex, column);
+                }
+                column.pad(groupDocuments);
+                writeAnnotations(column, types.get(typeIndex), entry.getKey(), entry.getValue(),
+                        ordinals, llc);
+                column.documents++;
+            }
+
+            index.add(new IndexEntry(id, index.size()));
+            groupDocuments++;
+            groupLength += documentText.length();
+            if (groupLength >= groupSize) {
+                flushGroup();
+            }
+        }
+
+        private int getTypeIndex(TypeSystem ts, Type type)
+        {
+            Integer typeIndex = typeIndexes.get(type.getName());
+            if (typeIndex == null) {
+                typeIndex = types.size();
+                types.add(TypeSchema.create(ts, type));
+                typeIndexes.put(type.getName(), typeIndex);
+            }
+            return typeIndex;
+        }
+
+        private void writeAnnotations(ColumnWriter column, TypeSchema schema, Type type,
+                List<AnnotationFS> annotations, Map<Integer, int[]> ordinals, LowLevelCAS llc)
+            throws IOException
+        {
+            DataOutputBuffer data = column.data;
+            WritableUtils.writeVInt(data, annotations.size());
+            int previous = 0;
+            for (AnnotationFS annotation : annotations) {
+                WritableUtils.writeVInt(data, annotation.getBegin() - previous);
+                WritableUtils.writeVInt(data, annotation.getEnd() - annotation.getBegin());
+                previous = annotation.getBegin();
+            }
+
+            // Feature values are stored feature by feature
+            for (int i = 0; i < schema.names.length; i++) {
+                Feature feature = type.getFeatureByBaseName(schema.names[i]);
+                for (AnnotationFS annotation : annotations) {
+                    switch (schema.kinds[i]) {
+                    case STRING:
+                        column.writeString(annotation.getStringValue(feature));
+                        break;
+                    case BOOLEAN:
+                        data.writeBoolean(annotation.getBooleanValue(feature));
+                        break;
+                    case BYTE:
+                        WritableUtils.writeVInt(data, annotation.getByteValue(feature));
+                        break;
+                    case SHORT:
+                        WritableUtils.writeVInt(data, annotation.getShortValue(feature));
+                        break;
+                    case INTEGER:
+                        WritableUtils.writeVInt(data, annotation.getIntValue(feature));
+                        break;
+                    case LONG:
+                        WritableUtils.writeVLong(data, annotation.getLongValue(feature));
+                        break;
+                    case FLOAT:
+                        data.writeFloat(annotation.getFloatValue(feature));
+                        break;
+                    case DOUBLE:
+                        data.writeDouble(annotation.getDoubleValue(feature));
+                        break;
+                    default:
+                        FeatureStructure target = annotation.getFeatureValue(feature);
+                        int[] ordinal = target != null ? ordinals.get(llc.ll_getFSRef(target))
+                                : null;
+                        if (ordinal == null) {
+                            WritableUtils.writeVInt(data, 0);
+                        }
+                        else {
+                            WritableUtils.writeVInt(data, ordinal[0] + 1);
+                            WritableUtils.writeVInt(data, ordinal[1]);
+                        }
+                    }
+                }
+            }
+        }
+
+        private void flushGroup()
+            throws IOException
+        {
+            if (groupDocuments == 0) {
+                return;
+            }
+            Group group = new Group(index.size() - groupDocuments, groupDocuments);
+            writeColumn(group, meta);
+            writeColumn(group, text);
+            for (ColumnWriter column : columns.values()) {
+                column.pad(groupDocuments);
+                writeColumn(group, column);
+            }
+            groups.add(group);
+
+            meta.reset();
+            text.reset();
+            columns.clear();
+            groupDocuments = 0;
+            groupLength = 0;
+        }
+
+        private void writeColumn(Group group, ColumnWriter column)
+            throws IOException
+        {
+            raw.reset();
+            WritableUtils.writeVInt(raw, column.strings.size());
+            for (String string : column.strings) {
+                Text.writeString(raw, string);
+            }
+            raw.write(column.data.getData(), 0, column.data.getLength());
+
+            long offset = out.getPos();
+            deflater.reset();
+            deflater.setInput(raw.getData(), 0, raw.getLength());
+            deflater.finish();
+            while (!deflater.finished()) {
+                int n = deflater.deflate(buffer);
+                out.write(buffer, 0, n);
+            }
+            group.columns.add(new ColumnInfo(column.type, offset, (int) (out.getPos() - offset),
+                    raw.getLength()));
+        }
+
+        @Override
+        public void close()
+            throws IOException
+        {
+            try {
+                flushGroup();
+
+                long indexOffset = out.getPos();
+                Collections.sort(index);
+                WritableUtils.writeVInt(out, index.size());
+                for (IndexEntry entry : index) {
+                    Text.writeString(out, entry.id);
+                    WritableUtils.writeVInt(out, entry.document);
+                }
+
+                long footerOffset = out.getPos();
+                WritableUtils.writeVInt(out, types.size());
+                for (TypeSchema type : types) {
+                    type.write(out);
+                }
+                WritableUtils.writeVInt(out, groups.size());
+                for (Group group : groups) {
+                    group.write(out);
+                }
+                WritableUtils.writeVLong(out, indexOffset);
+                out.writeLong(footerOffset);
+                out.write(MAGIC);
+            }
+            finally {
+                deflater.end();
+                out.close();
+            }
+        }
+    }
+
+    /**
+     * Reads documents from a column file, either sequentially group by group or by id.
+     * <p>
+     * Only the columns of annotation types that exist in the type system of the CAS passed to
+     * {@link #next(Text, CAS)} or {@link #get(String, CAS)} are inflated, so the CAS decides which
+     * types are materialised. References to annotations of other types are left empty.
+     * </p>
+     */
+    public static class Reader
+        implements Closeable
+    {
+        private final Path path;
+        private final FSDataInputStream in;
+        private final List<TypeSchema> types = new ArrayList<TypeSchema>();
+        private final List<Group> groups = new ArrayList<Group>();
+        private final long indexOffset;
+        private final long footerOffset;
+        private final Inflater inflater = new Inflater();
+
+        /** Document id index, loaded on the first lookup */
+        private String[] ids;
+        private int[] idDocuments;
+
+        /** Group currently read from, null if the next document starts a group */
+        private GroupCursor cursor;
+        private int nextGroup = 0;
+
+        public Reader(FileSystem fs, Path path)
+            throws IOException
+        {
+            this.path = path;
+            long length = fs.getFileStatus(path).getLen();
+            in = fs.open(path);
+            try {
+                byte[] header = new byte[MAGIC.length + 1];
+                byte[] trailer = new byte[TRAILER_LENGTH];
+                if (length < header.length + TRAILER_LENGTH) {
+                    throw new IOException("[" + path + "] is not a CAS column file");
+                }
+                in.readFully(0, header);
+                in.readFully(length - TRAILER_LENGTH, trailer);
+                if (!Arrays.equals(MAGIC, Arrays.copyOf(header, MAGIC.length))
+                        || !Arrays.equals(MAGIC, Arrays.copyOfRange(trailer, 8, TRAILER_LENGTH))) {
+                    throw new IOException("[" + path + "] is not a CAS column file");
+                }
+                if (header[MAGIC.length] != VERSION) {
+                    throw new IOException("[" + path + "] has unsupported version "
+                            + header[MAGIC.length]);
+                }
+
+                DataInputBuffer footer = new DataInputBuffer();
+                footer.reset(trailer, 8);
+                footerOffset = footer.readLong();
+                footer.reset(read(footerOffset, (int) (length - TRAILER_LENGTH - footerOffset)),
+                        (int) (length - TRAILER_LENGTH - footerOffset));
+                int typeCount = WritableUtils.readVInt(footer);
+                for (int i = 0; i < typeCount; i++) {
+                    types.add(TypeSchema.read(footer));
+                }
+                int groupCount = WritableUtils.readVInt(footer);
+                int firstDocument = 0;
+                for (int i = 0; i < groupCount; i++) {
+                    Group group = Group.read(footer, firstDocument);
+                    groups.add(group);
+                    firstDocument += group.documents;
+                }
+                indexOffset = WritableUtils.readVLong(footer);
+            }
+            catch (IOException e) {
+                close();
+                throw e;
+            }
+        }
+
+        public int getGroupCount()
+        {
+            return groups.size();
+        }
+
+        /**
+         * Returns the offset of the first column of a group in the file.
+         */
+        public long getGroupOffset(int group)
+        {
+            return groups.get(group).columns.get(0).offset;
+        }
+
+        public int getDocumentCount()
+        {
+            if (groups.isEmpty()) {
+                return 0;
+            }
+            Group last = groups.get(groups.size() - 1);
+            return last.firstDocument + last.documents;
+        }
+
+        /**
+         * Returns the names of the annotation types stored in the file.
+         */
+        public List<String> getTypeNames()
+        {
+            List<String> names = new ArrayList<String>();
+            for (TypeSchema type : types) {
+                names.add(type.name);
+            }
+            return names;
+        }
+
+        /**
+         * Positions the reader at the first document of a group.
+         */
+        public void seek(int group)
+        {
+            cursor = null;
+            nextGroup = group;
+        }
+
+        /**
+         * Returns the group the next document returned by {@link #next(Text, CAS)} belongs to,
+         * {@link #getGroupCount()} at the end of the file.
+         */
+        public int getGroup()
+        {
+            return cursor != null ? cursor.group : nextGroup;
+        }
+
+        /**
+         * Reads the next document into <code>cas</code>, which is reset first.
+         *
+         * @return false if there are no further documents
+         */
+        public boolean next(Text id, CAS cas)
+            throws IOException
+        {
+            if (cursor == null) {
+                if (nextGroup >= groups.size()) {
+                    return false;
+                }
+                cursor = load(nextGroup, cas.getTypeSystem());
+            }
+            cursor.read(id, cas);
+            advance();
+            return true;
+        }
+
+        /**
+         * Reads the document with the given id into <code>cas</code>, which is reset first. Only
+         * the group holding the document is read. Afterwards, the reader is positioned after the
+         * document.
+         *
+         * @return false if there is no document with this id
+         */
+        public boolean get(String id, CAS cas)
+            throws IOException
+        {
+            loadIndex();
+            int i = Arrays.binarySearch(ids, id);
+            if (i < 0) {
+                return false;
+            }
+            int document = idDocuments[i];
+            int group = 0;
+            while (group + 1 < groups.size() && groups.get(group + 1).firstDocument <= document) {
+                group++;
+            }
+
+            if (cursor == null || cursor.group != group || cursor.position > document
+                    - groups.get(group).firstDocument) {
+                cursor = load(group, cas.getTypeSystem());
+            }
+            while (cursor.position < document - groups.get(group).firstDocument) {
+                cursor.read(null, null);
+            }
+            cursor.read(null, cas);
+            advance();
+            return true;
+        }
+
+        private void advance()
+        {
+            if (cursor.position == cursor.documents) {
+                nextGroup = cursor.group + 1;
+                cursor = null;
+            }
+        }
+
+        private void loadIndex()
+            throws IOException
+        {
+            if (ids != null) {
+                return;
+            }
+            int length = (int) (footerOffset - indexOffset);
+            DataInputBuffer data = new DataInputBuffer();
+            data.reset(read(indexOffset, length), length);
+            int count = WritableUtils.readVInt(data);
+            ids = new String[count];
+            idDocuments = new int[count];
+            for (int i = 0; i < count; i++) {
+                ids[i] = Text.readString(data);
+                idDocuments[i] = WritableUtils.readVInt(data);
+            }
+        }
+
+        private GroupCursor load(int group, TypeSystem ts)
+            throws IOException
+        {
+            GroupCursor groupCursor = new GroupCursor(group, groups.get(group).documents);
+            for (ColumnInfo column : groups.get(group).columns) {
+                if (column.type == META_COLUMN) {
+                    groupCursor.meta = inflate(column);
+                }
+                else if (column.type == TEXT_COLUMN) {
+                    groupCursor.text = inflate(column);
+                }
+                else {
+                    TypeSchema schema = types.get(column.type);
+                    Type type = ts.getType(schema.name);
+                    if (type == null) {
+                        // Not requested, leave the column alone
+                        continue;
+                    }
+                    ColumnReader reader = inflate(column);
+                    reader.typeIndex = column.type;
+                    reader.schema = schema;
+                    reader.type = type;
+                    reader.features = new Feature[schema.names.length];
+                    for (int i = 0; i < schema.names.length; i++) {
+                        reader.features[i] = type.getFeatureByBaseName(schema.names[i]);
+                    }
+                    groupCursor.annotations.add(reader);
+                }
+            }
+            return groupCursor;
+        }
+
+        private ColumnReader inflate(ColumnInfo column)
+            throws IOException
+        {
+            byte[] compressed = read(column.offset, column.compressedLength);
+            byte[] data = new byte[column.rawLength];
+            inflater.reset();
+            inflater.setInput(compressed);
+            try {
+                int n = 0;
+                while (n < data.length) {
+                    int r = inflater.inflate(data, n, data.length - n);
+                    if (r == 0 && (inflater.finished() || inflater.needsInput()
+                            || inflater.needsDictionary())) {
+                        throw new IOException("Truncated column at offset " + column.offset
+                                + " in [" + path + "]");
+                    }
+                    n += r;
+                }
+            }
+            catch (DataFormatException e) {
+                throw new IOException("Corrupt column at offset " + column.offset + " in [" + path
+                        + "]", e);
+            }
+
+            ColumnReader reader = new ColumnReader();
+            reader.data.reset(data, data.length);
+            reader.strings = new String[WritableUtils.readVInt(reader.data)];
+            for (int i = 0; i < reader.strings.length; i++) {
+                reader.strings[i] = Text.readString(reader.data);
+            }
+            return reader;
+        }
+
+        private byte[] read(long position, int length)
+            throws IOException
+        {
+            byte[] buf = new byte[length];
+            in.readFully(position, buf);
+            return buf;
+        }
+
+        @Override
+        public void close()
+            throws IOException
+        {
+            inflater.end();
+            in.close();
+        }
+
+        /**
+         * Reading position within a group.
+         */
+        private class GroupCursor
+        {
+            private final int group;
+            private final int documents;
+            private final List<ColumnReader> annotations = new ArrayList<ColumnReader>();
+            private ColumnReader meta;
+            private ColumnReader text;
+            private int position = 0;
+
+            GroupCursor(int group, int documents)
+            {
+                this.group = group;
+                this.documents = documents;
+            }
+
+            /**
+             * Reads the next document of the group, or skips it if <code>cas</code> is null.
+             */
+            void read(Text id, CAS cas)
+                throws IOException
+            {
+                String documentId = Text.readString(meta.data);
+                String language = meta.readString();
+                if (cas == null) {
+                    WritableUtils.skipFully(text.data, WritableUtils.readVInt(text.data));
+                    for (ColumnReader column : annotations) {
+                        column.read(null, null);
+                    }
+                    position++;
+                    return;
+                }
+
+                if (id != null) {
+                    id.set(documentId);
+                }
+                cas.reset();
+                cas.setDocumentText(Text.readString(text.data));
+                AnnotationFS documentAnnotation = cas.getDocumentAnnotation();
+
+                AnnotationFS[][] created = new AnnotationFS[types.size()][];
+                List<Reference> references = new ArrayList<Reference>();
+                for (ColumnReader column : annotations) {
+                    created[column.typeIndex] = column.read(cas, references);
+                }
+                TypeSystem ts = cas.getTypeSystem();
+                for (Reference reference : references) {
+                    AnnotationFS[] targets = created[reference.type];
+                    if (targets != null && reference.index < targets.length && ts.subsumes(
+                            reference.feature.getRange(), targets[reference.index].getType())) {
+                        reference.source.setFeatureValue(reference.feature,
+                                targets[reference.index]);
+                    }
+                }
+
+                Type documentAnnotationType = documentAnnotation.getType();
+                for (AnnotationFS[] annotationsOfType : created) {
+                    if (annotationsOfType == null) {
+                        continue;
+                    }
+                    for (AnnotationFS annotation : annotationsOfType) {
+                        if (ts.subsumes(documentAnnotationType, annotation.getType())) {
+                            // e.g. DocumentMetaData replaces the plain document annotation
+                            cas.removeFsFromIndexes(documentAnnotation);
+                        }
+                        cas.addFsToIndexes(annotation);
+                    }
+                }
+                if (language != null) {
+                    cas.setDocumentLanguage(language);
+                }
+                position++;
+            }
+        }
+    }
+
+    /**
+     * Uninflated column of the current group.
+     */
+    private static class ColumnReader
+    {
+        private final DataInputBuffer data = new DataInputBuffer();
+        private String[] strings;
+        private int typeIndex;
+        private TypeSchema schema;
+        private Type type;
+        /** Features of the target type in schema order, null if the target type lacks one */
+        private Feature[] features;
+
+        String readString()
+            throws IOException
+        {
+            int id = WritableUtils.readVInt(data);
+            return id == 0 ? null : strings[id - 1];
+        }
+
+        /**
+         * Reads the annotations of the next document. If <code>cas</code> is null, they are only
+         * skipped.
+         */
+        AnnotationFS[] read(CAS cas, List<Reference> references)
+            throws IOException
+        {
+            int count = WritableUtils.readVInt(data);
+            AnnotationFS[] annotations = new AnnotationFS[count];
+            int begin = 0;
+            for (int i = 0; i < count; i++) {
+                begin += WritableUtils.readVInt(data);
+                int end = begin + WritableUtils.readVInt(data);
+                if (cas != null) {
+                    annotations[i] = cas.createAnnotation(type, begin, end);
+                }
+            }
+
+            for (int f = 0; f < features.length; f++) {
+                Feature feature = cas != null ? features[f] : null;
+                for (int i = 0; i < count; i++) {
+                    AnnotationFS annotation = annotations[i];
+                    switch (schema.kinds[f]) {
+                    case STRING:
+                        String string = readString();
+                        if (feature != null && string != null) {
+                            annotation.setStringValue(feature, string);
+                        }
+                        break;
+                    case BOOLEAN:
+                        boolean b = data.readBoolean();
+                        if (feature != null) {
+                            annotation.setBooleanValue(feature, b);
+                        }
+                        break;
+                    case BYTE:
+                        byte by = (byte) WritableUtils.readVInt(data);
+                        if (feature != null) {
+                            annotation.setByteValue(feature, by);
+                        }
+                        break;
+                    case SHORT:
+                        short s = (short) WritableUtils.readVInt(data);
+                        if (feature != null) {
+                            annotation.setShortValue(feature, s);
+                        }
+                        break;
+                    case INTEGER:
+                        int n = WritableUtils.readVInt(data);
+                        if (feature != null) {
+                            annotation.setIntValue(feature, n);
+                        }
+                        break;
+                    case LONG:
+                        long l = WritableUtils.readVLong(data);
+                        if (feature != null) {
+                            annotation.setLongValue(feature, l);
+                        }
+                        break;
+                    case FLOAT:
+                        float fl = data.readFloat();
+                        if (feature != null) {
+                            annotation.setFloatValue(feature, fl);
+                        }
+                        break;
+                    case DOUBLE:
+                        double d = data.readDouble();
+                        if (feature != null) {
+                            annotation.setDoubleValue(feature, d);
+                        }
+                        break;
+                    case ANNOTATION:
+                        int target = WritableUtils.readVInt(data);
+                        if (target != 0) {
+                            int index = WritableUtils.readVInt(data);
+                            if (feature != null) {
+                                references.add(new Reference(annotation, feature, target - 1,
+                                        index));
+                            }
+                        }
+                        break;
+                    default:
+                        throw new IOException("Unknown feature kind " + schema.kinds[f]);
+                    }
+                }
+            }
+            return cas != null ? annotations : null;
+        }
+    }
+
+    /**
+     * Column of the current group while it is being written.
+     */
+    private static class ColumnWriter
+    {
+        private final int type;
+        private final DataOutputBuffer data = new DataOutputBuffer();
+        private final Map<String, Integer> dictionary = new HashMap<String, Integer>();
+        private final List<String> strings = new ArrayList<String>();
+        /** Number of documents written to this column */
+        private int documents = 0;
+
+        ColumnWriter(int type)
+        {
+            this.type = type;
+        }
+
+        void writeString(String string)
+            throws IOException
+        {
+            if (string == null) {
+                WritableUtils.writeVInt(data, 0);
+                return;
+            }
+            Integer id = dictionary.get(string);
+            if (id == null) {
+                id = strings.size();
+                dictionary.put(string, id);
+                strings.add(string);
+            }
+            WritableUtils.writeVInt(data, id + 1);
+        }
+
+        /**
+         * Adds empty entries for documents without annotations of this type.
+         */
+        void pad(int count)
+            throws IOException
+        {
+            while (documents < count) {
+                WritableUtils.writeVInt(data, 0);
+                documents++;
+            }
+        }
+
+        void reset()
+        {
+            data.reset();
+            dictionary.clear();
+            strings.clear();
+            documents = 0;
+        }
+    }
+
+    /**
+     * Stored features of an annotation type, excluding the offsets.
+     */
+    private static class TypeSchema
+    {
+        private final String name;
+        private final String[] names;
+        private final byte[] kinds;
+
+        TypeSchema(String name, String[] names, byte[] kinds)
+        {
+            this.name = name;
+            this.names = names;
+            this.kinds = kinds;
+        }
+
+        static TypeSchema create(TypeSystem ts, Type type)
+        {
+            List<String> names = new ArrayList<String>();
+            List<Byte> kinds = new ArrayList<Byte>();
+            for (Feature feature : type.getFeatures()) {
+                String domain = feature.getDomain().getName();
+                if (domain.equals(CAS.TYPE_NAME_ANNOTATION)
+                        || domain.equals(CAS.TYPE_NAME_ANNOTATION_BASE)) {
+                    // sofa, begin and end
+                    continue;
+                }
+                byte kind = getKind(ts, feature.getRange());
+                if (kind >= 0) {
+                    names.add(feature.getShortName());
+                    kinds.add(kind);
+                }
+            }
+            byte[] kindArray = new byte[kinds.size()];
+            for (int i = 0; i < kindArray.length; i++) {
+                kindArray[i] = kinds.get(i);
+            }
+            return new TypeSchema(type.getName(), names.toArray(new String[names.size()]),
+                    kindArray);
+        }
+
+        /**
+         * Returns the kind of values stored for a feature range, -1 if it is not stored.
+         */
+        private static byte getKind(TypeSystem ts, Type range)
+        {
+            String name = range.getName();
+            if (name.equals(CAS.TYPE_NAME_BOOLEAN)) {
+                return BOOLEAN;
+            }
+            if (name.equals(CAS.TYPE_NAME_BYTE)) {
+                return BYTE;
+            }
+            if (name.equals(CAS.TYPE_NAME_SHORT)) {
+                return SHORT;
+            }
+            if (name.equals(CAS.TYPE_NAME_INTEGER)) {
+                return INTEGER;
+            }
+            if (name.equals(CAS.TYPE_NAME_LONG)) {
+                return LONG;
+            }
+            if (name.equals(CAS.TYPE_NAME_FLOAT)) {
+                return FLOAT;
+            }
+            if (name.equals(CAS.TYPE_NAME_DOUBLE)) {
+                return DOUBLE;
+            }
+            if (ts.subsumes(ts.getType(CAS.TYPE_NAME_STRING), range)) {
+                return STRING;
+            }
+            if (ts.subsumes(ts.getType(CAS.TYPE_NAME_ANNOTATION), range)) {
+                return ANNOTATION;
+            }
+            return -1;
+        }
+
+        void write(FSDataOutputStream out)
+            throws IOException
+        {
+            Text.writeString(out, name);
+            WritableUtils.writeVInt(out, names.length);
+            for (int i = 0; i < names.length; i++) {
+                Text.writeString(out, names[i]);
+                out.writeByte(kinds[i]);
+            }
+        }
+
+        static TypeSchema read(DataInputBuffer in)
+            throws IOException
+        {
+            String name = Text.readString(in);
+            String[] names = new String[WritableUtils.readVInt(in)];
+            byte[] kinds = new byte[names.length];
+            for (int i = 0; i < names.length; i++) {
+                names[i] = Text.readString(in);
+                kinds[i] = in.readByte();
+            }
+            return new TypeSchema(name, names, kinds);
+        }
+    }
+
+    private static class Group
+    {
+        private final int firstDocument;
+        private final int documents;
+        private final List<ColumnInfo> columns = new ArrayList<ColumnInfo>();
+
+        Group(int firstDocument, int documents)
+        {
+            this.firstDocument = firstDocument;
+            this.documents = documents;
+        }
+
+        void write(FSDataOutputStream out)
+            throws IOException
+        {
+            WritableUtils.writeVInt(out, documents);
+            WritableUtils.writeVInt(out, columns.size());
+            for (ColumnInfo column : columns) {
+                WritableUtils.writeVInt(out, column.type);
+                WritableUtils.writeVLong(out, column.offset);
+                WritableUtils.writeVInt(out, column.compressedLength);
+                WritableUtils.writeVInt(out, column.rawLength);
+            }
+        }
+
+        static Group read(DataInputBuffer in, int firstDocument)
+            throws IOException
+        {
+            Group group = new Group(firstDocument, WritableUtils.readVInt(in));
+            int count = WritableUtils.readVInt(in);
+            for (int i = 0; i < count; i++) {
+                group.columns.add(new ColumnInfo(WritableUtils.readVInt(in),
+                        WritableUtils.readVLong(in), WritableUtils.readVInt(in),
+                        WritableUtils.readVInt(in)));
+            }
+            return group;
+        }
+    }
+
+    private static class ColumnInfo
+    {
+        /** Index of the annotation type, or the meta or text column */
+        private final int type;
+        private final long offset;
+        private final int compressedLength;
+        private final int rawLength;
+
+        ColumnInfo(int type, long offset, int compressedLength, int rawLength)
+        {
+            this.type = type;
+            this.offset = offset;
+            this.compressedLength = compressedLength;
+            this.rawLength = rawLength;
+        }
+    }
+
+    private static class IndexEntry
+        implements Comparable<IndexEntry>
+    {
+        private final String id;
+        private final int document;
+
+        IndexEntry(String id, int document)
+        {
+            this.id = id;
+            this.document = document;
+        }
+
+        @Override
+        public int compareTo(IndexEntry other)
+        {
+            int c = id.compareTo(other.id);
+            return c != 0 ? c : document - other.document;
+        }
+    }
+
+    /**
+     * Annotation feature to be set once all annotations of a document exist.
+     */
+    private static class Reference
+    {
+        private final AnnotationFS source;
+        private final Feature feature;
+        private final int type;
+        private final int index;
+
+        Reference(AnnotationFS source, Feature feature, int type, int index)
+        {
+            this.source = source;
+            this.feature = feature;
+            this.type = type;
+            this.index = index;
+        }
+    }
+}
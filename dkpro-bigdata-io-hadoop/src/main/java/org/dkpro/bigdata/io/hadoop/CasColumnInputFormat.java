@@ -0,0 +1,132 @@
+/*******************************************************************************
+ * Copyright 2013
+ * TU Darmstadt, FG Sprachtechnologie
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.dkpro.bigdata.io.hadoop;
+
+import java.io.IOException;
+
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.FileInputFormat;
+import org.apache.hadoop.mapred.FileSplit;
+import org.apache.hadoop.mapred.InputSplit;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.RecordReader;
+import org.apache.hadoop.mapred.Reporter;
+
+/**
+ * Input format reading &lt;Text, CASWritable&gt; pairs from {@link CasColumnFile} containers
+ * written by {@link CasColumnOutputFormat}.
+ * <p>
+ * Only the annotation types that exist in the type system of the value CAS are read. Set
+ * {@link TypeSystemProjection#PARAM_INPUT_TYPES} to the types a job needs, the columns of all
+ * other types are then skipped without being inflated.
+ * </p>
+ * <p>
+ * Files are split by byte ranges as usual, a split reads the groups of documents starting in it.
+ * </p>
+ */
+public class CasColumnInputFormat
+    extends FileInputFormat<Text, CASWritable>
+{
+    @Override
+    public RecordReader<Text, CASWritable> getRecordReader(InputSplit split, JobConf job,
+            Reporter reporter)
+        throws IOException
+    {
+        reporter.setStatus(split.toString());
+        SharedCasPool.configure(job);
+        return new CasColumnRecordReader((FileSplit) split, job);
+    }
+
+    private static class CasColumnRecordReader
+        implements RecordReader<Text, CASWritable>
+    {
+        private final CasColumnFile.Reader reader;
+        private final long start;
+        private final long end;
+        private final int endGroup;
+
+        public CasColumnRecordReader(FileSplit split, JobConf job)
+            throws IOException
+        {
+            Path path = split.getPath();
+            reader = new CasColumnFile.Reader(path.getFileSystem(job), path);
+            start = split.getStart();
+            end = start + split.getLength();
+
+            int group = 0;
+            while (group < reader.getGroupCount() && reader.getGroupOffset(group) < start) {
+                group++;
+            }
+            reader.seek(group);
+            int last = group;
+            while (last < reader.getGroupCount() && reader.getGroupOffset(last) < end) {
+                last++;
+            }
+            endGroup = last;
+        }
+
+        @Override
+        public boolean next(Text key, CASWritable value)
+            throws IOException
+        {
+            if (reader.getGroup() >= endGroup) {
+                return false;
+            }
+            return reader.next(key, value.getCAS());
+        }
+
+        @Override
+        public Text createKey()
+        {
+            return new Text();
+        }
+
+        @Override
+        public CASWritable createValue()
+        {
+            return new CASWritable();
+        }
+
+        @Override
+        public long getPos()
+            throws IOException
+        {
+            if (reader.getGroup() >= endGroup) {
+                return end;
+            }
+            return Math.max(start, reader.getGroupOffset(reader.getGroup()));
+        }
+
+        @Override
+        public float getProgress()
+            throws IOException
+        {
+            if (end == start) {
+                return 0.0f;
+            }
+            return Math.min(1.0f, (getPos() - start) / (float) (end - start));
+        }
+
+        @Override
+        public void close()
+            throws IOException
+        {
+            reader.close();
+        }
+    }
+}
@@ -0,0 +1,73 @@
+/*******************************************************************************
+ * Copyright 2013
+ * TU Darmstadt, FG Sprachtechnologie
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.dkpro.bigdata.io.hadoop;
+
+import java.io.IOException;
+
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.FileOutputFormat;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.RecordWriter;
+import org.apache.hadoop.mapred.Reporter;
+import org.apache.hadoop.util.Progressable;
+
+/**
+ * Output format writing &lt;Text, CASWritable&gt; pairs to {@link CasColumnFile} containers. The
+ * key is used as document id.
+ *
+ * @see CasColumnInputFormat
+ */
+public class CasColumnOutputFormat
+    extends FileOutputFormat<Text, CASWritable>
+{
+    /**
+     * Number of text characters after which a group of documents is completed. Larger groups
+     * compress better, smaller groups make lookups by id cheaper.
+     */
+    public static final String GROUP_SIZE = "dkpro.output.columns.group-size";
+
+    public static final long DEFAULT_GROUP_SIZE = 4 * 1024 * 1024;
+
+    @Override
+    public RecordWriter<Text, CASWritable> getRecordWriter(FileSystem ignored, JobConf job,
+            String name, Progressable progress)
+        throws IOException
+    {
+        Path file = FileOutputFormat.getTaskOutputPath(job, name);
+        FileSystem fs = file.getFileSystem(job);
+        final CasColumnFile.Writer writer = new CasColumnFile.Writer(fs.create(file, progress),
+                job.getLong(GROUP_SIZE, DEFAULT_GROUP_SIZE));
+        return new RecordWriter<Text, CASWritable>()
+        {
+            @Override
+            public void write(Text key, CASWritable value)
+                throws IOException
+            {
+                writer.append(key.toString(), value.getCAS());
+            }
+
+            @Override
+            public void close(Reporter reporter)
+                throws IOException
+            {
+                writer.close();
+            }
+        };
+    }
+}
@@ -0,0 +1,184 @@
+/*******************************************************************************
+ * Copyright 2013
+ * TU Darmstadt, FG Sprachtechnologie
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.dkpro.bigdata.io.hadoop;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+/**
+ * Plans record-aligned splits from the record offsets listed in a CDX index (or a plain offset
+ * index) of a crawl archive.
+ * <p>
+ * Two index formats are understood:
+ * </p>
+ * <ul>
+ * <li>CDX files starting with a legend line such as <code> CDX N b a m s k r M S V g</code>. The
+ * record offset is taken from the <code>V</code> column. If a <code>g</code> (file name) column is
+ * present, only lines referring to the archive are used.</li>
+ * <li>Plain text files with one record offset per line, optionally followed by further
+ * whitespace separated columns.</li>
+ * </ul>
+ * <p>
+ * The index does not need to list every record (CDX files usually omit <code>warcinfo</code> and
+ * <code>request</code> records): splits are contiguous and only ever end at an indexed offset, so
+ * every record is still read by exactly one split.
+ * </p>
+ */
+public class CdxSplitPlanner
+{
+    private static final String CDX_MAGIC = "CDX";
+    private static final String FIELD_OFFSET = "V";
+    private static final String FIELD_FILENAME = "g";
+
+    /**
+     * The last split of a file is merged into the previous one if it is smaller than this fraction
+     * of the split size
+     */
+    private static final double SPLIT_SLOP = 0.1;
+
+    private CdxSplitPlanner()
+    {
+        // static helpers only
+    }
+
+    /**
+     * Reads the sorted, distinct record offsets for the archive <code>archiveName</code> from the
+     * given index. Offsets outside of <code>[0, fileLength)</code> and unparsable lines are
+     * ignored.
+     */
+    public static long[] readRecordOffsets(FileSystem fs, Path index, String archiveName,
+            long fileLength)
+        throws IOException
+    {
+        List<Long> offsets = new ArrayList<Long>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(fs.open(index), "UTF-8"));
+        try {
+            int offsetColumn = 0;
+            int fileNameColumn = -1;
+            boolean firstLine = true;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (firstLine) {
+                    firstLine = false;
+                    String[] legend = line.trim().split("\\s+");
+                    if (legend.length > 0 && legend[0].equals(CDX_MAGIC)) {
+                        // Legend columns are shifted by one because of the magic
+                        offsetColumn = Arrays.asList(legend).indexOf(FIELD_OFFSET) - 1;
+                        fileNameColumn = Arrays.asList(legend).indexOf(FIELD_FILENAME) - 1;
+                        if (offsetColumn < 0) {
+                            throw new IOException("CDX index [" + index
+                                    + "] does not contain a record offset (V) column");
+                        }
+                        continue;
+                    }
+                }
+
+                String[] fields = line.trim().split("\\s+");
+                if (fields.length <= offsetColumn) {
+                    continue;
+                }
+                if (fileNameColumn >= 0 && fields.length > fileNameColumn
+                        && !archiveName.equals(new Path(fields[fileNameColumn]).getName())) {
+                    continue;
+                }
+                try {
+                    long offset = Long.parseLong(fields[offsetColumn]);
+                    if (offset >= 0 && offset < fileLength) {
+                        offsets.add(offset);
+                    }
+                }
+                catch (NumberFormatException e) {
+                    // "-" or a comment, skip
+                }
+            }
+        }
+        finally {
+            IOUtils.closeQuietly(reader);
+        }
+
+        long[] result = new long[offsets.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = offsets.get(i);
+        }
+        Arrays.sort(result);
+        int distinct = 0;
+        for (int i = 0; i < result.length; i++) {
+            if (distinct == 0 || result[i] != result[distinct - 1]) {
+                result[distinct++] = result[i];
+            }
+        }
+        return Arrays.copyOf(result, distinct);
+    }
+
+    /**
+     * Partitions <code>[0, fileLength)</code> into contiguous ranges that start at record offsets
+     * and are as close to <code>splitSize</code> bytes as the record boundaries allow.
+     *
+     * @param offsets
+     *            sorted, distinct record offsets
+     * @return a list of <code>{start, length}</code> pairs
+     */
+    public static List<long[]> planSplits(long[] offsets, long fileLength, long splitSize)
+    {
+        List<long[]> splits = new ArrayList<long[]>();
+        long splitStart = 0;
+        // Last boundary inside the current split that we could cut at, -1 if none
+        long previous = -1;
+        int i = 0;
+        while (i < offsets.length) {
+            long boundary = offsets[i];
+            if (boundary <= splitStart) {
+                i++;
+                continue;
+            }
+            if (boundary - splitStart < splitSize) {
+                previous = boundary;
+                i++;
+                continue;
+            }
+            // Cut at whichever of the two boundaries around the target size is closer to it
+            long cut = boundary;
+            if (previous > splitStart
+                    && splitSize - (previous - splitStart) < (boundary - splitStart) - splitSize) {
+                cut = previous;
+            }
+            splits.add(new long[] { splitStart, cut - splitStart });
+            splitStart = cut;
+            previous = -1;
+            if (cut == boundary) {
+                i++;
+            }
+        }
+
+        long remaining = fileLength - splitStart;
+        if (!splits.isEmpty() && remaining < splitSize * SPLIT_SLOP) {
+            splits.get(splits.size() - 1)[1] += remaining;
+        }
+        else if (remaining > 0) {
+            splits.add(new long[] { splitStart, remaining });
+        }
+        return splits;
+    }
+}
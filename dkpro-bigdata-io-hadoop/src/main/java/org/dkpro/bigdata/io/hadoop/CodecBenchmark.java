@@ -0,0 +1,152 @@
+/*******************************************************************************
+ * Copyright 2013
+ * TU Darmstadt, FG Sprachtechnologie
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.dkpro.bigdata.io.hadoop;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.CompressionInputStream;
+import org.apache.hadoop.io.compress.CompressionOutputStream;
+import org.apache.hadoop.io.compress.Decompressor;
+import org.apache.hadoop.io.compress.DefaultCodec;
+import org.apache.hadoop.io.compress.SnappyCodec;
+import org.apache.hadoop.util.NativeCodeLoader;
+import org.apache.hadoop.util.ReflectionUtils;
+
+/**
+ * Compares the compression ratio and decompression throughput of {@link DictionaryDeflateCodec}
+ * with Deflate and (if the native library is available) Snappy on sequence files of CAS records.
+ * <p>
+ * The records are sampled as for training, the dictionary is trained on the first half of the
+ * sample and all codecs are measured on the second half, which is compressed in blocks like a
+ * block compressed sequence file.
+ * </p>
+ * <p>
+ * Usage: <code>hadoop jar ... org.dkpro.bigdata.io.hadoop.CodecBenchmark input...</code>
+ * </p>
+ */
+public class CodecBenchmark
+{
+    private static final int ROUNDS = 5;
+
+    public static void main(String[] args)
+        throws Exception
+    {
+        if (args.length == 0) {
+            System.out.println("Usage: CodecBenchmark input...");
+            System.exit(1);
+        }
+        Configuration conf = new Configuration();
+        Path[] inputs = new Path[args.length];
+        for (int i = 0; i < args.length; i++) {
+            inputs[i] = new Path(args[i]);
+        }
+
+        List<byte[]> samples = DictionaryTrainer.sample(conf, inputs, 2 * conf.getLong(
+                DictionaryTrainer.PARAM_SAMPLE_SIZE, DictionaryTrainer.DEFAULT_SAMPLE_SIZE));
+        List<byte[]> training = samples.subList(0, samples.size() / 2);
+        List<byte[]> test = samples.subList(samples.size() / 2, samples.size());
+        DictionaryDeflateCodec.setDictionary(conf, DictionaryTrainer.train(training,
+                DictionaryTrainer.MAX_DICTIONARY_SIZE));
+        List<byte[]> blocks = toBlocks(test, conf.getInt("io.seqfile.compress.blocksize",
+                1000000));
+
+        Map<String, Class<? extends CompressionCodec>> codecs =
+                new LinkedHashMap<String, Class<? extends CompressionCodec>>();
+        codecs.put("deflate", DefaultCodec.class);
+        if (NativeCodeLoader.isNativeCodeLoaded() && NativeCodeLoader.buildSupportsSnappy()) {
+            codecs.put("snappy", SnappyCodec.class);
+        }
+        codecs.put("dictionary-deflate", DictionaryDeflateCodec.class);
+
+        System.out.println(String.format("%d records, %d blocks", test.size(), blocks.size()));
+        System.out.println(String.format("%-20s %10s %15s", "codec", "ratio", "decompress MB/s"));
+        for (Map.Entry<String, Class<? extends CompressionCodec>> entry : codecs.entrySet()) {
+            CompressionCodec codec = ReflectionUtils.newInstance(entry.getValue(), conf);
+            long raw = 0;
+            List<byte[]> compressed = new ArrayList<byte[]>();
+            for (byte[] block : blocks) {
+                raw += block.length;
+                compressed.add(compress(codec, block));
+            }
+            long size = 0;
+            for (byte[] block : compressed) {
+                size += block.length;
+            }
+
+            byte[] buffer = new byte[64 * 1024];
+            Decompressor decompressor = codec.createDecompressor();
+            long start = System.nanoTime();
+            for (int round = 0; round < ROUNDS; round++) {
+                for (byte[] block : compressed) {
+                    decompress(codec, decompressor, block, buffer);
+                }
+            }
+            double seconds = (System.nanoTime() - start) / 1e9;
+            System.out.println(String.format("%-20s %10.2f %15.1f", entry.getKey(), raw
+                    / (double) size, raw * ROUNDS / seconds / (1024 * 1024)));
+        }
+    }
+
+    private static List<byte[]> toBlocks(List<byte[]> records, int blockSize)
+    {
+        List<byte[]> blocks = new ArrayList<byte[]>();
+        DataOutputBuffer block = new DataOutputBuffer();
+        for (byte[] record : records) {
+            block.write(record, 0, record.length);
+            if (block.getLength() >= blockSize) {
+                blocks.add(Arrays.copyOf(block.getData(), block.getLength()));
+                block.reset();
+            }
+        }
+        if (block.getLength() > 0) {
+            blocks.add(Arrays.copyOf(block.getData(), block.getLength()));
+        }
+        return blocks;
+    }
+
+    private static byte[] compress(CompressionCodec codec, byte[] block)
+        throws IOException
+    {
+        DataOutputBuffer out = new DataOutputBuffer();
+        CompressionOutputStream compressor = codec.createOutputStream(out);
+        compressor.write(block);
+        compressor.close();
+        return Arrays.copyOf(out.getData(), out.getLength());
+    }
+
+    private static void decompress(CompressionCodec codec, Decompressor decompressor,
+            byte[] block, byte[] buffer)
+        throws IOException
+    {
+        decompressor.reset();
+        CompressionInputStream in = codec.createInputStream(new ByteArrayInputStream(block),
+                decompressor);
+        while (in.read(buffer) != -1) {
+            // discard
+        }
+    }
+}
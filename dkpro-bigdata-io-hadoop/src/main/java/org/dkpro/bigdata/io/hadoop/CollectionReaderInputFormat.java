@@ -0,0 +1,418 @@
+/*******************************************************************************
+ * Copyright 2013
+ * TU Darmstadt, FG Sprachtechnologie
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.dkpro.bigdata.io.hadoop;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.InputFormat;
+import org.apache.hadoop.mapred.InputSplit;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.RecordReader;
+import org.apache.hadoop.mapred.Reporter;
+import org.apache.uima.UIMAFramework;
+import org.apache.uima.collection.CollectionReader;
+import org.apache.uima.collection.CollectionReaderDescription;
+import org.apache.uima.resource.ResourceInitializationException;
+import org.apache.uima.resource.metadata.ConfigurationParameterDeclarations;
+import org.apache.uima.resource.metadata.ConfigurationParameterSettings;
+import org.apache.uima.util.InvalidXMLException;
+import org.apache.uima.util.XMLInputSource;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.support.PathMatchingResourcePatternResolver;
+import org.xml.sax.SAXException;
+
+import de.tudarmstadt.ukp.dkpro.core.api.parameter.ComponentParameters;
+
+/**
+ * Runs a UIMA collection reader inside the map tasks instead of on the submitting machine.
+ * <p>
+ * The input is divided into {@link #PARAM_SHARDS} shards (by default the number of map tasks
+ * Hadoop asks for), and every map task instantiates the reader for one shard. Readers that declare
+ * the parameters {@link #PARAM_SHARD_INDEX} and {@link #PARAM_SHARD_COUNT} (both integers) are
+ * told which shard to read and are expected to produce only the documents of that shard, e.g.
+ * every n-th file.
+ * </p>
+ * <p>
+ * Readers based on DKPro Core's <code>ResourceCollectionReaderBase</code> that read local (or
+ * locally mounted) files are sharded by their files: every map task lists the files matching
+ * the include patterns and passes every n-th of them to the reader as its patterns.
+ * </p>
+ * <p>
+ * For all other readers every map task runs through the whole collection and keeps every n-th
+ * document, which parallelizes the processing but not the reading. A warning is logged in this
+ * case.
+ * </p>
+ * <p>
+ * The reader is configured with {@link #setCollectionReader(Configuration,
+ * CollectionReaderDescription)}. All resources it accesses must be available to the map tasks,
+ * e.g. on HDFS.
+ * </p>
+ */
+public class CollectionReaderInputFormat
+    implements InputFormat<Text, CASWritable>
+{
+    /**
+     * The collection reader description as XML.
+     */
+    public static final String PARAM_READER = "dkpro.input.collection-reader";
+
+    /**
+     * Number of shards the collection is divided into. Defaults to the number of map tasks.
+     */
+    public static final String PARAM_SHARDS = "dkpro.input.collection-reader.shards";
+
+    /**
+     * Reader parameter that receives the index of the shard to read, starting at 0.
+     */
+    public static final String PARAM_SHARD_INDEX = "ShardIndex";
+
+    /**
+     * Reader parameter that receives the number of shards.
+     */
+    public static final String PARAM_SHARD_COUNT = "ShardCount";
+
+    /** Parameters and pattern prefixes of ResourceCollectionReaderBase */
+    private static final String PARAM_SOURCE_LOCATION = ComponentParameters.PARAM_SOURCE_LOCATION;
+    private static final String PARAM_PATTERNS = "patterns";
+    private static final String INCLUDE_PREFIX = "[+]";
+    private static final String EXCLUDE_PREFIX = "[-]";
+
+    private static final Log LOG = LogFactory.getLog(CollectionReaderInputFormat.class);
+
+    /**
+     * Stores the collection reader description in the job configuration.
+     */
+    public static void setCollectionReader(Configuration conf,
+            CollectionReaderDescription description)
+        throws IOException
+    {
+        StringWriter xml = new StringWriter();
+        try {
+            description.toXML(xml);
+        }
+        catch (SAXException e) {
+            throw new IOException(e);
+        }
+        conf.set(PARAM_READER, xml.toString());
+    }
+
+    /**
+     * Reads the collection reader description from the job configuration.
+     */
+    public static CollectionReaderDescription getCollectionReader(Configuration conf)
+        throws IOException
+    {
+        String xml = conf.get(PARAM_READER);
+        if (xml == null) {
+            throw new IOException("No collection reader set in [" + PARAM_READER + "]");
+        }
+        try {
+            return UIMAFramework.getXMLParser().parseCollectionReaderDescription(
+                    new XMLInputSource(new ByteArrayInputStream(xml.getBytes("UTF-8")), null));
+        }
+        catch (InvalidXMLException e) {
+            throw new IOException(e);
+        }
+    }
+
+    @Override
+    public InputSplit[] getSplits(JobConf job, int numSplits)
+        throws IOException
+    {
+        int shards = Math.max(1, job.getInt(PARAM_SHARDS, numSplits));
+        InputSplit[] splits = new InputSplit[shards];
+        for (int i = 0; i < shards; i++) {
+            splits[i] = new ShardSplit(i, shards);
+        }
+        return splits;
+    }
+
+    @Override
+    public RecordReader<Text, CASWritable> getRecordReader(InputSplit split, JobConf job,
+            Reporter reporter)
+        throws IOException
+    {
+        SharedCasPool.configure(job);
+        ShardSplit shard = (ShardSplit) split;
+        CollectionReaderDescription description = getCollectionReader(job);
+
+        ConfigurationParameterDeclarations declarations = description
+                .getCollectionReaderMetaData().getConfigurationParameterDeclarations();
+        ConfigurationParameterSettings settings = description.getCollectionReaderMetaData()
+                .getConfigurationParameterSettings();
+        boolean shardAware = declarations.getConfigurationParameter(null,
+                PARAM_SHARD_INDEX) != null
+                && declarations.getConfigurationParameter(null, PARAM_SHARD_COUNT) != null;
+        if (shardAware) {
+            settings.setParameterValue(PARAM_SHARD_INDEX, shard.getIndex());
+            settings.setParameterValue(PARAM_SHARD_COUNT, shard.getCount());
+        }
+        else if (shard.getCount() > 1
+                && declarations.getConfigurationParameter(null, PARAM_SOURCE_LOCATION) != null
+                && declarations.getConfigurationParameter(null, PARAM_PATTERNS) != null
+                && !hasResourceBindings(description)) {
+            // A resolver bound as external resource would list other files than ours
+            String location = (String) settings.getParameterValue(PARAM_SOURCE_LOCATION);
+            String[] patterns = (String[]) settings.getParameterValue(PARAM_PATTERNS);
+            int wildcard = location == null ? -1 : indexOfWildcard(location);
+            if (patterns == null && wildcard >= 0) {
+                // The pattern is part of the location
+                int slash = location.lastIndexOf('/', wildcard);
+                patterns = new String[] { location.substring(slash + 1) };
+                location = location.substring(0, slash + 1);
+            }
+            patterns = getShardPatterns(location, patterns, shard.getIndex(), shard.getCount());
+            if (patterns != null) {
+                if (!containsInclude(patterns)) {
+                    // More tasks than files
+                    return new EmptyRecordReader();
+                }
+                settings.setParameterValue(PARAM_SOURCE_LOCATION, location);
+                settings.setParameterValue(PARAM_PATTERNS, patterns);
+                shardAware = true;
+            }
+        }
+
+        CollectionReader reader;
+        try {
+            reader = UIMAFramework.produceCollectionReader(description);
+        }
+        catch (ResourceInitializationException e) {
+            throw new IOException(e);
+        }
+        if (shardAware) {
+            return new CollectionReaderWrapper(reader);
+        }
+        if (shard.getCount() > 1) {
+            LOG.warn("Collection reader [" + description.getImplementationName()
+                    + "] cannot be sharded. Every map task reads the whole collection and keeps "
+                    + "only every " + shard.getCount() + "th document. Declare the parameters ["
+                    + PARAM_SHARD_INDEX + "] and [" + PARAM_SHARD_COUNT
+                    + "] in the reader to read only one shard per task.");
+        }
+        return new CollectionReaderWrapper(reader, shard.getIndex(), shard.getCount());
+    }
+
+    /**
+     * Returns the patterns for a ResourceCollectionReaderBase to read only one shard of the files
+     * matched by <code>patterns</code>: the exclude patterns, and every <code>count</code>-th
+     * matching file as include pattern. The files are sorted, so that all tasks assign them to the
+     * same shards. Returns null if the files cannot be listed, e.g. because they are not local
+     * files.
+     */
+    static String[] getShardPatterns(String location, String[] patterns, int index, int count)
+    {
+        if (location == null || patterns == null) {
+            return null;
+        }
+        PathMatchingResourcePatternResolver resolver = new PathMatchingResourcePatternResolver();
+        String base = location;
+        if (base.indexOf(':') < 2) {
+            // A plain path (or one with a Windows drive letter)
+            base = new File(base).toURI().toString();
+        }
+        if (!base.endsWith("/")) {
+            base += "/";
+        }
+
+        SortedSet<String> files = new TreeSet<String>();
+        List<String> result = new ArrayList<String>();
+        try {
+            URI baseUri = resolver.getResource(base).getFile().toURI();
+            for (String pattern : patterns) {
+                if (pattern.startsWith(EXCLUDE_PREFIX)) {
+                    result.add(pattern);
+                    continue;
+                }
+                String include = pattern.startsWith(INCLUDE_PREFIX) ? pattern
+                        .substring(INCLUDE_PREFIX.length()) : pattern;
+                for (Resource resource : resolver.getResources(base + include)) {
+                    URI relative = baseUri.relativize(resource.getFile().toURI());
+                    if (relative.isAbsolute() || indexOfWildcard(relative.getPath()) >= 0) {
+                        // Outside of the base, or not usable as a pattern
+                        return null;
+                    }
+                    files.add(relative.getPath());
+                }
+            }
+        }
+        catch (IOException e) {
+            // Not a file
+            return null;
+        }
+
+        int i = 0;
+        for (String file : files) {
+            if (i++ % count == index) {
+                result.add(INCLUDE_PREFIX + file);
+            }
+        }
+        return result.toArray(new String[result.size()]);
+    }
+
+    /**
+     * RecordReader for a shard without any files.
+     */
+    private static class EmptyRecordReader
+        implements RecordReader<Text, CASWritable>
+    {
+        @Override
+        public boolean next(Text key, CASWritable value)
+        {
+            return false;
+        }
+
+        @Override
+        public Text createKey()
+        {
+            return new Text();
+        }
+
+        @Override
+        public CASWritable createValue()
+        {
+            return new CASWritable();
+        }
+
+        @Override
+        public long getPos()
+        {
+            return 0;
+        }
+
+        @Override
+        public void close()
+        {
+            // Nothing to close
+        }
+
+        @Override
+        public float getProgress()
+        {
+            return 1.0f;
+        }
+    }
+
+    private static boolean hasResourceBindings(CollectionReaderDescription description)
+    {
+        return description.getResourceManagerConfiguration() != null
+                && description.getResourceManagerConfiguration()
+                        .getExternalResourceBindings().length > 0;
+    }
+
+    private static int indexOfWildcard(String path)
+    {
+        for (int i = 0; i < path.length(); i++) {
+            if ("*?{}[]".indexOf(path.charAt(i)) >= 0) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean containsInclude(String[] patterns)
+    {
+        for (String pattern : patterns) {
+            if (!pattern.startsWith(EXCLUDE_PREFIX)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * A shard of the collection. It has no size and no locations, the reader decides where the
+     * data comes from.
+     */
+    public static class ShardSplit
+        implements InputSplit
+    {
+        private int index;
+        private int count;
+
+        /**
+         * Used by Hadoop to deserialize the split.
+         */
+        public ShardSplit()
+        {
+        }
+
+        public ShardSplit(int index, int count)
+        {
+            this.index = index;
+            this.count = count;
+        }
+
+        public int getIndex()
+        {
+            return index;
+        }
+
+        public int getCount()
+        {
+            return count;
+        }
+
+        @Override
+        public long getLength()
+        {
+            return 0;
+        }
+
+        @Override
+        public String[] getLocations()
+        {
+            return new String[0];
+        }
+
+        @Override
+        public void write(DataOutput out)
+            throws IOException
+        {
+            out.writeInt(index);
+            out.writeInt(count);
+        }
+
+        @Override
+        public void readFields(DataInput in)
+            throws IOException
+        {
+            index = in.readInt();
+            count = in.readInt();
+        }
+
+        @Override
+        public String toString()
+        {
+            return "shard " + index + " of " + count;
+        }
+    }
+}
@@ -20,18 +20,22 @@ import java.io.IOException;
 
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.mapred.RecordReader;
-import org.apache.uima.UIMAException;
 import org.apache.uima.cas.CAS;
 import org.apache.uima.collection.CollectionException;
 import org.apache.uima.collection.CollectionReader;
-import org.apache.uima.fit.factory.JCasFactory;
-import org.apache.uima.fit.factory.TypeSystemDescriptionFactory;
-import org.apache.uima.resource.ResourceInitializationException;
-import org.apache.uima.resource.metadata.TypeSystemDescription;
 import org.apache.uima.util.Progress;
 
+import de.tudarmstadt.ukp.dkpro.core.api.metadata.type.DocumentMetaData;
+
 /**
  * Wraps an existing CollectionReader (UIMA) instance as RecordReader&lt;Text, CASWritable&gt; (Hadoop).
+ * The CAS of the value writable is reset and reused for every record. The key is set to the
+ * document URI, or the document ID if there is no URI.
+ * <p>
+ * If a shard is given, only every <code>shardCount</code>-th document starting at
+ * <code>shardIndex</code> is returned. The other documents are still read, but skipped, so
+ * CollectionReaderInputFormat uses this only for readers it cannot shard otherwise.
+ * </p>
  * 
  * @author Johannes Simon
  */
@@ -40,18 +44,22 @@ public class CollectionReaderWrapper
 {
 
     final private CollectionReader reader;
+    final private int shardIndex;
+    final private int shardCount;
 
-    private TypeSystemDescription typeSystem;
+    /** Number of documents read from the reader so far */
+    private long documents = 0;
 
     public CollectionReaderWrapper(CollectionReader reader)
+    {
+        this(reader, 0, 1);
+    }
+
+    public CollectionReaderWrapper(CollectionReader reader, int shardIndex, int shardCount)
     {
         this.reader = reader;
-        try {
-            typeSystem = TypeSystemDescriptionFactory.createTypeSystemDescription();
-        }
-        catch (ResourceInitializationException e) {
-            e.printStackTrace();
-        }
+        this.shardIndex = shardIndex;
+        this.shardCount = shardCount;
     }
 
     @Override
@@ -116,24 +124,39 @@ public class CollectionReaderWrapper
     {
 
         try {
-            if (!reader.hasNext()) {
-                return false;
+            CAS nextCAS = value.getCAS();
+            while (reader.hasNext()) {
+                nextCAS.reset();
+                reader.getNext(nextCAS);
+                if (documents++ % shardCount == shardIndex) {
+                    key.set(getDocumentKey(nextCAS));
+                    return true;
+                }
             }
-            CAS nextCAS = JCasFactory.createJCas(typeSystem).getCas();
-            reader.getNext(nextCAS);
-            value.setCAS(nextCAS);
-
-            return true;
+            return false;
         }
         catch (CollectionException e) {
             e.printStackTrace();
         }
-        catch (UIMAException e) {
-            e.printStackTrace();
-        }
 
         // Error occured. Stop reading.
         return false;
     }
 
+    private static String getDocumentKey(CAS cas)
+    {
+        try {
+            DocumentMetaData meta = DocumentMetaData.get(cas);
+            if (meta.getDocumentUri() != null) {
+                return meta.getDocumentUri();
+            }
+            if (meta.getDocumentId() != null) {
+                return meta.getDocumentId();
+            }
+        }
+        catch (IllegalArgumentException e) {
+            // No metadata
+        }
+        return "";
+    }
 }
@@ -0,0 +1,186 @@
+/*******************************************************************************
+ * Copyright 2013
+ * TU Darmstadt, FG Sprachtechnologie
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.dkpro.bigdata.io.hadoop;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.CompressionCodecFactory;
+import org.apache.hadoop.mapred.InputSplit;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.JobConfigurable;
+import org.apache.hadoop.mapred.RecordReader;
+import org.apache.hadoop.mapred.Reporter;
+import org.apache.hadoop.mapred.lib.CombineFileInputFormat;
+import org.apache.hadoop.mapred.lib.CombineFileSplit;
+import org.apache.hadoop.mapreduce.JobContext;
+import org.dkpro.bigdata.io.hadoop.Text2CASInputFormat.DocumentMetadataExtractor;
+import org.dkpro.bigdata.io.hadoop.Text2CASInputFormat.DocumentTextExtractor;
+
+import de.tudarmstadt.ukp.dkpro.core.api.metadata.type.DocumentMetaData;
+
+/**
+ * Input format for corpora of many small text files. Every file becomes one CAS, and many files
+ * are packed into one split, preferring files on the same node and rack, so that the number of
+ * map tasks does not depend on the number of files.
+ * <p>
+ * The key is the path of the file and the text is the (UTF-8) content of the file, decompressed
+ * if a codec is registered for its extension. The document URI is set to the path. The
+ * {@link DocumentTextExtractor} and {@link DocumentMetadataExtractor} configured for
+ * {@link Text2CASInputFormat} are applied with the path as key and the file content as value.
+ * </p>
+ */
+public class CombineText2CASInputFormat
+    extends CombineFileInputFormat<Text, CASWritable>
+    implements JobConfigurable
+{
+    /**
+     * Target size of a split in bytes.
+     */
+    public static final String SPLIT_SIZE = "dkpro.input.combine.split-size";
+
+    public static final long DEFAULT_SPLIT_SIZE = 128 * 1024 * 1024;
+
+    @Override
+    public void configure(JobConf job)
+    {
+        setMaxSplitSize(job.getLong(SPLIT_SIZE, DEFAULT_SPLIT_SIZE));
+    }
+
+    @Override
+    protected boolean isSplitable(JobContext context, Path file)
+    {
+        // Every file is one document
+        return false;
+    }
+
+    @Override
+    public RecordReader<Text, CASWritable> getRecordReader(InputSplit split, JobConf job,
+            Reporter reporter)
+        throws IOException
+    {
+        SharedCasPool.configure(job);
+        return new CombineText2CASRecordReader((CombineFileSplit) split, job,
+                Text2CASInputFormat.getDocumentTextExtractor(job),
+                Text2CASInputFormat.getDocumentMetadataExtractor(job));
+    }
+
+    /**
+     * Reads the files of a split one after the other.
+     */
+    private static class CombineText2CASRecordReader
+        implements RecordReader<Text, CASWritable>
+    {
+        private final CombineFileSplit split;
+        private final JobConf job;
+        private final DocumentTextExtractor textExtractor;
+        private final DocumentMetadataExtractor metadataExtractor;
+        private final CompressionCodecFactory codecs;
+        private final Text content = new Text();
+
+        /** Index of the next file in the split */
+        private int index = 0;
+
+        /** Bytes of the files read so far */
+        private long pos = 0;
+
+        public CombineText2CASRecordReader(CombineFileSplit split, JobConf job,
+                DocumentTextExtractor textExtractor, DocumentMetadataExtractor metadataExtractor)
+        {
+            this.split = split;
+            this.job = job;
+            this.textExtractor = textExtractor;
+            this.metadataExtractor = metadataExtractor;
+            codecs = new CompressionCodecFactory(job);
+        }
+
+        @Override
+        public boolean next(Text key, CASWritable value)
+            throws IOException
+        {
+            if (index >= split.getNumPaths()) {
+                return false;
+            }
+            Path path = split.getPath(index);
+            InputStream in = path.getFileSystem(job).open(path);
+            try {
+                CompressionCodec codec = codecs.getCodec(path);
+                if (codec != null) {
+                    in = codec.createInputStream(in);
+                }
+                content.set(IOUtils.toByteArray(in));
+            }
+            finally {
+                IOUtils.closeQuietly(in);
+            }
+
+            key.set(path.toString());
+            Text2CASInputFormat.createDocument(value.getCAS(), key, content, textExtractor,
+                    metadataExtractor);
+            try {
+                DocumentMetaData metadata = DocumentMetaData.get(value.getCAS());
+                if (metadata.getDocumentUri() == null) {
+                    metadata.setDocumentUri(path.toUri().toString());
+                }
+            }
+            catch (IllegalArgumentException e) {
+                // No metadata
+            }
+
+            pos += split.getLength(index);
+            index++;
+            return true;
+        }
+
+        @Override
+        public Text createKey()
+        {
+            return new Text();
+        }
+
+        @Override
+        public CASWritable createValue()
+        {
+            return new CASWritable();
+        }
+
+        @Override
+        public long getPos()
+        {
+            return pos;
+        }
+
+        @Override
+        public float getProgress()
+        {
+            if (split.getLength() == 0) {
+                return index >= split.getNumPaths() ? 1.0f : 0.0f;
+            }
+            return (float) pos / (float) split.getLength();
+        }
+
+        @Override
+        public void close()
+        {
+            // Every file is closed after it has been read
+        }
+    }
+}
@@ -0,0 +1,739 @@
+/*******************************************************************************
+ * Copyright 2010,2012
+ * Ubiquitous Knowledge Processing (UKP) Lab
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.dkpro.bigdata.io.hadoop;
+
+import static org.apache.uima.cas.impl.Serialization.deserializeCAS;
+import static org.apache.uima.cas.impl.Serialization.serializeWithCompression;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableUtils;
+import org.apache.uima.cas.ArrayFS;
+import org.apache.uima.cas.CAS;
+import org.apache.uima.cas.CASRuntimeException;
+import org.apache.uima.cas.FSIterator;
+import org.apache.uima.cas.Feature;
+import org.apache.uima.cas.FeatureStructure;
+import org.apache.uima.cas.Type;
+import org.apache.uima.cas.TypeSystem;
+import org.apache.uima.cas.impl.LowLevelCAS;
+import org.apache.uima.cas.impl.LowLevelTypeSystem;
+import org.apache.uima.cas.text.AnnotationFS;
+import org.apache.uima.resource.ResourceInitializationException;
+import org.apache.uima.resource.metadata.TypeDescription;
+import org.apache.uima.resource.metadata.TypeSystemDescription;
+import org.apache.uima.util.CasCreationUtils;
+import org.apache.uima.util.TypeSystemUtil;
+
+/**
+ * A CASWritable with a specialised encoding for the types that make up most of a tokenized and
+ * parsed CAS: sentences, tokens, lemmas, POS tags and dependencies (including their subtypes).
+ * Their offsets are delta coded per type, string features such as lemma values and tags are
+ * dictionary coded, and references between them are stored as indexes. When reading, they are
+ * created in bulk through the low-level CAS API. All other feature structures are serialized with
+ * Form 6 in the same record. The compact part is deflated, as Form 6 compresses its data as well.
+ * <p>
+ * References from these types to other indexed annotations (e.g. <code>Token.parent</code>) are
+ * stored as type and offsets of the target and resolved after the Form 6 part has been read, as
+ * long as no other annotation of the same type has the same offsets.
+ * </p>
+ * <p>
+ * Like {@link BinCasWritable}, records do not carry a type system and must be read with the type
+ * system they were written with. Records of CASes with more than one view, or in which these types
+ * are referred to by other feature structures, or refer to anything but such annotations, are
+ * written with Form 6 only.
+ * </p>
+ */
+public class CompactCasWritable
+    extends CASWritable
+{
+    /** Types with the compact encoding, each with its subtypes */
+    static final String[] COMPACT_TYPES = {
+            "de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Sentence",
+            "de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Token",
+            "de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.TokenForm",
+            "de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Lemma",
+            "de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Stem",
+            "de.tudarmstadt.ukp.dkpro.core.api.lexmorph.type.pos.POS",
+            "de.tudarmstadt.ukp.dkpro.core.api.lexmorph.type.morph.MorphologicalFeatures",
+            "de.tudarmstadt.ukp.dkpro.core.api.syntax.type.dependency.Dependency" };
+
+    /** First byte of a record written with Form 6 only */
+    static final byte FULL = 0;
+
+    /** First byte of a record written with the compact encoding */
+    static final byte COMPACT = 1;
+
+    private static final byte STRING = 0;
+    private static final byte BOOLEAN = 1;
+    private static final byte INTEGRAL = 2;
+    private static final byte FLOAT = 3;
+    private static final byte DOUBLE = 4;
+    private static final byte ANNOTATION = 5;
+    /** References to anything else, only null is supported */
+    private static final byte OTHER = 6;
+
+    private static final Map<TypeSystem, Schema> schemas = new WeakHashMap<TypeSystem, Schema>();
+
+    private final DataOutputBuffer section = new DataOutputBuffer();
+    private final DataInputBuffer sectionIn = new DataInputBuffer();
+    private final DataOutputBuffer deflated = new DataOutputBuffer();
+    private byte[] inflated = new byte[0];
+
+    @Override
+    protected void readCAS(DataInputBuffer in)
+        throws IOException
+    {
+        try {
+            CAS cas = getCAS();
+            Schema schema = getSchema(SharedCasPool.getSourceTypeSystem(cas.getTypeSystem()));
+            if (in.readByte() == FULL) {
+                deserializeCAS(cas, in, schema.typeSystem, null);
+                return;
+            }
+
+            int length = WritableUtils.readVInt(in);
+            int compressedLength = WritableUtils.readVInt(in);
+            int start = in.getPosition();
+            WritableUtils.skipFully(in, compressedLength);
+            deserializeCAS(cas, in, schema.restTypeSystem, null);
+
+            if (inflated.length < length) {
+                inflated = new byte[length];
+            }
+            inflate(in.getData(), start, compressedLength, inflated, length);
+            sectionIn.reset(inflated, length);
+            readCompact(schema, cas.getView(CAS.NAME_DEFAULT_SOFA), sectionIn);
+        }
+        catch (CASRuntimeException e) {
+            throw new IOException(e);
+        }
+        catch (ResourceInitializationException e) {
+            throw new IOException(e);
+        }
+    }
+
+    @Override
+    protected void writeCAS(DataOutputBuffer out)
+        throws IOException
+    {
+        try {
+            CAS cas = getCAS();
+            Schema schema = getSchema(cas.getTypeSystem());
+            section.reset();
+            if (!writeCompact(schema, cas, section)) {
+                out.writeByte(FULL);
+                serializeWithCompression(cas, out, cas.getTypeSystem());
+                return;
+            }
+            out.writeByte(COMPACT);
+            deflate(section, deflated);
+            WritableUtils.writeVInt(out, section.getLength());
+            WritableUtils.writeVInt(out, deflated.getLength());
+            out.write(deflated.getData(), 0, deflated.getLength());
+            serializeWithCompression(cas, out, schema.restTypeSystem);
+        }
+        catch (CASRuntimeException e) {
+            throw new IOException(e);
+        }
+        catch (ResourceInitializationException e) {
+            throw new IOException(e);
+        }
+    }
+
+    private static void deflate(DataOutputBuffer in, DataOutputBuffer out)
+        throws IOException
+    {
+        out.reset();
+        Deflater deflater = new Deflater();
+        try {
+            deflater.setInput(in.getData(), 0, in.getLength());
+            deflater.finish();
+            byte[] buffer = new byte[4096];
+            while (!deflater.finished()) {
+                int n = deflater.deflate(buffer);
+                out.write(buffer, 0, n);
+            }
+        }
+        finally {
+            deflater.end();
+        }
+    }
+
+    private static void inflate(byte[] in, int off, int len, byte[] out, int outLength)
+        throws IOException
+    {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(in, off, len);
+            int n = 0;
+            while (n < outLength) {
+                int r = inflater.inflate(out, n, outLength - n);
+                if (r == 0 && (inflater.finished() || inflater.needsInput()
+                        || inflater.needsDictionary())) {
+                    throw new IOException("Truncated compact section");
+                }
+                n += r;
+            }
+        }
+        catch (DataFormatException e) {
+            throw new IOException(e);
+        }
+        finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * Writes the compact types of <code>cas</code>.
+     *
+     * @return false if the CAS cannot be written in the compact encoding
+     */
+    private static boolean writeCompact(Schema schema, CAS cas, DataOutputBuffer out)
+        throws IOException
+    {
+        Iterator<CAS> views = cas.getViewIterator();
+        views.next();
+        if (views.hasNext()) {
+            return false;
+        }
+        CAS view = cas.getView(CAS.NAME_DEFAULT_SOFA);
+        LowLevelCAS llc = view.getLowLevelCAS();
+
+        // Group by exact type and number them for references
+        List<List<AnnotationFS>> annotations = new ArrayList<List<AnnotationFS>>();
+        for (int i = 0; i < schema.types.length; i++) {
+            annotations.add(new ArrayList<AnnotationFS>());
+        }
+        Map<Integer, int[]> ordinals = new HashMap<Integer, int[]>();
+        for (AnnotationFS annotation : view.getAnnotationIndex()) {
+            Integer typeIndex = schema.typeIndexes.get(annotation.getType());
+            if (typeIndex == null) {
+                continue;
+            }
+            List<AnnotationFS> list = annotations.get(typeIndex);
+            ordinals.put(llc.ll_getFSRef(annotation), new int[] { typeIndex, list.size() });
+            list.add(annotation);
+        }
+
+        // References from other feature structures would be lost
+        FSIterator<FeatureStructure> all = view.getIndexRepository().getAllIndexedFS(
+                view.getTypeSystem().getTopType());
+        while (all.hasNext()) {
+            FeatureStructure fs = all.next();
+            if (!schema.typeIndexes.containsKey(fs.getType()) && refersToCompact(schema, fs)) {
+                return false;
+            }
+        }
+
+        Map<String, Integer> dictionary = new HashMap<String, Integer>();
+        List<String> strings = new ArrayList<String>();
+        Map<String, Integer> others = null;
+        DataOutputBuffer data = new DataOutputBuffer();
+        for (int t = 0; t < schema.types.length; t++) {
+            List<AnnotationFS> list = annotations.get(t);
+            WritableUtils.writeVInt(data, list.size());
+            if (list.isEmpty()) {
+                continue;
+            }
+            int previous = 0;
+            for (AnnotationFS annotation : list) {
+                WritableUtils.writeVInt(data, annotation.getBegin() - previous);
+                WritableUtils.writeVInt(data, annotation.getEnd() - annotation.getBegin());
+                previous = annotation.getBegin();
+            }
+            Feature[] features = schema.features[t];
+            for (int f = 0; f < features.length; f++) {
+                Feature feature = features[f];
+                for (AnnotationFS annotation : list) {
+                    switch (schema.kinds[t][f]) {
+                    case STRING:
+                        String string = annotation.getStringValue(feature);
+                        if (string == null) {
+                            WritableUtils.writeVInt(data, 0);
+                            break;
+                        }
+                        WritableUtils.writeVInt(data, intern(dictionary, strings, string) + 1);
+                        break;
+                    case BOOLEAN:
+                        data.writeBoolean(annotation.getBooleanValue(feature));
+                        break;
+                    case INTEGRAL:
+                        WritableUtils.writeVLong(data, getIntegralValue(annotation, feature));
+                        break;
+                    case FLOAT:
+                        data.writeFloat(annotation.getFloatValue(feature));
+                        break;
+                    case DOUBLE:
+                        data.writeDouble(annotation.getDoubleValue(feature));
+                        break;
+                    case ANNOTATION:
+                        FeatureStructure target = annotation.getFeatureValue(feature);
+                        if (target == null) {
+                            WritableUtils.writeVInt(data, 0);
+                            break;
+                        }
+                        int ref = llc.ll_getFSRef(target);
+                        int[] ordinal = ordinals.get(ref);
+                        if (ordinal != null) {
+                            WritableUtils.writeVInt(data, ordinal[0] + 1);
+                            WritableUtils.writeVInt(data, ordinal[1]);
+                            break;
+                        }
+                        // Another annotation, which must be identified by type and offsets
+                        if (others == null) {
+                            others = indexOthers(schema, view);
+                        }
+                        AnnotationFS other = (AnnotationFS) target;
+                        String key = getOtherKey(other.getType().getName(), other.getBegin(),
+                                other.getEnd());
+                        Integer indexed = others.get(key);
+                        if (indexed == null || indexed != ref) {
+                            // Not indexed, or not unique
+                            return false;
+                        }
+                        WritableUtils.writeVInt(data, schema.types.length + 1);
+                        WritableUtils.writeVInt(data, intern(dictionary, strings, other
+                                .getType().getName()));
+                        WritableUtils.writeVInt(data, other.getBegin());
+                        WritableUtils.writeVInt(data, other.getEnd() - other.getBegin());
+                        break;
+                    default:
+                        if (annotation.getFeatureValue(feature) != null) {
+                            return false;
+                        }
+                    }
+                }
+            }
+        }
+
+        WritableUtils.writeVInt(out, strings.size());
+        for (String string : strings) {
+            Text.writeString(out, string);
+        }
+        out.write(data.getData(), 0, data.getLength());
+        return true;
+    }
+
+    private static int intern(Map<String, Integer> dictionary, List<String> strings, String string)
+    {
+        Integer id = dictionary.get(string);
+        if (id == null) {
+            id = strings.size();
+            dictionary.put(string, id);
+            strings.add(string);
+        }
+        return id;
+    }
+
+    /**
+     * Maps the type and offsets of all indexed annotations that are not of a compact type to
+     * their address, or to -1 if several annotations share them.
+     */
+    private static Map<String, Integer> indexOthers(Schema schema, CAS view)
+    {
+        LowLevelCAS llc = view.getLowLevelCAS();
+        Map<String, Integer> others = new HashMap<String, Integer>();
+        for (AnnotationFS annotation : view.getAnnotationIndex()) {
+            if (schema.typeIndexes.containsKey(annotation.getType())) {
+                continue;
+            }
+            String key = getOtherKey(annotation.getType().getName(), annotation.getBegin(),
+                    annotation.getEnd());
+            int ref = llc.ll_getFSRef(annotation);
+            Integer previous = others.put(key, ref);
+            if (previous != null && previous != ref) {
+                others.put(key, -1);
+            }
+        }
+        return others;
+    }
+
+    private static String getOtherKey(String type, int begin, int end)
+    {
+        return type + '@' + begin + '-' + end;
+    }
+
+    /**
+     * Checks whether a feature structure of another type refers to one of the compact types,
+     * directly or through an array.
+     */
+    private static boolean refersToCompact(Schema schema, FeatureStructure fs)
+    {
+        if (fs instanceof ArrayFS) {
+            return containsCompact(schema, (ArrayFS) fs);
+        }
+        for (Feature feature : schema.getReferenceFeatures(fs.getType())) {
+            FeatureStructure value = fs.getFeatureValue(feature);
+            if (value == null) {
+                continue;
+            }
+            if (schema.typeIndexes.containsKey(value.getType())
+                    || (value instanceof ArrayFS && containsCompact(schema, (ArrayFS) value))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean containsCompact(Schema schema, ArrayFS array)
+    {
+        for (FeatureStructure element : array.toArray()) {
+            if (element != null && schema.typeIndexes.containsKey(element.getType())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Creates the compact types in <code>view</code>. Types and features that do not exist in the
+     * type system of the view are skipped.
+     */
+    private static void readCompact(Schema schema, CAS view, DataInputBuffer in)
+        throws IOException
+    {
+        TypeSystem ts = view.getTypeSystem();
+        LowLevelCAS llc = view.getLowLevelCAS();
+        LowLevelTypeSystem lts = llc.ll_getTypeSystem();
+        int sofa = 0;
+        int beginCode = lts.ll_getCodeForFeature(ts.getFeatureByFullName(
+                CAS.FEATURE_FULL_NAME_BEGIN));
+        int endCode = lts.ll_getCodeForFeature(ts.getFeatureByFullName(CAS.FEATURE_FULL_NAME_END));
+        int sofaCode = lts.ll_getCodeForFeature(ts.getFeatureByFullName(
+                CAS.FEATURE_FULL_NAME_SOFA));
+
+        String[] strings = new String[WritableUtils.readVInt(in)];
+        for (int i = 0; i < strings.length; i++) {
+            strings[i] = Text.readString(in);
+        }
+
+        int[][] created = new int[schema.types.length][];
+        List<int[]> references = new ArrayList<int[]>();
+        List<Feature> referenceFeatures = new ArrayList<Feature>();
+        List<Object[]> otherReferences = new ArrayList<Object[]>();
+        for (int t = 0; t < schema.types.length; t++) {
+            int count = WritableUtils.readVInt(in);
+            if (count == 0) {
+                continue;
+            }
+            Type type = ts.getType(schema.types[t].getName());
+            int[] addrs = type != null ? new int[count] : null;
+            if (type != null && sofa == 0) {
+                sofa = llc.ll_getFSRef(view.getSofa());
+            }
+            int typeCode = type != null ? lts.ll_getCodeForType(type) : 0;
+            int begin = 0;
+            for (int i = 0; i < count; i++) {
+                begin += WritableUtils.readVInt(in);
+                int end = begin + WritableUtils.readVInt(in);
+                if (addrs != null) {
+                    int addr = llc.ll_createFS(typeCode);
+                    llc.ll_setRefValue(addr, sofaCode, sofa);
+                    llc.ll_setIntValue(addr, beginCode, begin);
+                    llc.ll_setIntValue(addr, endCode, end);
+                    addrs[i] = addr;
+                }
+            }
+
+            Feature[] features = schema.features[t];
+            for (int f = 0; f < features.length; f++) {
+                Feature feature = type != null ? type.getFeatureByBaseName(features[f]
+                        .getShortName()) : null;
+                int featureCode = feature != null ? lts.ll_getCodeForFeature(feature) : 0;
+                byte kind = schema.kinds[t][f];
+                for (int i = 0; i < count; i++) {
+                    switch (kind) {
+                    case STRING:
+                        int id = WritableUtils.readVInt(in);
+                        if (feature != null && id != 0) {
+                            llc.ll_setStringValue(addrs[i], featureCode, strings[id - 1]);
+                        }
+                        break;
+                    case BOOLEAN:
+                        boolean b = in.readBoolean();
+                        if (feature != null) {
+                            llc.ll_setBooleanValue(addrs[i], featureCode, b);
+                        }
+                        break;
+                    case INTEGRAL:
+                        long l = WritableUtils.readVLong(in);
+                        if (feature != null) {
+                            setIntegralValue(llc, addrs[i], feature, featureCode, l);
+                        }
+                        break;
+                    case FLOAT:
+                        float fl = in.readFloat();
+                        if (feature != null) {
+                            llc.ll_setFloatValue(addrs[i], featureCode, fl);
+                        }
+                        break;
+                    case DOUBLE:
+                        double d = in.readDouble();
+                        if (feature != null) {
+                            llc.ll_setDoubleValue(addrs[i], featureCode, d);
+                        }
+                        break;
+                    case ANNOTATION:
+                        int target = WritableUtils.readVInt(in);
+                        if (target == schema.types.length + 1) {
+                            String otherType = strings[WritableUtils.readVInt(in)];
+                            int otherBegin = WritableUtils.readVInt(in);
+                            int otherEnd = otherBegin + WritableUtils.readVInt(in);
+                            if (feature != null) {
+                                otherReferences.add(new Object[] { addrs[i], feature,
+                                        getOtherKey(otherType, otherBegin, otherEnd) });
+                            }
+                        }
+                        else if (target != 0) {
+                            int index = WritableUtils.readVInt(in);
+                            if (feature != null) {
+                                references.add(new int[] { addrs[i], featureCode, target - 1,
+                                        index });
+                                referenceFeatures.add(feature);
+                            }
+                        }
+                        break;
+                    default:
+                        // Only null references are written
+                    }
+                }
+            }
+            created[t] = addrs;
+        }
+
+        for (int i = 0; i < references.size(); i++) {
+            int[] reference = references.get(i);
+            int[] targets = created[reference[2]];
+            if (targets != null && reference[3] < targets.length && ts.subsumes(
+                    referenceFeatures.get(i).getRange(), llc.ll_getFSForRef(targets[reference[3]])
+                            .getType())) {
+                llc.ll_setRefValue(reference[0], reference[1], targets[reference[3]]);
+            }
+        }
+        if (!otherReferences.isEmpty()) {
+            // The other annotations have already been read from the Form 6 part
+            Map<String, Integer> others = indexOthers(schema, view);
+            for (Object[] reference : otherReferences) {
+                Feature feature = (Feature) reference[1];
+                Integer target = others.get(reference[2]);
+                if (target != null && target != -1 && ts.subsumes(feature.getRange(), llc
+                        .ll_getFSForRef(target).getType())) {
+                    llc.ll_setRefValue((Integer) reference[0], lts
+                            .ll_getCodeForFeature(feature), target);
+                }
+            }
+        }
+        for (int[] addrs : created) {
+            if (addrs != null) {
+                for (int addr : addrs) {
+                    llc.ll_addFS(addr);
+                }
+            }
+        }
+    }
+
+    private static long getIntegralValue(FeatureStructure fs, Feature feature)
+    {
+        String range = feature.getRange().getName();
+        if (range.equals(CAS.TYPE_NAME_BYTE)) {
+            return fs.getByteValue(feature);
+        }
+        if (range.equals(CAS.TYPE_NAME_SHORT)) {
+            return fs.getShortValue(feature);
+        }
+        if (range.equals(CAS.TYPE_NAME_LONG)) {
+            return fs.getLongValue(feature);
+        }
+        return fs.getIntValue(feature);
+    }
+
+    private static void setIntegralValue(LowLevelCAS llc, int addr, Feature feature,
+            int featureCode, long value)
+    {
+        String range = feature.getRange().getName();
+        if (range.equals(CAS.TYPE_NAME_BYTE)) {
+            llc.ll_setByteValue(addr, featureCode, (byte) value);
+        }
+        else if (range.equals(CAS.TYPE_NAME_SHORT)) {
+            llc.ll_setShortValue(addr, featureCode, (short) value);
+        }
+        else if (range.equals(CAS.TYPE_NAME_LONG)) {
+            llc.ll_setLongValue(addr, featureCode, value);
+        }
+        else {
+            llc.ll_setIntValue(addr, featureCode, (int) value);
+        }
+    }
+
+    private static synchronized Schema getSchema(TypeSystem ts)
+        throws ResourceInitializationException
+    {
+        Schema schema = schemas.get(ts);
+        if (schema == null) {
+            schema = new Schema(ts);
+            schemas.put(ts, schema);
+        }
+        return schema;
+    }
+
+    /**
+     * The compact types of a type system in a fixed order, and the type system of the remaining
+     * types. Writer and reader derive the same schema from the same type system.
+     */
+    private static class Schema
+    {
+        private final TypeSystem typeSystem;
+        private final TypeSystem restTypeSystem;
+        private final Type[] types;
+        private final Map<Type, Integer> typeIndexes = new HashMap<Type, Integer>();
+        private final Feature[][] features;
+        private final byte[][] kinds;
+        private final Map<Type, List<Feature>> referenceFeatures =
+                new HashMap<Type, List<Feature>>();
+
+        Schema(TypeSystem ts)
+            throws ResourceInitializationException
+        {
+            typeSystem = ts;
+            List<Type> compact = new ArrayList<Type>();
+            for (String name : COMPACT_TYPES) {
+                Type root = ts.getType(name);
+                if (root == null) {
+                    continue;
+                }
+                List<Type> subtypes = new ArrayList<Type>(ts.getProperlySubsumedTypes(root));
+                Collections.sort(subtypes, new Comparator<Type>()
+                {
+                    @Override
+                    public int compare(Type a, Type b)
+                    {
+                        return a.getName().compareTo(b.getName());
+                    }
+                });
+                compact.add(root);
+                compact.addAll(subtypes);
+            }
+            types = compact.toArray(new Type[compact.size()]);
+            features = new Feature[types.length][];
+            kinds = new byte[types.length][];
+            for (int t = 0; t < types.length; t++) {
+                typeIndexes.put(types[t], t);
+                List<Feature> stored = new ArrayList<Feature>();
+                for (Feature feature : types[t].getFeatures()) {
+                    String domain = feature.getDomain().getName();
+                    if (!domain.equals(CAS.TYPE_NAME_ANNOTATION)
+                            && !domain.equals(CAS.TYPE_NAME_ANNOTATION_BASE)) {
+                        stored.add(feature);
+                    }
+                }
+                features[t] = stored.toArray(new Feature[stored.size()]);
+                kinds[t] = new byte[features[t].length];
+                for (int f = 0; f < features[t].length; f++) {
+                    kinds[t][f] = getKind(ts, features[t][f].getRange());
+                }
+            }
+
+            // Everything else is left to Form 6
+            TypeSystemDescription description = TypeSystemUtil
+                    .typeSystem2TypeSystemDescription(ts);
+            Set<String> rest = new HashSet<String>();
+            for (TypeDescription type : description.getTypes()) {
+                Type t = ts.getType(type.getName());
+                if (t != null && !isCompact(ts, t)) {
+                    rest.add(type.getName());
+                }
+            }
+            restTypeSystem = CasCreationUtils.createCas(
+                    TypeSystemProjection.project(description, rest), null, null)
+                    .getTypeSystem();
+        }
+
+        private static boolean isCompact(TypeSystem ts, Type type)
+        {
+            for (String name : COMPACT_TYPES) {
+                Type root = ts.getType(name);
+                if (root != null && ts.subsumes(root, type)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private static byte getKind(TypeSystem ts, Type range)
+        {
+            String name = range.getName();
+            if (name.equals(CAS.TYPE_NAME_BOOLEAN)) {
+                return BOOLEAN;
+            }
+            if (name.equals(CAS.TYPE_NAME_BYTE) || name.equals(CAS.TYPE_NAME_SHORT)
+                    || name.equals(CAS.TYPE_NAME_INTEGER) || name.equals(CAS.TYPE_NAME_LONG)) {
+                return INTEGRAL;
+            }
+            if (name.equals(CAS.TYPE_NAME_FLOAT)) {
+                return FLOAT;
+            }
+            if (name.equals(CAS.TYPE_NAME_DOUBLE)) {
+                return DOUBLE;
+            }
+            if (ts.subsumes(ts.getType(CAS.TYPE_NAME_STRING), range)) {
+                return STRING;
+            }
+            if (ts.subsumes(ts.getType(CAS.TYPE_NAME_ANNOTATION), range)) {
+                return ANNOTATION;
+            }
+            return OTHER;
+        }
+
+        /**
+         * Returns the features of a type that may refer to other feature structures.
+         */
+        synchronized List<Feature> getReferenceFeatures(Type type)
+        {
+            List<Feature> result = referenceFeatures.get(type);
+            if (result == null) {
+                result = new ArrayList<Feature>();
+                for (Feature feature : type.getFeatures()) {
+                    Type range = feature.getRange();
+                    if (!range.isPrimitive() && !feature.getShortName().equals(
+                            CAS.FEATURE_BASE_NAME_SOFA)) {
+                        result.add(feature);
+                    }
+                }
+                referenceFeatures.put(type, result);
+            }
+            return result;
+        }
+    }
+}
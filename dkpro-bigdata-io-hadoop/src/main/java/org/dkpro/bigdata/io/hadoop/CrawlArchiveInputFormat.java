@@ -0,0 +1,135 @@
+/*******************************************************************************
+ * Copyright 2013
+ * TU Darmstadt, FG Sprachtechnologie
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.dkpro.bigdata.io.hadoop;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.hadoop.fs.BlockLocation;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.FileInputFormat;
+import org.apache.hadoop.mapred.FileSplit;
+import org.apache.hadoop.mapred.InputSplit;
+import org.apache.hadoop.mapred.JobConf;
+
+/**
+ * Base class for crawl archive input formats that plans record-aligned splits for archives with a
+ * sidecar index.
+ * <p>
+ * If a file <code>&lt;archive&gt;&lt;suffix&gt;</code> exists next to an archive (by default
+ * <code>.cdx</code>, see {@link #INDEX_SUFFIX}), the archive is split at the record offsets listed
+ * in it and the splits are balanced by the number of bytes they cover. Archives without an index
+ * are split by byte ranges as usual and the record readers resynchronise at the split start.
+ * </p>
+ *
+ * @param <V>
+ *            the value type produced by the record readers
+ * @see CdxSplitPlanner
+ */
+public abstract class CrawlArchiveInputFormat<V>
+    extends FileInputFormat<Text, V>
+{
+    /**
+     * Suffix of the index file next to an archive. Set to an empty string to ignore indexes.
+     */
+    public static final String INDEX_SUFFIX = "dkpro.input.index-suffix";
+
+    /**
+     * Target size of a record-aligned split in bytes. Defaults to the split size Hadoop would use
+     * for byte-range splits.
+     */
+    public static final String INDEX_SPLIT_SIZE = "dkpro.input.index-split-size";
+
+    private static final String DEFAULT_INDEX_SUFFIX = ".cdx";
+
+    @Override
+    protected FileStatus[] listStatus(JobConf job)
+        throws IOException
+    {
+        // Index files are not input, even if they live in an input directory
+        String suffix = job.get(INDEX_SUFFIX, DEFAULT_INDEX_SUFFIX);
+        List<FileStatus> files = new ArrayList<FileStatus>();
+        for (FileStatus file : super.listStatus(job)) {
+            if (suffix.isEmpty() || !file.getPath().getName().endsWith(suffix)) {
+                files.add(file);
+            }
+        }
+        return files.toArray(new FileStatus[files.size()]);
+    }
+
+    @Override
+    public InputSplit[] getSplits(JobConf job, int numSplits)
+        throws IOException
+    {
+        InputSplit[] byteRangeSplits = super.getSplits(job, numSplits);
+        String suffix = job.get(INDEX_SUFFIX, DEFAULT_INDEX_SUFFIX);
+        if (suffix.isEmpty()) {
+            return byteRangeSplits;
+        }
+
+        // Same goal size as FileInputFormat
+        FileStatus[] files = listStatus(job);
+        long totalSize = 0;
+        for (FileStatus file : files) {
+            totalSize += file.getLen();
+        }
+        long goalSize = totalSize / (numSplits == 0 ? 1 : numSplits);
+        long minSize = job.getLong(
+                org.apache.hadoop.mapreduce.lib.input.FileInputFormat.SPLIT_MINSIZE, 1);
+
+        List<InputSplit> splits = new ArrayList<InputSplit>();
+        Set<Path> indexedFiles = new HashSet<Path>();
+        for (FileStatus file : files) {
+            Path path = file.getPath();
+            FileSystem fs = path.getFileSystem(job);
+            Path index = path.suffix(suffix);
+            if (file.isDirectory() || file.getLen() == 0 || !fs.exists(index)) {
+                continue;
+            }
+            long[] offsets = CdxSplitPlanner.readRecordOffsets(fs, index, path.getName(),
+                    file.getLen());
+            if (offsets.length == 0) {
+                continue;
+            }
+
+            long splitSize = job.getLong(INDEX_SPLIT_SIZE,
+                    computeSplitSize(goalSize, minSize, file.getBlockSize()));
+            BlockLocation[] blocks = fs.getFileBlockLocations(file, 0, file.getLen());
+            for (long[] split : CdxSplitPlanner.planSplits(offsets, file.getLen(), splitSize)) {
+                String[] hosts = blocks[getBlockIndex(blocks, split[0])].getHosts();
+                splits.add(new RecordAlignedFileSplit(path, split[0], split[1], hosts));
+            }
+            indexedFiles.add(path);
+        }
+
+        if (indexedFiles.isEmpty()) {
+            return byteRangeSplits;
+        }
+        for (InputSplit split : byteRangeSplits) {
+            if (!indexedFiles.contains(((FileSplit) split).getPath())) {
+                splits.add(split);
+            }
+        }
+        return splits.toArray(new InputSplit[splits.size()]);
+    }
+}
@@ -16,16 +16,35 @@
  ******************************************************************************/
 package org.dkpro.bigdata.io.hadoop;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
 import java.util.Date;
 
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
+
 /**
  * Stores (raw!) data and meta data of a crawler record that's relevant to us
+ * <p>
+ * The content is kept as the raw payload bytes together with the charset they are encoded in and
+ * is only decoded when {@link #getContent()} is called, so records that are filtered or shuffled
+ * without looking at their text are never decoded. Instances are meant to be reused across
+ * <code>next()</code> calls: the byte buffer only grows.
+ * </p>
  * 
  * @author Johannes Simon
  *
  */
-public class CrawlerRecord {
+public class CrawlerRecord implements Writable {
 	
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private static final int INITIAL_BUFFER_SIZE = 4096;
+
 	public CrawlerRecord() {
 	}
 	
@@ -38,10 +57,92 @@ public class CrawlerRecord {
 
 	/**
 	 * Original text content (potentially with HTML markup etc.) of record. Must not be null.
+	 * Decoded from <code>raw</code> on first access, without a byte order mark.
 	 */
 	private String content;
-	public void setContent(String content) { this.content = content; }
-	public String getContent() { return content; }
+	public void setContent(String content) { this.content = content; hasRaw = false; }
+	public String getContent() {
+		if (content == null && hasRaw) {
+			content = SniffingEncodingDetector.stripByteOrderMark(new String(raw, 0, rawLength,
+					getCharset()));
+		}
+		return content;
+	}
+
+	/**
+	 * Raw payload bytes of the record, valid up to <code>rawLength</code>. Only meaningful if
+	 * <code>hasRaw</code> is set, otherwise the content was set as a string.
+	 */
+	private byte[] raw = new byte[0];
+	private int rawLength;
+	private boolean hasRaw;
+
+	/**
+	 * Replaces the content by a copy of the given bytes. They are decoded with the charset set by
+	 * {@link #setCharset(Charset)} when the content is accessed.
+	 */
+	public void setRawContent(byte[] data, int offset, int length) {
+		ensureCapacity(length);
+		System.arraycopy(data, offset, raw, 0, length);
+		rawLength = length;
+		hasRaw = true;
+		content = null;
+	}
+
+	/**
+	 * Replaces the content by the remaining bytes of the given stream.
+	 */
+	public void readRawContent(InputStream in) throws IOException {
+		rawLength = 0;
+		hasRaw = true;
+		content = null;
+		while (true) {
+			if (rawLength == raw.length) {
+				ensureCapacity(Math.max(INITIAL_BUFFER_SIZE, raw.length * 2));
+			}
+			int n = in.read(raw, rawLength, raw.length - rawLength);
+			if (n < 0) {
+				break;
+			}
+			rawLength += n;
+		}
+	}
+
+	/**
+	 * Returns the buffer holding the raw content, valid up to {@link #getRawLength()}. If the
+	 * content was set as a string, it is encoded as UTF-8 first. The buffer is reused by later
+	 * calls that replace the content.
+	 */
+	public byte[] getRawContent() {
+		if (!hasRaw) {
+			byte[] encoded = content != null ? content.getBytes(UTF8) : new byte[0];
+			String decoded = content;
+			setRawContent(encoded, 0, encoded.length);
+			charset = UTF8;
+			content = decoded;
+		}
+		return raw;
+	}
+	public int getRawLength() { getRawContent(); return rawLength; }
+
+	private void ensureCapacity(int capacity) {
+		if (raw.length < capacity) {
+			raw = Arrays.copyOf(raw, capacity);
+		}
+	}
+
+	/**
+	 * Charset of the raw content. Defaults to UTF-8 if null.
+	 */
+	private Charset charset;
+	public void setCharset(Charset charset) {
+		this.charset = charset;
+		if (hasRaw) {
+			// Content decoded with the previous charset is stale
+			content = null;
+		}
+	}
+	public Charset getCharset() { return charset != null ? charset : UTF8; }
 
 	/**
 	 * Specifies whether <code>content</code> contains any markup, e.g. HTML, or is plain text.
@@ -77,4 +178,46 @@ public class CrawlerRecord {
 	private Date date;
 	public void setDate(Date date) { this.date = date; }
 	public Date getDate() { return date; }
+
+	@Override
+	public void write(DataOutput out) throws IOException {
+		WritableUtils.writeString(out, url);
+		out.writeBoolean(isHTML);
+		WritableUtils.writeString(out, origEncoding);
+		WritableUtils.writeString(out, origLanguage);
+		WritableUtils.writeString(out, user);
+		out.writeBoolean(date != null);
+		if (date != null) {
+			out.writeLong(date.getTime());
+		}
+		out.writeBoolean(hasRaw || content != null);
+		if (hasRaw || content != null) {
+			byte[] data = getRawContent();
+			WritableUtils.writeString(out, getCharset().name());
+			WritableUtils.writeVInt(out, rawLength);
+			out.write(data, 0, rawLength);
+		}
+	}
+
+	@Override
+	public void readFields(DataInput in) throws IOException {
+		url = WritableUtils.readString(in);
+		isHTML = in.readBoolean();
+		origEncoding = WritableUtils.readString(in);
+		origLanguage = WritableUtils.readString(in);
+		user = WritableUtils.readString(in);
+		date = in.readBoolean() ? new Date(in.readLong()) : null;
+		content = null;
+		if (in.readBoolean()) {
+			charset = Charset.forName(WritableUtils.readString(in));
+			rawLength = WritableUtils.readVInt(in);
+			ensureCapacity(rawLength);
+			in.readFully(raw, 0, rawLength);
+			hasRaw = true;
+		} else {
+			charset = null;
+			rawLength = 0;
+			hasRaw = false;
+		}
+	}
 }
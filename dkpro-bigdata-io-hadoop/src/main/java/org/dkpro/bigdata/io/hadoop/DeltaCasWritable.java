@@ -0,0 +1,250 @@
+/*******************************************************************************
+ * Copyright 2010,2012
+ * Ubiquitous Knowledge Processing (UKP) Lab
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.dkpro.bigdata.io.hadoop;
+
+import static org.apache.uima.cas.impl.Serialization.deserializeCAS;
+import static org.apache.uima.cas.impl.Serialization.serializeWithCompression;
+
+import java.io.IOException;
+
+import org.apache.commons.io.output.NullOutputStream;
+import org.apache.hadoop.conf.Configurable;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.Text;
+import org.apache.uima.cas.CAS;
+import org.apache.uima.cas.CASRuntimeException;
+import org.apache.uima.cas.Marker;
+import org.apache.uima.cas.impl.BinaryCasSerDes6.ReuseInfo;
+import org.apache.uima.resource.ResourceInitializationException;
+
+/**
+ * A CASWritable for the shuffle between a map-side and a reduce-side pipeline that only carries
+ * what the map-side pipeline added to or changed in the CAS (a Form 6 delta CAS). Instead of the
+ * unchanged part, such as the document text, a value refers to the map input record, which is
+ * read again on the reduce side when the CAS is first accessed.
+ * <p>
+ * On the map side, {@link #markBase(CAS, Path, long, int)} must be called before the CAS is
+ * processed and its result passed to {@link #setBase(Base)} after {@link #setCAS(CAS)}. Values
+ * without a base are written in full. The map input must be a sequence file of CASWritables, and
+ * the CAS must be in the state in which it was read from there when it is marked.
+ * </p>
+ */
+public class DeltaCasWritable
+    extends CASWritable
+    implements Configurable
+{
+    private static final byte FULL = 0;
+    private static final byte DELTA = 1;
+
+    private Configuration conf;
+
+    /** Map side: the input record of the CAS */
+    private Base base;
+
+    /** Reduce side: the input record and the delta that has not been applied yet */
+    private final Text path = new Text();
+    private long position;
+    private int index;
+    private final DataOutputBuffer delta = new DataOutputBuffer();
+    private final DataInputBuffer deltaIn = new DataInputBuffer();
+    private boolean pending = false;
+
+    @Override
+    public void setConf(Configuration conf)
+    {
+        this.conf = conf;
+    }
+
+    @Override
+    public Configuration getConf()
+    {
+        return conf;
+    }
+
+    /**
+     * Marks the current state of <code>cas</code>, which must be the unmodified map input record
+     * at the given position.
+     *
+     * @param path
+     *            the sequence file the record was read from
+     * @param position
+     *            position of the reader before the block (or, for files that are not block
+     *            compressed, the record) holding the record
+     * @param index
+     *            index of the record within its block
+     */
+    public static Base markBase(CAS cas, Path path, long position, int index)
+        throws IOException
+    {
+        ReuseInfo reuseInfo;
+        try {
+            // Numbers the feature structures the same way as restore() does on the reduce side
+            reuseInfo = serializeWithCompression(cas, new NullOutputStream(),
+                    cas.getTypeSystem());
+        }
+        catch (CASRuntimeException e) {
+            throw new IOException(e);
+        }
+        catch (ResourceInitializationException e) {
+            throw new IOException(e);
+        }
+        return new Base(path, position, index, cas.createMarker(), reuseInfo);
+    }
+
+    /**
+     * Sets the input record the CAS was marked at. Only the changes since then are written. Must
+     * be called after {@link #setCAS(CAS)}, which clears the base.
+     */
+    public void setBase(Base base)
+    {
+        this.base = base;
+    }
+
+    @Override
+    public void setCAS(CAS cas)
+    {
+        super.setCAS(cas);
+        base = null;
+        pending = false;
+    }
+
+    /**
+     * Returns the CAS, restoring it from the input record and the delta first if necessary.
+     */
+    @Override
+    public CAS getCAS()
+    {
+        CAS cas = super.getCAS();
+        if (pending) {
+            pending = false;
+            try {
+                restore(cas);
+            }
+            catch (IOException e) {
+                throw new IllegalStateException("Unable to restore CAS from record " + index
+                        + " at position " + position + " in [" + path + "]", e);
+            }
+        }
+        return cas;
+    }
+
+    @Override
+    public String toString()
+    {
+        getCAS();
+        return super.toString();
+    }
+
+    @Override
+    protected void readCAS(DataInputBuffer in)
+        throws IOException
+    {
+        pending = false;
+        if (in.readByte() == FULL) {
+            try {
+                CAS cas = getCAS();
+                deserializeCAS(cas, in, cas.getTypeSystem(), null);
+            }
+            catch (CASRuntimeException e) {
+                throw new IOException(e);
+            }
+            catch (ResourceInitializationException e) {
+                throw new IOException(e);
+            }
+            return;
+        }
+
+        path.readFields(in);
+        position = in.readLong();
+        index = in.readInt();
+        delta.reset();
+        delta.write(in, in.getLength() - in.getPosition());
+        pending = true;
+    }
+
+    @Override
+    protected void writeCAS(DataOutputBuffer out)
+        throws IOException
+    {
+        CAS cas = getCAS();
+        try {
+            if (base == null) {
+                out.writeByte(FULL);
+                serializeWithCompression(cas, out, cas.getTypeSystem());
+            }
+            else {
+                out.writeByte(DELTA);
+                Text.writeString(out, base.path.toString());
+                out.writeLong(base.position);
+                out.writeInt(base.index);
+                serializeWithCompression(cas, out, cas.getTypeSystem(), base.mark,
+                        base.reuseInfo);
+            }
+        }
+        catch (CASRuntimeException e) {
+            throw new IOException(e);
+        }
+        catch (ResourceInitializationException e) {
+            throw new IOException(e);
+        }
+    }
+
+    private void restore(CAS cas)
+        throws IOException
+    {
+        cas.reset();
+        SequenceFileRecordFetcher.fetch(conf != null ? conf : new Configuration(),
+                new Path(path.toString()), position, index, cas);
+        try {
+            ReuseInfo reuseInfo = serializeWithCompression(cas, new NullOutputStream(),
+                    cas.getTypeSystem());
+            deltaIn.reset(delta.getData(), delta.getLength());
+            deserializeCAS(cas, deltaIn, cas.getTypeSystem(), reuseInfo);
+        }
+        catch (CASRuntimeException e) {
+            throw new IOException(e);
+        }
+        catch (ResourceInitializationException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * The map input record a CAS was marked at, see {@link DeltaCasWritable#markBase}.
+     */
+    public static class Base
+    {
+        private final Path path;
+        private final long position;
+        private final int index;
+        private final Marker mark;
+        private final ReuseInfo reuseInfo;
+
+        private Base(Path path, long position, int index, Marker mark, ReuseInfo reuseInfo)
+        {
+            this.path = path;
+            this.position = position;
+            this.index = index;
+            this.mark = mark;
+            this.reuseInfo = reuseInfo;
+        }
+    }
+}
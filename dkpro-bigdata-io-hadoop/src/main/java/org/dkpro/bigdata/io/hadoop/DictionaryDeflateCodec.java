@@ -0,0 +1,302 @@
+/*******************************************************************************
+ * Copyright 2013
+ * TU Darmstadt, FG Sprachtechnologie
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.dkpro.bigdata.io.hadoop;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.commons.codec.binary.Base64;
+import org.apache.commons.io.IOUtils;
+import org.apache.hadoop.conf.Configurable;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.CompressionInputStream;
+import org.apache.hadoop.io.compress.CompressionOutputStream;
+import org.apache.hadoop.io.compress.Compressor;
+import org.apache.hadoop.io.compress.CompressorStream;
+import org.apache.hadoop.io.compress.Decompressor;
+import org.apache.hadoop.io.compress.DecompressorStream;
+import org.apache.hadoop.io.compress.zlib.BuiltInZlibDeflater;
+import org.apache.hadoop.io.compress.zlib.BuiltInZlibInflater;
+
+/**
+ * Deflate codec with a preset dictionary. CAS records repeat the same type names, tag sets and
+ * metadata in every document, which plain Deflate has to learn again in every block. With a
+ * dictionary trained on a sample of records ({@link DictionaryTrainer}), it can refer to them
+ * from the first byte of a block.
+ * <p>
+ * As Deflate cannot refer back further than 32 KB, the dictionary only helps to compress the first
+ * 32 KB of each block. It is most useful with small blocks, such as record compressed sequence
+ * files or a small <code>io.seqfile.compress.blocksize</code>.
+ * </p>
+ * <p>
+ * The dictionary is taken from {@link #PARAM_DICTIONARY_DATA} if set (this is how
+ * DkproHadoopDriver ships a dictionary trained at job start to the tasks), otherwise from the file
+ * given by {@link #PARAM_DICTIONARY}. Data compressed with a dictionary can only be read with the
+ * same dictionary.
+ * </p>
+ */
+public class DictionaryDeflateCodec
+    implements Configurable, CompressionCodec
+{
+    /**
+     * Makes DkproHadoopDriver train a dictionary on a sample of the (sequence file) input at job
+     * start and use this codec for the output and the map output. The dictionary is stored as
+     * {@link #DICTIONARY_FILE_NAME} in the output directory.
+     */
+    public static final String PARAM_TRAIN = "dkpro.compress.dictionary.train";
+
+    /**
+     * Path of a dictionary file, e.g. the {@link #DICTIONARY_FILE_NAME} file in the output of a job
+     * that trained a dictionary.
+     */
+    public static final String PARAM_DICTIONARY = "dkpro.compress.dictionary";
+
+    /**
+     * The dictionary itself, Base64 encoded.
+     */
+    public static final String PARAM_DICTIONARY_DATA = "dkpro.compress.dictionary.data";
+
+    /**
+     * Name of the dictionary file stored with the output of a job.
+     */
+    public static final String DICTIONARY_FILE_NAME = "_dictionary";
+
+    /** Dictionaries read from files, by path */
+    private static final Map<String, byte[]> dictionaryFiles = new HashMap<String, byte[]>();
+
+    private Configuration conf;
+    private byte[] dictionary;
+
+    @Override
+    public void setConf(Configuration conf)
+    {
+        this.conf = conf;
+        dictionary = null;
+    }
+
+    @Override
+    public Configuration getConf()
+    {
+        return conf;
+    }
+
+    /**
+     * Ships a dictionary with the job configuration.
+     */
+    public static void setDictionary(Configuration conf, byte[] dictionary)
+        throws IOException
+    {
+        conf.set(PARAM_DICTIONARY_DATA, new String(Base64.encodeBase64(dictionary), "US-ASCII"));
+    }
+
+    /**
+     * Returns the dictionary configured in <code>conf</code>, null if there is none.
+     */
+    public static byte[] getDictionary(Configuration conf)
+        throws IOException
+    {
+        String data = conf.get(PARAM_DICTIONARY_DATA);
+        if (data != null) {
+            return Base64.decodeBase64(data.getBytes("US-ASCII"));
+        }
+        String file = conf.get(PARAM_DICTIONARY);
+        if (file == null) {
+            return null;
+        }
+        synchronized (dictionaryFiles) {
+            byte[] dictionary = dictionaryFiles.get(file);
+            if (dictionary == null) {
+                Path path = new Path(file);
+                InputStream in = path.getFileSystem(conf).open(path);
+                try {
+                    dictionary = IOUtils.toByteArray(in);
+                }
+                finally {
+                    IOUtils.closeQuietly(in);
+                }
+                dictionaryFiles.put(file, dictionary);
+            }
+            return dictionary;
+        }
+    }
+
+    /**
+     * Writes a dictionary to a file that can be used with {@link #PARAM_DICTIONARY}.
+     */
+    public static void writeDictionary(FileSystem fs, Path path, byte[] dictionary)
+        throws IOException
+    {
+        FSDataOutputStream out = fs.create(path);
+        try {
+            out.write(dictionary);
+        }
+        finally {
+            out.close();
+        }
+    }
+
+    private synchronized byte[] getDictionary()
+    {
+        if (dictionary == null && conf != null) {
+            try {
+                dictionary = getDictionary(conf);
+            }
+            catch (IOException e) {
+                throw new IllegalStateException("Unable to read the compression dictionary", e);
+            }
+        }
+        return dictionary;
+    }
+
+    private int getBufferSize()
+    {
+        return conf != null ? conf.getInt("io.file.buffer.size", 4 * 1024) : 4 * 1024;
+    }
+
+    @Override
+    public CompressionOutputStream createOutputStream(OutputStream out)
+        throws IOException
+    {
+        return createOutputStream(out, createCompressor());
+    }
+
+    @Override
+    public CompressionOutputStream createOutputStream(OutputStream out, Compressor compressor)
+        throws IOException
+    {
+        // Pooled compressors may have been created with another configuration
+        ((DictionaryDeflater) compressor).setPresetDictionary(getDictionary());
+        return new CompressorStream(out, compressor, getBufferSize());
+    }
+
+    @Override
+    public Class<? extends Compressor> getCompressorType()
+    {
+        return DictionaryDeflater.class;
+    }
+
+    @Override
+    public Compressor createCompressor()
+    {
+        return new DictionaryDeflater(getDictionary());
+    }
+
+    @Override
+    public CompressionInputStream createInputStream(InputStream in)
+        throws IOException
+    {
+        return createInputStream(in, createDecompressor());
+    }
+
+    @Override
+    public CompressionInputStream createInputStream(InputStream in, Decompressor decompressor)
+        throws IOException
+    {
+        ((DictionaryInflater) decompressor).setPresetDictionary(getDictionary());
+        return new DecompressorStream(in, decompressor, getBufferSize());
+    }
+
+    @Override
+    public Class<? extends Decompressor> getDecompressorType()
+    {
+        return DictionaryInflater.class;
+    }
+
+    @Override
+    public Decompressor createDecompressor()
+    {
+        return new DictionaryInflater(getDictionary());
+    }
+
+    @Override
+    public String getDefaultExtension()
+    {
+        return ".dict.deflate";
+    }
+
+    /**
+     * Deflater that presets the dictionary whenever it starts a new stream.
+     */
+    public static class DictionaryDeflater
+        extends BuiltInZlibDeflater
+    {
+        private byte[] dictionary;
+
+        public DictionaryDeflater(byte[] dictionary)
+        {
+            this.dictionary = dictionary;
+            reset();
+        }
+
+        void setPresetDictionary(byte[] dictionary)
+        {
+            this.dictionary = dictionary;
+            reset();
+        }
+
+        @Override
+        public synchronized void reset()
+        {
+            super.reset();
+            if (dictionary != null) {
+                setDictionary(dictionary, 0, dictionary.length);
+            }
+        }
+    }
+
+    /**
+     * Inflater that supplies the dictionary when a stream asks for it.
+     */
+    public static class DictionaryInflater
+        extends BuiltInZlibInflater
+    {
+        private byte[] dictionary;
+
+        public DictionaryInflater(byte[] dictionary)
+        {
+            this.dictionary = dictionary;
+        }
+
+        void setPresetDictionary(byte[] dictionary)
+        {
+            this.dictionary = dictionary;
+        }
+
+        @Override
+        public synchronized int decompress(byte[] b, int off, int len)
+            throws IOException
+        {
+            int n = super.decompress(b, off, len);
+            if (n == 0 && needsDictionary()) {
+                if (dictionary == null) {
+                    throw new IOException("Data was compressed with a dictionary, set "
+                            + PARAM_DICTIONARY);
+                }
+                setDictionary(dictionary, 0, dictionary.length);
+                n = super.decompress(b, off, len);
+            }
+            return n;
+        }
+    }
+}
@@ -0,0 +1,324 @@
+/*******************************************************************************
+ * Copyright 2013
+ * TU Darmstadt, FG Sprachtechnologie
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.dkpro.bigdata.io.hadoop;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.SequenceFile;
+
+/**
+ * Trains a dictionary for {@link DictionaryDeflateCodec} on a sample of records.
+ * <p>
+ * The dictionary is assembled from segments of the samples. Segments are chosen greedily by the
+ * number of other samples their 8-byte substrings occur in, substrings already covered by a chosen
+ * segment do not count again. The best segments are placed at the end of the dictionary, where
+ * Deflate can refer to them with the shortest distances.
+ * </p>
+ * <p>
+ * As Deflate only refers back 32 KB, the dictionary only helps to compress the first 32 KB of each
+ * compressed block; see {@link DictionaryDeflateCodec}.
+ * </p>
+ */
+public class DictionaryTrainer
+{
+    /**
+     * Number of record bytes sampled from the input to train a dictionary.
+     */
+    public static final String PARAM_SAMPLE_SIZE = "dkpro.compress.dictionary.sample-size";
+
+    public static final long DEFAULT_SAMPLE_SIZE = 4 * 1024 * 1024;
+
+    /** Deflate cannot refer further back than its window */
+    public static final int MAX_DICTIONARY_SIZE = 32 * 1024;
+
+    private static final int K = 8;
+    private static final int SEGMENT_SIZE = 64;
+
+    private DictionaryTrainer()
+    {
+        // static helpers only
+    }
+
+    /**
+     * Reads the uncompressed values of the first records of each sequence file in
+     * <code>paths</code> (files or directories) until about <code>maxBytes</code> are sampled.
+     * Hidden files (starting with <code>_</code> or <code>.</code>) are skipped.
+     */
+    public static List<byte[]> sample(Configuration conf, Path[] paths, long maxBytes)
+        throws IOException
+    {
+        List<Path> files = new ArrayList<Path>();
+        for (Path path : paths) {
+            FileSystem fs = path.getFileSystem(conf);
+            FileStatus[] statuses = fs.globStatus(path);
+            if (statuses == null) {
+                continue;
+            }
+            for (FileStatus status : statuses) {
+                if (status.isDirectory()) {
+                    for (FileStatus child : fs.listStatus(status.getPath())) {
+                        if (!child.isDirectory() && !isHidden(child.getPath())) {
+                            files.add(child.getPath());
+                        }
+                    }
+                }
+                else if (!isHidden(status.getPath())) {
+                    files.add(status.getPath());
+                }
+            }
+        }
+
+        List<byte[]> samples = new ArrayList<byte[]>();
+        if (files.isEmpty()) {
+            return samples;
+        }
+        // Spread the sample over the files
+        long perFile = Math.max(1, maxBytes / files.size());
+        DataOutputBuffer key = new DataOutputBuffer();
+        DataOutputBuffer value = new DataOutputBuffer();
+        for (Path file : files) {
+            SequenceFile.Reader reader = new SequenceFile.Reader(file.getFileSystem(conf), file,
+                    conf);
+            try {
+                SequenceFile.ValueBytes raw = reader.createValueBytes();
+                long sampled = 0;
+                while (sampled < perFile && reader.nextRaw(key, raw) != -1) {
+                    key.reset();
+                    value.reset();
+                    raw.writeUncompressedBytes(value);
+                    samples.add(Arrays.copyOf(value.getData(), value.getLength()));
+                    sampled += value.getLength();
+                }
+            }
+            finally {
+                reader.close();
+            }
+        }
+        return samples;
+    }
+
+    private static boolean isHidden(Path path)
+    {
+        return path.getName().startsWith("_") || path.getName().startsWith(".");
+    }
+
+    /**
+     * Builds a dictionary of at most <code>size</code> bytes from the samples. Returns an empty
+     * dictionary if the samples do not share any content.
+     */
+    public static byte[] train(List<byte[]> samples, int size)
+    {
+        // Number of samples each substring occurs in
+        KmerTable frequencies = new KmerTable();
+        for (int s = 0; s < samples.size(); s++) {
+            byte[] sample = samples.get(s);
+            for (int i = 0; i + K <= sample.length; i++) {
+                frequencies.addOccurrence(kmer(sample, i), s);
+            }
+        }
+
+        PriorityQueue<Segment> candidates = new PriorityQueue<Segment>();
+        for (byte[] sample : samples) {
+            for (int offset = 0; offset + SEGMENT_SIZE <= sample.length; offset +=
+                    SEGMENT_SIZE / 2) {
+                Segment segment = new Segment(sample, offset);
+                segment.score = score(segment, frequencies, null);
+                if (segment.score > 0) {
+                    candidates.add(segment);
+                }
+            }
+        }
+
+        // Lazy greedy selection: scores only decrease as more substrings are covered
+        KmerTable covered = new KmerTable();
+        List<Segment> chosen = new ArrayList<Segment>();
+        int total = 0;
+        while (total + SEGMENT_SIZE <= size && !candidates.isEmpty()) {
+            Segment segment = candidates.poll();
+            int score = score(segment, frequencies, covered);
+            if (score <= 0) {
+                continue;
+            }
+            if (!candidates.isEmpty() && score < candidates.peek().score) {
+                segment.score = score;
+                candidates.add(segment);
+                continue;
+            }
+            chosen.add(segment);
+            total += SEGMENT_SIZE;
+            for (int i = segment.offset; i + K <= segment.offset + SEGMENT_SIZE; i++) {
+                covered.addOccurrence(kmer(segment.sample, i), 0);
+            }
+        }
+
+        // Best segments last
+        byte[] dictionary = new byte[total];
+        int position = total;
+        for (Segment segment : chosen) {
+            position -= SEGMENT_SIZE;
+            System.arraycopy(segment.sample, segment.offset, dictionary, position, SEGMENT_SIZE);
+        }
+        return dictionary;
+    }
+
+    /**
+     * Sum of the number of other samples the substrings of a segment occur in, ignoring covered
+     * substrings.
+     */
+    private static int score(Segment segment, KmerTable frequencies, KmerTable covered)
+    {
+        int score = 0;
+        for (int i = segment.offset; i + K <= segment.offset + SEGMENT_SIZE; i++) {
+            long kmer = kmer(segment.sample, i);
+            if (covered == null || covered.get(kmer) == 0) {
+                score += frequencies.get(kmer) - 1;
+            }
+        }
+        return score;
+    }
+
+    private static long kmer(byte[] data, int offset)
+    {
+        long kmer = 0;
+        for (int i = 0; i < K; i++) {
+            kmer = (kmer << 8) | (data[offset + i] & 0xff);
+        }
+        return kmer;
+    }
+
+    /**
+     * Open addressing hash table counting in how many samples each substring occurs. Several
+     * million substrings are sampled, which would take several times the memory as boxed keys and
+     * values in a HashMap.
+     */
+    private static class KmerTable
+    {
+        private static final int INITIAL_CAPACITY = 1 << 16;
+
+        private long[] keys = new long[INITIAL_CAPACITY];
+
+        /** 0 marks a free slot */
+        private int[] counts = new int[INITIAL_CAPACITY];
+
+        /** Sample the substring was last counted for */
+        private int[] lastSamples = new int[INITIAL_CAPACITY];
+
+        private int size = 0;
+
+        /**
+         * Counts an occurrence of <code>kmer</code> in the given sample, unless it has already
+         * been counted for that sample. Samples must be added in order.
+         */
+        void addOccurrence(long kmer, int sample)
+        {
+            int slot = find(kmer);
+            if (counts[slot] == 0) {
+                keys[slot] = kmer;
+                counts[slot] = 1;
+                lastSamples[slot] = sample;
+                if (++size > keys.length / 4 * 3) {
+                    grow();
+                }
+            }
+            else if (lastSamples[slot] != sample) {
+                counts[slot]++;
+                lastSamples[slot] = sample;
+            }
+        }
+
+        /**
+         * Returns the number of samples <code>kmer</code> occurs in.
+         */
+        int get(long kmer)
+        {
+            return counts[find(kmer)];
+        }
+
+        /**
+         * Returns the slot holding <code>kmer</code>, or the free slot it would be stored in.
+         */
+        private int find(long kmer)
+        {
+            int mask = keys.length - 1;
+            int slot = hash(kmer) & mask;
+            while (counts[slot] != 0 && keys[slot] != kmer) {
+                slot = (slot + 1) & mask;
+            }
+            return slot;
+        }
+
+        private void grow()
+        {
+            long[] oldKeys = keys;
+            int[] oldCounts = counts;
+            int[] oldLastSamples = lastSamples;
+            keys = new long[oldKeys.length * 2];
+            counts = new int[oldKeys.length * 2];
+            lastSamples = new int[oldKeys.length * 2];
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldCounts[i] != 0) {
+                    int slot = find(oldKeys[i]);
+                    keys[slot] = oldKeys[i];
+                    counts[slot] = oldCounts[i];
+                    lastSamples[slot] = oldLastSamples[i];
+                }
+            }
+        }
+
+        private static int hash(long kmer)
+        {
+            // Finalizer of MurmurHash3, the substrings themselves are far from uniform
+            long h = kmer;
+            h ^= h >>> 33;
+            h *= 0xff51afd7ed558ccdL;
+            h ^= h >>> 33;
+            h *= 0xc4ceb9fe1a85ec53L;
+            h ^= h >>> 33;
+            return (int) h;
+        }
+    }
+
+    private static class Segment
+        implements Comparable<Segment>
+    {
+        private final byte[] sample;
+        private final int offset;
+        private int score;
+
+        Segment(byte[] sample, int offset)
+        {
+            this.sample = sample;
+            this.offset = offset;
+        }
+
+        @Override
+        public int compareTo(Segment other)
+        {
+            // Highest score first
+            return other.score - score;
+        }
+    }
+}
@@ -0,0 +1,471 @@
+/*******************************************************************************
+ * Copyright 2013
+ * TU Darmstadt, FG Sprachtechnologie
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.dkpro.bigdata.io.hadoop;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapred.FileSplit;
+import org.apache.hadoop.mapred.InputSplit;
+import org.apache.hadoop.mapred.Reporter;
+import org.apache.hadoop.util.bloom.BloomFilter;
+import org.apache.hadoop.util.bloom.Key;
+import org.apache.hadoop.util.hash.Hash;
+
+/**
+ * Drops exact duplicate documents at read time by hashing their normalised text (case folded,
+ * whitespace collapsed) into a Bloom filter.
+ * <p>
+ * Within a split, every document whose hash was seen before is dropped. Across splits, the filter
+ * is seeded with the shared filter given in {@link #FILTER}, which is built by a pre-pass over the
+ * same input (see <code>DuplicateFilterDriver</code>) and holds every copy of a duplicate except
+ * one. Copies are told apart by their key and the split they are read from (see
+ * {@link #setSplit(InputSplit)}), so copies under the same key in different splits are dropped as
+ * well. This requires the job to have exactly the same splits as the pre-pass. The pre-pass lists
+ * its splits in the shared filter, and documents of other splits are counted as
+ * {@link Counters#UNKNOWN_SPLIT}. The text of HTML {@link CrawlerRecord}s is hashed without its
+ * markup (see {@link #getText(CrawlerRecord, HtmlTextExtractor)}). The shared filter may also
+ * list the keys of near duplicates (see <code>NearDuplicateDriver</code>), which are dropped
+ * without looking at their text. As with every Bloom filter, a small share of unique documents
+ * (see {@link #FALSE_POSITIVE_RATE}) is dropped as well.
+ * </p>
+ * <p>
+ * Enabled in the record readers by {@link #DEDUPLICATE} and at the top of
+ * <code>DkproMapper.map</code> by <code>dkpro.map.deduplicate</code>. Only enable one of the two.
+ * The second stage finds no further duplicates and only hashes every document again.
+ * </p>
+ */
+public class DuplicateFilter
+{
+    /**
+     * Whether the record readers drop duplicate documents. Off by default.
+     */
+    public static final String DEDUPLICATE = "dkpro.input.deduplicate";
+
+    /**
+     * Path of the shared filter built by the pre-pass. Without it, only duplicates within a split
+     * are dropped.
+     */
+    public static final String FILTER = "dkpro.dedup.filter";
+
+    /**
+     * Number of entries the filters are sized for, should be about the number of documents in the
+     * corpus.
+     */
+    public static final String EXPECTED_DOCUMENTS = "dkpro.dedup.expected-documents";
+
+    /**
+     * False positive rate of the filters at {@link #EXPECTED_DOCUMENTS} entries.
+     */
+    public static final String FALSE_POSITIVE_RATE = "dkpro.dedup.false-positive-rate";
+
+    public static final int DEFAULT_EXPECTED_DOCUMENTS = 10000000;
+
+    public static final float DEFAULT_FALSE_POSITIVE_RATE = 0.001f;
+
+    /**
+     * Name of the shared filter in the output of the pre-pass and in the working directory of the
+     * tasks, where it is linked to from the distributed cache.
+     */
+    public static final String FILTER_FILE_NAME = "duplicates.bloom";
+
+    /**
+     * Hadoop counters for the documents that were dropped.
+     */
+    public static enum Counters
+    {
+        /** An earlier document of the same split had the same text */
+        DUPLICATE_IN_SPLIT,
+        /** The shared filter lists the document as a copy of a document kept elsewhere */
+        DUPLICATE_IN_CORPUS,
+        /** The shared filter lists the key as a near duplicate of a document kept elsewhere */
+        NEAR_DUPLICATE,
+        /**
+         * Documents checked in a split the pre-pass did not see, e.g. because it ran with other
+         * split settings. Copies in other splits are not dropped for these documents.
+         */
+        UNKNOWN_SPLIT
+    }
+
+    /** Initial value of the 64 bit FNV-1a hash, see {@link #update(long, char)} */
+    public static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    public static final long FNV_PRIME = 0x100000001b3L;
+
+    /** Key hash plus one zero byte, so that the entries differ from those of the split */
+    private static final int NEAR_DUPLICATE_KEY_LENGTH = 9;
+
+    /** Split hash plus two zero bytes */
+    private static final int SPLIT_KEY_LENGTH = 10;
+
+    /** Present in shared filters that list the splits of the pre-pass */
+    private static final Key SPLITS_LISTED = new Key(new byte[SPLIT_KEY_LENGTH + 1]);
+
+    private final BloomFilter filter;
+
+    /** Reused for every document, the filter does not keep the keys */
+    private final byte[] corpusBytes = new byte[16];
+    private final Key corpusEntry = new Key();
+    private final byte[] splitBytes = new byte[8];
+    private final Key splitEntry = new Key();
+    private final byte[] nearDuplicateBytes = new byte[NEAR_DUPLICATE_KEY_LENGTH];
+    private final Key nearDuplicateEntry = new Key();
+
+    private InputSplit split;
+    private long splitHash;
+    private boolean unknownSplit;
+
+    public DuplicateFilter(BloomFilter filter)
+    {
+        this.filter = filter;
+    }
+
+    /**
+     * Creates the filter configured in <code>conf</code>, seeded with the shared filter if there
+     * is one.
+     */
+    public static DuplicateFilter create(Configuration conf)
+        throws IOException
+    {
+        String shared = conf.get(FILTER);
+        if (shared == null) {
+            return new DuplicateFilter(createBloomFilter(conf));
+        }
+        File local = new File(FILTER_FILE_NAME);
+        if (local.exists()) {
+            // Linked from the distributed cache
+            InputStream in = new FileInputStream(local);
+            try {
+                return new DuplicateFilter(readBloomFilter(in));
+            }
+            finally {
+                IOUtils.closeQuietly(in);
+            }
+        }
+        Path path = new Path(shared);
+        return new DuplicateFilter(readBloomFilter(path.getFileSystem(conf), path));
+    }
+
+    /**
+     * Creates an empty Bloom filter sized by {@link #EXPECTED_DOCUMENTS} and
+     * {@link #FALSE_POSITIVE_RATE}. Filters created from the same configuration can be combined
+     * with {@link BloomFilter#or}.
+     */
+    public static BloomFilter createBloomFilter(Configuration conf)
+    {
+        long n = Math.max(1, conf.getLong(EXPECTED_DOCUMENTS, DEFAULT_EXPECTED_DOCUMENTS));
+        double p = conf.getFloat(FALSE_POSITIVE_RATE, DEFAULT_FALSE_POSITIVE_RATE);
+        double bits = Math.ceil(-n * Math.log(p) / (Math.log(2) * Math.log(2)));
+        int vectorSize = (int) Math.min(Integer.MAX_VALUE - 64, bits);
+        int nbHash = Math.max(1, (int) Math.round(vectorSize / (double) n * Math.log(2)));
+        return new BloomFilter(vectorSize, nbHash, Hash.MURMUR_HASH);
+    }
+
+    public static BloomFilter readBloomFilter(FileSystem fs, Path path)
+        throws IOException
+    {
+        InputStream in = fs.open(path);
+        try {
+            return readBloomFilter(in);
+        }
+        finally {
+            IOUtils.closeQuietly(in);
+        }
+    }
+
+    private static BloomFilter readBloomFilter(InputStream in)
+        throws IOException
+    {
+        BloomFilter filter = new BloomFilter();
+        filter.readFields(new DataInputStream(in));
+        return filter;
+    }
+
+    public static void writeBloomFilter(FileSystem fs, Path path, BloomFilter filter)
+        throws IOException
+    {
+        DataOutputStream out = fs.create(path, true);
+        try {
+            filter.write(out);
+        }
+        finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Sets the split the documents are read from, as seen by the pre-pass. Without a split, copies
+     * are only told apart by their key.
+     */
+    public void setSplit(InputSplit split)
+    {
+        if (split != this.split) {
+            this.split = split;
+            splitHash = hashSplit(split);
+            unknownSplit = filter.membershipTest(SPLITS_LISTED)
+                    && !filter.membershipTest(splitEntry(splitHash));
+        }
+    }
+
+    /**
+     * Checks whether the document is a duplicate and remembers it otherwise.
+     *
+     * @param key
+     *            the key of the record, as seen by the pre-pass
+     * @param text
+     *            the document text
+     * @param reporter
+     *            receives the {@link Counters}, may be null
+     * @return true if the document should be dropped, never for a text without any
+     *         non-whitespace character
+     */
+    public boolean isDuplicate(String key, CharSequence text, Reporter reporter)
+    {
+        long keyHash = hashKey(key != null ? key : "");
+        if (filter.membershipTest(nearDuplicateKey(keyHash))) {
+            count(reporter, Counters.NEAR_DUPLICATE);
+            return true;
+        }
+        if (!hasText(text)) {
+            // All empty texts have the same hash
+            return false;
+        }
+        if (unknownSplit) {
+            count(reporter, Counters.UNKNOWN_SPLIT);
+        }
+        long hash = hashText(text);
+        if (filter.membershipTest(corpusKey(hash, hashCopy(keyHash, splitHash)))) {
+            count(reporter, Counters.DUPLICATE_IN_CORPUS);
+            return true;
+        }
+        Key local = splitKey(hash);
+        if (filter.membershipTest(local)) {
+            count(reporter, Counters.DUPLICATE_IN_SPLIT);
+            return true;
+        }
+        filter.add(local);
+        return false;
+    }
+
+    /**
+     * Adds a copy that is to be dropped to a shared filter.
+     *
+     * @param copyHash
+     *            the hash of the key and the split of the copy, see
+     *            {@link #hashCopy(long, long)}
+     */
+    public static void addCorpusDuplicate(BloomFilter filter, long textHash, long copyHash)
+    {
+        byte[] bytes = new byte[16];
+        putLong(bytes, 0, textHash);
+        putLong(bytes, 8, copyHash);
+        filter.add(new Key(bytes));
+    }
+
+    /**
+     * Adds a split seen by the pre-pass to a shared filter.
+     */
+    public static void addSplit(BloomFilter filter, long splitHash)
+    {
+        filter.add(splitEntry(splitHash));
+        filter.add(SPLITS_LISTED);
+    }
+
+    private static Key splitEntry(long splitHash)
+    {
+        byte[] bytes = new byte[SPLIT_KEY_LENGTH];
+        putLong(bytes, 0, splitHash);
+        return new Key(bytes);
+    }
+
+    /**
+     * Adds the key of a near duplicate that is to be dropped to a shared filter.
+     */
+    public static void addNearDuplicate(BloomFilter filter, long keyHash)
+    {
+        byte[] bytes = new byte[NEAR_DUPLICATE_KEY_LENGTH];
+        putLong(bytes, 0, keyHash);
+        filter.add(new Key(bytes));
+    }
+
+    private Key corpusKey(long textHash, long copyHash)
+    {
+        putLong(corpusBytes, 0, textHash);
+        putLong(corpusBytes, 8, copyHash);
+        corpusEntry.set(corpusBytes, 1.0);
+        return corpusEntry;
+    }
+
+    private Key nearDuplicateKey(long keyHash)
+    {
+        putLong(nearDuplicateBytes, 0, keyHash);
+        nearDuplicateEntry.set(nearDuplicateBytes, 1.0);
+        return nearDuplicateEntry;
+    }
+
+    /**
+     * Entries of the split are only keyed by the text, so they never match an entry of the shared
+     * filter.
+     */
+    private Key splitKey(long textHash)
+    {
+        putLong(splitBytes, 0, textHash);
+        splitEntry.set(splitBytes, 1.0);
+        return splitEntry;
+    }
+
+    private static void count(Reporter reporter, Counters counter)
+    {
+        if (reporter != null) {
+            reporter.incrCounter(counter, 1);
+        }
+    }
+
+    /**
+     * Returns whether the text contains a non-whitespace character, i.e. whether its normalised
+     * text is not empty.
+     */
+    public static boolean hasText(CharSequence text)
+    {
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (!Character.isWhitespace(c) && !Character.isSpaceChar(c)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns a 64 bit hash of the normalised text: case is folded, and runs of whitespace count
+     * as one space and are ignored at the start and the end.
+     */
+    public static long hashText(CharSequence text)
+    {
+        long h = FNV_OFFSET;
+        boolean started = false;
+        boolean space = false;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (Character.isWhitespace(c) || Character.isSpaceChar(c)) {
+                space = started;
+                continue;
+            }
+            if (space) {
+                h = update(h, ' ');
+                space = false;
+            }
+            h = update(h, Character.toLowerCase(c));
+            started = true;
+        }
+        return finish(h);
+    }
+
+    /**
+     * Returns the text of a record as it is hashed: the text extracted by <code>extractor</code> for
+     * HTML records, so that copies that only differ in their markup are found, and the content of
+     * other records.
+     */
+    public static CharSequence getText(CrawlerRecord record, HtmlTextExtractor extractor)
+        throws IOException
+    {
+        String content = record.getContent();
+        if (content == null || !record.isHTML()) {
+            return content;
+        }
+        return extractor.extract(new StringReader(content));
+    }
+
+    /**
+     * Returns a 64 bit hash of the path, the start and the length of a file split, or 0 for other
+     * splits and null.
+     */
+    public static long hashSplit(InputSplit split)
+    {
+        if (!(split instanceof FileSplit)) {
+            return 0;
+        }
+        FileSplit fileSplit = (FileSplit) split;
+        return hashKey(fileSplit.getPath().toString() + ":" + fileSplit.getStart() + "+"
+                + fileSplit.getLength());
+    }
+
+    /**
+     * Returns the split of a map task, or null if the reporter does not know it.
+     */
+    public static InputSplit getInputSplit(Reporter reporter)
+    {
+        try {
+            return reporter != null ? reporter.getInputSplit() : null;
+        }
+        catch (UnsupportedOperationException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns the hash that identifies a copy of a document by its key and its split.
+     */
+    public static long hashCopy(long keyHash, long splitHash)
+    {
+        return finish(keyHash ^ splitHash);
+    }
+
+    /**
+     * Returns a 64 bit hash of the record key.
+     */
+    public static long hashKey(String key)
+    {
+        long h = FNV_OFFSET;
+        for (int i = 0; i < key.length(); i++) {
+            h = update(h, key.charAt(i));
+        }
+        return finish(h);
+    }
+
+    /** FNV-1a over both bytes of the char */
+    public static long update(long h, char c)
+    {
+        h = (h ^ (c & 0xff)) * FNV_PRIME;
+        return (h ^ (c >>> 8)) * FNV_PRIME;
+    }
+
+    /** Final mix of MurmurHash3, spreads the bits of the last chars */
+    public static long finish(long h)
+    {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        return h ^ (h >>> 33);
+    }
+
+    private static void putLong(byte[] buf, int off, long value)
+    {
+        for (int i = 0; i < 8; i++) {
+            buf[off + i] = (byte) (value >>> (56 - 8 * i));
+        }
+    }
+}
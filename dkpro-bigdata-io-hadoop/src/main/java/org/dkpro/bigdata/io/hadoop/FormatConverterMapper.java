@@ -17,8 +17,6 @@
  ******************************************************************************/
 package org.dkpro.bigdata.io.hadoop;
 
-import static org.apache.uima.fit.factory.TypeSystemDescriptionFactory.createTypeSystemDescription;
-
 import java.io.IOException;
 
 import org.apache.commons.io.IOUtils;
@@ -29,7 +27,6 @@ import org.apache.hadoop.mapred.OutputCollector;
 import org.apache.hadoop.mapred.Reporter;
 import org.apache.uima.cas.CAS;
 import org.apache.uima.cas.impl.XCASDeserializer;
-import org.apache.uima.util.CasCreationUtils;
 
 /**
  * Converts the old Text-based CAS Files to CASWritables
@@ -40,12 +37,12 @@ import org.apache.uima.util.CasCreationUtils;
 public class FormatConverterMapper
     implements Mapper<Text, Text, Text, CASWritable>
 {
+    private final CASWritable casWritable = new BinCasWithTypeSystemWritable();
 
     @Override
     public void configure(JobConf job)
     {
-        // TODO Auto-generated method stub
-
+        SharedCasPool.configure(job);
     }
 
     @Override
@@ -61,14 +58,15 @@ public class FormatConverterMapper
             Reporter reporter)
         throws IOException
     {
+        CAS cas = null;
         try {
-            CAS cas = CasCreationUtils.createCas(createTypeSystemDescription(), null, null);
+            cas = SharedCasPool.acquire();
 
             XCASDeserializer.deserialize(IOUtils.toInputStream(value.toString(), "UTF-8"), cas);
 
             // XCASDeserializer.deserialize(IOUtils.toInputStream(value.toString(), "utf8"), cas);
-            CASWritable casWritable = new BinCasWithTypeSystemWritable();
             casWritable.setCAS(cas);
+            // The CAS is serialized right away, so it can be returned to the pool afterwards
             output.collect(key, casWritable);
             reporter.incrCounter("hpz", "processed cas", 1);
             if (cas.getDocumentText() == null)
@@ -82,6 +80,11 @@ public class FormatConverterMapper
             reporter.incrCounter("hpz", "exception " + e.getMessage(), 1);
             e.printStackTrace(System.err);
         }
+        finally {
+            casWritable.setCAS(null);
+            SharedCasPool.release(cas);
+            SharedCasPool.reportCounters(reporter);
+        }
 
     }
 
@@ -17,75 +17,338 @@
 package org.dkpro.bigdata.io.hadoop;
 
 import java.io.IOException;
+import java.util.regex.Pattern;
 
-import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.DataOutputBuffer;
 import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.compress.CodecPool;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.CompressionCodecFactory;
+import org.apache.hadoop.io.compress.Decompressor;
 import org.apache.hadoop.mapred.FileSplit;
 import org.apache.hadoop.mapred.JobConf;
-import org.apache.hadoop.mapred.LineRecordReader;
 import org.apache.hadoop.mapred.RecordReader;
 import org.apache.hadoop.mapred.Reporter;
+import org.apache.hadoop.util.LineReader;
 
 /**
- * Generic version of LineRecordReader from org.apache.hadoop.mapred package.
+ * Reads plain-text documents that span several lines.
  * <p>
- * Use this class if you need to read plain-text lines and emit non-text
- * values based on the lines. This reader reads all lines in one input split in one
- * aggregated Text value.
- * <code>convertValue()</code> needs to be implemented by your subclass.
+ * By default, every line is a document and {@link #MAX_LINES} lines are read into one record.
+ * If {@link #DELIMITER} is set, documents are separated by delimiter lines instead:
  * </p>
+ * <ul>
+ * <li>an empty value separates documents by blank lines,</li>
+ * <li>a value starting with <code>regex:</code> matches delimiter lines by a regular
+ * expression,</li>
+ * <li>any other value matches delimiter lines starting with it, e.g. <code>&lt;doc</code>.</li>
+ * </ul>
  * <p>
- * Useful for e.g. generating UIMA CASes from plain text. In this case, the key would be
- * the offset of the input split, and the value a CAS initialized with all lines in the input split.
+ * Delimiter lines are dropped, unless {@link #KEEP_DELIMITER} is set, in which case a delimiter
+ * line is the first line of the document it starts. If {@link #MAX_RECORD_SIZE} is set,
+ * consecutive documents are packed into one record as long as it does not grow beyond the given
+ * number of bytes, separated by blank lines. Delimiters are detected on the raw bytes, except for
+ * regular expressions, and a record is decoded only once.
+ * </p>
+ * <p>
+ * A document belongs to the split in which its delimiter line starts (or its first line, if there
+ * is no delimiter before it), and is read to its end even beyond the end of the split. The key of
+ * a record is <code>&lt;file&gt;:&lt;offset&gt;</code>, the offset being that of the first line of
+ * its first document. <code>convertValue()</code> needs to be implemented by your subclass.
  * </p>
  * 
  * @author Johannes Simon
  */
 public abstract class GenericMultiLineRecordReader<V> implements RecordReader<Text, V> {
+	/**
+	 * Number of lines per record if documents are not delimited.
+	 */
+	public static final String MAX_LINES = "dkpro.input.maxlinesperrecord";
+
+	/**
+	 * Delimiter between documents, see above.
+	 */
+	public static final String DELIMITER = "dkpro.input.delimiter";
+
+	/**
+	 * Keep delimiter lines as first lines of the documents.
+	 */
+	public static final String KEEP_DELIMITER = "dkpro.input.delimiter.keep";
+
+	/**
+	 * Maximum size of a record in bytes when packing documents, 0 (the
+	 * default) to never pack documents.
+	 */
+	public static final String MAX_RECORD_SIZE = "dkpro.input.max-record-size";
+
+	private static final String REGEX_PREFIX = "regex:";
 
-	private final LineRecordReader lineReader;
 	private final FileSplit split;
-	private int maxNumLinesPerSplit;
-	
+	private final long start;
+	private final long end;
+	private final FSDataInputStream fileIn;
+	private final LineReader lineReader;
+	private Decompressor decompressor;
+
+	/** End of the range reported by {@link #getProgress()} */
+	private final long progressEnd;
+
+	private final boolean delimited;
+	private final boolean keepDelimiter;
+	private final byte[] marker;
+	private final Pattern pattern;
+	private final int maxDocuments;
+	private final long maxRecordSize;
+
+	/** Line read ahead and its offset */
+	private final Text line = new Text();
+	private boolean hasLine = false;
+	private long linePos;
+	private boolean eof = false;
+
+	/** Offset after the last line read */
+	private long pos;
+
+	/** Offset of the last delimiter line, -1 if it has been used */
+	private long anchor;
+
+	/** A document that did not fit into the last record */
+	private final DataOutputBuffer pending = new DataOutputBuffer();
+	private long pendingStart = -1;
+
+	private final DataOutputBuffer record = new DataOutputBuffer();
+	private final Text docKey = new Text();
+	private final Text docValue = new Text();
+
 	public GenericMultiLineRecordReader(FileSplit split, JobConf jobConf, Reporter reporter) throws IOException {
-		lineReader = new LineRecordReader(jobConf, split);
 		this.split = split;
-		maxNumLinesPerSplit = jobConf.getInt("dkpro.input.maxlinesperrecord", 1);
+		start = split.getStart();
+		Path file = split.getPath();
+		FileSystem fs = file.getFileSystem(jobConf);
+		fileIn = fs.open(file);
+
+		CompressionCodec codec = new CompressionCodecFactory(jobConf).getCodec(file);
+		if (codec != null) {
+			if (start != 0) {
+				fileIn.close();
+				throw new IOException("Compressed file [" + file + "] cannot be split");
+			}
+			decompressor = CodecPool.getDecompressor(codec);
+			lineReader = new LineReader(codec.createInputStream(fileIn, decompressor), jobConf);
+			end = Long.MAX_VALUE;
+			progressEnd = fs.getFileStatus(file).getLen();
+			pos = 0;
+		} else if (start != 0) {
+			// Lines belong to the split they start in: skip the rest of the
+			// line we are in, or just the line break before the start
+			fileIn.seek(start - 1);
+			lineReader = new LineReader(fileIn, jobConf);
+			end = start + split.getLength();
+			progressEnd = end;
+			pos = start - 1 + lineReader.readLine(line);
+		} else {
+			lineReader = new LineReader(fileIn, jobConf);
+			end = split.getLength();
+			progressEnd = end;
+			pos = 0;
+		}
+
+		String delimiter = jobConf.get(DELIMITER);
+		delimited = delimiter != null;
+		keepDelimiter = jobConf.getBoolean(KEEP_DELIMITER, false);
+		if (delimiter != null && delimiter.startsWith(REGEX_PREFIX)) {
+			pattern = Pattern.compile(delimiter.substring(REGEX_PREFIX.length()));
+			marker = null;
+		} else if (delimiter != null && !delimiter.isEmpty()) {
+			pattern = null;
+			marker = delimiter.getBytes("UTF-8");
+		} else {
+			pattern = null;
+			marker = null;
+		}
+		maxRecordSize = jobConf.getLong(MAX_RECORD_SIZE, 0);
+		if (!delimited) {
+			maxDocuments = jobConf.getInt(MAX_LINES, 1);
+		} else {
+			maxDocuments = maxRecordSize > 0 ? Integer.MAX_VALUE : 1;
+		}
+
+		anchor = start == 0 ? 0 : -1;
+		if (delimited && start != 0) {
+			// The document we are in belongs to the previous split
+			while (peek() && !isDelimiter()) {
+				hasLine = false;
+			}
+		}
 	}
 	
 	@Override
 	public boolean next(Text key, V value) throws IOException {
-		LongWritable lineKey = lineReader.createKey();
-		Text docKey = new Text(split.toString());
-		StringBuilder doc = new StringBuilder();
-		Text line = lineReader.createValue();
-		int lineCount = 0;
-		while (lineReader.next(lineKey, line)) {
-			// Document key is key of first line (in this split)
-			doc.append(line);
-			doc.append("\n");
-			lineCount++;
-			if (lineCount == maxNumLinesPerSplit) {
+		record.reset();
+		long recordStart = -1;
+		int documents = 0;
+		if (pendingStart >= 0) {
+			record.write(pending.getData(), 0, pending.getLength());
+			recordStart = pendingStart;
+			pendingStart = -1;
+			documents++;
+		}
+		while (documents < maxDocuments) {
+			pending.reset();
+			long documentStart = readDocument(pending);
+			if (documentStart < 0) {
+				break;
+			}
+			int separator = delimited && documents > 0 ? 1 : 0;
+			if (documents > 0 && maxRecordSize > 0
+					&& record.getLength() + separator + pending.getLength() > maxRecordSize) {
+				pendingStart = documentStart;
 				break;
 			}
+			if (separator > 0) {
+				record.write('\n');
+			}
+			record.write(pending.getData(), 0, pending.getLength());
+			if (recordStart < 0) {
+				recordStart = documentStart;
+			}
+			documents++;
 		}
-		
-		// success == true iff. we read at least one line
-		boolean success = doc.length() > 0;
-		if (success) {
-			Text docValue = new Text(doc.toString());
-			convertValue(docKey, docValue, value);
+
+		if (documents == 0) {
+			return false;
 		}
-		
-		return success;
+		docKey.set(split.getPath() + ":" + recordStart);
+		docValue.set(record.getData(), 0, record.getLength());
+		key.set(docKey);
+		convertValue(docKey, docValue, value);
+		return true;
+	}
+
+	/**
+	 * Reads the next document of this split into <code>out</code>.
+	 * 
+	 * @return the offset of its first line, or -1 if there is none
+	 */
+	private long readDocument(DataOutputBuffer out) throws IOException {
+		if (!delimited) {
+			if (!peek() || linePos >= end) {
+				return -1;
+			}
+			long documentStart = linePos;
+			appendLine(out);
+			return documentStart;
+		}
+
+		if (keepDelimiter) {
+			if (!peek()) {
+				return -1;
+			}
+			if (isDelimiter()) {
+				anchor = linePos;
+			}
+		} else {
+			while (peek() && isDelimiter()) {
+				anchor = linePos;
+				hasLine = false;
+			}
+			if (!hasLine) {
+				return -1;
+			}
+		}
+		if (anchor < 0 || anchor >= end) {
+			return -1;
+		}
+		anchor = -1;
+
+		long documentStart = linePos;
+		appendLine(out);
+		while (peek() && !isDelimiter()) {
+			appendLine(out);
+		}
+		return documentStart;
+	}
+
+	/**
+	 * Reads the next line into <code>line</code> unless that has been done
+	 * already.
+	 * 
+	 * @return false at the end of the input
+	 */
+	private boolean peek() throws IOException {
+		if (!hasLine && !eof) {
+			linePos = pos;
+			int consumed = lineReader.readLine(line);
+			if (consumed == 0) {
+				eof = true;
+			} else {
+				pos += consumed;
+				hasLine = true;
+			}
+		}
+		return hasLine;
+	}
+
+	private void appendLine(DataOutputBuffer out) throws IOException {
+		out.write(line.getBytes(), 0, line.getLength());
+		out.write('\n');
+		hasLine = false;
+	}
+
+	private boolean isDelimiter() {
+		byte[] bytes = line.getBytes();
+		int length = line.getLength();
+		if (pattern != null) {
+			return pattern.matcher(line.toString()).matches();
+		}
+		if (marker != null) {
+			if (length < marker.length) {
+				return false;
+			}
+			for (int i = 0; i < marker.length; i++) {
+				if (bytes[i] != marker[i]) {
+					return false;
+				}
+			}
+			return true;
+		}
+		// Blank line
+		for (int i = 0; i < length; i++) {
+			if (bytes[i] != ' ' && bytes[i] != '\t' && bytes[i] != '\r') {
+				return false;
+			}
+		}
+		return true;
 	}
 
-	// The following methods only delegate functionality to lineReader
-	
 	protected abstract void convertValue(Text longKey, Text textValue, V value);
 
-	@Override public void close() throws IOException { lineReader.close(); }
-	@Override public long getPos() throws IOException { return lineReader.getPos(); }
-	@Override public float getProgress() throws IOException { return lineReader.getProgress(); }
-	
-}
\ No newline at end of file
+	@Override
+	public void close() throws IOException {
+		try {
+			lineReader.close();
+		} finally {
+			if (decompressor != null) {
+				CodecPool.returnDecompressor(decompressor);
+				decompressor = null;
+			}
+		}
+	}
+
+	@Override
+	public long getPos() throws IOException {
+		return pos;
+	}
+
+	@Override
+	public float getProgress() throws IOException {
+		if (progressEnd == start) {
+			return 0.0f;
+		}
+		long position = decompressor != null ? fileIn.getPos() : pos;
+		return Math.min(1.0f, (float) (position - start) / (progressEnd - start));
+	}
+}
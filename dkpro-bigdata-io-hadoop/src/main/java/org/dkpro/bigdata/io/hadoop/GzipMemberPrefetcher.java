@@ -0,0 +1,385 @@
+/*******************************************************************************
+ * Copyright 2013
+ * TU Darmstadt, FG Sprachtechnologie
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.dkpro.bigdata.io.hadoop;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+
+/**
+ * Inflates the members of a multi-member gzip file (such as <code>.warc.gz</code> and
+ * <code>.arc.gz</code> crawl archives, which contain one member per record) on a small thread pool
+ * ahead of the consumer.
+ * <p>
+ * The compressed data is read into a read-ahead window of bounded size. Member candidates in the
+ * window are located by their gzip header and inflated speculatively. A candidate is only
+ * accepted if it is the member that ends where the previous accepted member ended, so gzip magic
+ * bytes occurring inside compressed data are harmless. Members larger than the window are
+ * inflated by the consumer thread after growing the window.
+ * </p>
+ * <p>
+ * Enabled in the record readers by setting {@link #THREADS} to a positive value.
+ * </p>
+ */
+public class GzipMemberPrefetcher
+    implements Closeable
+{
+    /**
+     * Number of threads used to inflate gzip members. 0 (the default) disables prefetching.
+     */
+    public static final String THREADS = "dkpro.input.gzip.threads";
+
+    /**
+     * Size of the compressed read-ahead window in bytes.
+     */
+    public static final String READ_AHEAD = "dkpro.input.gzip.read-ahead";
+
+    public static final int DEFAULT_READ_AHEAD = 8 * 1024 * 1024;
+
+    /** Minimum number of bytes a gzip header occupies */
+    private static final int MIN_HEADER_LENGTH = 10;
+
+    /** CRC32 and ISIZE */
+    private static final int TRAILER_LENGTH = 8;
+
+    private static final int INITIAL_OUTPUT_SIZE = 64 * 1024;
+
+    /** Candidate is not a gzip member */
+    private static final Member INVALID = new Member(-1, 0, null, 0);
+
+    /** Candidate runs past the end of the window it was inflated from */
+    private static final Member INCOMPLETE = new Member(-1, 0, null, 0);
+
+    private final FSDataInputStream in;
+    private final long end;
+    private final long fileLength;
+    private final int readAhead;
+    private final int maxPending;
+    private final ExecutorService executor;
+    private final TreeMap<Long, Future<Member>> pending = new TreeMap<Long, Future<Member>>();
+
+    /** Compressed data from <code>windowStart</code>. Never modified once filled. */
+    private byte[] window = new byte[0];
+    private long windowStart;
+    private int windowLength = 0;
+
+    /** Offset of the next member to return */
+    private long expected;
+
+    /** Next offset to look for member candidates at */
+    private long scanPos;
+
+    /**
+     * @param in
+     *            the compressed file
+     * @param start
+     *            offset of the first member to return, must be a member boundary
+     * @param end
+     *            members starting at or after this offset are not returned
+     * @param fileLength
+     *            length of the file
+     */
+    public GzipMemberPrefetcher(FSDataInputStream in, long start, long end, long fileLength,
+            int threads, int readAhead)
+    {
+        this.in = in;
+        this.end = end;
+        this.fileLength = fileLength;
+        this.readAhead = readAhead;
+        maxPending = threads * 4;
+        expected = start;
+        windowStart = start;
+        scanPos = start + 1;
+        executor = Executors.newFixedThreadPool(threads, new ThreadFactory()
+        {
+            @Override
+            public Thread newThread(Runnable r)
+            {
+                Thread thread = new Thread(r, "gzip-member-prefetcher");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Returns the number of inflater threads configured in <code>conf</code>, 0 if prefetching is
+     * disabled.
+     */
+    public static int getThreads(Configuration conf)
+    {
+        return conf.getInt(THREADS, 0);
+    }
+
+    public static GzipMemberPrefetcher create(Configuration conf, FSDataInputStream in,
+            long start, long end, long fileLength)
+    {
+        return new GzipMemberPrefetcher(in, start, end, fileLength, getThreads(conf),
+                conf.getInt(READ_AHEAD, DEFAULT_READ_AHEAD));
+    }
+
+    /**
+     * Returns the next member, or null if there is no further member starting before the end.
+     */
+    public Member next()
+        throws IOException
+    {
+        if (expected >= end || expected >= fileLength) {
+            return null;
+        }
+        schedule();
+
+        Future<Member> future = pending.remove(expected);
+        // Anything before the next member was a false candidate
+        Iterator<Map.Entry<Long, Future<Member>>> stale = pending.headMap(expected).entrySet()
+                .iterator();
+        while (stale.hasNext()) {
+            stale.next().getValue().cancel(true);
+            stale.remove();
+        }
+
+        Member member = get(future);
+        // The future may have been inflated from an older window that has been extended since,
+        // so the member is inflated again before the window is grown
+        long inflatedEnd = -1;
+        while (member == INCOMPLETE) {
+            long windowEnd = windowStart + windowLength;
+            if (inflatedEnd == windowEnd) {
+                if (windowEnd >= fileLength) {
+                    throw new IOException("Truncated gzip member at offset " + expected);
+                }
+                // The member is larger than the read-ahead window
+                load(expected,
+                        Math.min(fileLength, windowEnd + Math.max(readAhead, windowLength)));
+            }
+            member = inflate(window, (int) (expected - windowStart),
+                    (int) (windowStart + windowLength - expected), expected);
+            inflatedEnd = windowStart + windowLength;
+        }
+        if (member == INVALID) {
+            throw new IOException("Invalid gzip member at offset " + expected);
+        }
+        expected += member.compressedLength;
+        return member;
+    }
+
+    /**
+     * Refills the window if necessary and submits the next member and further candidates.
+     */
+    private void schedule()
+        throws IOException
+    {
+        long limit = Math.min(fileLength, expected + readAhead);
+        long windowEnd = windowStart + windowLength;
+        if (windowEnd < limit && windowEnd - expected < readAhead / 2) {
+            load(expected, limit);
+            windowEnd = windowStart + windowLength;
+        }
+
+        if (!pending.containsKey(expected)) {
+            pending.put(expected, submit(expected));
+        }
+        scanPos = Math.max(scanPos, expected + 1);
+        while (scanPos < end && scanPos + MIN_HEADER_LENGTH <= windowEnd
+                && pending.size() < maxPending) {
+            int i = (int) (scanPos - windowStart);
+            if (RecordBoundaryFinder.gzipHeaderLength(window, i, windowLength - i) > 0) {
+                pending.put(scanPos, submit(scanPos));
+            }
+            scanPos++;
+        }
+    }
+
+    /**
+     * Replaces the window by one covering <code>[from, to)</code>, reusing the overlapping part of
+     * the current window. The old array is left untouched for tasks still working on it.
+     */
+    private void load(long from, long to)
+        throws IOException
+    {
+        byte[] newWindow = new byte[(int) (to - from)];
+        long oldEnd = windowStart + windowLength;
+        long readFrom = from;
+        if (from >= windowStart && from < oldEnd) {
+            int overlap = (int) (Math.min(to, oldEnd) - from);
+            System.arraycopy(window, (int) (from - windowStart), newWindow, 0, overlap);
+            readFrom += overlap;
+        }
+        in.readFully(readFrom, newWindow, (int) (readFrom - from), (int) (to - readFrom));
+        window = newWindow;
+        windowStart = from;
+        windowLength = newWindow.length;
+    }
+
+    private Future<Member> submit(final long offset)
+    {
+        final byte[] buf = window;
+        final int off = (int) (offset - windowStart);
+        final int len = windowLength - off;
+        return executor.submit(new Callable<Member>()
+        {
+            @Override
+            public Member call()
+            {
+                return inflate(buf, off, len, offset);
+            }
+        });
+    }
+
+    private Member get(Future<Member> future)
+        throws IOException
+    {
+        try {
+            return future.get();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while inflating gzip member");
+        }
+        catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        }
+    }
+
+    /**
+     * Inflates the member starting at <code>buf[off]</code> and verifies its trailer.
+     */
+    static Member inflate(byte[] buf, int off, int len, long offset)
+    {
+        int headerLength = RecordBoundaryFinder.gzipHeaderLength(buf, off, len);
+        if (headerLength < 0) {
+            if (len >= 2 && ((buf[off] & 0xff) != 0x1f || (buf[off + 1] & 0xff) != 0x8b)) {
+                return INVALID;
+            }
+            // Probably cut off by the end of the window
+            return INCOMPLETE;
+        }
+
+        Inflater inflater = new Inflater(true);
+        try {
+            inflater.setInput(buf, off + headerLength, len - headerLength);
+            byte[] out = new byte[INITIAL_OUTPUT_SIZE];
+            int size = 0;
+            while (!inflater.finished()) {
+                if (Thread.currentThread().isInterrupted()) {
+                    return INVALID;
+                }
+                if (size == out.length) {
+                    out = Arrays.copyOf(out, out.length * 2);
+                }
+                int r = inflater.inflate(out, size, out.length - size);
+                if (r == 0) {
+                    if (inflater.needsInput()) {
+                        return INCOMPLETE;
+                    }
+                    if (inflater.needsDictionary() || !inflater.finished()) {
+                        return INVALID;
+                    }
+                }
+                size += r;
+            }
+
+            int trailer = off + len - inflater.getRemaining();
+            if (trailer + TRAILER_LENGTH > off + len) {
+                return INCOMPLETE;
+            }
+            CRC32 crc = new CRC32();
+            crc.update(out, 0, size);
+            if (readInt(buf, trailer) != (int) crc.getValue() || readInt(buf, trailer + 4) != size) {
+                return INVALID;
+            }
+            return new Member(offset, trailer + TRAILER_LENGTH - off, out, size);
+        }
+        catch (DataFormatException e) {
+            return INVALID;
+        }
+        finally {
+            inflater.end();
+        }
+    }
+
+    private static int readInt(byte[] buf, int off)
+    {
+        return (buf[off] & 0xff) | ((buf[off + 1] & 0xff) << 8) | ((buf[off + 2] & 0xff) << 16)
+                | ((buf[off + 3] & 0xff) << 24);
+    }
+
+    @Override
+    public void close()
+    {
+        executor.shutdownNow();
+        pending.clear();
+    }
+
+    /**
+     * An inflated gzip member.
+     */
+    public static class Member
+    {
+        private final long offset;
+        private final long compressedLength;
+        private final byte[] data;
+        private final int size;
+
+        Member(long offset, long compressedLength, byte[] data, int size)
+        {
+            this.offset = offset;
+            this.compressedLength = compressedLength;
+            this.data = data;
+            this.size = size;
+        }
+
+        /**
+         * Offset of the member within the compressed file.
+         */
+        public long getOffset()
+        {
+            return offset;
+        }
+
+        public long getCompressedLength()
+        {
+            return compressedLength;
+        }
+
+        /**
+         * The inflated content of the member.
+         */
+        public InputStream getInputStream()
+        {
+            return new ByteArrayInputStream(data, 0, size);
+        }
+    }
+}
@@ -0,0 +1,574 @@
+/*******************************************************************************
+ * Copyright 2013
+ * TU Darmstadt, FG Sprachtechnologie
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.dkpro.bigdata.io.hadoop;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.hadoop.conf.Configuration;
+
+/**
+ * Extracts the visible text from an HTML document in a single pass over a character stream,
+ * without building a DOM or holding the markup in memory.
+ * <p>
+ * Tags, comments and processing instructions are removed and character references are resolved.
+ * The content of <code>script</code> and <code>style</code> elements is skipped, and so is the
+ * content of the elements configured in {@link #DROP_ELEMENTS}, which by default are the usual
+ * boilerplate containers (navigation, page header and footer, forms, ...). Runs of whitespace are
+ * collapsed into a single space and block-level elements start a new line. The content of the
+ * <code>title</code> element is not part of the text but is available from {@link #getTitle()}.
+ * </p>
+ * <p>
+ * Dropped elements that are not closed end with the container element they were opened in, e.g.
+ * an unclosed <code>form</code> inside a <code>div</code> ends with the <code>div</code>, and at
+ * the latest with the <code>body</code>. An open <code>head</code> ends with the first element
+ * or text that does not belong into it.
+ * </p>
+ * <p>
+ * An extractor can be reused for many documents, but is not thread-safe.
+ * </p>
+ */
+public class HtmlTextExtractor
+{
+    /**
+     * Comma separated names of the elements whose content is dropped.
+     */
+    public static final String DROP_ELEMENTS = "dkpro.input.html.drop-elements";
+
+    public static final String DEFAULT_DROP_ELEMENTS = "head,noscript,template,nav,header,footer,"
+            + "aside,form,select,button,iframe,svg,object";
+
+    /** Elements whose content is not markup and is skipped up to the matching end tag */
+    private static final Set<String> RAW_TEXT_ELEMENTS = new HashSet<String>(Arrays.asList(
+            "script", "style"));
+
+    private static final Set<String> BLOCK_ELEMENTS = new HashSet<String>(Arrays.asList(
+            "address", "article", "blockquote", "body", "br", "caption", "dd", "div", "dl", "dt",
+            "fieldset", "figcaption", "figure", "h1", "h2", "h3", "h4", "h5", "h6", "hr", "li",
+            "main", "ol", "p", "pre", "section", "table", "td", "th", "tr", "ul"));
+
+    /**
+     * Elements that end unclosed dropped elements opened inside them. Only elements whose end tag
+     * is required, so that the nesting can be tracked without a DOM.
+     */
+    private static final Set<String> CONTAINER_ELEMENTS = new HashSet<String>(Arrays.asList(
+            "article", "blockquote", "div", "dl", "fieldset", "figure", "main", "ol", "section",
+            "table", "ul"));
+
+    /**
+     * Elements allowed in <code>head</code>. Any other element and any text end an open
+     * <code>head</code>, whose end tag is optional.
+     */
+    private static final Set<String> HEAD_ELEMENTS = new HashSet<String>(Arrays.asList("base",
+            "link", "meta", "noscript", "script", "style", "template", "title"));
+
+    private static final Map<String, Character> ENTITIES = new HashMap<String, Character>();
+
+    static {
+        String[] names = { "amp", "lt", "gt", "quot", "apos", "nbsp", "copy", "reg", "trade",
+                "mdash", "ndash", "hellip", "laquo", "raquo", "lsquo", "rsquo", "ldquo", "rdquo",
+                "bdquo", "middot", "bull", "euro", "auml", "ouml", "uuml", "Auml", "Ouml", "Uuml",
+                "szlig", "eacute", "egrave", "agrave", "ccedil", "deg" };
+        char[] chars = { '&', '<', '>', '"', '\'', '\u00a0', '\u00a9', '\u00ae', '\u2122', '\u2014',
+                '\u2013', '\u2026', '\u00ab', '\u00bb', '\u2018', '\u2019', '\u201c', '\u201d',
+                '\u201e', '\u00b7', '\u2022', '\u20ac', '\u00e4', '\u00f6', '\u00fc', '\u00c4',
+                '\u00d6', '\u00dc', '\u00df', '\u00e9', '\u00e8', '\u00e0', '\u00e7', '\u00b0' };
+        for (int i = 0; i < names.length; i++) {
+            ENTITIES.put(names[i], chars[i]);
+        }
+    }
+
+    /** Longest character reference that is resolved, without the ampersand */
+    private static final int MAX_ENTITY_LENGTH = 10;
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private final Set<String> dropElements;
+
+    private final char[] buffer = new char[BUFFER_SIZE];
+    private int bufferPos;
+    private int bufferLength;
+    private int pushback = -1;
+    private Reader in;
+
+    private final StringBuilder text = new StringBuilder();
+    private final StringBuilder title = new StringBuilder();
+    private final StringBuilder tagName = new StringBuilder();
+    private final StringBuilder entity = new StringBuilder();
+
+    /** Names of the open elements from {@link #dropElements} */
+    private final List<String> openDrops = new ArrayList<String>();
+    /** {@link #containerDepth} at the start of each of {@link #openDrops} */
+    private final List<Integer> openDropContainers = new ArrayList<Integer>();
+    /** Number of open {@link #CONTAINER_ELEMENTS} */
+    private int containerDepth;
+    private boolean inTitle;
+    private boolean pendingSpace;
+    private boolean pendingBreak;
+
+    public HtmlTextExtractor()
+    {
+        this(DEFAULT_DROP_ELEMENTS);
+    }
+
+    /**
+     * @param dropElements
+     *            comma separated names of the elements whose content is dropped
+     */
+    public HtmlTextExtractor(String dropElements)
+    {
+        this.dropElements = new HashSet<String>();
+        for (String element : dropElements.split(",")) {
+            if (!element.trim().isEmpty()) {
+                this.dropElements.add(element.trim().toLowerCase());
+            }
+        }
+    }
+
+    /**
+     * Creates an extractor dropping the elements configured in <code>conf</code>.
+     */
+    public static HtmlTextExtractor create(Configuration conf)
+    {
+        return new HtmlTextExtractor(conf.get(DROP_ELEMENTS, DEFAULT_DROP_ELEMENTS));
+    }
+
+    /**
+     * Reads the document from <code>reader</code> up to its end and returns its text. The reader
+     * is not closed.
+     */
+    public String extract(Reader reader)
+        throws IOException
+    {
+        in = reader;
+        bufferPos = 0;
+        bufferLength = 0;
+        pushback = -1;
+        text.setLength(0);
+        title.setLength(0);
+        openDrops.clear();
+        openDropContainers.clear();
+        containerDepth = 0;
+        inTitle = false;
+        pendingSpace = false;
+        pendingBreak = false;
+
+        int c;
+        while ((c = read()) != -1) {
+            if (c == '<') {
+                readMarkup();
+            }
+            else if (c == '&') {
+                emit(readCharacterReference());
+            }
+            else {
+                emit(c);
+            }
+        }
+        in = null;
+        return text.toString();
+    }
+
+    /**
+     * Returns the whitespace normalized content of the <code>title</code> element of the last
+     * document, or an empty string if there is none.
+     */
+    public String getTitle()
+    {
+        return title.toString().trim();
+    }
+
+    /**
+     * Handles everything following a <code>&lt;</code> in text.
+     */
+    private void readMarkup()
+        throws IOException
+    {
+        int c = read();
+        if (c == '!') {
+            c = read();
+            if (c == '-' && peek() == '-') {
+                read();
+                skipPast("-->");
+            }
+            else if (c != '>') {
+                // Doctype or CDATA section
+                skipPast(">");
+            }
+        }
+        else if (c == '?') {
+            skipPast(">");
+        }
+        else if (c == '/') {
+            readTagName(read());
+            boolean selfClosing = skipAttributes();
+            if (tagName.length() > 0 && !selfClosing) {
+                endTag(tagName.toString());
+            }
+        }
+        else if (isLetter(c)) {
+            readTagName(c);
+            boolean selfClosing = skipAttributes();
+            startTag(tagName.toString(), selfClosing);
+        }
+        else {
+            // A literal less-than sign
+            emit('<');
+            unread(c);
+        }
+    }
+
+    private void startTag(String name, boolean selfClosing)
+        throws IOException
+    {
+        if (inHead() && !HEAD_ELEMENTS.contains(name)) {
+            endHead();
+        }
+        if (BLOCK_ELEMENTS.contains(name)) {
+            pendingBreak = true;
+        }
+        if (selfClosing) {
+            return;
+        }
+        if (name.equals("title")) {
+            readTitle();
+        }
+        else if (RAW_TEXT_ELEMENTS.contains(name)) {
+            skipPast("</" + name);
+            skipAttributes();
+        }
+        else if (dropElements.contains(name)) {
+            openDrops.add(name);
+            openDropContainers.add(containerDepth);
+        }
+        else if (CONTAINER_ELEMENTS.contains(name)) {
+            containerDepth++;
+        }
+    }
+
+    private void endTag(String name)
+    {
+        if (BLOCK_ELEMENTS.contains(name)) {
+            pendingBreak = true;
+        }
+        if (name.equals("body") || name.equals("html")) {
+            closeDrops(0);
+            containerDepth = 0;
+        }
+        else if (dropElements.contains(name)) {
+            int i = openDrops.lastIndexOf(name);
+            if (i >= 0) {
+                // Also ends the unclosed elements inside it
+                containerDepth = openDropContainers.get(i);
+                closeDrops(i);
+            }
+        }
+        else if (CONTAINER_ELEMENTS.contains(name) && containerDepth > 0) {
+            containerDepth--;
+            // Drop elements opened inside the container
+            int i = openDrops.size();
+            while (i > 0 && openDropContainers.get(i - 1) > containerDepth) {
+                i--;
+            }
+            closeDrops(i);
+        }
+    }
+
+    /**
+     * Returns whether the innermost open drop element is <code>head</code>.
+     */
+    private boolean inHead()
+    {
+        return !openDrops.isEmpty() && openDrops.get(openDrops.size() - 1).equals("head");
+    }
+
+    private void endHead()
+    {
+        int i = openDrops.size() - 1;
+        containerDepth = openDropContainers.get(i);
+        closeDrops(i);
+    }
+
+    /**
+     * Closes the open drop elements from index <code>first</code> on.
+     */
+    private void closeDrops(int first)
+    {
+        while (openDrops.size() > first) {
+            openDrops.remove(openDrops.size() - 1);
+            openDropContainers.remove(openDropContainers.size() - 1);
+        }
+    }
+
+    /**
+     * Reads the title up to the title end tag, which may be inside a dropped element.
+     */
+    private void readTitle()
+        throws IOException
+    {
+        inTitle = true;
+        int c;
+        while ((c = read()) != -1) {
+            if (c == '<') {
+                if (peek() == '/') {
+                    read();
+                    readTagName(read());
+                    skipAttributes();
+                    if (tagName.toString().equals("title")) {
+                        break;
+                    }
+                }
+                else {
+                    emit('<');
+                }
+            }
+            else if (c == '&') {
+                emit(readCharacterReference());
+            }
+            else {
+                emit(c);
+            }
+        }
+        inTitle = false;
+    }
+
+    /**
+     * Reads a tag name starting with <code>c</code> into {@link #tagName}, lower-cased.
+     */
+    private void readTagName(int c)
+        throws IOException
+    {
+        tagName.setLength(0);
+        while (c != -1 && (isLetter(c) || Character.isDigit(c) || c == '-' || c == ':')) {
+            tagName.append(Character.toLowerCase((char) c));
+            c = read();
+        }
+        unread(c);
+    }
+
+    /**
+     * Skips the attributes of a tag up to and including the closing <code>&gt;</code>, respecting
+     * quoted attribute values.
+     *
+     * @return whether the tag is self-closing
+     */
+    private boolean skipAttributes()
+        throws IOException
+    {
+        int quote = -1;
+        int previous = -1;
+        int c;
+        while ((c = read()) != -1) {
+            if (quote != -1) {
+                if (c == quote) {
+                    quote = -1;
+                }
+            }
+            else if (c == '"' || c == '\'') {
+                quote = c;
+            }
+            else if (c == '>') {
+                return previous == '/';
+            }
+            previous = c;
+        }
+        return false;
+    }
+
+    /**
+     * Skips input up to and including the first occurrence of <code>end</code>, compared
+     * case-insensitively.
+     */
+    private void skipPast(String end)
+        throws IOException
+    {
+        int matched = 0;
+        int c;
+        while (matched < end.length() && (c = read()) != -1) {
+            char lower = Character.toLowerCase((char) c);
+            if (lower == end.charAt(matched)) {
+                matched++;
+            }
+            else {
+                matched = fallback(end, matched, lower);
+            }
+        }
+    }
+
+    /**
+     * Returns the length of the longest prefix of <code>end</code> that is a suffix of the first
+     * <code>matched</code> characters of <code>end</code> followed by <code>c</code>, e.g. 2 for
+     * the third dash in <code>---&gt;</code>.
+     */
+    private static int fallback(String end, int matched, char c)
+    {
+        for (int k = matched; k > 0; k--) {
+            if (end.charAt(k - 1) == c && end.regionMatches(0, end, matched - k + 1, k - 1)) {
+                return k;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Reads a character reference following an ampersand.
+     *
+     * @return the referenced character, or -1 if the text following the ampersand is not a known
+     *         reference, in which case it has been emitted as text
+     */
+    private int readCharacterReference()
+        throws IOException
+    {
+        entity.setLength(0);
+        int c = read();
+        while (c != -1 && entity.length() < MAX_ENTITY_LENGTH
+                && (isLetter(c) || Character.isDigit(c) || (c == '#' && entity.length() == 0))) {
+            entity.append((char) c);
+            c = read();
+        }
+        if (c == ';' && entity.length() > 0) {
+            int resolved = resolve(entity);
+            if (resolved >= 0) {
+                return resolved;
+            }
+        }
+        // Not a reference, the characters are text
+        emit('&');
+        for (int i = 0; i < entity.length(); i++) {
+            emit(entity.charAt(i));
+        }
+        unread(c);
+        return -1;
+    }
+
+    private static int resolve(CharSequence reference)
+    {
+        if (reference.charAt(0) == '#') {
+            try {
+                int codePoint;
+                if (reference.length() > 1
+                        && (reference.charAt(1) == 'x' || reference.charAt(1) == 'X')) {
+                    codePoint = Integer.parseInt(reference.subSequence(2, reference.length())
+                            .toString(), 16);
+                }
+                else {
+                    codePoint = Integer.parseInt(reference.subSequence(1, reference.length())
+                            .toString());
+                }
+                return Character.isValidCodePoint(codePoint) ? codePoint : -1;
+            }
+            catch (NumberFormatException e) {
+                return -1;
+            }
+        }
+        Character c = ENTITIES.get(reference.toString());
+        return c != null ? c : -1;
+    }
+
+    /**
+     * Appends a character (or code point) of text to the output, normalizing whitespace.
+     * Negative values are ignored.
+     */
+    private void emit(int c)
+    {
+        if (c < 0) {
+            return;
+        }
+        if (inTitle) {
+            if (Character.isWhitespace(c) || c == '\u00a0') {
+                if (title.length() > 0 && title.charAt(title.length() - 1) != ' ') {
+                    title.append(' ');
+                }
+            }
+            else {
+                title.appendCodePoint(c);
+            }
+            return;
+        }
+        if (!openDrops.isEmpty()) {
+            if (!inHead() || Character.isWhitespace(c)) {
+                return;
+            }
+            // Text ends the head
+            endHead();
+        }
+        if (Character.isWhitespace(c) || c == '\u00a0') {
+            pendingSpace = true;
+            return;
+        }
+        if (text.length() > 0) {
+            if (pendingBreak) {
+                text.append('\n');
+            }
+            else if (pendingSpace) {
+                text.append(' ');
+            }
+        }
+        pendingBreak = false;
+        pendingSpace = false;
+        text.appendCodePoint(c);
+    }
+
+    private static boolean isLetter(int c)
+    {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+    }
+
+    private int read()
+        throws IOException
+    {
+        if (pushback != -1) {
+            int c = pushback;
+            pushback = -1;
+            return c;
+        }
+        if (bufferPos == bufferLength) {
+            bufferLength = in.read(buffer, 0, buffer.length);
+            bufferPos = 0;
+            if (bufferLength <= 0) {
+                bufferLength = 0;
+                return -1;
+            }
+        }
+        return buffer[bufferPos++];
+    }
+
+    private int peek()
+        throws IOException
+    {
+        int c = read();
+        unread(c);
+        return c;
+    }
+
+    /**
+     * Pushes back a single character. Pushing back the end of the stream is a no-op.
+     */
+    private void unread(int c)
+    {
+        if (c != -1) {
+            pushback = c;
+        }
+    }
+}
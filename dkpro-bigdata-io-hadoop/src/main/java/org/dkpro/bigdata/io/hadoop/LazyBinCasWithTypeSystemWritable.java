@@ -0,0 +1,32 @@
+/*******************************************************************************
+ * Copyright 2010,2012
+ * Ubiquitous Knowledge Processing (UKP) Lab
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.dkpro.bigdata.io.hadoop;
+
+/**
+ * Lazy variant of {@link BinCasWithTypeSystemWritable}. The CAS is only deserialized when it is accessed.
+ * 
+ * @see LazyCASWritable
+ */
+public class LazyBinCasWithTypeSystemWritable
+    extends LazyCASWritable
+{
+    public LazyBinCasWithTypeSystemWritable()
+    {
+        super(BinCasWithTypeSystemWritable.class);
+    }
+}
@@ -0,0 +1,165 @@
+/*******************************************************************************
+ * Copyright 2010,2012
+ * Ubiquitous Knowledge Processing (UKP) Lab
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.dkpro.bigdata.io.hadoop;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import org.apache.hadoop.conf.Configurable;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.util.ReflectionUtils;
+import org.apache.uima.cas.CAS;
+
+/**
+ * A CASWritable that defers deserialization until the CAS is accessed. The record is kept in its
+ * serialized form (as written by the format writable) and only deserialized on the first call to
+ * {@link #getCAS()}. If the CAS is never accessed, {@link #write(DataOutput)} writes the original
+ * bytes unchanged, so jobs that only forward, filter or re-partition records never pay for
+ * (de)serialization.
+ * <p>
+ * The format writable must write a length-prefixed record, as all CASWritables in this package
+ * do. Subclasses select the format, e.g. {@link LazyBinCasWritable}. The job configuration is
+ * passed on to the format writable.
+ * </p>
+ */
+public abstract class LazyCASWritable
+    extends CASWritable
+    implements Configurable
+{
+    private final Class<? extends CASWritable> formatClass;
+
+    private Configuration conf;
+
+    /** Does the actual (de)serialization, created on demand */
+    private CASWritable format;
+
+    /** The serialized record including its length prefix */
+    private final DataOutputBuffer raw = new DataOutputBuffer();
+    private final DataInputBuffer rawIn = new DataInputBuffer();
+
+    /** Whether <code>raw</code> holds a record that has not been deserialized yet */
+    private boolean pending = false;
+
+    /** Whether <code>raw</code> still represents the current CAS */
+    private boolean rawValid = false;
+
+    protected LazyCASWritable(Class<? extends CASWritable> formatClass)
+    {
+        this.formatClass = formatClass;
+    }
+
+    @Override
+    public void setConf(Configuration conf)
+    {
+        this.conf = conf;
+        if (format instanceof Configurable) {
+            ((Configurable) format).setConf(conf);
+        }
+    }
+
+    @Override
+    public Configuration getConf()
+    {
+        return conf;
+    }
+
+    @Override
+    public void setCAS(CAS cas)
+    {
+        getFormat().setCAS(cas);
+        pending = false;
+        rawValid = false;
+    }
+
+    /**
+     * Returns the CAS, deserializing it first if necessary. As the caller may modify the CAS, the
+     * original bytes are not used for writing afterwards.
+     */
+    @Override
+    public CAS getCAS()
+    {
+        deserialize();
+        rawValid = false;
+        return getFormat().getCAS();
+    }
+
+    /**
+     * Returns false if a record has been read but its CAS has not been accessed yet, i.e. it is
+     * still only held in serialized form, and true otherwise.
+     */
+    public boolean isDeserialized()
+    {
+        return !pending;
+    }
+
+    @Override
+    public String toString()
+    {
+        deserialize();
+        return getFormat().toString();
+    }
+
+    @Override
+    public void readFields(DataInput in)
+        throws IOException
+    {
+        int length = in.readInt();
+        raw.reset();
+        raw.writeInt(length);
+        raw.write(in, length);
+        pending = true;
+        rawValid = true;
+    }
+
+    @Override
+    public void write(DataOutput out)
+        throws IOException
+    {
+        if (rawValid) {
+            out.write(raw.getData(), 0, raw.getLength());
+        }
+        else {
+            getFormat().write(out);
+        }
+    }
+
+    private void deserialize()
+    {
+        if (pending) {
+            rawIn.reset(raw.getData(), raw.getLength());
+            try {
+                getFormat().readFields(rawIn);
+            }
+            catch (IOException e) {
+                throw new IllegalStateException("Unable to deserialize CAS", e);
+            }
+            pending = false;
+        }
+    }
+
+    private CASWritable getFormat()
+    {
+        if (format == null) {
+            format = ReflectionUtils.newInstance(formatClass, conf);
+        }
+        return format;
+    }
+}
@@ -16,15 +16,15 @@
  ******************************************************************************/
 package org.dkpro.bigdata.io.hadoop;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.io.StringReader;
 import java.io.StringWriter;
+import java.nio.charset.Charset;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
 
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
@@ -38,9 +38,10 @@ import javax.xml.transform.TransformerFactoryConfigurationError;
 import javax.xml.transform.dom.DOMSource;
 import javax.xml.transform.stream.StreamResult;
 
-import org.apache.commons.io.input.CountingInputStream;
+import org.apache.hadoop.fs.FSDataInputStream;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.DataOutputBuffer;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.mapred.FileInputFormat;
 import org.apache.hadoop.mapred.FileSplit;
@@ -48,6 +49,7 @@ import org.apache.hadoop.mapred.InputSplit;
 import org.apache.hadoop.mapred.JobConf;
 import org.apache.hadoop.mapred.RecordReader;
 import org.apache.hadoop.mapred.Reporter;
+import org.apache.hadoop.util.LineReader;
 import org.w3c.dom.CharacterData;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
@@ -194,6 +196,136 @@ public class LeipzigInputFormat extends FileInputFormat<Text, CrawlerRecord> {
 		}
 	}
 
+	/**
+	 * Parses a <code>&lt;source&gt;</code> header line into its entries.
+	 * Only the flat structure used in Leipzig corpora is understood: a
+	 * sequence of elements without attributes, each holding text, CDATA or
+	 * nothing. The content of <code>location</code> is taken verbatim, as URLs
+	 * are usually not escaped. Entities are resolved in all other elements.
+	 * 
+	 * @return the entries by element name, or null if the line is not a valid
+	 *         header
+	 */
+	static Map<String, String> parseSourceHeader(String line) {
+		final String open = "<source>";
+		final String close = "</source>";
+		if (!line.startsWith(open)) {
+			return null;
+		}
+		for (int i = 0; i < line.length(); i++) {
+			char c = line.charAt(i);
+			if (c < 0x20 && c != '\t' && c != '\n' && c != '\r') {
+				// Not allowed in XML
+				return null;
+			}
+		}
+
+		Map<String, String> entries = new HashMap<String, String>();
+		int pos = open.length();
+		while (true) {
+			pos = skipWhitespace(line, pos);
+			if (line.startsWith(close, pos)) {
+				return skipWhitespace(line, pos + close.length()) == line
+						.length() ? entries : null;
+			}
+			if (pos >= line.length() || line.charAt(pos) != '<') {
+				return null;
+			}
+			int nameEnd = pos + 1;
+			while (nameEnd < line.length()
+					&& (Character.isLetterOrDigit(line.charAt(nameEnd))
+							|| line.charAt(nameEnd) == '_'
+							|| line.charAt(nameEnd) == '-' || line
+							.charAt(nameEnd) == '.')) {
+				nameEnd++;
+			}
+			String name = line.substring(pos + 1, nameEnd);
+			if (name.isEmpty()) {
+				return null;
+			}
+			if (line.startsWith("/>", nameEnd)) {
+				entries.put(name, "");
+				pos = nameEnd + 2;
+				continue;
+			}
+			if (nameEnd >= line.length() || line.charAt(nameEnd) != '>') {
+				return null;
+			}
+			String endTag = "</" + name + ">";
+			int contentEnd = line.indexOf(endTag, nameEnd + 1);
+			if (contentEnd < 0) {
+				return null;
+			}
+			String content = line.substring(nameEnd + 1, contentEnd);
+			if (content.startsWith("<![CDATA[") && content.endsWith("]]>")) {
+				content = content.substring(9, content.length() - 3);
+			} else if (!name.equals("location")) {
+				content = unescape(content);
+				if (content == null) {
+					return null;
+				}
+			}
+			entries.put(name, content);
+			pos = contentEnd + endTag.length();
+		}
+	}
+
+	private static int skipWhitespace(String s, int pos) {
+		while (pos < s.length() && Character.isWhitespace(s.charAt(pos))) {
+			pos++;
+		}
+		return pos;
+	}
+
+	/**
+	 * Resolves the predefined and numeric entities, returns null for markup.
+	 */
+	private static String unescape(String s) {
+		if (s.indexOf('<') >= 0) {
+			return null;
+		}
+		int amp = s.indexOf('&');
+		if (amp < 0) {
+			return s;
+		}
+		StringBuilder sb = new StringBuilder(s.length());
+		int pos = 0;
+		while (amp >= 0) {
+			sb.append(s, pos, amp);
+			int semicolon = s.indexOf(';', amp);
+			if (semicolon < 0) {
+				return null;
+			}
+			String entity = s.substring(amp + 1, semicolon);
+			if (entity.equals("amp")) {
+				sb.append('&');
+			} else if (entity.equals("lt")) {
+				sb.append('<');
+			} else if (entity.equals("gt")) {
+				sb.append('>');
+			} else if (entity.equals("quot")) {
+				sb.append('"');
+			} else if (entity.equals("apos")) {
+				sb.append('\'');
+			} else if (entity.startsWith("#")) {
+				try {
+					int codePoint = entity.startsWith("#x") ? Integer.parseInt(
+							entity.substring(2), 16) : Integer.parseInt(entity
+							.substring(1));
+					sb.appendCodePoint(codePoint);
+				} catch (IllegalArgumentException e) {
+					return null;
+				}
+			} else {
+				return null;
+			}
+			pos = semicolon + 1;
+			amp = s.indexOf('&', pos);
+		}
+		sb.append(s, pos, s.length());
+		return sb.toString();
+	}
+
 	@Override
 	public RecordReader<Text, CrawlerRecord> getRecordReader(InputSplit inputSplit, JobConf jobConf, Reporter reporter) throws IOException {
 		return new LeipzigRecordReader((FileSplit) inputSplit, jobConf, reporter);
@@ -202,25 +334,44 @@ public class LeipzigInputFormat extends FileInputFormat<Text, CrawlerRecord> {
 	/**
 	 * Reads text corpus entries in Leipzig format
 	 * 
+	 * A record starts with a <code>&lt;source&gt;</code> header line and
+	 * belongs to the split its header starts in. The input is read line by line
+	 * as raw bytes, so that positions are exact, and the body of a record is
+	 * decoded only once. Leipzig corpora are UTF-8, but records that are not
+	 * valid UTF-8 are decoded with the charset found by a
+	 * {@link SniffingEncodingDetector}.
+	 * 
 	 * @author Johannes Simon
 	 *
 	 */
 	public static class LeipzigRecordReader implements RecordReader<Text, CrawlerRecord> {
-		private long start;
-		private long end;
-		private CountingInputStream countingIs;
-		private BufferedReader reader;
+		private static final byte[] SOURCE_TAG = { '<', 's', 'o', 'u', 'r', 'c', 'e', '>' };
+		private static final byte[] UTF8_BOM = { (byte) 0xef, (byte) 0xbb, (byte) 0xbf };
+
+		/** Content type passed to the encoding detector, there is no markup to sniff */
+		private static final String CONTENT_TYPE = "text/plain";
 
-		private long nextRecordStart;
+		private final long start;
+		private final long end;
+		private final FSDataInputStream in;
+		private final LineReader lineReader;
 
-		private String currentRecordContent;
-		private String currentRecordHeader;
-		private String nextRecordHeader;
+		/** Position after the last line read */
+		private long pos;
 
-		private long posInByteStream;
-		private long posInCharStream;
+		private final Text line = new Text();
 
-		private final String FILE_ENCODING = "UTF-8";
+		/** Header of the next record and its offset, -1 if there is none */
+		private final Text nextHeader = new Text();
+		private long nextRecordStart = -1;
+
+		private final Text currentHeader = new Text();
+		private final DataOutputBuffer body = new DataOutputBuffer();
+
+		private final SniffingEncodingDetector encodingDetector;
+
+		/** Reused for every record, SimpleDateFormat is not thread-safe */
+		private final SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd");
 
 		private FileSplit fileSplit;
 
@@ -243,85 +394,85 @@ public class LeipzigInputFormat extends FileInputFormat<Text, CrawlerRecord> {
 			fileSplit = split;
 			start = split.getStart();
 			end = start + split.getLength();
-			System.out.println("Initializing input reader for input split:");
-			System.out.println(split);
 
 			if (reporter != null) {
 				skippedRecordCounter = reporter.getCounter(ProcessingErrorCounters.SkippedDueToException);
 			}
-
-			posInByteStream = start;
-			posInCharStream = 0;
+			encodingDetector = new SniffingEncodingDetector(jobConf);
+			encodingDetector.setReporter(reporter);
 
 			// Open the file and seek to the start of the split
 			Path file = split.getPath();
 			FileSystem fs = file.getFileSystem(jobConf);
-			InputStream is = fs.open(split.getPath());
-			countingIs = new CountingInputStream(is);
-			countingIs.skip(start);
-			reader = new BufferedReader(new InputStreamReader(countingIs, FILE_ENCODING));
+			in = fs.open(file);
+			if (start > 0) {
+				// Headers start at the beginning of a line: skip the rest of
+				// the line we are in, or just the line break before the start
+				in.seek(start - 1);
+				lineReader = new LineReader(in, jobConf);
+				pos = start - 1 + lineReader.readLine(line);
+			} else {
+				lineReader = new LineReader(in, jobConf);
+				pos = 0;
+			}
 			// Start with the first valid record after offset "start"
-			skipToNextRecord(reader);
+			skipToNextRecord();
 		}
 
 		private boolean parseMetaLine(CrawlerRecord value, String line) {
-			if (line == null) {
-				System.err.println("[LeipzigInputFormat] Warning: Skipping record because extracted meta line is null!");
-				return false;
-			}
-			if (line.contains("\u0000")) {
-				System.out.println("[parseMetaLine] Line contains null character!");
-				System.out.println(line.indexOf('\u0000'));
-			}
-			try {
-				SourceMetadata sm = new SourceMetadata(line);
-				String origUrl = sm.getEntry("location");
-				String url;
-				if (!origUrl.isEmpty() && !origUrl.equalsIgnoreCase("null")) {
-					url = origUrl;
-				} else {
-					// Input format is not responsible for filtering incomplete records!
-					// Simply set URL to "null" (a valid string, not null!) at this point
-					url = "null";
-				}
-				value.setURL(url);
-
-				// Original encoding
-				String encoding = sm.getEntry("original_encoding");
-				value.setOriginalEncoding(encoding);
-
-				// Date
-				SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd");
-				Date parsedDate = null;
-				String date = sm.getEntry("date");
-				if (date != null) {
-					try {
-						parsedDate = dateFormat.parse(date);
-					} catch (ParseException e) {
-						System.err.println("[LeipzigInputFormat] Warning: Can't parse date: " + date);
-					}
-				} else {
-					System.err.println("[LeipzigInputFormat] Warning: Record is missing a date.");
-				}
-				value.setDate(parsedDate);
-			} catch (Exception e) {
-				System.err.println("[LeipzigInputFormat] Warning: Skipping record because an exception occured while parsing meta line " + line);
+			Map<String, String> entries = parseSourceHeader(line);
+			if (entries == null) {
+				System.err.println("[LeipzigInputFormat] Warning: Skipping record because its meta line is invalid: " + line);
 				System.err.println("File split: " + fileSplit);
-				System.err.println("posInCharStream: " + posInCharStream);
-				System.err.println("URL: " + value.getURL());
-				System.err.println("[LeipzigInputFormat] Exception details: " + e.getMessage());
 				if (skippedRecordCounter != null)
 					skippedRecordCounter.increment(1);
 				return false;
 			}
 
+			String origUrl = entries.get("location");
+			if (origUrl != null && !origUrl.isEmpty() && !origUrl.equalsIgnoreCase("null")) {
+				value.setURL(origUrl);
+			} else {
+				// Input format is not responsible for filtering incomplete records!
+				// Simply set URL to "null" (a valid string, not null!) at this point
+				value.setURL("null");
+			}
+
+			// Original encoding
+			value.setOriginalEncoding(getEntry(entries, "original_encoding"));
+
+			// Date
+			Date parsedDate = null;
+			String date = getEntry(entries, "date");
+			if (date != null) {
+				try {
+					parsedDate = dateFormat.parse(date);
+				} catch (ParseException e) {
+					System.err.println("[LeipzigInputFormat] Warning: Can't parse date: " + date);
+				}
+			} else {
+				System.err.println("[LeipzigInputFormat] Warning: Record is missing a date.");
+			}
+			value.setDate(parsedDate);
+
 			return true;
 		}
 
+		/**
+		 * Returns an entry of the header, null if it is missing and "?" if it
+		 * is empty (as {@link SourceMetadata#getEntry(String)} does).
+		 */
+		private static String getEntry(Map<String, String> entries, String name) {
+			String entry = entries.get(name);
+			if (entry != null && entry.isEmpty()) {
+				return "?";
+			}
+			return entry;
+		}
+
 		public static final String LF = System.getProperty("line.separator");
 
 		private boolean hasNext() {
-			//			System.out.println("hasNext: " + nextRecordLine + " != null && " + nextRecordStart + " < " + end);
 			return nextRecordStart >= 0 && nextRecordStart < end;
 		}
 
@@ -330,16 +481,18 @@ public class LeipzigInputFormat extends FileInputFormat<Text, CrawlerRecord> {
 			if (!hasNext())
 				return false;
 
-			skipToNextRecord(reader);
+			skipToNextRecord();
 
 			// Try parsing meta line. If parsing failed, skip to next record, and so on.
-			while (!parseMetaLine(value, currentRecordHeader)) {
+			while (!parseMetaLine(value, currentHeader.toString())) {
 				if (hasNext())
-					skipToNextRecord(reader);
+					skipToNextRecord();
 				else
 					return false;
 			}
-			value.setContent(currentRecordContent);
+			Charset encoding = encodingDetector.detect(CONTENT_TYPE, body.getData(), 0, body.getLength());
+			value.setRawContent(body.getData(), 0, body.getLength());
+			value.setCharset(encoding);
 			key.set(value.getURL());
 
 			return true;
@@ -357,60 +510,67 @@ public class LeipzigInputFormat extends FileInputFormat<Text, CrawlerRecord> {
 
 		@Override
 		public long getPos() throws IOException {
-			//return countingIs.getCount();
-			return posInByteStream;
+			return pos;
 		}
 
 		@Override
 		public void close() throws IOException {
-			countingIs.close();
+			in.close();
 		}
 
 		@Override
 		public float getProgress() throws IOException {
-			return ((float) (getPos() - start)) / ((float) (end - start));
+			if (end == start) {
+				return 0.0f;
+			}
+			return Math.min(1.0f, ((float) (getPos() - start)) / ((float) (end - start)));
 		}
 
 		/*
-		 * ======================== ARC Logic ============================
+		 * ======================== Record Logic ============================
 		 */
 
-		private final String UTF8_BOM = "\uFEFF";
-
 		/**
-		 * Reads from <code>input</code> until a valid record meta line was read. Everything
-		 * else is added to <code>buffer</code>
+		 * Reads lines until the next header line. The lines read are the body
+		 * of the current record, and the header read before becomes the current
+		 * header.
 		 */
-		private boolean skipToNextRecord(BufferedReader input) throws IOException {
-			StringBuffer recordBuffer = new StringBuffer();
+		private boolean skipToNextRecord() throws IOException {
+			currentHeader.set(nextHeader);
+			body.reset();
 			nextRecordStart = -1;
-			// Continue with next record in case exception occurs
-			String line;
-			String recordHeaderFound = null;
-			int newLineBytes = new String("\n").getBytes("UTF-8").length;
-			boolean foundNewRecord = false;
-			while ((line = reader.readLine()) != null) {
+			while (true) {
+				long lineStart = pos;
+				int consumed = lineReader.readLine(line);
+				if (consumed == 0) {
+					nextHeader.clear();
+					return false;
+				}
+				pos += consumed;
+
 				// BOM fix (its use is discouraged, however it does appear sometimes)
-				if (line.startsWith(UTF8_BOM))
-					line = line.substring(1);
-
-				if (line.startsWith("<source>")) {
-					nextRecordStart = posInByteStream;
-					foundNewRecord = true;
-					recordHeaderFound = line;
-				} else {
-					recordBuffer.append(line + "\n");
+				int offset = startsWith(line, 0, UTF8_BOM) ? UTF8_BOM.length : 0;
+				if (startsWith(line, offset, SOURCE_TAG)) {
+					nextRecordStart = lineStart;
+					nextHeader.set(line.getBytes(), offset, line.getLength() - offset);
+					return true;
 				}
-				long lineSizeBytes = line.getBytes("UTF-8").length + newLineBytes;
-				posInByteStream += lineSizeBytes;
-				if (foundNewRecord)
-					break;
+				body.write(line.getBytes(), offset, line.getLength() - offset);
+				body.write('\n');
 			}
+		}
 
-			currentRecordContent = recordBuffer.toString();
-			currentRecordHeader = nextRecordHeader;
-			nextRecordHeader = recordHeaderFound;
-			return foundNewRecord;
+		private static boolean startsWith(Text text, int offset, byte[] prefix) {
+			if (text.getLength() - offset < prefix.length) {
+				return false;
+			}
+			byte[] bytes = text.getBytes();
+			for (int i = 0; i < prefix.length; i++) {
+				if (bytes[offset + i] != prefix[i]) {
+					return false;
+				}
+			}
+			return true;
 		}
 	}
-}
\ No newline at end of file
+}
@@ -20,7 +20,10 @@ import java.io.IOException;
 
 import org.apache.commons.lang.StringUtils;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.compress.CompressionCodecFactory;
 import org.apache.hadoop.mapred.FileInputFormat;
 import org.apache.hadoop.mapred.FileSplit;
 import org.apache.hadoop.mapred.InputSplit;
@@ -34,8 +37,9 @@ import de.tudarmstadt.ukp.dkpro.core.api.metadata.type.DocumentMetaData;
 /**
  * Input format for generating CAS instances from lines of text
  * 
- * All lines that lie in the boundaries of the input split are added
- * to the document text of one CAS
+ * Several lines, or documents separated by delimiter lines, are added to the
+ * document text of one CAS. See {@link GenericMultiLineRecordReader} for the
+ * options. Compressed files are not split.
  * 
  * @author Johannes Simon
  * 
@@ -257,4 +261,8 @@ public class MultiLineText2CASInputFormat extends FileInputFormat<Text, CASWrita
 				textConverter, annotationExtractor, metadataConverter);
 	}
 
+	@Override
+	protected boolean isSplitable(FileSystem fs, Path file) {
+		return new CompressionCodecFactory(fs.getConf()).getCodec(file) == null;
+	}
 }
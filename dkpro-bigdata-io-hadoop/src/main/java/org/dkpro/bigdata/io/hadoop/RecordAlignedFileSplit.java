@@ -0,0 +1,44 @@
+/*******************************************************************************
+ * Copyright 2013
+ * TU Darmstadt, FG Sprachtechnologie
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.dkpro.bigdata.io.hadoop;
+
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapred.FileSplit;
+
+/**
+ * A {@link FileSplit} that is known to start exactly at a record boundary, e.g. because it was
+ * planned from a CDX index. Record readers can seek to the start of such a split directly instead
+ * of scanning for the next record.
+ *
+ * @see CdxSplitPlanner
+ */
+public class RecordAlignedFileSplit
+    extends FileSplit
+{
+    /**
+     * Used by Hadoop to deserialize the split.
+     */
+    public RecordAlignedFileSplit()
+    {
+        super(null, 0, 0, (String[]) null);
+    }
+
+    public RecordAlignedFileSplit(Path file, long start, long length, String[] hosts)
+    {
+        super(file, start, length, hosts);
+    }
+}
@@ -0,0 +1,356 @@
+/*******************************************************************************
+ * Copyright 2013
+ * TU Darmstadt, FG Sprachtechnologie
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.dkpro.bigdata.io.hadoop;
+
+import java.io.IOException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import org.apache.hadoop.fs.FSDataInputStream;
+
+/**
+ * Finds the start of the next archive record at or after an arbitrary byte offset, so that record
+ * readers can seek directly to the start of their split instead of parsing the file from the
+ * beginning.
+ * <p>
+ * Candidates are validated before they are accepted: a WARC header must be followed by another
+ * header (or the end of the file) exactly <code>Content-Length</code> bytes later, and a gzip
+ * member must inflate to the expected record prefix.
+ * </p>
+ */
+public class RecordBoundaryFinder
+{
+    private static final int SCAN_BUFFER_SIZE = 64 * 1024;
+
+    /** Maximum size of a WARC header block that is considered during validation */
+    private static final int MAX_HEADER_SIZE = 32 * 1024;
+
+    /** Bytes read to validate a gzip member candidate */
+    private static final int GZIP_PROBE_SIZE = 16 * 1024;
+
+    private static final byte[] WARC_MAGIC = { 'W', 'A', 'R', 'C', '/' };
+
+    private static final int GZIP_ID1 = 0x1f;
+    private static final int GZIP_ID2 = 0x8b;
+    private static final int GZIP_CM_DEFLATE = 8;
+
+    private static final int FHCRC = 2;
+    private static final int FEXTRA = 4;
+    private static final int FNAME = 8;
+    private static final int FCOMMENT = 16;
+    private static final int FRESERVED = 0xe0;
+
+    private RecordBoundaryFinder()
+    {
+        // static helpers only
+    }
+
+    /**
+     * Returns the offset of the first valid WARC record header that starts in
+     * <code>[from, limit)</code>, or -1 if there is none.
+     */
+    public static long findWarcRecord(FSDataInputStream in, long from, long limit,
+            long fileLength)
+        throws IOException
+    {
+        if (from == 0) {
+            return isWarcRecord(in, 0, fileLength) ? 0 : findWarcRecord(in, 1, limit, fileLength);
+        }
+
+        byte[] buf = new byte[SCAN_BUFFER_SIZE];
+        // Start one byte early so that we can check that a header starts on a new line
+        long chunkStart = from - 1;
+        while (chunkStart < limit) {
+            int n = readAt(in, chunkStart, buf, buf.length);
+            if (n <= WARC_MAGIC.length) {
+                return -1;
+            }
+            for (int i = 1; i + WARC_MAGIC.length <= n; i++) {
+                long candidate = chunkStart + i;
+                if (candidate >= limit) {
+                    return -1;
+                }
+                if (buf[i - 1] == '\n' && startsWith(buf, i, n, WARC_MAGIC)
+                        && isWarcRecord(in, candidate, fileLength)) {
+                    return candidate;
+                }
+            }
+            // Overlap chunks so that no candidate is lost at a chunk border
+            chunkStart += n - WARC_MAGIC.length;
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the offset of the first gzip member that starts in <code>[from, limit)</code> and
+     * inflates to data starting with <code>expectedPrefix</code>, or -1 if there is none.
+     *
+     * @param expectedPrefix
+     *            bytes the inflated member must start with; may be null to accept any member that
+     *            inflates without error
+     */
+    public static long findGzipMember(FSDataInputStream in, long from, long limit,
+            byte[] expectedPrefix)
+        throws IOException
+    {
+        byte[] buf = new byte[SCAN_BUFFER_SIZE];
+        long chunkStart = from;
+        while (chunkStart < limit) {
+            int n = readAt(in, chunkStart, buf, buf.length);
+            if (n < 3) {
+                return -1;
+            }
+            for (int i = 0; i + 3 <= n; i++) {
+                long candidate = chunkStart + i;
+                if (candidate >= limit) {
+                    return -1;
+                }
+                if ((buf[i] & 0xff) == GZIP_ID1 && (buf[i + 1] & 0xff) == GZIP_ID2
+                        && buf[i + 2] == GZIP_CM_DEFLATE
+                        && isGzipMember(in, candidate, expectedPrefix)) {
+                    return candidate;
+                }
+            }
+            chunkStart += n - 2;
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the offset of the first record boundary in <code>[from, limit)</code> for the
+     * given WARC file, compressed or not, or -1 if there is none.
+     */
+    public static long findWarcBoundary(FSDataInputStream in, long from, long limit,
+            long fileLength, boolean compressed)
+        throws IOException
+    {
+        if (compressed) {
+            return findGzipMember(in, from, limit, WARC_MAGIC);
+        }
+        return findWarcRecord(in, from, limit, fileLength);
+    }
+
+    /**
+     * Checks whether a valid WARC record starts at <code>offset</code>. The header is parsed and
+     * the position <code>Content-Length</code> bytes after the header must hold the next record
+     * header or the end of the file.
+     */
+    static boolean isWarcRecord(FSDataInputStream in, long offset, long fileLength)
+        throws IOException
+    {
+        byte[] header = new byte[MAX_HEADER_SIZE];
+        int n = readAt(in, offset, header, header.length);
+        if (!startsWith(header, 0, n, WARC_MAGIC)) {
+            return false;
+        }
+
+        // Version line: WARC/<digits>.<digits>
+        int pos = WARC_MAGIC.length;
+        int digits = 0;
+        while (pos < n && (Character.isDigit(header[pos]) || header[pos] == '.')) {
+            pos++;
+            digits++;
+        }
+        if (digits == 0) {
+            return false;
+        }
+
+        long contentLength = -1;
+        int lineStart = skipLineBreak(header, pos, n);
+        if (lineStart < 0) {
+            return false;
+        }
+        while (true) {
+            int lineEnd = lineStart;
+            while (lineEnd < n && header[lineEnd] != '\r' && header[lineEnd] != '\n') {
+                lineEnd++;
+            }
+            int next = skipLineBreak(header, lineEnd, n);
+            if (next < 0) {
+                // header block larger than what we are willing to inspect
+                return false;
+            }
+            if (lineEnd == lineStart) {
+                // empty line terminates the header block
+                lineStart = next;
+                break;
+            }
+            String line = new String(header, lineStart, lineEnd - lineStart, "ISO-8859-1");
+            int colon = line.indexOf(':');
+            if (colon <= 0) {
+                return false;
+            }
+            if (line.substring(0, colon).trim().equalsIgnoreCase("Content-Length")) {
+                try {
+                    contentLength = Long.parseLong(line.substring(colon + 1).trim());
+                }
+                catch (NumberFormatException e) {
+                    return false;
+                }
+            }
+            lineStart = next;
+        }
+        if (contentLength < 0) {
+            return false;
+        }
+
+        long recordEnd = offset + lineStart + contentLength;
+        if (recordEnd > fileLength) {
+            return false;
+        }
+        // Records are separated by two line breaks
+        byte[] trailer = new byte[4 + WARC_MAGIC.length];
+        int m = readAt(in, recordEnd, trailer, trailer.length);
+        int i = 0;
+        while (i < m && i < 4 && (trailer[i] == '\r' || trailer[i] == '\n')) {
+            i++;
+        }
+        if (recordEnd + i == fileLength) {
+            return true;
+        }
+        return startsWith(trailer, i, m, WARC_MAGIC);
+    }
+
+    /**
+     * Checks whether a gzip member starts at <code>offset</code> by inflating its first bytes.
+     */
+    static boolean isGzipMember(FSDataInputStream in, long offset, byte[] expectedPrefix)
+        throws IOException
+    {
+        byte[] probe = new byte[GZIP_PROBE_SIZE];
+        int n = readAt(in, offset, probe, probe.length);
+        int headerLength = gzipHeaderLength(probe, 0, n);
+        if (headerLength < 0) {
+            return false;
+        }
+
+        int wanted = expectedPrefix != null ? expectedPrefix.length : 1;
+        byte[] inflated = new byte[wanted];
+        Inflater inflater = new Inflater(true);
+        try {
+            inflater.setInput(probe, headerLength, n - headerLength);
+            int produced = 0;
+            while (produced < wanted) {
+                int r = inflater.inflate(inflated, produced, wanted - produced);
+                if (r == 0 && (inflater.needsInput() || inflater.finished()
+                        || inflater.needsDictionary())) {
+                    break;
+                }
+                produced += r;
+            }
+            if (produced < wanted) {
+                return false;
+            }
+            return expectedPrefix == null || startsWith(inflated, 0, produced, expectedPrefix);
+        }
+        catch (DataFormatException e) {
+            return false;
+        }
+        finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * Returns the length of the gzip member header at <code>off</code>, or -1 if the bytes do not
+     * form a valid (and complete) gzip header.
+     */
+    static int gzipHeaderLength(byte[] buf, int off, int len)
+    {
+        int end = off + len;
+        if (len < 10 || (buf[off] & 0xff) != GZIP_ID1 || (buf[off + 1] & 0xff) != GZIP_ID2
+                || buf[off + 2] != GZIP_CM_DEFLATE) {
+            return -1;
+        }
+        int flags = buf[off + 3] & 0xff;
+        if ((flags & FRESERVED) != 0) {
+            return -1;
+        }
+        int pos = off + 10;
+        if ((flags & FEXTRA) != 0) {
+            if (pos + 2 > end) {
+                return -1;
+            }
+            int xlen = (buf[pos] & 0xff) | ((buf[pos + 1] & 0xff) << 8);
+            pos += 2 + xlen;
+        }
+        if ((flags & FNAME) != 0) {
+            while (pos < end && buf[pos] != 0) {
+                pos++;
+            }
+            pos++;
+        }
+        if ((flags & FCOMMENT) != 0) {
+            while (pos < end && buf[pos] != 0) {
+                pos++;
+            }
+            pos++;
+        }
+        if ((flags & FHCRC) != 0) {
+            pos += 2;
+        }
+        return pos <= end ? pos - off : -1;
+    }
+
+    /**
+     * Positional read that fills <code>buf</code> as far as possible.
+     *
+     * @return number of bytes read, 0 at the end of the file
+     */
+    static int readAt(FSDataInputStream in, long position, byte[] buf, int length)
+        throws IOException
+    {
+        int total = 0;
+        while (total < length) {
+            int r = in.read(position + total, buf, total, length - total);
+            if (r < 0) {
+                break;
+            }
+            total += r;
+        }
+        return total;
+    }
+
+    private static boolean startsWith(byte[] buf, int off, int end, byte[] prefix)
+    {
+        if (off + prefix.length > end) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (buf[off + i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Skips a CRLF or LF at <code>pos</code>.
+     *
+     * @return the position after the line break or -1 if there is none
+     */
+    private static int skipLineBreak(byte[] buf, int pos, int end)
+    {
+        if (pos < end && buf[pos] == '\r') {
+            pos++;
+        }
+        if (pos < end && buf[pos] == '\n') {
+            return pos + 1;
+        }
+        return -1;
+    }
+}
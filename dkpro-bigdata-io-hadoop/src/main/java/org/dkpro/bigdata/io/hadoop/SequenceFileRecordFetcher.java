@@ -0,0 +1,109 @@
+/*******************************************************************************
+ * Copyright 2010,2012
+ * Ubiquitous Knowledge Processing (UKP) Lab
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.dkpro.bigdata.io.hadoop;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.util.ReflectionUtils;
+import org.apache.uima.cas.CAS;
+
+/**
+ * Reads single CAS records from sequence files by their position, see
+ * {@link DeltaCasWritable}. A few readers are kept open per JVM, as the records referenced by the
+ * values of one reduce task usually come from a small number of map input files.
+ */
+class SequenceFileRecordFetcher
+{
+    private static final int MAX_OPEN_FILES = 8;
+
+    private static final Map<Path, OpenFile> openFiles = new LinkedHashMap<Path, OpenFile>(16,
+            0.75f, true);
+
+    private SequenceFileRecordFetcher()
+    {
+        // static helpers only
+    }
+
+    /**
+     * Reads the record into <code>cas</code>.
+     *
+     * @param position
+     *            position of the reader before the block (or, for files that are not block
+     *            compressed, the record) holding the record
+     * @param index
+     *            index of the record within its block
+     */
+    static synchronized void fetch(Configuration conf, Path path, long position, int index,
+            CAS cas)
+        throws IOException
+    {
+        OpenFile file = openFiles.get(path);
+        if (file == null) {
+            file = new OpenFile(conf, path);
+            openFiles.put(path, file);
+            Iterator<OpenFile> eldest = openFiles.values().iterator();
+            while (openFiles.size() > MAX_OPEN_FILES) {
+                eldest.next().reader.close();
+                eldest.remove();
+            }
+        }
+
+        file.reader.seek(position);
+        for (int i = 0; i < index; i++) {
+            if (!file.reader.next(file.key)) {
+                throw new IOException("No record " + index + " at position " + position + " in ["
+                        + path + "]");
+            }
+        }
+        file.value.setCAS(cas);
+        try {
+            if (!file.reader.next(file.key, file.value)) {
+                throw new IOException("No record " + index + " at position " + position + " in ["
+                        + path + "]");
+            }
+            // Lazy writables only deserialize on access
+            file.value.getCAS();
+        }
+        finally {
+            file.value.setCAS(null);
+        }
+    }
+
+    private static class OpenFile
+    {
+        final SequenceFile.Reader reader;
+        final Writable key;
+        final CASWritable value;
+
+        OpenFile(Configuration conf, Path path)
+            throws IOException
+        {
+            reader = new SequenceFile.Reader(FileSystem.get(path.toUri(), conf), path, conf);
+            key = (Writable) ReflectionUtils.newInstance(reader.getKeyClass(), conf);
+            value = (CASWritable) ReflectionUtils.newInstance(reader.getValueClass(), conf);
+        }
+    }
+}
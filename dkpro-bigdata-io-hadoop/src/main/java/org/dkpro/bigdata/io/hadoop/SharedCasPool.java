@@ -0,0 +1,222 @@
+/*******************************************************************************
+ * Copyright 2010,2012
+ * Ubiquitous Knowledge Processing (UKP) Lab
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.dkpro.bigdata.io.hadoop;
+
+import static org.apache.uima.fit.factory.TypeSystemDescriptionFactory.createTypeSystemDescription;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Set;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.mapred.Reporter;
+import org.apache.uima.cas.CAS;
+import org.apache.uima.cas.TypeSystem;
+import org.apache.uima.resource.ResourceInitializationException;
+import org.apache.uima.resource.metadata.TypeSystemDescription;
+import org.apache.uima.util.CasCreationUtils;
+
+/**
+ * JVM-wide source of CASes using the type system found on the classpath.
+ * <p>
+ * The type system description is resolved only once, and all CASes share one type system. Released
+ * CASes are kept in a bounded pool and handed out again. Unlike UIMA's
+ * {@link org.apache.uima.util.CasPool}, the pool never blocks: if it is empty, a new CAS is
+ * created. This is necessary because writables hold on to their CAS for as long as they live.
+ * </p>
+ * <p>
+ * If {@link TypeSystemProjection#PARAM_INPUT_TYPES} is set, the CASes only contain the listed
+ * types.
+ * </p>
+ */
+public class SharedCasPool
+{
+    /**
+     * Maximum number of idle CASes kept in the pool.
+     */
+    public static final String PARAM_POOL_SIZE = "dkpro.cas.pool.size";
+
+    public static final int DEFAULT_POOL_SIZE = 8;
+
+    /**
+     * Hadoop counters for the pool.
+     */
+    public static enum Counters
+    {
+        /** CAS taken from the pool */
+        HITS,
+        /** CAS had to be created */
+        MISSES
+    }
+
+    private static TypeSystemDescription typeSystemDescription;
+    private static TypeSystem typeSystem;
+
+    /** Types of the pooled CASes, null for all types */
+    private static Set<String> inputTypes;
+
+    /** The full type system if <code>inputTypes</code> is set */
+    private static TypeSystem sourceTypeSystem;
+    private static final Deque<CAS> idle = new ArrayDeque<CAS>();
+    private static int capacity = DEFAULT_POOL_SIZE;
+
+    private static long hits = 0;
+    private static long misses = 0;
+    private static long reportedHits = 0;
+    private static long reportedMisses = 0;
+
+    private SharedCasPool()
+    {
+        // static helpers only
+    }
+
+    /**
+     * Applies the pool size and the type projections configured in <code>conf</code>.
+     */
+    public static synchronized void configure(Configuration conf)
+    {
+        capacity = conf.getInt(PARAM_POOL_SIZE, DEFAULT_POOL_SIZE);
+        while (idle.size() > capacity) {
+            idle.pop();
+        }
+
+        Set<String> types = TypeSystemProjection.getTypes(conf,
+                TypeSystemProjection.PARAM_INPUT_TYPES);
+        if (types == null ? inputTypes != null : !types.equals(inputTypes)) {
+            // CASes handed out before keep their type system
+            inputTypes = types;
+            typeSystem = null;
+            sourceTypeSystem = null;
+            idle.clear();
+        }
+        TypeSystemProjection.configure(conf);
+    }
+
+    /**
+     * Returns the type system description found on the classpath. The classpath is scanned only
+     * on the first call.
+     */
+    public static synchronized TypeSystemDescription getTypeSystemDescription()
+        throws ResourceInitializationException
+    {
+        if (typeSystemDescription == null) {
+            typeSystemDescription = createTypeSystemDescription();
+        }
+        return typeSystemDescription;
+    }
+
+    /**
+     * Returns an empty CAS from the pool, or a new one if the pool is empty.
+     */
+    public static CAS acquire()
+        throws ResourceInitializationException
+    {
+        synchronized (SharedCasPool.class) {
+            CAS cas = idle.poll();
+            if (cas != null) {
+                hits++;
+                return cas;
+            }
+            misses++;
+            if (typeSystem == null) {
+                TypeSystemDescription description = getTypeSystemDescription();
+                if (inputTypes != null) {
+                    description = TypeSystemProjection.project(description, inputTypes);
+                }
+                cas = CasCreationUtils.createCas(description, null, null);
+                typeSystem = cas.getTypeSystem();
+                return cas;
+            }
+        }
+        // Reuse the committed type system, this is much cheaper than resolving the description
+        return CasCreationUtils.createCas(typeSystem, null, null, null);
+    }
+
+    /**
+     * Returns the type system of records that were written from CASes with the type system
+     * <code>ts</code> and do not carry a type system themselves. This is <code>ts</code>, unless
+     * it is the type system of this pool restricted to the input types, in which case the records
+     * were written with the full type system.
+     */
+    public static synchronized TypeSystem getSourceTypeSystem(TypeSystem ts)
+        throws ResourceInitializationException
+    {
+        if (inputTypes == null || ts != typeSystem) {
+            return ts;
+        }
+        if (sourceTypeSystem == null) {
+            sourceTypeSystem = CasCreationUtils.createCas(getTypeSystemDescription(), null, null)
+                    .getTypeSystem();
+        }
+        return sourceTypeSystem;
+    }
+
+    /**
+     * Resets the CAS and returns it to the pool. CASes with a different type system and CASes
+     * exceeding the pool size are left to the garbage collector. The CAS must not be used by the
+     * caller afterwards.
+     */
+    public static void release(CAS cas)
+    {
+        if (cas == null) {
+            return;
+        }
+        synchronized (SharedCasPool.class) {
+            if (cas.getTypeSystem() != typeSystem || idle.size() >= capacity) {
+                return;
+            }
+        }
+        cas.reset();
+        synchronized (SharedCasPool.class) {
+            if (idle.size() < capacity) {
+                idle.push(cas);
+            }
+        }
+    }
+
+    public static synchronized long getHits()
+    {
+        return hits;
+    }
+
+    public static synchronized long getMisses()
+    {
+        return misses;
+    }
+
+    /**
+     * Adds the hits and misses since the last call to the task counters.
+     */
+    public static void reportCounters(Reporter reporter)
+    {
+        long newHits;
+        long newMisses;
+        synchronized (SharedCasPool.class) {
+            newHits = hits - reportedHits;
+            newMisses = misses - reportedMisses;
+            reportedHits = hits;
+            reportedMisses = misses;
+        }
+        if (newHits > 0) {
+            reporter.incrCounter(Counters.HITS, newHits);
+        }
+        if (newMisses > 0) {
+            reporter.incrCounter(Counters.MISSES, newMisses);
+        }
+    }
+}
@@ -0,0 +1,498 @@
+/*******************************************************************************
+ * Copyright 2013
+ * TU Darmstadt, FG Sprachtechnologie
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.dkpro.bigdata.io.hadoop;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackReader;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.nio.charset.IllegalCharsetNameException;
+import java.nio.charset.UnsupportedCharsetException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.mapred.Reporter;
+import org.apache.hadoop.util.ReflectionUtils;
+
+/**
+ * Determines the charset of crawled documents from the cheapest reliable source available,
+ * looking at no more than a bounded prefix of the content:
+ * <ol>
+ * <li>a byte order mark,</li>
+ * <li>the <code>charset</code> parameter of the HTTP <code>Content-Type</code>,</li>
+ * <li>for HTML and XML documents, a <code>&lt;meta&gt;</code> charset declaration or an XML
+ * declaration within the first {@link #META_PREFIX_SIZE} bytes,</li>
+ * <li>the byte statistics of the first {@link #SAMPLE_SIZE} bytes: text with a high share of zero
+ * bytes at even or odd positions is UTF-16, text that is valid UTF-8 (this includes plain ASCII)
+ * is UTF-8,</li>
+ * <li>the {@link EncodingDetector} configured in {@link #ENCODING_DETECTOR}, applied to the
+ * sample, if any,</li>
+ * <li>{@link #DEFAULT_ENCODING}.</li>
+ * </ol>
+ * <p>
+ * A detector is meant to be created once per record reader and reused for every record. If a
+ * {@link Reporter} is set, the number of documents per detection step and per charset are
+ * counted. Not thread-safe.
+ * </p>
+ * <p>
+ * The decoders of the JDK keep a byte order mark as character U+FEFF at the start of the text. Use
+ * {@link #stripByteOrderMark(String)} or {@link #skipByteOrderMark(Reader)} to remove it after
+ * decoding.
+ * </p>
+ */
+public class SniffingEncodingDetector
+    implements EncodingDetector
+{
+    /**
+     * Number of bytes searched for a <code>&lt;meta&gt;</code> charset declaration.
+     */
+    public static final String META_PREFIX_SIZE = "dkpro.input.encoding.meta-prefix-size";
+
+    public static final int DEFAULT_META_PREFIX_SIZE = 4096;
+
+    /**
+     * Number of bytes the statistical detection is based on.
+     */
+    public static final String SAMPLE_SIZE = "dkpro.input.encoding.sample-size";
+
+    public static final int DEFAULT_SAMPLE_SIZE = 32 * 1024;
+
+    /**
+     * Class of an {@link EncodingDetector} used for content that is neither UTF-8 nor UTF-16. Not
+     * set by default.
+     */
+    public static final String ENCODING_DETECTOR = "dkpro.input.encodingdetector";
+
+    /**
+     * Charset used if no other step gives a result. Defaults to windows-1252, the usual encoding
+     * of web pages that are not UTF-8 (and a superset of ISO-8859-1).
+     */
+    public static final String DEFAULT_ENCODING = "dkpro.input.default-encoding";
+
+    /**
+     * Counter group for the number of documents per detected charset.
+     */
+    public static final String CHARSET_COUNTER_GROUP = "Detected charsets";
+
+    /**
+     * Hadoop counters for the step that determined the charset.
+     */
+    public static enum Counters
+    {
+        BYTE_ORDER_MARK, CONTENT_TYPE, META_TAG, UTF8, UTF16, DETECTOR, DEFAULT
+    }
+
+    /** A byte order mark as decoded character */
+    public static final char BYTE_ORDER_MARK = '\ufeff';
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final Charset UTF16BE = Charset.forName("UTF-16BE");
+    private static final Charset UTF16LE = Charset.forName("UTF-16LE");
+
+    /** Share of zero bytes at odd (or even) positions that indicates UTF-16 */
+    private static final double UTF16_ZERO_RATIO = 0.3;
+
+    private static final byte[] META = { '<', 'm', 'e', 't', 'a' };
+    private static final byte[] XML_DECLARATION = { '<', '?', 'x', 'm', 'l' };
+    private static final byte[] CHARSET = { 'c', 'h', 'a', 'r', 's', 'e', 't' };
+    private static final byte[] ENCODING = { 'e', 'n', 'c', 'o', 'd', 'i', 'n', 'g' };
+
+    private final int metaPrefixSize;
+    private final Charset defaultCharset;
+    private final EncodingDetector detector;
+
+    /** Reused for the samples read by {@link #detect(String, InputStream)} */
+    private final byte[] sample;
+
+    /** Charsets by declared name, including unsupported names (mapped to null) */
+    private final Map<String, Charset> charsets = new HashMap<String, Charset>();
+
+    private Reporter reporter;
+
+    public SniffingEncodingDetector()
+    {
+        this(new Configuration(false));
+    }
+
+    public SniffingEncodingDetector(Configuration conf)
+    {
+        metaPrefixSize = conf.getInt(META_PREFIX_SIZE, DEFAULT_META_PREFIX_SIZE);
+        sample = new byte[Math.max(metaPrefixSize, conf.getInt(SAMPLE_SIZE, DEFAULT_SAMPLE_SIZE))];
+        defaultCharset = Charset.forName(conf.get(DEFAULT_ENCODING, "windows-1252"));
+        Class<? extends EncodingDetector> detectorClass = conf.getClass(ENCODING_DETECTOR, null,
+                EncodingDetector.class);
+        detector = detectorClass != null ? ReflectionUtils.newInstance(detectorClass, conf)
+                : null;
+    }
+
+    /**
+     * Sets the reporter that the counters are reported to, may be null.
+     */
+    public void setReporter(Reporter reporter)
+    {
+        this.reporter = reporter;
+    }
+
+    /**
+     * Returns the number of bytes needed to detect the charset of a document.
+     */
+    public int getSampleSize()
+    {
+        return sample.length;
+    }
+
+    @Override
+    public String getBestEncoding(byte[] data)
+    {
+        return detect(null, data, 0, data.length).name();
+    }
+
+    /**
+     * Detects the charset of a document.
+     *
+     * @param contentType
+     *            the content type the document was served with, may be null
+     */
+    public Charset detect(String contentType, byte[] data, int offset, int length)
+    {
+        int sampleLength = Math.min(length, sample.length);
+
+        Charset charset = detectByteOrderMark(data, offset, sampleLength);
+        if (charset != null) {
+            return count(Counters.BYTE_ORDER_MARK, charset);
+        }
+
+        if (contentType != null) {
+            charset = lookup(getParameter(contentType, "charset"));
+            if (charset != null) {
+                return count(Counters.CONTENT_TYPE, charset);
+            }
+        }
+
+        String type = contentType != null ? contentType.toLowerCase() : null;
+        if (type == null || type.contains("html") || type.contains("xml")) {
+            charset = sniffDeclaration(data, offset, Math.min(sampleLength, metaPrefixSize));
+            if (charset != null) {
+                return count(Counters.META_TAG, charset);
+            }
+        }
+
+        // Before UTF-8, as UTF-16 encoded ASCII is valid UTF-8
+        charset = detectUtf16(data, offset, sampleLength);
+        if (charset != null) {
+            return count(Counters.UTF16, charset);
+        }
+        if (isUtf8(data, offset, sampleLength)) {
+            return count(Counters.UTF8, UTF8);
+        }
+
+        if (detector != null) {
+            charset = lookup(detector.getBestEncoding(offset == 0 && sampleLength == data.length
+                    ? data : Arrays.copyOfRange(data, offset, offset + sampleLength)));
+            if (charset != null) {
+                return count(Counters.DETECTOR, charset);
+            }
+        }
+        return count(Counters.DEFAULT, defaultCharset);
+    }
+
+    /**
+     * Detects the charset of a document from its first {@link #getSampleSize()} bytes. The stream
+     * must support {@link InputStream#mark(int)} and is reset to its position before the call.
+     *
+     * @param contentType
+     *            the content type the document was served with, may be null
+     */
+    public Charset detect(String contentType, InputStream in)
+        throws IOException
+    {
+        in.mark(sample.length);
+        int length = 0;
+        int n;
+        while (length < sample.length && (n = in.read(sample, length, sample.length - length)) > 0) {
+            length += n;
+        }
+        in.reset();
+        return detect(contentType, sample, 0, length);
+    }
+
+    /**
+     * Removes a leading byte order mark from a decoded text.
+     */
+    public static String stripByteOrderMark(String text)
+    {
+        if (text != null && !text.isEmpty() && text.charAt(0) == BYTE_ORDER_MARK) {
+            return text.substring(1);
+        }
+        return text;
+    }
+
+    /**
+     * Skips a leading byte order mark of a decoded stream.
+     *
+     * @return a reader positioned at the first character of the text
+     */
+    public static Reader skipByteOrderMark(Reader reader)
+        throws IOException
+    {
+        PushbackReader in = new PushbackReader(reader);
+        int c = in.read();
+        if (c != -1 && c != BYTE_ORDER_MARK) {
+            in.unread(c);
+        }
+        return in;
+    }
+
+    private Charset count(Counters step, Charset charset)
+    {
+        if (reporter != null) {
+            reporter.incrCounter(step, 1);
+            reporter.incrCounter(CHARSET_COUNTER_GROUP, charset.name(), 1);
+        }
+        return charset;
+    }
+
+    /**
+     * Returns the charset with the given name, or null if the name is null or the charset is not
+     * supported.
+     */
+    private Charset lookup(String name)
+    {
+        if (name == null || name.isEmpty()) {
+            return null;
+        }
+        if (charsets.containsKey(name)) {
+            return charsets.get(name);
+        }
+        Charset charset;
+        try {
+            charset = Charset.forName(name);
+        }
+        catch (IllegalCharsetNameException e) {
+            charset = null;
+        }
+        catch (UnsupportedCharsetException e) {
+            charset = null;
+        }
+        charsets.put(name, charset);
+        return charset;
+    }
+
+    /**
+     * Returns the value of a parameter of a header value such as
+     * <code>text/html; charset="UTF-8"</code>, or null.
+     */
+    static String getParameter(String headerValue, String name)
+    {
+        for (String parameter : headerValue.split(";")) {
+            int eq = parameter.indexOf('=');
+            if (eq > 0 && parameter.substring(0, eq).trim().equalsIgnoreCase(name)) {
+                return parameter.substring(eq + 1).trim().replace("\"", "").replace("'", "");
+            }
+        }
+        return null;
+    }
+
+    private static Charset detectByteOrderMark(byte[] data, int offset, int length)
+    {
+        if (length >= 3 && (data[offset] & 0xff) == 0xef && (data[offset + 1] & 0xff) == 0xbb
+                && (data[offset + 2] & 0xff) == 0xbf) {
+            return UTF8;
+        }
+        if (length >= 2 && (data[offset] & 0xff) == 0xfe && (data[offset + 1] & 0xff) == 0xff) {
+            return UTF16BE;
+        }
+        if (length >= 2 && (data[offset] & 0xff) == 0xff && (data[offset + 1] & 0xff) == 0xfe) {
+            return UTF16LE;
+        }
+        return null;
+    }
+
+    /**
+     * Looks for <code>&lt;meta charset=...&gt;</code>,
+     * <code>&lt;meta http-equiv="Content-Type" content="...; charset=..."&gt;</code> and
+     * <code>&lt;?xml ... encoding="..."?&gt;</code>.
+     */
+    private Charset sniffDeclaration(byte[] data, int offset, int length)
+    {
+        int end = offset + length;
+        for (int i = offset; i < end; i++) {
+            if (data[i] != '<') {
+                continue;
+            }
+            byte[] attribute;
+            if (startsWithIgnoreCase(data, i, end, META)) {
+                attribute = CHARSET;
+            }
+            else if (startsWithIgnoreCase(data, i, end, XML_DECLARATION)) {
+                attribute = ENCODING;
+            }
+            else {
+                continue;
+            }
+            int tagEnd = i + 1;
+            while (tagEnd < end && data[tagEnd] != '>') {
+                tagEnd++;
+            }
+            Charset charset = lookup(getAttributeValue(data, i, tagEnd, attribute));
+            if (charset != null) {
+                // A page cannot declare UTF-16 in an ASCII compatible way
+                if (charset.equals(UTF16BE) || charset.equals(UTF16LE)
+                        || charset.name().equals("UTF-16")) {
+                    return UTF8;
+                }
+                return charset;
+            }
+            i = tagEnd;
+        }
+        return null;
+    }
+
+    /**
+     * Returns the value following <code>name=</code> in <code>[from, to)</code>, or null.
+     */
+    private static String getAttributeValue(byte[] data, int from, int to, byte[] name)
+    {
+        for (int i = from; i < to; i++) {
+            if (!startsWithIgnoreCase(data, i, to, name)) {
+                continue;
+            }
+            int pos = i + name.length;
+            while (pos < to && isSpace(data[pos])) {
+                pos++;
+            }
+            if (pos >= to || data[pos] != '=') {
+                continue;
+            }
+            pos++;
+            while (pos < to && (isSpace(data[pos]) || data[pos] == '"' || data[pos] == '\'')) {
+                pos++;
+            }
+            int valueEnd = pos;
+            while (valueEnd < to && !isSpace(data[valueEnd]) && data[valueEnd] != '"'
+                    && data[valueEnd] != '\'' && data[valueEnd] != ';' && data[valueEnd] != '/'
+                    && data[valueEnd] != '?') {
+                valueEnd++;
+            }
+            if (valueEnd > pos) {
+                return new String(data, pos, valueEnd - pos, UTF8).trim();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Checks whether the data is well-formed UTF-8. A sequence cut off by the end of the data is
+     * accepted.
+     */
+    static boolean isUtf8(byte[] data, int offset, int length)
+    {
+        int end = offset + length;
+        int i = offset;
+        while (i < end) {
+            int b = data[i] & 0xff;
+            if (b < 0x80) {
+                i++;
+                continue;
+            }
+            int continuation;
+            int min;
+            if (b >= 0xc2 && b <= 0xdf) {
+                continuation = 1;
+                min = 0x80;
+            }
+            else if (b >= 0xe0 && b <= 0xef) {
+                continuation = 2;
+                min = 0x800;
+            }
+            else if (b >= 0xf0 && b <= 0xf4) {
+                continuation = 3;
+                min = 0x10000;
+            }
+            else {
+                return false;
+            }
+            int codePoint = b & (0x3f >> continuation);
+            int j = 1;
+            for (; j <= continuation && i + j < end; j++) {
+                int c = data[i + j] & 0xff;
+                if ((c & 0xc0) != 0x80) {
+                    return false;
+                }
+                codePoint = (codePoint << 6) | (c & 0x3f);
+            }
+            if (j > continuation && (codePoint < min || codePoint > 0x10ffff
+                    || (codePoint >= 0xd800 && codePoint <= 0xdfff))) {
+                return false;
+            }
+            i += j;
+        }
+        return true;
+    }
+
+    private static Charset detectUtf16(byte[] data, int offset, int length)
+    {
+        if (length < 2) {
+            return null;
+        }
+        int evenZeros = 0;
+        int oddZeros = 0;
+        for (int i = 0; i < length; i++) {
+            if (data[offset + i] == 0) {
+                if (i % 2 == 0) {
+                    evenZeros++;
+                }
+                else {
+                    oddZeros++;
+                }
+            }
+        }
+        int pairs = length / 2;
+        if (evenZeros > pairs * UTF16_ZERO_RATIO && oddZeros <= evenZeros / 10) {
+            return UTF16BE;
+        }
+        if (oddZeros > pairs * UTF16_ZERO_RATIO && evenZeros <= oddZeros / 10) {
+            return UTF16LE;
+        }
+        return null;
+    }
+
+    private static boolean startsWithIgnoreCase(byte[] data, int offset, int end, byte[] prefix)
+    {
+        if (offset + prefix.length > end) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            byte b = data[offset + i];
+            if (b >= 'A' && b <= 'Z') {
+                b += 'a' - 'A';
+            }
+            if (b != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isSpace(byte b)
+    {
+        return b == ' ' || b == '\t' || b == '\n' || b == '\r' || b == '\f';
+    }
+}
@@ -0,0 +1,362 @@
+/*******************************************************************************
+ * Copyright 2013
+ * TU Darmstadt, FG Sprachtechnologie
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.dkpro.bigdata.io.hadoop;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads the regular file entries of a TAR archive from a stream.
+ * <p>
+ * POSIX (ustar) and GNU archives are supported, including long names stored in GNU
+ * <code>L</code> entries or in pax <code>path</code> records. The offset of an entry is the
+ * offset of its first header, i.e. of the long name entry if there is one, so that reading can
+ * start at any entry offset returned by {@link #getEntryOffset()}.
+ * </p>
+ */
+public class TarReader
+{
+    private static final int BLOCK_SIZE = 512;
+
+    private static final int NAME_OFFSET = 0;
+    private static final int NAME_LENGTH = 100;
+    private static final int SIZE_OFFSET = 124;
+    private static final int SIZE_LENGTH = 12;
+    private static final int CHECKSUM_OFFSET = 148;
+    private static final int CHECKSUM_LENGTH = 8;
+    private static final int TYPE_OFFSET = 156;
+    private static final int MAGIC_OFFSET = 257;
+    private static final int PREFIX_OFFSET = 345;
+    private static final int PREFIX_LENGTH = 155;
+
+    private static final byte[] USTAR_MAGIC = { 'u', 's', 't', 'a', 'r' };
+
+    private final InputStream in;
+    private final byte[] header = new byte[BLOCK_SIZE];
+    private long position;
+
+    private long entryOffset = -1;
+    private String name;
+    private long size;
+
+    /** Bytes of the current entry (including padding) that have not been consumed yet */
+    private long remaining = 0;
+
+    /** Bytes of content of the current entry that have not been read yet */
+    private long unread = 0;
+
+    /**
+     * @param in
+     *            the archive, positioned at an entry offset (or at the start of the archive)
+     * @param offset
+     *            the offset of the stream position within the archive
+     */
+    public TarReader(InputStream in, long offset)
+    {
+        this.in = in;
+        this.position = offset;
+    }
+
+    /**
+     * Advances to the next regular file entry, skipping the rest of the current entry.
+     *
+     * @return false at the end of the archive
+     */
+    public boolean next()
+        throws IOException
+    {
+        skipFully(remaining);
+        remaining = 0;
+        unread = 0;
+
+        long start = position;
+        String longName = null;
+        String paxPath = null;
+        while (true) {
+            if (!readHeader()) {
+                return false;
+            }
+            long headerOffset = position - BLOCK_SIZE;
+            if (isZero(header)) {
+                // End of archive marker
+                return false;
+            }
+            if (parseOctal(header, CHECKSUM_OFFSET, CHECKSUM_LENGTH) != checksum(header)) {
+                throw new IOException("Invalid TAR header checksum at offset " + headerOffset);
+            }
+
+            long entrySize = parseSize(header);
+            long padded = (entrySize + BLOCK_SIZE - 1) / BLOCK_SIZE * BLOCK_SIZE;
+            byte type = header[TYPE_OFFSET];
+            switch (type) {
+            case 'L':
+                longName = toString(readFully(entrySize), 0, (int) entrySize);
+                skipFully(padded - entrySize);
+                break;
+            case 'x':
+                paxPath = parsePaxPath(readFully(entrySize));
+                skipFully(padded - entrySize);
+                break;
+            case '0':
+            case '7':
+            case 0:
+                entryOffset = start;
+                name = paxPath != null ? paxPath : longName != null ? longName : headerName();
+                size = entrySize;
+                remaining = padded;
+                unread = entrySize;
+                return true;
+            default:
+                // Directories, links, devices and global pax headers
+                skipFully(padded);
+                start = position;
+                longName = null;
+                paxPath = null;
+            }
+        }
+    }
+
+    /**
+     * Offset of the current entry within the archive.
+     */
+    public long getEntryOffset()
+    {
+        return entryOffset;
+    }
+
+    public String getName()
+    {
+        return name;
+    }
+
+    /**
+     * Size of the content of the current entry.
+     */
+    public long getSize()
+    {
+        return size;
+    }
+
+    /**
+     * Offset of the stream position within the archive.
+     */
+    public long getPosition()
+    {
+        return position;
+    }
+
+    /**
+     * Reads the content of the current entry.
+     */
+    public byte[] readContent()
+        throws IOException
+    {
+        if (unread != size) {
+            throw new IllegalStateException("Content of [" + name + "] has already been read");
+        }
+        if (size > Integer.MAX_VALUE - 8) {
+            throw new IOException("TAR entry [" + name + "] is too large: " + size + " bytes");
+        }
+        byte[] content = readFully(size);
+        remaining -= size;
+        unread = 0;
+        return content;
+    }
+
+    private boolean readHeader()
+        throws IOException
+    {
+        int total = 0;
+        while (total < BLOCK_SIZE) {
+            int r = in.read(header, total, BLOCK_SIZE - total);
+            if (r < 0) {
+                if (total == 0) {
+                    // Archives without end marker
+                    return false;
+                }
+                throw new EOFException("Truncated TAR header at offset " + position);
+            }
+            total += r;
+        }
+        position += BLOCK_SIZE;
+        return true;
+    }
+
+    private byte[] readFully(long length)
+        throws IOException
+    {
+        byte[] buf = new byte[(int) length];
+        int total = 0;
+        while (total < buf.length) {
+            int r = in.read(buf, total, buf.length - total);
+            if (r < 0) {
+                throw new EOFException("Truncated TAR entry at offset " + position);
+            }
+            total += r;
+            position += r;
+        }
+        return buf;
+    }
+
+    private void skipFully(long length)
+        throws IOException
+    {
+        long left = length;
+        while (left > 0) {
+            long skipped = in.skip(left);
+            if (skipped <= 0) {
+                // skip() may give up before the end of the stream
+                if (in.read() < 0) {
+                    throw new EOFException("Truncated TAR entry at offset " + position);
+                }
+                skipped = 1;
+            }
+            left -= skipped;
+            position += skipped;
+        }
+    }
+
+    private String headerName()
+        throws IOException
+    {
+        String fileName = toString(header, NAME_OFFSET, NAME_LENGTH);
+        if (startsWith(header, MAGIC_OFFSET, USTAR_MAGIC)) {
+            String prefix = toString(header, PREFIX_OFFSET, PREFIX_LENGTH);
+            if (!prefix.isEmpty()) {
+                return prefix + "/" + fileName;
+            }
+        }
+        return fileName;
+    }
+
+    /**
+     * Returns the <code>path</code> of a pax extended header, null if there is none. Records have
+     * the form <code>"&lt;length&gt; &lt;key&gt;=&lt;value&gt;\n"</code>.
+     */
+    static String parsePaxPath(byte[] data)
+        throws IOException
+    {
+        String path = null;
+        int pos = 0;
+        while (pos < data.length) {
+            int space = pos;
+            while (space < data.length && data[space] != ' ') {
+                space++;
+            }
+            int length;
+            try {
+                length = Integer.parseInt(new String(data, pos, space - pos, "US-ASCII"));
+            }
+            catch (NumberFormatException e) {
+                throw new IOException("Invalid pax header record");
+            }
+            if (length <= space - pos || pos + length > data.length) {
+                throw new IOException("Invalid pax header record");
+            }
+            // Without the trailing newline
+            String record = new String(data, space + 1, pos + length - space - 2, "UTF-8");
+            int equals = record.indexOf('=');
+            if (equals > 0 && record.substring(0, equals).equals("path")) {
+                path = record.substring(equals + 1);
+            }
+            pos += length;
+        }
+        return path;
+    }
+
+    /**
+     * Parses the size field, which is either octal or, for large entries in GNU archives, a
+     * big-endian binary number flagged by the highest bit of the first byte.
+     */
+    static long parseSize(byte[] header)
+    {
+        if ((header[SIZE_OFFSET] & 0x80) != 0) {
+            long value = header[SIZE_OFFSET] & 0x7f;
+            for (int i = 1; i < SIZE_LENGTH; i++) {
+                value = (value << 8) | (header[SIZE_OFFSET + i] & 0xff);
+            }
+            return value;
+        }
+        return parseOctal(header, SIZE_OFFSET, SIZE_LENGTH);
+    }
+
+    static long parseOctal(byte[] buf, int off, int len)
+    {
+        long value = 0;
+        int end = off + len;
+        int i = off;
+        while (i < end && buf[i] == ' ') {
+            i++;
+        }
+        while (i < end && buf[i] >= '0' && buf[i] <= '7') {
+            value = (value << 3) + (buf[i] - '0');
+            i++;
+        }
+        return value;
+    }
+
+    /**
+     * Sum of the header bytes, counting the checksum field as spaces.
+     */
+    static long checksum(byte[] header)
+    {
+        long sum = 0;
+        for (int i = 0; i < header.length; i++) {
+            if (i >= CHECKSUM_OFFSET && i < CHECKSUM_OFFSET + CHECKSUM_LENGTH) {
+                sum += ' ';
+            }
+            else {
+                sum += header[i] & 0xff;
+            }
+        }
+        return sum;
+    }
+
+    private static boolean isZero(byte[] buf)
+    {
+        for (byte b : buf) {
+            if (b != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean startsWith(byte[] buf, int off, byte[] prefix)
+    {
+        for (int i = 0; i < prefix.length; i++) {
+            if (buf[off + i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Decodes a NUL-terminated UTF-8 string.
+     */
+    private static String toString(byte[] buf, int off, int len)
+        throws IOException
+    {
+        int end = off;
+        while (end < off + len && buf[end] != 0) {
+            end++;
+        }
+        return new String(buf, off, end - off, "UTF-8");
+    }
+}
@@ -153,36 +153,53 @@ public class Text2CASInputFormat extends FileInputFormat<Text, CASWritable>
 		@Override
 		public void convertValue(Text keyFrom, Text valueFrom,
 				CASWritable valueTo) {
-			CAS cas = valueTo.getCAS();
-			cas.reset();
-			Text doc = valueFrom;
-			if (textExtractor != null) {
-                doc = textExtractor.extractDocumentText(keyFrom, valueFrom);
-            }
-
-			cas.setDocumentText(doc.toString());
-			try {
-				// add some simple metadata
-				String key_as_str = keyFrom.toString();
-				String key_abbrev = StringUtils.abbreviate(key_as_str, 50);
-				DocumentMetaData metadata = DocumentMetaData.create(cas);
-				metadata.setDocumentTitle(key_abbrev);
-				metadata.setDocumentId(String.format("<%d>%s",
-						key_as_str.hashCode(), key_abbrev));
-				if (metadataExtractor != null) {
-                    metadataExtractor.extractDocumentMetaData(keyFrom,
-							valueFrom, metadata);
-                }
-			} catch (Exception e) {
-				System.err.println("DocumentMetaData already present.");
-			}
+			createDocument(valueTo.getCAS(), keyFrom, valueFrom, textExtractor,
+					metadataExtractor);
+		}
+	}
+
+	/**
+	 * Resets the CAS and fills it with the document built from a key/value
+	 * pair, using the given extractors if they are not null.
+	 */
+	static void createDocument(CAS cas, Text key, Text value,
+			DocumentTextExtractor textExtractor,
+			DocumentMetadataExtractor metadataExtractor) {
+		cas.reset();
+		Text doc = value;
+		if (textExtractor != null) {
+			doc = textExtractor.extractDocumentText(key, value);
+		}
 
+		cas.setDocumentText(doc.toString());
+		try {
+			// add some simple metadata
+			String key_as_str = key.toString();
+			String key_abbrev = StringUtils.abbreviate(key_as_str, 50);
+			DocumentMetaData metadata = DocumentMetaData.create(cas);
+			metadata.setDocumentTitle(key_abbrev);
+			metadata.setDocumentId(String.format("<%d>%s",
+					key_as_str.hashCode(), key_abbrev));
+			if (metadataExtractor != null) {
+				metadataExtractor.extractDocumentMetaData(key, value, metadata);
+			}
+		} catch (Exception e) {
+			System.err.println("DocumentMetaData already present.");
 		}
 	}
 
 	@Override
 	public RecordReader<Text, CASWritable> getRecordReader(InputSplit split,
 			JobConf jobConf, Reporter reporter) throws IOException {
+		return new Text2CASRecordReader((FileSplit) split, jobConf, reporter,
+				getDocumentTextExtractor(jobConf),
+				getDocumentMetadataExtractor(jobConf));
+	}
+
+	/**
+	 * Returns the configured DocumentTextExtractor, null if none is set.
+	 */
+	static DocumentTextExtractor getDocumentTextExtractor(JobConf jobConf) {
 		DocumentTextExtractor textConverter = null;
 		String textConverterClass = jobConf
 				.get("dkpro.uima.text2casinputformat.documenttextextractor");
@@ -198,6 +215,14 @@ public class Text2CASInputFormat extends FileInputFormat<Text, CASWritable>
 				e.printStackTrace();
 			}
 		}
+		return textConverter;
+	}
+
+	/**
+	 * Returns the configured DocumentMetadataExtractor, null if none is set.
+	 */
+	static DocumentMetadataExtractor getDocumentMetadataExtractor(
+			JobConf jobConf) {
 		DocumentMetadataExtractor metadataConverter = null;
 		String metadataConverterClass = jobConf
 				.get("dkpro.uima.text2casinputformat.documentmetadataextractor");
@@ -213,8 +238,7 @@ public class Text2CASInputFormat extends FileInputFormat<Text, CASWritable>
 				e.printStackTrace();
 			}
 		}
-		return new Text2CASRecordReader((FileSplit) split, jobConf, reporter,
-				textConverter, metadataConverter);
+		return metadataConverter;
 	}
 
 	/**
@@ -0,0 +1,187 @@
+/*******************************************************************************
+ * Copyright 2010,2012
+ * Ubiquitous Knowledge Processing (UKP) Lab
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.dkpro.bigdata.io.hadoop;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.uima.cas.CAS;
+import org.apache.uima.cas.TypeSystem;
+import org.apache.uima.resource.ResourceInitializationException;
+import org.apache.uima.resource.metadata.FeatureDescription;
+import org.apache.uima.resource.metadata.TypeDescription;
+import org.apache.uima.resource.metadata.TypeSystemDescription;
+import org.apache.uima.resource.metadata.impl.TypeSystemDescription_impl;
+import org.apache.uima.util.CasCreationUtils;
+import org.apache.uima.util.TypeSystemUtil;
+
+/**
+ * Restricts the types of serialized CASes, so that jobs only store and load the annotations they
+ * need.
+ * <p>
+ * Both settings take a comma separated list of type names. Listing a type includes its subtypes
+ * (e.g. all POS tags for <code>...pos.POS</code>) and, implicitly, its supertypes and the built-in
+ * types. Features whose range is not included are dropped.
+ * </p>
+ * <ul>
+ * <li>{@link #PARAM_OUTPUT_TYPES} is applied by the writables that store the type system of a
+ * record ({@link BinCasWithTypeSystemWritable}, {@link BinCasWithTypeSystemRefWritable}): other
+ * feature structures are not written.</li>
+ * <li>{@link #PARAM_INPUT_TYPES} is applied by {@link SharedCasPool}: its CASes only have the
+ * listed types, and feature structures of other types are skipped when reading a record.</li>
+ * </ul>
+ */
+public class TypeSystemProjection
+{
+    /**
+     * Types written by CASWritables.
+     */
+    public static final String PARAM_OUTPUT_TYPES = "dkpro.cas.output.types";
+
+    /**
+     * Types read by CASWritables.
+     */
+    public static final String PARAM_INPUT_TYPES = "dkpro.cas.input.types";
+
+    private static final String BUILT_IN_PREFIX = "uima.";
+
+    private static Set<String> outputTypes;
+
+    /** CASes with the output type system, by the type system of the CASes written */
+    private static final Map<TypeSystem, CAS> outputTemplates = new WeakHashMap<TypeSystem, CAS>();
+
+    private TypeSystemProjection()
+    {
+        // static helpers only
+    }
+
+    /**
+     * Applies the output types configured in <code>conf</code>.
+     */
+    public static synchronized void configure(Configuration conf)
+    {
+        Set<String> types = getTypes(conf, PARAM_OUTPUT_TYPES);
+        if (types == null ? outputTypes != null : !types.equals(outputTypes)) {
+            outputTypes = types;
+            outputTemplates.clear();
+        }
+    }
+
+    /**
+     * Returns the type names listed in the given setting, null if it is not set.
+     */
+    public static Set<String> getTypes(Configuration conf, String param)
+    {
+        String[] types = conf.getTrimmedStrings(param);
+        if (types.length == 0) {
+            return null;
+        }
+        return new LinkedHashSet<String>(Arrays.asList(types));
+    }
+
+    /**
+     * Returns a CAS whose type system is the one <code>cas</code> is to be written with. This is
+     * <code>cas</code> itself unless output types are configured. The returned CAS must not be
+     * modified.
+     */
+    public static synchronized CAS getOutputTemplate(CAS cas)
+        throws ResourceInitializationException
+    {
+        if (outputTypes == null) {
+            return cas;
+        }
+        CAS template = outputTemplates.get(cas.getTypeSystem());
+        if (template == null) {
+            TypeSystemDescription projected = project(
+                    TypeSystemUtil.typeSystem2TypeSystemDescription(cas.getTypeSystem()),
+                    outputTypes);
+            template = CasCreationUtils.createCas(projected, null, null);
+            outputTemplates.put(cas.getTypeSystem(), template);
+        }
+        return template;
+    }
+
+    /**
+     * Returns a copy of <code>typeSystem</code> that only contains the given types, their subtypes
+     * and supertypes. Names of types that are not described are ignored.
+     */
+    public static TypeSystemDescription project(TypeSystemDescription typeSystem,
+            Collection<String> typeNames)
+    {
+        Map<String, TypeDescription> types = new HashMap<String, TypeDescription>();
+        for (TypeDescription type : typeSystem.getTypes()) {
+            types.put(type.getName(), type);
+        }
+
+        Set<String> kept = new HashSet<String>();
+        for (TypeDescription type : typeSystem.getTypes()) {
+            // A listed type or one of its subtypes
+            for (String name = type.getName(); name != null; name = getSupertype(types, name)) {
+                if (typeNames.contains(name)) {
+                    kept.add(type.getName());
+                    break;
+                }
+            }
+        }
+        for (String keptType : new HashSet<String>(kept)) {
+            for (String name = getSupertype(types, keptType); name != null; name = getSupertype(
+                    types, name)) {
+                kept.add(name);
+            }
+        }
+
+        TypeSystemDescription projected = new TypeSystemDescription_impl();
+        for (TypeDescription type : typeSystem.getTypes()) {
+            if (!isKept(types, kept, type.getName())) {
+                continue;
+            }
+            TypeDescription copy = projected.addType(type.getName(), type.getDescription(),
+                    type.getSupertypeName());
+            copy.setAllowedValues(type.getAllowedValues());
+            for (FeatureDescription feature : type.getFeatures()) {
+                if (isKept(types, kept, feature.getRangeTypeName())
+                        && (feature.getElementType() == null || isKept(types, kept,
+                                feature.getElementType()))) {
+                    copy.addFeature(feature.getName(), feature.getDescription(),
+                            feature.getRangeTypeName(), feature.getElementType(),
+                            feature.getMultipleReferencesAllowed());
+                }
+            }
+        }
+        return projected;
+    }
+
+    private static String getSupertype(Map<String, TypeDescription> types, String name)
+    {
+        TypeDescription type = types.get(name);
+        return type != null ? type.getSupertypeName() : null;
+    }
+
+    private static boolean isKept(Map<String, TypeDescription> types, Set<String> kept,
+            String name)
+    {
+        return name.startsWith(BUILT_IN_PREFIX) || !types.containsKey(name) || kept.contains(name);
+    }
+}
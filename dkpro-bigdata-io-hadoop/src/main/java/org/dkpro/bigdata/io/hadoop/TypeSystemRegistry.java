@@ -0,0 +1,283 @@
+/*******************************************************************************
+ * Copyright 2010,2012
+ * Ubiquitous Knowledge Processing (UKP) Lab
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.dkpro.bigdata.io.hadoop;
+
+import static org.apache.uima.cas.impl.Serialization.serializeCASMgr;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.lang.ref.WeakReference;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.WeakHashMap;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.MD5Hash;
+import org.apache.hadoop.util.StringUtils;
+import org.apache.uima.cas.CAS;
+import org.apache.uima.cas.CASException;
+import org.apache.uima.cas.TypeSystem;
+import org.apache.uima.cas.impl.CASMgrSerializer;
+import org.apache.uima.cas.impl.TypeSystemImpl;
+
+/**
+ * Stores type systems once, keyed by a fingerprint, so that serialized CASes only need to carry
+ * the fingerprint instead of the whole type system.
+ * <p>
+ * Type systems are cached per JVM. To make them available to other tasks, they are published as
+ * files <code>&lt;fingerprint&gt;.ts</code> in the directory given by {@link #PARAM_REGISTRY}.
+ * When looking up an unknown fingerprint, the registry directory and a
+ * <code>{@value #REGISTRY_DIR_NAME}</code> directory in each input directory of the job are
+ * searched. As Hadoop ignores files starting with an underscore, a registry inside the output
+ * directory of a job makes that output self-contained.
+ * </p>
+ * 
+ * @see BinCasWithTypeSystemRefWritable
+ */
+public class TypeSystemRegistry
+{
+    /**
+     * Directory type systems are published to and looked up in.
+     */
+    public static final String PARAM_REGISTRY = "dkpro.typesystem.registry";
+
+    public static final String REGISTRY_DIR_NAME = "_typesystems";
+
+    private static final String SUFFIX = ".ts";
+
+    private static final String INPUT_DIRS = "mapreduce.input.fileinputformat.inputdir";
+
+    /** Fingerprints of type systems seen in this JVM */
+    private static final Map<TypeSystem, MD5Hash> fingerprints = new WeakHashMap<TypeSystem, MD5Hash>();
+
+    /** Serialized type systems by fingerprint */
+    private static final Map<MD5Hash, byte[]> serialized = new HashMap<MD5Hash, byte[]>();
+
+    /**
+     * Type systems by fingerprint. Only weakly referenced, so that the registry does not keep
+     * type systems (and the keys of <code>fingerprints</code>) alive. Collected type systems are
+     * deserialized again from <code>serialized</code>.
+     */
+    private static final Map<MD5Hash, WeakReference<TypeSystemImpl>> typeSystems = new HashMap<MD5Hash, WeakReference<TypeSystemImpl>>();
+
+    /** Registry files known to exist */
+    private static final Set<Path> published = Collections.synchronizedSet(new HashSet<Path>());
+
+    private TypeSystemRegistry()
+    {
+        // static helpers only
+    }
+
+    /**
+     * Returns the fingerprint of the type system of <code>cas</code> and publishes the type
+     * system to the registry configured in <code>conf</code>, if any. Fingerprinting and
+     * publishing happen only once per type system.
+     */
+    public static MD5Hash register(CAS cas, Configuration conf)
+        throws IOException
+    {
+        MD5Hash fingerprint = getFingerprint(cas);
+        if (conf != null && conf.get(PARAM_REGISTRY) != null) {
+            publish(new Path(conf.get(PARAM_REGISTRY)), fingerprint, conf);
+        }
+        return fingerprint;
+    }
+
+    /**
+     * Returns the fingerprint of the type system of <code>cas</code>.
+     */
+    public static synchronized MD5Hash getFingerprint(CAS cas)
+        throws IOException
+    {
+        MD5Hash fingerprint = fingerprints.get(cas.getTypeSystem());
+        if (fingerprint == null) {
+            CASMgrSerializer casMgrSerializer;
+            try {
+                casMgrSerializer = serializeCASMgr(cas.getJCas().getCasImpl());
+            }
+            catch (CASException e) {
+                throw new IOException(e);
+            }
+            ByteArrayOutputStream bos = new ByteArrayOutputStream(512);
+            ObjectOutputStream oos = new ObjectOutputStream(bos);
+            oos.writeObject(casMgrSerializer);
+            oos.close();
+            fingerprint = MD5Hash.digest(bos.toByteArray());
+
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream(512);
+            DeflaterOutputStream dos = new DeflaterOutputStream(compressed);
+            bos.writeTo(dos);
+            dos.close();
+
+            fingerprints.put(cas.getTypeSystem(), fingerprint);
+            serialized.put(fingerprint, compressed.toByteArray());
+            typeSystems.put(fingerprint, new WeakReference<TypeSystemImpl>(
+                    (TypeSystemImpl) cas.getTypeSystem()));
+        }
+        return fingerprint;
+    }
+
+    /**
+     * Returns the deflated, Java-serialized {@link CASMgrSerializer} of the type system of
+     * <code>cas</code>. The returned array must not be modified.
+     */
+    static synchronized byte[] getSerialized(CAS cas)
+        throws IOException
+    {
+        return serialized.get(getFingerprint(cas));
+    }
+
+    /**
+     * Returns the type system with the given fingerprint.
+     * 
+     * @throws IOException
+     *             if the type system is neither cached nor found in any registry
+     */
+    public static TypeSystemImpl lookup(MD5Hash fingerprint, Configuration conf)
+        throws IOException
+    {
+        synchronized (TypeSystemRegistry.class) {
+            WeakReference<TypeSystemImpl> ref = typeSystems.get(fingerprint);
+            TypeSystemImpl ts = ref != null ? ref.get() : null;
+            if (ts != null) {
+                return ts;
+            }
+            byte[] data = serialized.get(fingerprint);
+            if (data != null) {
+                return load(fingerprint, data);
+            }
+        }
+
+        if (conf != null) {
+            for (Path dir : getRegistryDirs(conf)) {
+                Path file = new Path(dir, fingerprint + SUFFIX);
+                FileSystem fs = file.getFileSystem(conf);
+                if (fs.exists(file)) {
+                    InputStream is = fs.open(file);
+                    try {
+                        return load(fingerprint, IOUtils.toByteArray(is));
+                    }
+                    finally {
+                        is.close();
+                    }
+                }
+            }
+        }
+        throw new IOException("Unknown type system [" + fingerprint + "]. Set " + PARAM_REGISTRY
+                + " to the directory the type system was registered in.");
+    }
+
+    private static synchronized TypeSystemImpl load(MD5Hash fingerprint, byte[] data)
+        throws IOException
+    {
+        ObjectInputStream ois = new ObjectInputStream(new InflaterInputStream(
+                new ByteArrayInputStream(data)));
+        try {
+            CASMgrSerializer casMgrSerializer = (CASMgrSerializer) ois.readObject();
+            TypeSystemImpl ts = casMgrSerializer.getTypeSystem();
+            ts.commit();
+            serialized.put(fingerprint, data);
+            typeSystems.put(fingerprint, new WeakReference<TypeSystemImpl>(ts));
+            return ts;
+        }
+        catch (ClassNotFoundException e) {
+            throw new IOException(e);
+        }
+        finally {
+            ois.close();
+        }
+    }
+
+    private static Set<Path> getRegistryDirs(Configuration conf)
+    {
+        Set<Path> dirs = new LinkedHashSet<Path>();
+        if (conf.get(PARAM_REGISTRY) != null) {
+            dirs.add(new Path(conf.get(PARAM_REGISTRY)));
+        }
+        String inputDirs = conf.get(INPUT_DIRS);
+        if (inputDirs != null) {
+            for (String dir : StringUtils.split(inputDirs)) {
+                Path path = new Path(StringUtils.unEscapeString(dir));
+                dirs.add(new Path(path, REGISTRY_DIR_NAME));
+                if (path.getParent() != null) {
+                    // Input paths may also point to files within the directory
+                    dirs.add(new Path(path.getParent(), REGISTRY_DIR_NAME));
+                }
+            }
+        }
+        return dirs;
+    }
+
+    private static void publish(Path registry, MD5Hash fingerprint, Configuration conf)
+        throws IOException
+    {
+        Path file = new Path(registry, fingerprint + SUFFIX);
+        if (published.contains(file)) {
+            return;
+        }
+        FileSystem fs = file.getFileSystem(conf);
+        if (!fs.exists(file)) {
+            byte[] data;
+            synchronized (TypeSystemRegistry.class) {
+                data = serialized.get(fingerprint);
+            }
+            // Write to a temporary file first, concurrent tasks may publish the same type system
+            Path tmp = new Path(registry, "." + fingerprint + "-" + UUID.randomUUID() + SUFFIX);
+            OutputStream os = fs.create(tmp, false);
+            try {
+                os.write(data);
+            }
+            finally {
+                os.close();
+            }
+            if (!fs.rename(tmp, file)) {
+                fs.delete(tmp, false);
+                if (!fs.exists(file)) {
+                    throw new IOException("Unable to register type system at [" + file + "]");
+                }
+            }
+        }
+        published.add(file);
+    }
+
+    /**
+     * Forgets all cached type systems. Only intended for tests.
+     */
+    static synchronized void clearCache()
+    {
+        fingerprints.clear();
+        serialized.clear();
+        typeSystems.clear();
+        published.clear();
+    }
+}
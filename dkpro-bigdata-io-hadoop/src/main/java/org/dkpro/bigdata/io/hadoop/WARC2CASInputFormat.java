@@ -0,0 +1,243 @@
+/*******************************************************************************
+ * Copyright 2013
+ * TU Darmstadt, FG Sprachtechnologie
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.dkpro.bigdata.io.hadoop;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.nio.charset.CodingErrorAction;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.FileSplit;
+import org.apache.hadoop.mapred.InputSplit;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.RecordReader;
+import org.apache.hadoop.mapred.Reporter;
+import org.apache.uima.cas.CAS;
+import org.dkpro.bigdata.io.hadoop.WARCInputFormat.SkippedRecords;
+import org.dkpro.bigdata.io.hadoop.WARCInputFormat.WARCRecordReader;
+import org.jwat.common.HeaderLine;
+import org.jwat.common.PayloadWithHeaderAbstract;
+import org.jwat.warc.WarcRecord;
+
+import de.tudarmstadt.ukp.dkpro.core.api.metadata.type.DocumentMetaData;
+
+/**
+ * Input format that reads crawler archives in WARC format directly into CAS instances, so that
+ * UIMA pipelines can run over crawls without an intermediate conversion job.
+ * <p>
+ * Records are selected and split exactly as by {@link WARCInputFormat}, including the
+ * <code>dkpro.input.filter-mimetypes</code> filter. Payloads whose content type is not textual
+ * (e.g. PDF documents or images) are skipped and counted as {@link SkippedRecords#CONTENT_TYPE};
+ * payloads without a content type are read. The payload is decoded and, for HTML documents,
+ * stripped of markup and boilerplate by a {@link HtmlTextExtractor} in a single streaming pass;
+ * the raw payload is never held in memory. The charset is determined by a
+ * {@link SniffingEncodingDetector} from the <code>Content-Type</code> of the payload or its first
+ * bytes. Malformed input is replaced rather than failing the record.
+ * </p>
+ * <p>
+ * The key is the target URI of the record. The {@link DocumentMetaData} of the CAS holds the
+ * target URI as document URI, the WARC record ID as document ID, the HTML title (or the URI) as
+ * title and the path of the archive as collection ID. The document language is set from the
+ * <code>Content-Language</code> header, if present. Records without any text are skipped.
+ * </p>
+ */
+public class WARC2CASInputFormat
+    extends CrawlArchiveInputFormat<CASWritable>
+{
+    private static final String CONTENT_LANGUAGE = "Content-Language";
+
+    @Override
+    public RecordReader<Text, CASWritable> getRecordReader(InputSplit split, JobConf job,
+            Reporter reporter)
+        throws IOException
+    {
+        SharedCasPool.configure(job);
+        return new WARC2CASRecordReader((FileSplit) split, job, reporter);
+    }
+
+    /**
+     * Reads the records of a WARC split into CAS instances.
+     */
+    public static class WARC2CASRecordReader
+        implements RecordReader<Text, CASWritable>
+    {
+        private final WARCRecordReader records;
+        private final HtmlTextExtractor extractor;
+        private final SniffingEncodingDetector encodingDetector;
+        private final DuplicateFilter duplicateFilter;
+        private final Reporter reporter;
+        private final String collectionId;
+
+        /**
+         * @param reporter
+         *            receives the counters of the {@link SniffingEncodingDetector}, may be null
+         */
+        public WARC2CASRecordReader(FileSplit split, JobConf job, Reporter reporter)
+            throws IOException
+        {
+            records = new WARCRecordReader(split, job, reporter);
+            extractor = HtmlTextExtractor.create(job);
+            encodingDetector = records.getEncodingDetector();
+            duplicateFilter = records.getDuplicateFilter();
+            this.reporter = reporter;
+            collectionId = split.getPath().toString();
+        }
+
+        @Override
+        public boolean next(Text key, CASWritable value)
+            throws IOException
+        {
+            WarcRecord record;
+            while ((record = records.nextAcceptedRecord()) != null) {
+                try {
+                    if (fillCas(record, value.getCAS())) {
+                        key.set(record.header.warcTargetUriStr);
+                        return true;
+                    }
+                }
+                catch (Exception e) {
+                    // Skip records that produce exceptions
+                    System.err.println("WARNING: Skipping WARC record "
+                            + record.header.warcRecordIdStr + " due to exception: "
+                            + e.getMessage());
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Fills the CAS from the record.
+         *
+         * @return false if the record does not contain any text or is a duplicate
+         */
+        private boolean fillCas(WarcRecord record, CAS cas)
+            throws IOException
+        {
+            String contentType = WARCRecordReader.getContentType(record);
+            if (contentType != null && !isText(contentType)) {
+                if (reporter != null) {
+                    reporter.incrCounter(SkippedRecords.CONTENT_TYPE, 1);
+                }
+                // Skips the payload
+                record.close();
+                return false;
+            }
+            // Buffers the sample the charset is detected from
+            InputStream payload = new BufferedInputStream(record.getPayloadContent(),
+                    encodingDetector.getSampleSize());
+            Charset charset = encodingDetector.detect(contentType, payload);
+            Reader reader = SniffingEncodingDetector.skipByteOrderMark(new InputStreamReader(
+                    payload, charset.newDecoder()
+                            .onMalformedInput(CodingErrorAction.REPLACE)
+                            .onUnmappableCharacter(CodingErrorAction.REPLACE)));
+            String text;
+            String title = null;
+            if (contentType != null && contentType.toLowerCase().contains("html")) {
+                text = extractor.extract(reader);
+                title = extractor.getTitle();
+            }
+            else {
+                text = IOUtils.toString(reader).trim();
+            }
+            if (text.isEmpty()) {
+                return false;
+            }
+            if (duplicateFilter != null && duplicateFilter.isDuplicate(
+                    record.header.warcTargetUriStr, text, reporter)) {
+                return false;
+            }
+
+            cas.reset();
+            cas.setDocumentText(text);
+            String language = getPayloadHeader(record, CONTENT_LANGUAGE);
+            if (language != null && !language.trim().isEmpty()) {
+                // Only the primary language of lists such as "de, en"
+                cas.setDocumentLanguage(language.split(",")[0].trim());
+            }
+            String uri = record.header.warcTargetUriStr;
+            DocumentMetaData metadata = DocumentMetaData.create(cas);
+            metadata.setDocumentUri(uri);
+            metadata.setDocumentId(record.header.warcRecordIdStr != null
+                    ? record.header.warcRecordIdStr : uri);
+            metadata.setDocumentTitle(title != null && !title.isEmpty() ? title : uri);
+            metadata.setCollectionId(collectionId);
+            return true;
+        }
+
+        @Override
+        public Text createKey()
+        {
+            return new Text();
+        }
+
+        @Override
+        public CASWritable createValue()
+        {
+            return new CASWritable();
+        }
+
+        @Override
+        public long getPos()
+            throws IOException
+        {
+            return records.getPos();
+        }
+
+        @Override
+        public void close()
+            throws IOException
+        {
+            records.close();
+        }
+
+        @Override
+        public float getProgress()
+            throws IOException
+        {
+            return records.getProgress();
+        }
+    }
+
+    /**
+     * Returns whether a payload of the given content type can be decoded as text, i.e. whether it
+     * is a <code>text/*</code> type or an HTML, XML or JSON based application type.
+     */
+    static boolean isText(String contentType)
+    {
+        String type = contentType.toLowerCase().trim();
+        return type.isEmpty() || type.startsWith("text/") || type.contains("html")
+                || type.contains("xml") || type.contains("json");
+    }
+
+    /**
+     * Returns the value of a header of the HTTP response wrapped in the record, or null.
+     */
+    private static String getPayloadHeader(WarcRecord record, String name)
+    {
+        PayloadWithHeaderAbstract headers = record.getPayload().getPayloadHeaderWrapped();
+        if (headers == null) {
+            return null;
+        }
+        HeaderLine header = headers.getHeader(name);
+        return header != null ? header.value : null;
+    }
+}
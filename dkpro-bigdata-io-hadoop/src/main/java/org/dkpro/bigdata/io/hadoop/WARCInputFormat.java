@@ -20,16 +20,16 @@ package org.dkpro.bigdata.io.hadoop;
 import java.io.BufferedInputStream;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
+import java.nio.charset.Charset;
 import java.util.HashSet;
 import java.util.Set;
 
-import org.apache.commons.io.IOUtils;
 import org.apache.commons.io.input.CountingInputStream;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.Text;
-import org.apache.hadoop.mapred.FileInputFormat;
 import org.apache.hadoop.mapred.FileSplit;
 import org.apache.hadoop.mapred.InputSplit;
 import org.apache.hadoop.mapred.JobConf;
@@ -44,20 +44,63 @@ import org.jwat.warc.WarcRecord;
 //import de.uni_leipzig.asv.encodingdetector.utils.EncodingDetector;
 
 /**
- * Creates WARCRecordReader for Crawler archives in WARC format
+ * Creates WARCRecordReader for Crawler archives in WARC format. Archives with a CDX index are
+ * split at record boundaries, see {@link CrawlArchiveInputFormat}.
+ * <p>
+ * Records are filtered using their headers only: by content type if
+ * <code>dkpro.input.filter-mimetypes</code> is set (see
+ * <code>dkpro.input.content-type-whitelist</code>), and by the size limits
+ * {@link #MIN_PAYLOAD_SIZE} and {@link #MAX_PAYLOAD_SIZE}. The payload of a rejected record is
+ * skipped without being read into memory, and the rejections are counted per reason in
+ * {@link SkippedRecords}.
+ * </p>
  * 
  * @author Johannes Simon
  * 
  */
 public class WARCInputFormat
-    extends FileInputFormat<Text, CrawlerRecord>
+    extends CrawlArchiveInputFormat<CrawlerRecord>
 {
+    /**
+     * Records with a smaller payload are skipped. In bytes, measured by the
+     * <code>Content-Length</code> of the WARC record, i.e. including HTTP headers.
+     */
+    public static final String MIN_PAYLOAD_SIZE = "dkpro.input.warc.min-payload-size";
+
+    /**
+     * Records with a larger payload are skipped. In bytes, measured by the
+     * <code>Content-Length</code> of the WARC record. Not limited by default.
+     */
+    public static final String MAX_PAYLOAD_SIZE = "dkpro.input.warc.max-payload-size";
+
+    /**
+     * Whether the block and payload digests of the records are verified. On by default. Verifying
+     * the digests requires reading the payload of skipped records, so turning it off makes
+     * skipping records cheaper.
+     */
+    public static final String VERIFY_DIGESTS = "dkpro.input.warc.verify-digests";
+
+    /**
+     * Hadoop counters for the records that are skipped without reading their payload.
+     */
+    public static enum SkippedRecords
+    {
+        /** warcinfo records and records without a payload */
+        NO_DOCUMENT,
+        /** content type not in the whitelist */
+        CONTENT_TYPE,
+        /** smaller than {@link #MIN_PAYLOAD_SIZE} */
+        TOO_SMALL,
+        /** larger than {@link #MAX_PAYLOAD_SIZE} */
+        TOO_LARGE
+    }
+
     @Override
     public RecordReader<Text, CrawlerRecord> getRecordReader(InputSplit inputSplit,
             JobConf jobConf, Reporter reporter)
         throws IOException
     {
-        return new WARCRecordReader((FileSplit) inputSplit, jobConf);
+        return new WARCRecordReader((FileSplit) inputSplit, jobConf, reporter);
     }
 
     /**
@@ -72,11 +115,32 @@ public class WARCInputFormat
         private final long start;
         private final long end;
         private final CountingInputStream fsin;
+        /** Offset of the first record of this split within the file */
+        private long streamStart;
+        private boolean finished = false;
         WarcReader warcReader = null;
-        long lastRecordEnd = -1;
+        /** Inflates gzip members ahead of next(), if enabled */
+        private GzipMemberPrefetcher prefetcher = null;
+        /** Reader for the records of the current gzip member when prefetching */
+        private WarcReader memberReader = null;
+        private long memberOffset;
         private JobConf conf = null;
 
         private final Set<String> contentTypeWhitelist = new HashSet<String>();
+        private boolean filterContentTypes;
+        private long minPayloadSize;
+        private long maxPayloadSize;
+        private boolean verifyDigests;
+
+        /** Created once, detection happens for every record */
+        private SniffingEncodingDetector encodingDetector;
+
+        /** Drops duplicate documents if {@link DuplicateFilter#DEDUPLICATE} is set */
+        private DuplicateFilter duplicateFilter;
+        /** Extracts the text of HTML records for the {@link #duplicateFilter} */
+        private HtmlTextExtractor extractor;
+
+        private Reporter reporter;
 
         /*
          * ======================== RecordReader Logic ============================
@@ -94,16 +158,32 @@ public class WARCInputFormat
                 for (String ct : contentTypes)
                     contentTypeWhitelist.add(ct);
             }
+            filterContentTypes = conf.getBoolean("dkpro.input.filter-mimetypes", false);
+            minPayloadSize = conf.getLong(MIN_PAYLOAD_SIZE, 0);
+            maxPayloadSize = conf.getLong(MAX_PAYLOAD_SIZE, Long.MAX_VALUE);
+            verifyDigests = conf.getBoolean(VERIFY_DIGESTS, true);
+            encodingDetector = new SniffingEncodingDetector(conf);
         }
 
         /**
-         * Creates an ARCRecordReader for the specified <code>split</code> of the input stream that
-         * will start at the first valid ARC record header after <code>split.getStart()</code> and
-         * continue until a record is read that goes past
-         * <code>split.getStart() + split.getLength()</code>.
+         * Creates a WARCRecordReader for the specified <code>split</code> of the input stream that
+         * will start at the first valid WARC record header (or gzip member, for compressed files)
+         * at or after <code>split.getStart()</code> and read every record that starts before
+         * <code>split.getStart() + split.getLength()</code>. This way each record is read by
+         * exactly one split. For a {@link RecordAlignedFileSplit} no scanning is necessary.
          */
         public WARCRecordReader(FileSplit split, JobConf jobConf)
             throws IOException
+        {
+            this(split, jobConf, null);
+        }
+
+        /**
+         * @param reporter
+         *            receives the counters of the {@link SniffingEncodingDetector}, may be null
+         */
+        public WARCRecordReader(FileSplit split, JobConf jobConf, Reporter reporter)
+            throws IOException
         {
             conf = jobConf;
             start = split.getStart();
@@ -111,15 +191,89 @@ public class WARCInputFormat
             System.out.println("========== " + start + " " + end);
 
             configure(jobConf);
+            this.reporter = reporter;
+            encodingDetector.setReporter(reporter);
+            if (jobConf.getBoolean(DuplicateFilter.DEDUPLICATE, false)) {
+                duplicateFilter = DuplicateFilter.create(jobConf);
+                duplicateFilter.setSplit(split);
+                extractor = HtmlTextExtractor.create(jobConf);
+            }
 
-            // Open the file and seek to the start of the split
+            // Open the file and seek to the first record of the split
             Path file = split.getPath();
             FileSystem fs = file.getFileSystem(jobConf);
-            fsin = new CountingInputStream(new BufferedInputStream(fs.open(split.getPath())));
+            FSDataInputStream in = fs.open(file);
+            long fileLength = fs.getFileStatus(file).getLen();
+            boolean compressed = file.getName().endsWith(".gz");
+            long firstRecord;
+            if (start == 0 || split instanceof RecordAlignedFileSplit) {
+                firstRecord = start;
+            }
+            else {
+                firstRecord = RecordBoundaryFinder.findWarcBoundary(in, start, end, fileLength,
+                        compressed);
+            }
+            if (firstRecord < 0) {
+                // No record starts within this split
+                finished = true;
+                firstRecord = start;
+            }
+            else {
+                in.seek(firstRecord);
+            }
+            streamStart = firstRecord;
+            fsin = new CountingInputStream(new BufferedInputStream(in));
 
-            warcReader = WarcReaderFactory.getReader(fsin);
-            // Start with the first valid record after offset "start"
-            skipToNextRecord(start);
+            if (compressed && GzipMemberPrefetcher.getThreads(jobConf) > 0) {
+                memberOffset = firstRecord;
+                prefetcher = GzipMemberPrefetcher.create(jobConf, in, firstRecord, end,
+                        fileLength);
+            }
+            else {
+                warcReader = WarcReaderFactory.getReader(fsin);
+                configureReader(warcReader);
+            }
+        }
+
+        /**
+         * Returns the next record that starts within this split, or null if there is none.
+         */
+        private WarcRecord nextRecord()
+            throws IOException
+        {
+            if (prefetcher == null) {
+                WarcRecord record = warcReader.getNextRecord();
+                // Records that start at or after the end of the split belong to the next split
+                if (record != null && streamStart + warcReader.getStartOffset() >= end) {
+                    return null;
+                }
+                return record;
+            }
+
+            while (true) {
+                if (memberReader != null) {
+                    WarcRecord record = memberReader.getNextRecord();
+                    if (record != null) {
+                        return record;
+                    }
+                    memberReader.close();
+                    memberReader = null;
+                }
+                GzipMemberPrefetcher.Member member = prefetcher.next();
+                if (member == null) {
+                    return null;
+                }
+                memberOffset = member.getOffset();
+                memberReader = WarcReaderFactory.getReaderUncompressed(member.getInputStream());
+                configureReader(memberReader);
+            }
+        }
+
+        private void configureReader(WarcReader reader)
+        {
+            // Digests are computed over the payload, which then cannot be skipped
+            reader.setBlockDigestEnabled(verifyDigests);
+            reader.setPayloadDigestEnabled(verifyDigests);
         }
 
         private void fillCrawlerRecord(WarcRecord record, CrawlerRecord crawlerRecord)
@@ -141,73 +295,109 @@ public class WARCInputFormat
             // from/to some encoding. So before that, we have to guess the correct encoding,
             // otherwise
             // we'll potentially trash our data before we process it.
-            byte[] buffer = IOUtils.toByteArray(record.getPayloadContent());
-            Class<?> encodingDetectorClass = conf.getClass("dkpro.input.encodingdetector", DummyEncodingDetector.class);
-			try {
-				EncodingDetector encodingDetector = (EncodingDetector)encodingDetectorClass.newInstance();
-	            // This is the encoding we'll use to decode the bytes into text
-	            String encoding = encodingDetector.getBestEncoding(buffer);
-	            crawlerRecord.setOriginalEncoding(encoding);
-	            crawlerRecord.setContent(new String(buffer, encoding));
-			} catch (InstantiationException e) {
-				// TODO Auto-generated catch block
-				e.printStackTrace();
-			} catch (IllegalAccessException e) {
-				// TODO Auto-generated catch block
-				e.printStackTrace();
-			}
+            crawlerRecord.readRawContent(record.getPayloadContent());
+            // This is the encoding the content will be decoded with once it is accessed
+            Charset encoding = encodingDetector.detect(getContentType(record),
+                    crawlerRecord.getRawContent(), 0, crawlerRecord.getRawLength());
+            crawlerRecord.setOriginalEncoding(encoding.name());
+            crawlerRecord.setCharset(encoding);
         }
 
-        @Override
-        public boolean next(Text key, CrawlerRecord value)
+        /**
+         * Returns the encoding detector of this reader.
+         */
+        SniffingEncodingDetector getEncodingDetector()
+        {
+            return encodingDetector;
+        }
+
+        /**
+         * Returns the duplicate filter of this reader, null if duplicates are not dropped.
+         */
+        DuplicateFilter getDuplicateFilter()
+        {
+            return duplicateFilter;
+        }
+
+        /**
+         * Returns the next record of this split that carries a payload and passes the filters, or
+         * null if there is none. The payload has not been read yet.
+         */
+        WarcRecord nextAcceptedRecord()
             throws IOException
         {
+            if (finished) {
+                return null;
+            }
             WarcRecord arcRecord = null;
-            boolean atEnd = false;
-            long bufferMarkAtEnd = 0;
-
-            while ((arcRecord = warcReader.getNextRecord()) != null) {
-                // Check if arcReader has definitely read over end mark when considering that reader
-                // is buffered
-                // (meaning that (fsin.getCount() > end) is true before we've read the last record
-                // before end)
-                lastRecordEnd = fsin.getCount();
-                if (!atEnd && lastRecordEnd >= end) {
-                    atEnd = true;
-                    bufferMarkAtEnd = lastRecordEnd;
+
+            while ((arcRecord = nextRecord()) != null) {
+                SkippedRecords reason = getRejectionReason(arcRecord);
+                if (reason == null) {
+                    return arcRecord;
                 }
-                else if (atEnd && lastRecordEnd > bufferMarkAtEnd) {
-                    break;
+                if (reporter != null) {
+                    reporter.incrCounter(reason, 1);
                 }
-                try {
-                    // Skip meta header (usually first record in archive)
-                    if (WarcConstants.RT_WARCINFO.equals(arcRecord.header.warcTypeStr) || !arcRecord.hasPayload())
-                        continue;
+                // Skips the rest of the payload
+                arcRecord.close();
+            }
 
-                    // Make sure only text content is read
-                    if (conf.getBoolean("dkpro.input.filter-mimetypes",
-                            false)) {
-
-                    	// requests etc. are already filtered by mimetype but maybe in the future this needs to be revised
-                    	// if (!(WarcConstants.RT_RESOURCE.equals(arcRecord.header.warcTypeStr) || WarcConstants.RT_RESPONSE.equals(arcRecord.header.warcTypeStr)))
-                    	// continue;
-                    	String contentTypeHeader = getContentType(arcRecord);
-
-                        boolean skipContentType = true;
-                        if (contentTypeHeader != null) {
-                            for (String contentType : contentTypeWhitelist)
-                                if (contentTypeHeader.contains(contentType)) {
-                                    skipContentType = false;
-                                    break;
-                                }
-                        }
+            finished = true;
+            return null;
+        }
+
+        /**
+         * Checks the headers of a record against the filters.
+         *
+         * @return the reason to skip the record, or null if it is accepted
+         */
+        private SkippedRecords getRejectionReason(WarcRecord arcRecord)
+        {
+            // Skip meta header (usually first record in archive)
+            if (WarcConstants.RT_WARCINFO.equals(arcRecord.header.warcTypeStr) || !arcRecord.hasPayload()) {
+                return SkippedRecords.NO_DOCUMENT;
+            }
+
+            Long length = arcRecord.header.contentLength;
+            if (length != null && length < minPayloadSize) {
+                return SkippedRecords.TOO_SMALL;
+            }
+            if (length != null && length > maxPayloadSize) {
+                return SkippedRecords.TOO_LARGE;
+            }
 
-                        if (skipContentType) {
-                            continue;
+            // Make sure only text content is read
+            if (filterContentTypes) {
+            	// requests etc. are already filtered by mimetype but maybe in the future this needs to be revised
+            	// if (!(WarcConstants.RT_RESOURCE.equals(arcRecord.header.warcTypeStr) || WarcConstants.RT_RESPONSE.equals(arcRecord.header.warcTypeStr)))
+            	// continue;
+            	String contentTypeHeader = getContentType(arcRecord);
+                if (contentTypeHeader != null) {
+                    for (String contentType : contentTypeWhitelist)
+                        if (contentTypeHeader.contains(contentType)) {
+                            return null;
                         }
-                    }
+                }
+                return SkippedRecords.CONTENT_TYPE;
+            }
+            return null;
+        }
 
+        @Override
+        public boolean next(Text key, CrawlerRecord value)
+            throws IOException
+        {
+            WarcRecord arcRecord = null;
+
+            while ((arcRecord = nextAcceptedRecord()) != null) {
+                try {
                     fillCrawlerRecord(arcRecord, value);
+                    if (duplicateFilter != null
+                            && duplicateFilter.isDuplicate(value.getURL(),
+                                    DuplicateFilter.getText(value, extractor), reporter)) {
+                        continue;
+                    }
                     key.set(value.getURL());
 
                     // System.out.println("READ");
@@ -216,7 +406,7 @@ public class WARCInputFormat
                 catch (UnsupportedEncodingException e) {
                     // Skip unreadable records
                     System.err.println("WARNING: Skipping WARC record (byte offset "
-                            + fsin.getCount()
+                            + getPos()
                             + ") due to unsupported encoding. The record may contain binary data.");
                 }
                 catch (Exception e) {
@@ -227,11 +417,14 @@ public class WARCInputFormat
                     e.printStackTrace();
                 }
             }
-
             return false;
         }
         
-		private String getContentType(WarcRecord arcRecord) {
+		/**
+		 * Returns the content type of the payload, i.e. of the HTTP response for
+		 * <code>application/http</code> records, or of the record itself otherwise.
+		 */
+		static String getContentType(WarcRecord arcRecord) {
 			String contentTypeHeader = arcRecord.header.contentTypeStr;
 			if (arcRecord.getPayload().getPayloadHeaderWrapped() != null && arcRecord.getPayload().getPayloadHeaderWrapped().getHeader(WarcConstants.FN_CONTENT_TYPE) != null)
 				contentTypeHeader = arcRecord.getPayload().getPayloadHeaderWrapped().getHeader(WarcConstants.FN_CONTENT_TYPE).value;
@@ -255,13 +448,19 @@ public class WARCInputFormat
         public long getPos()
             throws IOException
         {
-            return fsin.getCount();
+            if (prefetcher != null) {
+                return memberOffset;
+            }
+            return streamStart + fsin.getCount();
         }
 
         @Override
         public void close()
             throws IOException
         {
+            if (prefetcher != null) {
+                prefetcher.close();
+            }
             fsin.close();
         }
 
@@ -269,26 +468,10 @@ public class WARCInputFormat
         public float getProgress()
             throws IOException
         {
-            return ((float) (fsin.getCount() - start)) / ((float) (end - start));
-        }
-
-        /*
-         * ======================== ARC Logic ============================
-         */
-
-        /**
-         * Skips InputStream to next record past <code>start</code> or not at all if start is
-         * exactly the start of a record
-         */
-        private void skipToNextRecord(long start)
-            throws IOException
-        {
-            // Skip record by record until (position in input stream) >= start
-            while (fsin.getCount() < start && warcReader.getNextRecord() != null) {
+            if (finished || end == start) {
+                return 1.0f;
             }
-            ;
-
-            lastRecordEnd = fsin.getCount();
+            return Math.min(1.0f, ((float) (getPos() - start)) / ((float) (end - start)));
         }
     }
 }
\ No newline at end of file
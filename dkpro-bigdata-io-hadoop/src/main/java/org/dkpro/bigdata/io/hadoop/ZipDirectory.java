@@ -0,0 +1,288 @@
+/*******************************************************************************
+ * Copyright 2013
+ * TU Darmstadt, FG Sprachtechnologie
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.dkpro.bigdata.io.hadoop;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import org.apache.hadoop.fs.FSDataInputStream;
+
+/**
+ * Reads the central directory of a ZIP archive and the entries listed in it, using positioned
+ * reads only. ZIP64 archives are supported, encrypted entries and compression methods other than
+ * stored and deflated are not.
+ */
+public class ZipDirectory
+{
+    private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+    private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+    private static final int END_SIGNATURE = 0x06054b50;
+    private static final int ZIP64_END_SIGNATURE = 0x06064b50;
+    private static final int ZIP64_LOCATOR_SIGNATURE = 0x07064b50;
+
+    private static final int LOCAL_HEADER_LENGTH = 30;
+    private static final int CENTRAL_HEADER_LENGTH = 46;
+    private static final int END_LENGTH = 22;
+    private static final int ZIP64_END_LENGTH = 56;
+    private static final int ZIP64_LOCATOR_LENGTH = 20;
+    private static final int MAX_COMMENT_LENGTH = 0xffff;
+
+    private static final int ZIP64_EXTRA_ID = 0x0001;
+    private static final long ZIP64_MAGIC = 0xffffffffL;
+
+    private static final int FLAG_ENCRYPTED = 1;
+    private static final int FLAG_UTF8 = 1 << 11;
+
+    public static final int METHOD_STORED = 0;
+    public static final int METHOD_DEFLATED = 8;
+
+    private ZipDirectory()
+    {
+        // static helpers only
+    }
+
+    /**
+     * Returns the file entries of the archive (not the directories), sorted by offset.
+     */
+    public static List<Entry> read(FSDataInputStream in, long fileLength)
+        throws IOException
+    {
+        // The end of central directory record is followed by a comment of up to 64k
+        int tailLength = (int) Math.min(fileLength, END_LENGTH + MAX_COMMENT_LENGTH);
+        byte[] tail = new byte[tailLength];
+        in.readFully(fileLength - tailLength, tail);
+        int end = -1;
+        for (int i = tailLength - END_LENGTH; i >= 0; i--) {
+            if (readInt(tail, i) == END_SIGNATURE
+                    && i + END_LENGTH + readShort(tail, i + 20) == tailLength) {
+                end = i;
+                break;
+            }
+        }
+        if (end < 0) {
+            throw new IOException("No ZIP central directory found");
+        }
+
+        long entryCount = readShort(tail, end + 10);
+        long directoryLength = readUnsignedInt(tail, end + 12);
+        long directoryOffset = readUnsignedInt(tail, end + 16);
+        long endOffset = fileLength - tailLength + end;
+        if ((entryCount == 0xffff || directoryLength == ZIP64_MAGIC
+                || directoryOffset == ZIP64_MAGIC) && endOffset >= ZIP64_LOCATOR_LENGTH) {
+            byte[] locator = new byte[ZIP64_LOCATOR_LENGTH];
+            in.readFully(endOffset - ZIP64_LOCATOR_LENGTH, locator);
+            if (readInt(locator, 0) == ZIP64_LOCATOR_SIGNATURE) {
+                byte[] zip64End = new byte[ZIP64_END_LENGTH];
+                in.readFully(readLong(locator, 8), zip64End);
+                if (readInt(zip64End, 0) != ZIP64_END_SIGNATURE) {
+                    throw new IOException("Invalid ZIP64 end of central directory record");
+                }
+                entryCount = readLong(zip64End, 32);
+                directoryLength = readLong(zip64End, 40);
+                directoryOffset = readLong(zip64End, 48);
+            }
+        }
+        if (directoryLength > Integer.MAX_VALUE || directoryOffset + directoryLength > fileLength) {
+            throw new IOException("Invalid ZIP central directory");
+        }
+
+        byte[] directory = new byte[(int) directoryLength];
+        in.readFully(directoryOffset, directory);
+        List<Entry> entries = new ArrayList<Entry>();
+        int pos = 0;
+        for (long i = 0; i < entryCount; i++) {
+            if (pos + CENTRAL_HEADER_LENGTH > directory.length
+                    || readInt(directory, pos) != CENTRAL_HEADER_SIGNATURE) {
+                throw new IOException("Invalid ZIP central directory entry " + i);
+            }
+            int flags = readShort(directory, pos + 8);
+            int method = readShort(directory, pos + 10);
+            long compressedSize = readUnsignedInt(directory, pos + 20);
+            long size = readUnsignedInt(directory, pos + 24);
+            int nameLength = readShort(directory, pos + 28);
+            int extraLength = readShort(directory, pos + 30);
+            int commentLength = readShort(directory, pos + 32);
+            long offset = readUnsignedInt(directory, pos + 42);
+            String name = new String(directory, pos + CENTRAL_HEADER_LENGTH, nameLength,
+                    (flags & FLAG_UTF8) != 0 ? "UTF-8" : "IBM437");
+
+            // Sizes and offset that do not fit into 32 bits are stored in the ZIP64 extra field
+            int extra = pos + CENTRAL_HEADER_LENGTH + nameLength;
+            int extraEnd = extra + extraLength;
+            while (extra + 4 <= extraEnd) {
+                int id = readShort(directory, extra);
+                int length = readShort(directory, extra + 2);
+                if (id == ZIP64_EXTRA_ID) {
+                    int field = extra + 4;
+                    if (size == ZIP64_MAGIC) {
+                        size = readLong(directory, field);
+                        field += 8;
+                    }
+                    if (compressedSize == ZIP64_MAGIC) {
+                        compressedSize = readLong(directory, field);
+                        field += 8;
+                    }
+                    if (offset == ZIP64_MAGIC) {
+                        offset = readLong(directory, field);
+                    }
+                }
+                extra += 4 + length;
+            }
+
+            if (!name.endsWith("/")) {
+                entries.add(new Entry(name, offset, method, flags, compressedSize, size));
+            }
+            pos = extraEnd + commentLength;
+        }
+
+        Collections.sort(entries, new Comparator<Entry>()
+        {
+            @Override
+            public int compare(Entry a, Entry b)
+            {
+                return a.offset < b.offset ? -1 : (a.offset == b.offset ? 0 : 1);
+            }
+        });
+        return entries;
+    }
+
+    /**
+     * Reads and, if necessary, inflates the content of an entry.
+     */
+    public static byte[] readContent(FSDataInputStream in, Entry entry)
+        throws IOException
+    {
+        if ((entry.flags & FLAG_ENCRYPTED) != 0) {
+            throw new IOException("ZIP entry [" + entry.name + "] is encrypted");
+        }
+        if (entry.compressedSize > Integer.MAX_VALUE - 8 || entry.size > Integer.MAX_VALUE - 8) {
+            throw new IOException("ZIP entry [" + entry.name + "] is too large: " + entry.size
+                    + " bytes");
+        }
+
+        // The lengths of name and extra field in the local header may differ from the central
+        // directory
+        byte[] local = new byte[LOCAL_HEADER_LENGTH];
+        in.readFully(entry.offset, local);
+        if (readInt(local, 0) != LOCAL_HEADER_SIGNATURE) {
+            throw new IOException("Invalid ZIP local header at offset " + entry.offset);
+        }
+        long dataOffset = entry.offset + LOCAL_HEADER_LENGTH + readShort(local, 26)
+                + readShort(local, 28);
+        byte[] data = new byte[(int) entry.compressedSize];
+        in.readFully(dataOffset, data);
+
+        switch (entry.method) {
+        case METHOD_STORED:
+            return data;
+        case METHOD_DEFLATED:
+            Inflater inflater = new Inflater(true);
+            try {
+                inflater.setInput(data);
+                byte[] content = new byte[(int) entry.size];
+                int total = 0;
+                while (total < content.length) {
+                    int r = inflater.inflate(content, total, content.length - total);
+                    if (r == 0 && (inflater.finished() || inflater.needsInput()
+                            || inflater.needsDictionary())) {
+                        break;
+                    }
+                    total += r;
+                }
+                if (total != content.length) {
+                    throw new IOException("ZIP entry [" + entry.name + "] is truncated");
+                }
+                return content;
+            }
+            catch (DataFormatException e) {
+                throw new IOException("ZIP entry [" + entry.name + "] is corrupt", e);
+            }
+            finally {
+                inflater.end();
+            }
+        default:
+            throw new IOException("ZIP entry [" + entry.name + "] uses unsupported compression "
+                    + "method " + entry.method);
+        }
+    }
+
+    private static int readShort(byte[] buf, int off)
+    {
+        return (buf[off] & 0xff) | ((buf[off + 1] & 0xff) << 8);
+    }
+
+    private static int readInt(byte[] buf, int off)
+    {
+        return readShort(buf, off) | (readShort(buf, off + 2) << 16);
+    }
+
+    private static long readUnsignedInt(byte[] buf, int off)
+    {
+        return readInt(buf, off) & 0xffffffffL;
+    }
+
+    private static long readLong(byte[] buf, int off)
+    {
+        return readUnsignedInt(buf, off) | (readUnsignedInt(buf, off + 4) << 32);
+    }
+
+    /**
+     * A file entry of a ZIP archive.
+     */
+    public static class Entry
+    {
+        private final String name;
+        private final long offset;
+        private final int method;
+        private final int flags;
+        private final long compressedSize;
+        private final long size;
+
+        Entry(String name, long offset, int method, int flags, long compressedSize, long size)
+        {
+            this.name = name;
+            this.offset = offset;
+            this.method = method;
+            this.flags = flags;
+            this.compressedSize = compressedSize;
+            this.size = size;
+        }
+
+        public String getName()
+        {
+            return name;
+        }
+
+        /**
+         * Offset of the local header of the entry.
+         */
+        public long getOffset()
+        {
+            return offset;
+        }
+
+        public long getSize()
+        {
+            return size;
+        }
+    }
+}
@@ -0,0 +1,204 @@
+/*******************************************************************************
+ * Copyright 2010,2012
+ * Ubiquitous Knowledge Processing (UKP) Lab
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.dkpro.bigdata.io.hadoop;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.FileInputFormat;
+import org.apache.hadoop.mapred.InputSplit;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.RecordReader;
+import org.apache.hadoop.mapred.Reporter;
+import org.apache.hadoop.util.ReflectionUtils;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ArchiveInputFormatTest
+{
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final Map<String, String> documents = new LinkedHashMap<String, String>();
+
+    @Before
+    public void createDocuments()
+    {
+        for (int i = 0; i < 40; i++) {
+            documents.put("docs/doc" + i + ".txt", StringUtils.repeat("Document " + i + ". ", 20));
+        }
+        // Needs a GNU long name entry in TAR archives
+        documents.put(StringUtils.repeat("long/", 30) + "name.txt", "Long name.");
+    }
+
+    @Test
+    public void testZip()
+        throws Exception
+    {
+        File archive = folder.newFile("corpus.zip");
+        ZipOutputStream zip = new ZipOutputStream(new FileOutputStream(archive));
+        zip.putNextEntry(new ZipEntry("docs/"));
+        zip.closeEntry();
+        int i = 0;
+        for (Map.Entry<String, String> document : documents.entrySet()) {
+            ZipEntry entry = new ZipEntry(document.getKey());
+            // Mix both compression methods
+            if (i++ % 2 == 0) {
+                byte[] data = document.getValue().getBytes("UTF-8");
+                CRC32 crc = new CRC32();
+                crc.update(data);
+                entry.setMethod(ZipEntry.STORED);
+                entry.setSize(data.length);
+                entry.setCrc(crc.getValue());
+            }
+            zip.putNextEntry(entry);
+            zip.write(document.getValue().getBytes("UTF-8"));
+            zip.closeEntry();
+        }
+        zip.close();
+
+        assertEquals(documents, readInSplits(archive, 4, true));
+    }
+
+    @Test
+    public void testTar()
+        throws Exception
+    {
+        File archive = folder.newFile("corpus.tar");
+        OutputStream out = new FileOutputStream(archive);
+        writeTar(out);
+        out.close();
+
+        assertEquals(documents, readInSplits(archive, 4, true));
+    }
+
+    @Test
+    public void testCompressedTar()
+        throws Exception
+    {
+        File archive = folder.newFile("corpus.tar.gz");
+        OutputStream out = new GZIPOutputStream(new FileOutputStream(archive));
+        writeTar(out);
+        out.close();
+
+        assertEquals(documents, readInSplits(archive, 4, false));
+    }
+
+    private Map<String, String> readInSplits(File archive, int numSplits, boolean splittable)
+        throws IOException
+    {
+        JobConf job = new JobConf();
+        Path path = new Path(archive.getAbsolutePath());
+        FileInputFormat.setInputPaths(job, path);
+        ArchiveInputFormat format = ReflectionUtils.newInstance(ArchiveInputFormat.class, job);
+
+        InputSplit[] splits = format.getSplits(job, numSplits);
+        if (splittable) {
+            assertTrue("Archive must be split", splits.length > 1);
+        }
+        else {
+            assertEquals(1, splits.length);
+        }
+
+        String prefix = path.toString() + "!/";
+        Map<String, String> actual = new LinkedHashMap<String, String>();
+        for (InputSplit split : splits) {
+            RecordReader<Text, CASWritable> reader = format.getRecordReader(split, job,
+                    Reporter.NULL);
+            Text key = reader.createKey();
+            CASWritable value = reader.createValue();
+            while (reader.next(key, value)) {
+                assertTrue(key.toString().startsWith(prefix));
+                String name = key.toString().substring(prefix.length());
+                assertTrue("Entry read twice: " + name, !actual.containsKey(name));
+                actual.put(name, value.getCAS().getDocumentText());
+            }
+            reader.close();
+        }
+        return actual;
+    }
+
+    private void writeTar(OutputStream out)
+        throws IOException
+    {
+        writeTarEntry(out, "docs/", '5', new byte[0]);
+        for (Map.Entry<String, String> document : documents.entrySet()) {
+            byte[] name = document.getKey().getBytes("UTF-8");
+            if (name.length > 100) {
+                writeTarEntry(out, "././@LongLink", 'L', Arrays.copyOf(name, name.length + 1));
+            }
+            writeTarEntry(out, document.getKey(), '0', document.getValue().getBytes("UTF-8"));
+        }
+        // End of archive
+        out.write(new byte[1024]);
+    }
+
+    private static void writeTarEntry(OutputStream out, String name, char type, byte[] data)
+        throws IOException
+    {
+        byte[] header = new byte[512];
+        byte[] nameBytes = name.getBytes("UTF-8");
+        System.arraycopy(nameBytes, 0, header, 0, Math.min(100, nameBytes.length));
+        putAscii(header, 100, "0000644");
+        putAscii(header, 108, "0000000");
+        putAscii(header, 116, "0000000");
+        putAscii(header, 124, String.format("%011o", data.length));
+        putAscii(header, 136, "00000000000");
+        header[156] = (byte) type;
+        putAscii(header, 257, "ustar");
+        putAscii(header, 263, "00");
+        Arrays.fill(header, 148, 156, (byte) ' ');
+        long checksum = 0;
+        for (byte b : header) {
+            checksum += b & 0xff;
+        }
+        putAscii(header, 148, String.format("%06o", checksum));
+        header[154] = 0;
+
+        ByteArrayOutputStream entry = new ByteArrayOutputStream();
+        entry.write(header);
+        entry.write(data);
+        entry.write(new byte[(512 - data.length % 512) % 512]);
+        entry.writeTo(out);
+    }
+
+    private static void putAscii(byte[] buf, int off, String value)
+        throws IOException
+    {
+        byte[] bytes = value.getBytes("US-ASCII");
+        System.arraycopy(bytes, 0, buf, off, bytes.length);
+    }
+}
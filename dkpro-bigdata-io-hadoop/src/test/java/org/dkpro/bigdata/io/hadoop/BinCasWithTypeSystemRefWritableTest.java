@@ -0,0 +1,102 @@
+/*******************************************************************************
+ * Copyright 2010,2012
+ * Ubiquitous Knowledge Processing (UKP) Lab
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.dkpro.bigdata.io.hadoop;
+
+import static org.apache.uima.fit.factory.TypeSystemDescriptionFactory.createTypeSystemDescription;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.uima.cas.CAS;
+import org.apache.uima.util.CasCreationUtils;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class BinCasWithTypeSystemRefWritableTest
+    extends CASWritableTest
+{
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    public BinCasWithTypeSystemRefWritableTest()
+    {
+        writable = BinCasWithTypeSystemRefWritable.class;
+    }
+
+    @After
+    public void clearRegistry()
+    {
+        TypeSystemRegistry.clearCache();
+    }
+
+    @Test
+    public void testReadFromRegistry()
+        throws Exception
+    {
+        Configuration conf = new Configuration();
+        conf.set(TypeSystemRegistry.PARAM_REGISTRY, folder.getRoot().getAbsolutePath());
+
+        CAS cas = CasCreationUtils.createCas(createTypeSystemDescription(), null, null);
+        cas.setDocumentText("Lorem ipsum");
+        BinCasWithTypeSystemRefWritable out = new BinCasWithTypeSystemRefWritable();
+        out.setConf(conf);
+        out.setCAS(cas);
+        DataOutputBuffer data = new DataOutputBuffer();
+        out.write(data);
+
+        // Records are much smaller than with the type system inlined
+        BinCasWithTypeSystemWritable inline = new BinCasWithTypeSystemWritable();
+        inline.setCAS(cas);
+        DataOutputBuffer inlineData = new DataOutputBuffer();
+        inline.write(inlineData);
+        assertTrue(data.getLength() * 2 < inlineData.getLength());
+
+        // Simulate another JVM
+        TypeSystemRegistry.clearCache();
+        BinCasWithTypeSystemRefWritable in = new BinCasWithTypeSystemRefWritable();
+        in.setConf(conf);
+        DataInputBuffer input = new DataInputBuffer();
+        input.reset(data.getData(), data.getLength());
+        in.readFields(input);
+        assertEquals("Lorem ipsum", in.getCAS().getDocumentText());
+    }
+
+    @Test(expected = IOException.class)
+    public void testUnknownTypeSystem()
+        throws Exception
+    {
+        CAS cas = CasCreationUtils.createCas(createTypeSystemDescription(), null, null);
+        BinCasWithTypeSystemRefWritable out = new BinCasWithTypeSystemRefWritable();
+        out.setCAS(cas);
+        DataOutputBuffer data = new DataOutputBuffer();
+        out.write(data);
+
+        TypeSystemRegistry.clearCache();
+        BinCasWithTypeSystemRefWritable in = new BinCasWithTypeSystemRefWritable();
+        in.setConf(new Configuration());
+        DataInputBuffer input = new DataInputBuffer();
+        input.reset(data.getData(), data.getLength());
+        in.readFields(input);
+    }
+}
@@ -0,0 +1,148 @@
+/*******************************************************************************
+ * Copyright 2012,2013
+ * Ubiquitous Knowledge Processing (UKP) Lab
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.dkpro.bigdata.io.hadoop;
+
+import static org.apache.uima.fit.factory.AnalysisEngineFactory.createEngine;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.util.ReflectionUtils;
+import org.apache.uima.analysis_engine.AnalysisEngine;
+import org.apache.uima.fit.factory.JCasFactory;
+import org.apache.uima.jcas.JCas;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import de.tudarmstadt.ukp.dkpro.core.api.metadata.type.DocumentMetaData;
+
+public class CASWritableSequenceFileWriterTest
+{
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testShardingAndRolling()
+        throws Exception
+    {
+        File output = new File(folder.getRoot(), "output");
+        AnalysisEngine writer = createEngine(CASWritableSequenceFileWriter.class,
+                CASWritableSequenceFileWriter.PARAM_PATH, output.getAbsolutePath(),
+                CASWritableSequenceFileWriter.PARAM_COMPRESS, true,
+                CASWritableSequenceFileWriter.PARAM_SHARDS, 2,
+                CASWritableSequenceFileWriter.PARAM_MAX_RECORDS, 3,
+                CASWritableSequenceFileWriter.PARAM_FS, "file:///");
+        process(writer, 10);
+        writer.collectionProcessComplete();
+        writer.destroy();
+
+        // Each shard gets 5 records, which it writes to two files
+        assertEquals(10, readAll(output, 3));
+        assertEquals(4, getParts(output).length);
+    }
+
+    @Test
+    public void testRecordCompressionAndDestroy()
+        throws Exception
+    {
+        File output = new File(folder.getRoot(), "output");
+        AnalysisEngine writer = createEngine(CASWritableSequenceFileWriter.class,
+                CASWritableSequenceFileWriter.PARAM_PATH, output.getAbsolutePath(),
+                CASWritableSequenceFileWriter.PARAM_COMPRESS, true,
+                CASWritableSequenceFileWriter.PARAM_COMPRESSION_TYPE, "RECORD",
+                CASWritableSequenceFileWriter.PARAM_FS, "file:///");
+        process(writer, 10);
+        // Aborted pipeline, the file must still be complete
+        writer.destroy();
+
+        assertEquals(10, readAll(output, 10));
+        assertEquals(1, getParts(output).length);
+    }
+
+    private void process(AnalysisEngine writer, int documents)
+        throws Exception
+    {
+        JCas jcas = JCasFactory.createJCas();
+        for (int i = 0; i < documents; i++) {
+            jcas.reset();
+            jcas.setDocumentText("Document " + i);
+            DocumentMetaData.create(jcas).setDocumentId("doc" + i);
+            writer.process(jcas);
+        }
+    }
+
+    private File[] getParts(File dir)
+    {
+        // Skips the checksum files of the local file system
+        return dir.listFiles(new FilenameFilter()
+        {
+            @Override
+            public boolean accept(File parent, String name)
+            {
+                return name.startsWith("part-");
+            }
+        });
+    }
+
+    /**
+     * Reads all parts in <code>dir</code>, checks that every file holds at most
+     * <code>maxRecords</code> records and that every document is read with its key, and returns
+     * the number of records.
+     */
+    private int readAll(File dir, int maxRecords)
+        throws Exception
+    {
+        Configuration conf = new Configuration();
+        FileSystem fs = FileSystem.getLocal(conf);
+        Set<String> keys = new HashSet<String>();
+        int count = 0;
+        for (File file : getParts(dir)) {
+            SequenceFile.Reader reader = new SequenceFile.Reader(fs, new Path(file
+                    .getAbsolutePath()), conf);
+            try {
+                Text key = new Text();
+                CASWritable value = (CASWritable) ReflectionUtils.newInstance(reader
+                        .getValueClass(), conf);
+                int records = 0;
+                while (reader.next(key, value)) {
+                    assertEquals("Document " + key.toString().substring(3), value.getCAS()
+                            .getDocumentText());
+                    keys.add(key.toString());
+                    records++;
+                }
+                assertTrue(records <= maxRecords);
+                count += records;
+            }
+            finally {
+                reader.close();
+            }
+        }
+        assertEquals(count, keys.size());
+        return count;
+    }
+}
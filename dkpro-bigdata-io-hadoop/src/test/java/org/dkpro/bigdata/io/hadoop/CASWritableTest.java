@@ -18,14 +18,20 @@
 package org.dkpro.bigdata.io.hadoop;
 
 import static org.apache.uima.fit.factory.TypeSystemDescriptionFactory.createTypeSystemDescription;
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.fail;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.util.Arrays;
+
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
 
 import org.apache.uima.cas.CAS;
 import org.apache.uima.util.CasCreationUtils;
@@ -74,4 +80,43 @@ public class CASWritableTest
 
     }
 
+    @Test
+    public void testReadWriteBuffers()
+        throws Exception
+    {
+        CAS cas = CasCreationUtils.createCas(createTypeSystemDescription(), null, null);
+        CASWritable casWritable = writable.newInstance();
+        casWritable.setCAS(cas);
+
+        // Length is back-patched when writing to a DataOutputBuffer
+        DataOutputBuffer out = new DataOutputBuffer();
+        cas.setDocumentText(testString);
+        casWritable.write(out);
+        int firstLength = out.getLength();
+        cas.reset();
+        cas.setDocumentText("first line\nsecond line");
+        casWritable.write(out);
+
+        // Same bytes as when writing through a stream
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        DataOutputStream dos = new DataOutputStream(os);
+        cas.reset();
+        cas.setDocumentText(testString);
+        casWritable.write(dos);
+        dos.close();
+        assertArrayEquals(os.toByteArray(), Arrays.copyOf(out.getData(), firstLength));
+
+        // Both records are read from the buffer in place
+        DataInputBuffer in = new DataInputBuffer();
+        in.reset(out.getData(), out.getLength());
+        CASWritable read = writable.newInstance();
+        read.readFields(in);
+        assertEquals(testString, read.getCAS().getDocumentText());
+        assertEquals(firstLength, in.getPosition());
+        read.getCAS().reset();
+        read.readFields(in);
+        assertEquals("first line\nsecond line", read.getCAS().getDocumentText());
+        assertEquals(out.getLength(), in.getPosition());
+    }
+
 }
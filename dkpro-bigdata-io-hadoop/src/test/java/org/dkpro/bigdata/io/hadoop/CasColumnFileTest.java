@@ -0,0 +1,160 @@
+/*******************************************************************************
+ * Copyright 2010,2012
+ * Ubiquitous Knowledge Processing (UKP) Lab
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.dkpro.bigdata.io.hadoop;
+
+import static java.util.Arrays.asList;
+import static org.apache.uima.fit.factory.TypeSystemDescriptionFactory.createTypeSystemDescription;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.Text;
+import org.apache.uima.cas.CAS;
+import org.apache.uima.cas.Feature;
+import org.apache.uima.cas.FeatureStructure;
+import org.apache.uima.cas.Type;
+import org.apache.uima.cas.text.AnnotationFS;
+import org.apache.uima.util.CasCreationUtils;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class CasColumnFileTest
+{
+    private static final String TOKEN = "de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Token";
+    private static final String SENTENCE = "de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Sentence";
+    private static final String LEMMA = "de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Lemma";
+
+    private static final String[] DOCUMENTS = { "Lorem ipsum dolor sit amet.",
+            "Consetetur sadipscing elitr, sed diam nonumy eirmod tempor invidunt.",
+            "Ut labore et dolore magna aliquyam erat, sed diam voluptua." };
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private FileSystem fs;
+    private Path path;
+
+    @Before
+    public void writeFile()
+        throws Exception
+    {
+        fs = FileSystem.getLocal(new Configuration());
+        path = new Path(folder.getRoot().getAbsolutePath(), "corpus.cascol");
+
+        CAS cas = CasCreationUtils.createCas(createTypeSystemDescription(), null, null);
+        Type sentence = cas.getTypeSystem().getType(SENTENCE);
+        Type token = cas.getTypeSystem().getType(TOKEN);
+        Type lemma = cas.getTypeSystem().getType(LEMMA);
+        // Small groups so that the documents end up in different groups
+        CasColumnFile.Writer writer = new CasColumnFile.Writer(fs, path, 60);
+        for (int i = 0; i < DOCUMENTS.length; i++) {
+            String text = DOCUMENTS[i];
+            cas.reset();
+            cas.setDocumentText(text);
+            cas.setDocumentLanguage("la");
+            cas.addFsToIndexes(cas.createAnnotation(sentence, 0, text.length()));
+            int begin = 0;
+            for (String word : text.substring(0, text.length() - 1).split(" ")) {
+                AnnotationFS l = cas.createAnnotation(lemma, begin, begin + word.length());
+                l.setStringValue(lemma.getFeatureByBaseName("value"), word.toLowerCase());
+                cas.addFsToIndexes(l);
+                AnnotationFS t = cas.createAnnotation(token, begin, begin + word.length());
+                t.setFeatureValue(token.getFeatureByBaseName("lemma"), l);
+                cas.addFsToIndexes(t);
+                begin += word.length() + 1;
+            }
+            writer.append("doc" + i, cas);
+        }
+        writer.close();
+    }
+
+    @Test
+    public void testReadAll()
+        throws Exception
+    {
+        CAS cas = CasCreationUtils.createCas(createTypeSystemDescription(), null, null);
+        Type token = cas.getTypeSystem().getType(TOKEN);
+        Feature lemma = token.getFeatureByBaseName("lemma");
+        Feature value = cas.getTypeSystem().getType(LEMMA).getFeatureByBaseName("value");
+
+        CasColumnFile.Reader reader = new CasColumnFile.Reader(fs, path);
+        assertEquals(DOCUMENTS.length, reader.getDocumentCount());
+        assertTrue(reader.getGroupCount() > 1);
+        Text id = new Text();
+        for (int i = 0; i < DOCUMENTS.length; i++) {
+            assertTrue(reader.next(id, cas));
+            assertEquals("doc" + i, id.toString());
+            assertEquals(DOCUMENTS[i], cas.getDocumentText());
+            assertEquals("la", cas.getDocumentLanguage());
+            assertEquals(1, cas.getAnnotationIndex(cas.getTypeSystem().getType(SENTENCE)).size());
+            for (AnnotationFS t : cas.getAnnotationIndex(token)) {
+                FeatureStructure l = t.getFeatureValue(lemma);
+                assertNotNull(l);
+                assertEquals(t.getCoveredText().toLowerCase(), l.getStringValue(value));
+            }
+        }
+        assertFalse(reader.next(id, cas));
+        reader.close();
+    }
+
+    @Test
+    public void testReadProjected()
+        throws Exception
+    {
+        // Only tokens, lemmas are neither materialised nor referenced
+        CAS cas = CasCreationUtils.createCas(TypeSystemProjection.project(
+                createTypeSystemDescription(), asList(TOKEN)), null, null);
+        assertNull(cas.getTypeSystem().getType(LEMMA));
+
+        CasColumnFile.Reader reader = new CasColumnFile.Reader(fs, path);
+        Text id = new Text();
+        assertTrue(reader.next(id, cas));
+        assertEquals(DOCUMENTS[0], cas.getDocumentText());
+        Type token = cas.getTypeSystem().getType(TOKEN);
+        assertEquals(5, cas.getAnnotationIndex(token).size());
+        // Tokens and the document annotation
+        assertEquals(6, cas.getAnnotationIndex().size());
+        reader.close();
+    }
+
+    @Test
+    public void testGet()
+        throws Exception
+    {
+        CAS cas = CasCreationUtils.createCas(createTypeSystemDescription(), null, null);
+        CasColumnFile.Reader reader = new CasColumnFile.Reader(fs, path);
+        assertTrue(reader.get("doc2", cas));
+        assertEquals(DOCUMENTS[2], cas.getDocumentText());
+        assertTrue(reader.get("doc1", cas));
+        assertEquals(DOCUMENTS[1], cas.getDocumentText());
+        assertFalse(reader.get("doc3", cas));
+
+        // Sequential reading continues after the document that was looked up
+        Text id = new Text();
+        assertTrue(reader.next(id, cas));
+        assertEquals("doc2", id.toString());
+        reader.close();
+    }
+}
@@ -0,0 +1,193 @@
+/*******************************************************************************
+ * Copyright 2010,2012
+ * Ubiquitous Knowledge Processing (UKP) Lab
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.dkpro.bigdata.io.hadoop;
+
+import static java.util.Arrays.asList;
+import static org.apache.uima.fit.factory.CollectionReaderFactory.createReaderDescription;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.InputSplit;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.RecordReader;
+import org.apache.hadoop.mapred.Reporter;
+import org.apache.uima.collection.CollectionException;
+import org.apache.uima.fit.component.JCasCollectionReader_ImplBase;
+import org.apache.uima.fit.descriptor.ConfigurationParameter;
+import org.apache.uima.jcas.JCas;
+import org.apache.uima.util.Progress;
+import org.apache.uima.util.ProgressImpl;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import de.tudarmstadt.ukp.dkpro.core.api.metadata.type.DocumentMetaData;
+import de.tudarmstadt.ukp.dkpro.core.io.text.TextReader;
+
+public class CollectionReaderInputFormatTest
+{
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testSkippingShards()
+        throws Exception
+    {
+        List<String> texts = asList("one", "two", "three", "four", "five");
+        for (int i = 0; i < texts.size(); i++) {
+            FileUtils.writeStringToFile(new File(folder.getRoot(), i + ".txt"), texts.get(i),
+                    "UTF-8");
+        }
+
+        JobConf job = new JobConf();
+        CollectionReaderInputFormat.setCollectionReader(job, createReaderDescription(
+                TextReader.class,
+                TextReader.PARAM_SOURCE_LOCATION, folder.getRoot().getAbsolutePath(),
+                TextReader.PARAM_PATTERNS, "*.txt"));
+        job.setInt(CollectionReaderInputFormat.PARAM_SHARDS, 2);
+
+        List<List<String>> shards = readShards(job);
+        assertEquals(2, shards.size());
+        assertEquals(3, shards.get(0).size());
+        assertEquals(2, shards.get(1).size());
+
+        List<String> all = new ArrayList<String>(shards.get(0));
+        all.addAll(shards.get(1));
+        assertEquals(new HashSet<String>(texts), new HashSet<String>(all));
+    }
+
+    @Test
+    public void testShardingFiles()
+        throws Exception
+    {
+        for (int i = 0; i < 5; i++) {
+            FileUtils.writeStringToFile(new File(folder.getRoot(), "sub/" + i + ".txt"), "" + i,
+                    "UTF-8");
+        }
+        FileUtils.writeStringToFile(new File(folder.getRoot(), "sub/skip.txt"), "skip", "UTF-8");
+        for (int i = 0; i < 3; i++) {
+            FileUtils.writeStringToFile(new File(folder.getRoot(), "few/" + i + ".txt"), "" + i,
+                    "UTF-8");
+        }
+        String location = folder.getRoot().getAbsolutePath();
+
+        assertEquals(asList("[-]**/skip.txt", "[+]sub/1.txt", "[+]sub/4.txt"),
+                asList(CollectionReaderInputFormat.getShardPatterns(location, new String[] {
+                        "**/*.txt", "[-]**/skip.txt" }, 1, 3)));
+
+        // Location with pattern, more tasks than files
+        JobConf job = new JobConf();
+        CollectionReaderInputFormat.setCollectionReader(job, createReaderDescription(
+                TextReader.class,
+                TextReader.PARAM_SOURCE_LOCATION, location + "/few/*.txt"));
+        job.setInt(CollectionReaderInputFormat.PARAM_SHARDS, 4);
+
+        List<List<String>> shards = readShards(job);
+        assertEquals(asList(asList("0"), asList("1"), asList("2"), asList()), shards);
+    }
+
+    @Test
+    public void testShardAwareReader()
+        throws Exception
+    {
+        JobConf job = new JobConf();
+        CollectionReaderInputFormat.setCollectionReader(job,
+                createReaderDescription(NumberReader.class, NumberReader.PARAM_DOCUMENTS, 5));
+
+        List<List<String>> shards = readShards(job);
+        assertEquals(3, shards.size());
+        assertEquals(asList("0", "3"), shards.get(0));
+        assertEquals(asList("1", "4"), shards.get(1));
+        assertEquals(asList("2"), shards.get(2));
+    }
+
+    private List<List<String>> readShards(JobConf job)
+        throws IOException
+    {
+        CollectionReaderInputFormat format = new CollectionReaderInputFormat();
+        List<List<String>> shards = new ArrayList<List<String>>();
+        for (InputSplit split : format.getSplits(job, 3)) {
+            List<String> texts = new ArrayList<String>();
+            RecordReader<Text, CASWritable> reader = format.getRecordReader(split, job,
+                    Reporter.NULL);
+            Text key = reader.createKey();
+            CASWritable value = reader.createValue();
+            while (reader.next(key, value)) {
+                assertFalse("Keys must not be empty", key.toString().isEmpty());
+                texts.add(value.getCAS().getDocumentText());
+            }
+            reader.close();
+            shards.add(texts);
+        }
+        return shards;
+    }
+
+    /**
+     * Produces the numbers below {@link #PARAM_DOCUMENTS} that belong to its shard.
+     */
+    public static class NumberReader
+        extends JCasCollectionReader_ImplBase
+    {
+        public static final String PARAM_DOCUMENTS = "Documents";
+        @ConfigurationParameter(name = PARAM_DOCUMENTS)
+        private int documents;
+
+        @ConfigurationParameter(name = CollectionReaderInputFormat.PARAM_SHARD_INDEX,
+                defaultValue = "0")
+        private int shardIndex;
+
+        @ConfigurationParameter(name = CollectionReaderInputFormat.PARAM_SHARD_COUNT,
+                defaultValue = "1")
+        private int shardCount;
+
+        private int next = -1;
+
+        @Override
+        public boolean hasNext()
+        {
+            if (next < 0) {
+                next = shardIndex;
+            }
+            return next < documents;
+        }
+
+        @Override
+        public void getNext(JCas jcas)
+            throws IOException, CollectionException
+        {
+            hasNext();
+            jcas.setDocumentText(Integer.toString(next));
+            DocumentMetaData.create(jcas).setDocumentId(Integer.toString(next));
+            next += shardCount;
+        }
+
+        @Override
+        public Progress[] getProgress()
+        {
+            return new Progress[] { new ProgressImpl(next, documents, Progress.ENTITIES) };
+        }
+    }
+}
@@ -0,0 +1,86 @@
+/*******************************************************************************
+ * Copyright 2010,2012
+ * Ubiquitous Knowledge Processing (UKP) Lab
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.dkpro.bigdata.io.hadoop;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.FileInputFormat;
+import org.apache.hadoop.mapred.InputSplit;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.RecordReader;
+import org.apache.hadoop.mapred.Reporter;
+import org.apache.hadoop.util.ReflectionUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import de.tudarmstadt.ukp.dkpro.core.api.metadata.type.DocumentMetaData;
+
+public class CombineText2CASInputFormatTest
+{
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testCombineFiles()
+        throws Exception
+    {
+        Map<String, String> expected = new HashMap<String, String>();
+        for (int i = 0; i < 10; i++) {
+            File file = new File(folder.getRoot(), "doc" + i + ".txt");
+            String text = "Document number " + i + ".";
+            FileUtils.writeStringToFile(file, text, "UTF-8");
+            expected.put(new Path(file.getAbsolutePath()).getName(), text);
+        }
+
+        JobConf job = new JobConf();
+        FileInputFormat.setInputPaths(job, new Path(folder.getRoot().getAbsolutePath()));
+        // Room for about three documents per split
+        job.setLong(CombineText2CASInputFormat.SPLIT_SIZE, 60);
+        CombineText2CASInputFormat format = ReflectionUtils.newInstance(
+                CombineText2CASInputFormat.class, job);
+
+        InputSplit[] splits = format.getSplits(job, 1);
+        assertTrue("Files must be combined", splits.length > 1 && splits.length < 10);
+
+        Map<String, String> actual = new HashMap<String, String>();
+        for (InputSplit split : splits) {
+            RecordReader<Text, CASWritable> reader = format.getRecordReader(split, job,
+                    Reporter.NULL);
+            Text key = reader.createKey();
+            CASWritable value = reader.createValue();
+            while (reader.next(key, value)) {
+                String name = new Path(key.toString()).getName();
+                actual.put(name, value.getCAS().getDocumentText());
+                assertEquals(new Path(key.toString()).toUri().toString(),
+                        DocumentMetaData.get(value.getCAS()).getDocumentUri());
+            }
+            assertEquals(1.0f, reader.getProgress(), 0.0f);
+            reader.close();
+        }
+        assertEquals(expected, actual);
+    }
+}
@@ -0,0 +1,207 @@
+/*******************************************************************************
+ * Copyright 2010,2012
+ * Ubiquitous Knowledge Processing (UKP) Lab
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.dkpro.bigdata.io.hadoop;
+
+import static org.apache.uima.fit.factory.TypeSystemDescriptionFactory.createTypeSystemDescription;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.uima.cas.ArrayFS;
+import org.apache.uima.cas.CAS;
+import org.apache.uima.cas.FSIterator;
+import org.apache.uima.cas.Feature;
+import org.apache.uima.cas.FeatureStructure;
+import org.apache.uima.cas.Type;
+import org.apache.uima.cas.text.AnnotationFS;
+import org.apache.uima.util.CasCreationUtils;
+import org.junit.Test;
+
+public class CompactCasWritableTest
+    extends CASWritableTest
+{
+    private static final String TOKEN = "de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Token";
+    private static final String SENTENCE = "de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Sentence";
+    private static final String LEMMA = "de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Lemma";
+    private static final String STEM = "de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Stem";
+    private static final String NN = "de.tudarmstadt.ukp.dkpro.core.api.lexmorph.type.pos.NN";
+    private static final String TEXT = "Lorem ipsum dolor sit amet.";
+
+    public CompactCasWritableTest()
+    {
+        writable = CompactCasWritable.class;
+    }
+
+    @Test
+    public void testCompactTypes()
+        throws Exception
+    {
+        CAS cas = createAnnotatedCas();
+        // Not a compact type, written with Form 6
+        cas.addFsToIndexes(cas.createAnnotation(cas.getAnnotationType(), 6, 11));
+
+        CAS read = roundTrip(cas);
+        assertEquals(TEXT, read.getDocumentText());
+        Type token = read.getTypeSystem().getType(TOKEN);
+        Feature lemma = token.getFeatureByBaseName("lemma");
+        Feature pos = token.getFeatureByBaseName("pos");
+        Feature value = read.getTypeSystem().getType(LEMMA).getFeatureByBaseName("value");
+        Feature posValue = pos.getRange().getFeatureByBaseName("PosValue");
+        assertEquals(1, read.getAnnotationIndex(read.getTypeSystem().getType(SENTENCE)).size());
+        assertEquals(5, read.getAnnotationIndex(token).size());
+        for (AnnotationFS t : read.getAnnotationIndex(token)) {
+            assertEquals(t.getCoveredText().toLowerCase(), t.getFeatureValue(lemma)
+                    .getStringValue(value));
+            FeatureStructure tag = t.getFeatureValue(pos);
+            assertEquals(NN, tag.getType().getName());
+            assertEquals("NN", tag.getStringValue(posValue));
+        }
+        // Document annotation, sentence, 5 tokens, lemmas and tags, and the plain annotation
+        assertEquals(18, read.getAnnotationIndex().size());
+    }
+
+    @Test
+    public void testReferencesToOtherAnnotations()
+        throws Exception
+    {
+        StringBuilder text = new StringBuilder(TEXT);
+        for (int i = 0; i < 100; i++) {
+            text.append(' ').append(TEXT);
+        }
+        CAS cas = createAnnotatedCas(text.toString());
+        Type token = cas.getTypeSystem().getType(TOKEN);
+        Type stem = cas.getTypeSystem().getType(STEM);
+        AnnotationFS sentence = cas.createAnnotation(cas.getAnnotationType(), 0, text.length());
+        cas.addFsToIndexes(sentence);
+        for (AnnotationFS t : cas.getAnnotationIndex(token)) {
+            AnnotationFS s = cas.createAnnotation(stem, t.getBegin(), t.getEnd());
+            s.setStringValue(stem.getFeatureByBaseName("value"), t.getCoveredText().substring(0,
+                    3));
+            cas.addFsToIndexes(s);
+            t.setFeatureValue(token.getFeatureByBaseName("stem"), s);
+            t.setFeatureValue(token.getFeatureByBaseName("parent"), sentence);
+        }
+
+        // Stems are compact, the parent is referenced by type and offsets
+        DataOutputBuffer compact = write(cas, writable);
+        assertEquals(CompactCasWritable.COMPACT, compact.getData()[4]);
+        DataOutputBuffer full = write(cas, BinCasWritable.class);
+        assertTrue(compact.getLength() < full.getLength());
+
+        CAS read = read(compact);
+        token = read.getTypeSystem().getType(TOKEN);
+        Feature stemFeature = token.getFeatureByBaseName("stem");
+        Feature parent = token.getFeatureByBaseName("parent");
+        Feature value = read.getTypeSystem().getType(STEM).getFeatureByBaseName("value");
+        AnnotationFS readSentence = null;
+        for (AnnotationFS t : read.getAnnotationIndex(token)) {
+            assertEquals(t.getCoveredText().substring(0, 3), t.getFeatureValue(stemFeature)
+                    .getStringValue(value));
+            AnnotationFS p = (AnnotationFS) t.getFeatureValue(parent);
+            assertEquals(CAS.TYPE_NAME_ANNOTATION, p.getType().getName());
+            assertEquals(text.toString(), p.getCoveredText());
+            if (readSentence != null) {
+                assertSame(readSentence, p);
+            }
+            readSentence = p;
+        }
+    }
+
+    @Test
+    public void testReferencedFromOtherTypes()
+        throws Exception
+    {
+        CAS cas = createAnnotatedCas();
+        Type token = cas.getTypeSystem().getType(TOKEN);
+        ArrayFS array = cas.createArrayFS(1);
+        array.set(0, cas.getAnnotationIndex(token).iterator().next());
+        cas.addFsToIndexes(array);
+
+        // The record falls back to Form 6, so the reference survives
+        CAS read = roundTrip(cas);
+        FSIterator<FeatureStructure> arrays = read.getIndexRepository().getAllIndexedFS(
+                read.getTypeSystem().getType(CAS.TYPE_NAME_FS_ARRAY));
+        assertTrue(arrays.hasNext());
+        AnnotationFS first = (AnnotationFS) ((ArrayFS) arrays.next()).get(0);
+        assertEquals("Lorem", first.getCoveredText());
+        assertEquals(5, read.getAnnotationIndex(read.getTypeSystem().getType(TOKEN)).size());
+    }
+
+    private CAS createAnnotatedCas()
+        throws Exception
+    {
+        return createAnnotatedCas(TEXT);
+    }
+
+    private CAS createAnnotatedCas(String text)
+        throws Exception
+    {
+        CAS cas = CasCreationUtils.createCas(createTypeSystemDescription(), null, null);
+        Type token = cas.getTypeSystem().getType(TOKEN);
+        Type lemma = cas.getTypeSystem().getType(LEMMA);
+        Type nn = cas.getTypeSystem().getType(NN);
+        cas.setDocumentText(text);
+        cas.addFsToIndexes(cas.createAnnotation(cas.getTypeSystem().getType(SENTENCE), 0,
+                text.length()));
+        int begin = 0;
+        for (String word : text.substring(0, text.length() - 1).split(" ")) {
+            int end = begin + word.length();
+            AnnotationFS l = cas.createAnnotation(lemma, begin, end);
+            l.setStringValue(lemma.getFeatureByBaseName("value"), word.toLowerCase());
+            cas.addFsToIndexes(l);
+            AnnotationFS p = cas.createAnnotation(nn, begin, end);
+            p.setStringValue(nn.getFeatureByBaseName("PosValue"), "NN");
+            cas.addFsToIndexes(p);
+            AnnotationFS t = cas.createAnnotation(token, begin, end);
+            t.setFeatureValue(token.getFeatureByBaseName("lemma"), l);
+            t.setFeatureValue(token.getFeatureByBaseName("pos"), p);
+            cas.addFsToIndexes(t);
+            begin = end + 1;
+        }
+        return cas;
+    }
+
+    private CAS roundTrip(CAS cas)
+        throws Exception
+    {
+        return read(write(cas, writable));
+    }
+
+    private DataOutputBuffer write(CAS cas, Class<? extends CASWritable> format)
+        throws Exception
+    {
+        CASWritable out = format.newInstance();
+        out.setCAS(cas);
+        DataOutputBuffer buffer = new DataOutputBuffer();
+        out.write(buffer);
+        return buffer;
+    }
+
+    private CAS read(DataOutputBuffer buffer)
+        throws Exception
+    {
+        CASWritable in = writable.newInstance();
+        DataInputBuffer input = new DataInputBuffer();
+        input.reset(buffer.getData(), buffer.getLength());
+        in.readFields(input);
+        assertEquals(buffer.getLength(), input.getPosition());
+        return in.getCAS();
+    }
+}
@@ -0,0 +1,115 @@
+/*******************************************************************************
+ * Copyright 2012,2013
+ * Ubiquitous Knowledge Processing (UKP) Lab
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.dkpro.bigdata.io.hadoop;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.Date;
+
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.junit.Test;
+
+public class CrawlerRecordTest
+{
+    private static final Charset LATIN1 = Charset.forName("ISO-8859-1");
+
+    @Test
+    public void testLazyDecoding()
+        throws IOException
+    {
+        CrawlerRecord record = new CrawlerRecord();
+        byte[] data = "Gr\u00fc\u00dfe".getBytes(LATIN1);
+        record.readRawContent(new ByteArrayInputStream(data));
+        assertEquals(data.length, record.getRawLength());
+
+        record.setCharset(LATIN1);
+        assertEquals("Gr\u00fc\u00dfe", record.getContent());
+
+        // Changing the charset invalidates the decoded content
+        record.setCharset(Charset.forName("UTF-8"));
+        assertEquals("Gr\ufffd\ufffde", record.getContent());
+
+        // The byte order mark is not part of the content
+        record.readRawContent(new ByteArrayInputStream(new byte[] { (byte) 0xef, (byte) 0xbb,
+                (byte) 0xbf, 'a' }));
+        assertEquals("a", record.getContent());
+    }
+
+    @Test
+    public void testStringContent()
+        throws IOException
+    {
+        CrawlerRecord record = new CrawlerRecord();
+        record.setContent("Gr\u00fc\u00dfe");
+        assertEquals("UTF-8", record.getCharset().name());
+        assertEquals(7, record.getRawLength());
+        assertEquals("Gr\u00fc\u00dfe", record.getContent());
+    }
+
+    @Test
+    public void testWritable()
+        throws IOException
+    {
+        CrawlerRecord record = new CrawlerRecord();
+        record.setURL("http://example.org/");
+        record.setIsHTML(true);
+        record.setOriginalEncoding("ISO-8859-1");
+        record.setDate(new Date(1234567890000L));
+        byte[] data = "<p>Gr\u00fc\u00dfe</p>".getBytes(LATIN1);
+        record.setRawContent(data, 0, data.length);
+        record.setCharset(LATIN1);
+
+        CrawlerRecord copy = new CrawlerRecord();
+        roundTrip(record, copy);
+        assertEquals("http://example.org/", copy.getURL());
+        assertEquals(true, copy.isHTML());
+        assertEquals("ISO-8859-1", copy.getOriginalEncoding());
+        assertNull(copy.getOriginalLanguage());
+        assertNull(copy.getUser());
+        assertEquals(1234567890000L, copy.getDate().getTime());
+        assertEquals(LATIN1, copy.getCharset());
+        assertEquals("<p>Gr\u00fc\u00dfe</p>", copy.getContent());
+
+        // Reusing the instance must not leak state of the previous record
+        CrawlerRecord other = new CrawlerRecord();
+        other.setURL("http://example.org/other");
+        other.setContent("x");
+        roundTrip(other, copy);
+        assertEquals("http://example.org/other", copy.getURL());
+        assertEquals(false, copy.isHTML());
+        assertNull(copy.getOriginalEncoding());
+        assertNull(copy.getDate());
+        assertEquals(1, copy.getRawLength());
+        assertEquals("x", copy.getContent());
+    }
+
+    private static void roundTrip(CrawlerRecord from, CrawlerRecord to)
+        throws IOException
+    {
+        DataOutputBuffer out = new DataOutputBuffer();
+        from.write(out);
+        DataInputBuffer in = new DataInputBuffer();
+        in.reset(out.getData(), out.getLength());
+        to.readFields(in);
+    }
+}
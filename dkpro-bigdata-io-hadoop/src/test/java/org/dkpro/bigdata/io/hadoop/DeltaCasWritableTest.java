@@ -0,0 +1,153 @@
+/*******************************************************************************
+ * Copyright 2010,2012
+ * Ubiquitous Knowledge Processing (UKP) Lab
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.dkpro.bigdata.io.hadoop;
+
+import static org.apache.uima.fit.factory.TypeSystemDescriptionFactory.createTypeSystemDescription;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.SequenceFile.CompressionType;
+import org.apache.hadoop.io.Text;
+import org.apache.uima.cas.CAS;
+import org.apache.uima.cas.text.AnnotationFS;
+import org.apache.uima.util.CasCreationUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class DeltaCasWritableTest
+    extends CASWritableTest
+{
+    private static final String[] DOCUMENTS = { "Lorem ipsum dolor sit amet.",
+            "Consetetur sadipscing elitr, sed diam nonumy eirmod tempor invidunt.",
+            "Ut labore et dolore magna aliquyam erat, sed diam voluptua." };
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    public DeltaCasWritableTest()
+    {
+        writable = DeltaCasWritable.class;
+    }
+
+    @Test
+    public void testDelta()
+        throws Exception
+    {
+        checkDelta(CompressionType.NONE);
+    }
+
+    @Test
+    public void testDeltaBlockCompressed()
+        throws Exception
+    {
+        checkDelta(CompressionType.BLOCK);
+    }
+
+    private void checkDelta(CompressionType compression)
+        throws Exception
+    {
+        Configuration conf = new Configuration();
+        FileSystem fs = FileSystem.getLocal(conf);
+        Path path = new Path(folder.getRoot().getAbsolutePath(), "input.seq");
+
+        CAS cas = CasCreationUtils.createCas(createTypeSystemDescription(), null, null);
+        BinCasWritable record = new BinCasWritable();
+        record.setCAS(cas);
+        SequenceFile.Writer writer = SequenceFile.createWriter(fs, conf, path, Text.class,
+                BinCasWritable.class, compression);
+        for (int i = 0; i < DOCUMENTS.length; i++) {
+            cas.reset();
+            cas.setDocumentText(DOCUMENTS[i]);
+            writer.append(new Text("doc" + i), record);
+        }
+        writer.close();
+
+        // Map side, positions are tracked like in DeltaCasMapRunner
+        List<DataOutputBuffer> shuffled = new ArrayList<DataOutputBuffer>();
+        SequenceFile.Reader reader = new SequenceFile.Reader(fs, path, conf);
+        Text key = new Text();
+        BinCasWritable value = new BinCasWritable();
+        long blockPosition = -1;
+        long lastEnd = -1;
+        int index = 0;
+        long start = reader.getPosition();
+        while (reader.next(key, value)) {
+            long end = reader.getPosition();
+            if (end != lastEnd) {
+                blockPosition = start;
+                index = 0;
+            }
+            else {
+                index++;
+            }
+            lastEnd = end;
+            start = end;
+
+            CAS input = value.getCAS();
+            DeltaCasWritable.Base base = DeltaCasWritable.markBase(input, path, blockPosition,
+                    index);
+            String text = input.getDocumentText();
+            input.addFsToIndexes(input.createAnnotation(input.getAnnotationType(), 0,
+                    text.indexOf(' ')));
+
+            DeltaCasWritable delta = new DeltaCasWritable();
+            delta.setCAS(input);
+            delta.setBase(base);
+            DataOutputBuffer out = new DataOutputBuffer();
+            delta.write(out);
+            shuffled.add(out);
+
+            // The document text is not part of the delta
+            BinCasWritable fullWritable = new BinCasWritable();
+            fullWritable.setCAS(input);
+            DataOutputBuffer full = new DataOutputBuffer();
+            fullWritable.write(full);
+            assertTrue(out.getLength() < full.getLength());
+        }
+        reader.close();
+        assertEquals(DOCUMENTS.length, shuffled.size());
+
+        // Reduce side, in a different order than the input
+        DeltaCasWritable delta = new DeltaCasWritable();
+        delta.setConf(conf);
+        DataInputBuffer in = new DataInputBuffer();
+        for (int i = DOCUMENTS.length - 1; i >= 0; i--) {
+            in.reset(shuffled.get(i).getData(), shuffled.get(i).getLength());
+            delta.readFields(in);
+            CAS restored = delta.getCAS();
+            assertEquals(DOCUMENTS[i], restored.getDocumentText());
+            List<String> covered = new ArrayList<String>();
+            for (AnnotationFS annotation : restored.getAnnotationIndex()) {
+                covered.add(annotation.getCoveredText());
+            }
+            // Document annotation and the one added on the map side
+            assertEquals(2, covered.size());
+            assertTrue(covered.contains(DOCUMENTS[i].substring(0, DOCUMENTS[i].indexOf(' '))));
+        }
+    }
+}
@@ -0,0 +1,134 @@
+/*******************************************************************************
+ * Copyright 2010,2012
+ * Ubiquitous Knowledge Processing (UKP) Lab
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.dkpro.bigdata.io.hadoop;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.SequenceFile.CompressionType;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.DefaultCodec;
+import org.apache.hadoop.util.ReflectionUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class DictionaryDeflateCodecTest
+{
+    private static final int RECORDS = 200;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testTrainAndCompress()
+        throws Exception
+    {
+        Configuration conf = new Configuration();
+        // Small blocks, where a dictionary helps most
+        conf.setInt("io.seqfile.compress.blocksize", 2000);
+        FileSystem fs = FileSystem.getLocal(conf);
+
+        Path input = new Path(folder.getRoot().getAbsolutePath(), "input.seq");
+        long plainSize = write(fs, conf, input, new DefaultCodec());
+
+        List<byte[]> samples = DictionaryTrainer.sample(conf, new Path[] { input }, 64 * 1024);
+        assertFalse(samples.isEmpty());
+        byte[] dictionary = DictionaryTrainer.train(samples, DictionaryTrainer.MAX_DICTIONARY_SIZE);
+        assertTrue(dictionary.length > 0);
+        assertTrue(dictionary.length <= DictionaryTrainer.MAX_DICTIONARY_SIZE);
+
+        DictionaryDeflateCodec.setDictionary(conf, dictionary);
+        Path output = new Path(folder.getRoot().getAbsolutePath(), "output.seq");
+        long dictionarySize = write(fs, conf, output, ReflectionUtils.newInstance(
+                DictionaryDeflateCodec.class, conf));
+        assertTrue(dictionarySize < plainSize);
+        assertEquals(RECORDS, read(fs, conf, output));
+
+        // The dictionary can also be read from a file
+        Path file = new Path(folder.getRoot().getAbsolutePath(),
+                DictionaryDeflateCodec.DICTIONARY_FILE_NAME);
+        DictionaryDeflateCodec.writeDictionary(fs, file, dictionary);
+        Configuration readConf = new Configuration();
+        readConf.set(DictionaryDeflateCodec.PARAM_DICTIONARY, file.toString());
+        assertEquals(RECORDS, read(fs, readConf, output));
+
+        try {
+            read(fs, new Configuration(), output);
+            fail("Read without a dictionary");
+        }
+        catch (IOException e) {
+            // expected
+        }
+    }
+
+    private long write(FileSystem fs, Configuration conf, Path path, CompressionCodec codec)
+        throws IOException
+    {
+        SequenceFile.Writer writer = SequenceFile.createWriter(fs, conf, path, Text.class,
+                Text.class, CompressionType.BLOCK, codec);
+        for (int i = 0; i < RECORDS; i++) {
+            writer.append(new Text("doc" + i), new Text(record(i)));
+        }
+        writer.close();
+        return fs.getFileStatus(path).getLen();
+    }
+
+    private int read(FileSystem fs, Configuration conf, Path path)
+        throws IOException
+    {
+        SequenceFile.Reader reader = new SequenceFile.Reader(fs, path, conf);
+        Text key = new Text();
+        Text value = new Text();
+        int count = 0;
+        try {
+            while (reader.next(key, value)) {
+                assertEquals(record(count), value.toString());
+                count++;
+            }
+        }
+        finally {
+            reader.close();
+        }
+        return count;
+    }
+
+    private static String record(int i)
+    {
+        StringBuilder record = new StringBuilder();
+        record.append("<uima.tcas.DocumentAnnotation language=\"en\"/>");
+        record.append("<de.tudarmstadt.ukp.dkpro.core.api.metadata.type.DocumentMetaData ");
+        record.append("documentId=\"doc").append(i).append("\" collectionId=\"corpus\"/>");
+        for (int t = 0; t < 5; t++) {
+            record.append("<de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Token begin=\"");
+            record.append(t * 6).append("\" end=\"").append(t * 6 + 5).append("\" ");
+            record.append("pos=\"de.tudarmstadt.ukp.dkpro.core.api.lexmorph.type.pos.NN\"/>");
+        }
+        return record.toString();
+    }
+}
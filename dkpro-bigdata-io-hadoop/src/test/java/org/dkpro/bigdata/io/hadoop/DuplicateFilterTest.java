@@ -0,0 +1,191 @@
+/*******************************************************************************
+ * Copyright 2012,2013
+ * Ubiquitous Knowledge Processing (UKP) Lab
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.dkpro.bigdata.io.hadoop;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapred.FileSplit;
+import org.apache.hadoop.util.bloom.BloomFilter;
+import org.dkpro.bigdata.io.hadoop.InputFormatTest.CountingReporter;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class DuplicateFilterTest
+{
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Configuration conf;
+    private CountingReporter reporter;
+
+    @Before
+    public void setUp()
+    {
+        conf = new Configuration();
+        conf.setLong(DuplicateFilter.EXPECTED_DOCUMENTS, 1000);
+        reporter = new CountingReporter();
+    }
+
+    @Test
+    public void testNormalisation()
+    {
+        long hash = DuplicateFilter.hashText("Hello world");
+        assertEquals(hash, DuplicateFilter.hashText("  hello\n\tWORLD "));
+        assertTrue(hash != DuplicateFilter.hashText("Hello worlds"));
+        assertTrue(hash != DuplicateFilter.hashText("Helloworld"));
+    }
+
+    @Test
+    public void testDuplicatesInSplit()
+        throws IOException
+    {
+        DuplicateFilter filter = DuplicateFilter.create(conf);
+        assertFalse(filter.isDuplicate("a", "Some text", reporter));
+        assertFalse(filter.isDuplicate("b", "Other text", reporter));
+        assertTrue(filter.isDuplicate("c", "some  text", reporter));
+        assertEquals(1, reporter.getValue(DuplicateFilter.Counters.DUPLICATE_IN_SPLIT));
+        assertEquals(0, reporter.getValue(DuplicateFilter.Counters.DUPLICATE_IN_CORPUS));
+    }
+
+    @Test
+    public void testEmptyTexts()
+        throws IOException
+    {
+        DuplicateFilter filter = DuplicateFilter.create(conf);
+        assertFalse(filter.isDuplicate("a", "", reporter));
+        assertFalse(filter.isDuplicate("b", " \n\u00a0", reporter));
+        assertFalse(filter.isDuplicate("c", "", reporter));
+        assertEquals(0, reporter.getValue(DuplicateFilter.Counters.DUPLICATE_IN_SPLIT));
+        assertFalse(DuplicateFilter.hasText(" \t"));
+        assertTrue(DuplicateFilter.hasText(" x "));
+    }
+
+    @Test
+    public void testSharedFilter()
+        throws IOException
+    {
+        // The pre-pass keeps "a" and drops "b"
+        BloomFilter shared = DuplicateFilter.createBloomFilter(conf);
+        DuplicateFilter.addCorpusDuplicate(shared, DuplicateFilter.hashText("Some text"),
+                DuplicateFilter.hashCopy(DuplicateFilter.hashKey("b"), 0));
+        FileSystem fs = FileSystem.getLocal(conf);
+        Path path = new Path(folder.getRoot().getPath(), DuplicateFilter.FILTER_FILE_NAME);
+        DuplicateFilter.writeBloomFilter(fs, path, shared);
+        conf.set(DuplicateFilter.FILTER, path.toString());
+
+        // Each split sees one of the copies
+        assertTrue(DuplicateFilter.create(conf).isDuplicate("b", "Some text", reporter));
+        assertFalse(DuplicateFilter.create(conf).isDuplicate("a", "Some text", reporter));
+        assertEquals(1, reporter.getValue(DuplicateFilter.Counters.DUPLICATE_IN_CORPUS));
+    }
+
+    @Test
+    public void testSameKeyInDifferentSplits()
+        throws IOException
+    {
+        FileSplit first = new FileSplit(new Path("/crawl/a.warc"), 0, 100, (String[]) null);
+        FileSplit second = new FileSplit(new Path("/crawl/a.warc"), 100, 100, (String[]) null);
+
+        // The pre-pass keeps the copy of "a" in the first split
+        BloomFilter shared = DuplicateFilter.createBloomFilter(conf);
+        DuplicateFilter.addCorpusDuplicate(shared, DuplicateFilter.hashText("Some text"),
+                DuplicateFilter.hashCopy(DuplicateFilter.hashKey("a"),
+                        DuplicateFilter.hashSplit(second)));
+        FileSystem fs = FileSystem.getLocal(conf);
+        Path path = new Path(folder.getRoot().getPath(), DuplicateFilter.FILTER_FILE_NAME);
+        DuplicateFilter.writeBloomFilter(fs, path, shared);
+        conf.set(DuplicateFilter.FILTER, path.toString());
+
+        DuplicateFilter filter = DuplicateFilter.create(conf);
+        filter.setSplit(first);
+        assertFalse(filter.isDuplicate("a", "Some text", reporter));
+        filter = DuplicateFilter.create(conf);
+        filter.setSplit(second);
+        assertTrue(filter.isDuplicate("a", "Some text", reporter));
+        assertEquals(1, reporter.getValue(DuplicateFilter.Counters.DUPLICATE_IN_CORPUS));
+    }
+
+    @Test
+    public void testUnknownSplit()
+        throws IOException
+    {
+        FileSplit known = new FileSplit(new Path("/crawl/a.warc"), 0, 100, (String[]) null);
+        FileSplit unknown = new FileSplit(new Path("/crawl/a.warc"), 0, 200, (String[]) null);
+        FileSplit other = new FileSplit(new Path("/crawl/b.warc"), 0, 100, (String[]) null);
+
+        BloomFilter shared = DuplicateFilter.createBloomFilter(conf);
+        DuplicateFilter.addSplit(shared, DuplicateFilter.hashSplit(known));
+        FileSystem fs = FileSystem.getLocal(conf);
+        Path path = new Path(folder.getRoot().getPath(), DuplicateFilter.FILTER_FILE_NAME);
+        DuplicateFilter.writeBloomFilter(fs, path, shared);
+        conf.set(DuplicateFilter.FILTER, path.toString());
+
+        DuplicateFilter filter = DuplicateFilter.create(conf);
+        filter.setSplit(known);
+        assertFalse(filter.isDuplicate("a", "Some text", reporter));
+        assertEquals(0, reporter.getValue(DuplicateFilter.Counters.UNKNOWN_SPLIT));
+        // Same start, but read with a larger split size than in the pre-pass
+        filter.setSplit(unknown);
+        assertFalse(filter.isDuplicate("b", "Other text", reporter));
+        filter.setSplit(other);
+        assertFalse(filter.isDuplicate("c", "More text", reporter));
+        assertEquals(2, reporter.getValue(DuplicateFilter.Counters.UNKNOWN_SPLIT));
+    }
+
+    @Test
+    public void testHtmlRecordText()
+        throws IOException
+    {
+        CrawlerRecord record = new CrawlerRecord();
+        record.setContent("<html><body><nav>Menu</nav><p>Some <b>text</b></p></body></html>");
+        record.setIsHTML(true);
+        HtmlTextExtractor extractor = new HtmlTextExtractor();
+        assertEquals(DuplicateFilter.hashText("Some text"),
+                DuplicateFilter.hashText(DuplicateFilter.getText(record, extractor)));
+
+        record.setIsHTML(false);
+        assertEquals(record.getContent(), DuplicateFilter.getText(record, extractor));
+    }
+
+    @Test
+    public void testNearDuplicates()
+        throws IOException
+    {
+        BloomFilter shared = DuplicateFilter.createBloomFilter(conf);
+        DuplicateFilter.addNearDuplicate(shared, DuplicateFilter.hashKey("b"));
+        FileSystem fs = FileSystem.getLocal(conf);
+        Path path = new Path(folder.getRoot().getPath(), DuplicateFilter.FILTER_FILE_NAME);
+        DuplicateFilter.writeBloomFilter(fs, path, shared);
+        conf.set(DuplicateFilter.FILTER, path.toString());
+
+        DuplicateFilter filter = DuplicateFilter.create(conf);
+        assertFalse(filter.isDuplicate("a", "Some text", reporter));
+        // Dropped by its key, whatever the text
+        assertTrue(filter.isDuplicate("b", "Some other text", reporter));
+        assertEquals(1, reporter.getValue(DuplicateFilter.Counters.NEAR_DUPLICATE));
+    }
+}
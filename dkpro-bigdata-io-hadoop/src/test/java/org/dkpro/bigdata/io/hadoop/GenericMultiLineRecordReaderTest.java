@@ -0,0 +1,201 @@
+/*******************************************************************************
+ * Copyright 2010,2012
+ * Ubiquitous Knowledge Processing (UKP) Lab
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.dkpro.bigdata.io.hadoop;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.FileSplit;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.Reporter;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class GenericMultiLineRecordReaderTest
+{
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private JobConf job;
+
+    @Before
+    public void init()
+    {
+        job = new JobConf();
+    }
+
+    @Test
+    public void testLines()
+        throws Exception
+    {
+        File file = write("a\nb\nc\nd\ne\n");
+        job.setInt(GenericMultiLineRecordReader.MAX_LINES, 2);
+
+        assertEquals(asList("a\nb\n", "c\nd\n", "e\n"), read(file, 0, file.length()));
+        // A record does not extend into the next split
+        assertEquals(asList("a\n"), read(file, 0, 2));
+        assertEquals(asList("b\nc\n", "d\ne\n"), read(file, 2, file.length() - 2));
+    }
+
+    @Test
+    public void testBlankLines()
+        throws Exception
+    {
+        File file = write("one\nline\n\n\ntwo\n \nthree\nlines\nhere\n");
+        job.set(GenericMultiLineRecordReader.DELIMITER, "");
+
+        List<String> expected = asList("one\nline\n", "two\n", "three\nlines\nhere\n");
+        assertEquals(expected, read(file, 0, file.length()));
+        assertReadOnceInAllSplits(file, expected);
+    }
+
+    @Test
+    public void testMarker()
+        throws Exception
+    {
+        File file = write("preamble\n<doc id=1>\none\n<doc id=2>\n<doc id=3>\nthree\n");
+        job.set(GenericMultiLineRecordReader.DELIMITER, "<doc");
+        job.setBoolean(GenericMultiLineRecordReader.KEEP_DELIMITER, true);
+
+        List<String> expected = asList("preamble\n", "<doc id=1>\none\n", "<doc id=2>\n",
+                "<doc id=3>\nthree\n");
+        assertEquals(expected, read(file, 0, file.length()));
+        assertReadOnceInAllSplits(file, expected);
+    }
+
+    @Test
+    public void testRegex()
+        throws Exception
+    {
+        File file = write("one\n----\ntwo\n-----\nthree\n");
+        job.set(GenericMultiLineRecordReader.DELIMITER, "regex:-{3,}");
+
+        assertEquals(asList("one\n", "two\n", "three\n"), read(file, 0, file.length()));
+    }
+
+    @Test
+    public void testPacking()
+        throws Exception
+    {
+        File file = write("aaaa\n\nbbbb\n\ncccccccccccc\n\ndd\n\nee\n");
+        job.set(GenericMultiLineRecordReader.DELIMITER, "");
+        job.setLong(GenericMultiLineRecordReader.MAX_RECORD_SIZE, 12);
+
+        // Documents larger than the budget are not cut
+        assertEquals(asList("aaaa\n\nbbbb\n", "cccccccccccc\n", "dd\n\nee\n"),
+                read(file, 0, file.length()));
+    }
+
+    @Test
+    public void testKeys()
+        throws Exception
+    {
+        File file = write("one\n\ntwo\n");
+        job.set(GenericMultiLineRecordReader.DELIMITER, "");
+
+        TextRecordReader reader = new TextRecordReader(new FileSplit(new Path(
+                file.getAbsolutePath()), 0, file.length(), (String[]) null), job);
+        Text key = reader.createKey();
+        Text value = reader.createValue();
+        assertTrue(reader.next(key, value));
+        assertTrue(key.toString().endsWith(file.getName() + ":0"));
+        assertTrue(reader.next(key, value));
+        assertTrue(key.toString().endsWith(file.getName() + ":5"));
+        reader.close();
+    }
+
+    /**
+     * Splits the file in two at every possible offset and checks that every document is read
+     * exactly once.
+     */
+    private void assertReadOnceInAllSplits(File file, List<String> expected)
+        throws IOException
+    {
+        for (long cut = 0; cut <= file.length(); cut++) {
+            List<String> documents = read(file, 0, cut);
+            documents.addAll(read(file, cut, file.length() - cut));
+            assertEquals("Split at " + cut, expected, documents);
+        }
+    }
+
+    private List<String> read(File file, long start, long length)
+        throws IOException
+    {
+        TextRecordReader reader = new TextRecordReader(new FileSplit(new Path(
+                file.getAbsolutePath()), start, length, (String[]) null), job);
+        List<String> documents = new ArrayList<String>();
+        Set<String> keys = new HashSet<String>();
+        Text key = reader.createKey();
+        Text value = reader.createValue();
+        while (reader.next(key, value)) {
+            assertTrue("Keys must be unique", keys.add(key.toString()));
+            documents.add(value.toString());
+        }
+        reader.close();
+        return documents;
+    }
+
+    private File write(String content)
+        throws IOException
+    {
+        File file = folder.newFile("documents.txt");
+        FileUtils.writeStringToFile(file, content, "UTF-8");
+        return file;
+    }
+
+    private static class TextRecordReader
+        extends GenericMultiLineRecordReader<Text>
+    {
+        public TextRecordReader(FileSplit split, JobConf job)
+            throws IOException
+        {
+            super(split, job, Reporter.NULL);
+        }
+
+        @Override
+        protected void convertValue(Text key, Text text, Text value)
+        {
+            value.set(text);
+        }
+
+        @Override
+        public Text createKey()
+        {
+            return new Text();
+        }
+
+        @Override
+        public Text createValue()
+        {
+            return new Text();
+        }
+    }
+}
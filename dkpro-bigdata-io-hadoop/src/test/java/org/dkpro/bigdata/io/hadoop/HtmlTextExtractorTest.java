@@ -0,0 +1,92 @@
+/*******************************************************************************
+ * Copyright 2012,2013
+ * Ubiquitous Knowledge Processing (UKP) Lab
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.dkpro.bigdata.io.hadoop;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.io.StringReader;
+
+import org.junit.Test;
+
+public class HtmlTextExtractorTest
+{
+    private final HtmlTextExtractor extractor = new HtmlTextExtractor();
+
+    @Test
+    public void testExtractText()
+        throws IOException
+    {
+        String html = "<!DOCTYPE html>\n<html><head><title>A  &amp; B</title>"
+                + "<script type=\"text/javascript\">if (a < b) { document.write('<p>x</p>'); }"
+                + "</script><style>p { color: red; }</style></head>\n"
+                + "<body><nav><ul><li>Home</li><li>About</li></ul></nav>"
+                + "<h1>Heading</h1><!-- a comment with <p>markup</p> --->"
+                + "<p class='intro' title=\"a > b\">Some <b>bold</b>\n  text &lt;here&gt;"
+                + "&nbsp;&#252;&#x00FC; &unknown; a & b</p><br/>Last line<footer>(c) 2016</footer>"
+                + "</body></html>";
+
+        assertEquals("Heading\nSome bold text <here> \u00fc\u00fc &unknown; a & b\nLast line",
+                extractor.extract(new StringReader(html)));
+        assertEquals("A & B", extractor.getTitle());
+    }
+
+    @Test
+    public void testReuse()
+        throws IOException
+    {
+        extractor.extract(new StringReader("<title>First</title><nav>unclosed"));
+        assertEquals("Second", extractor.extract(new StringReader("<p>Second</p>")));
+        assertEquals("", extractor.getTitle());
+    }
+
+    @Test
+    public void testUnclosedDropElements()
+        throws IOException
+    {
+        assertEquals("Before\nAfter form\nAfter nav", extractor.extract(new StringReader(
+                "<div><p>Before</p><form><input name='q'>Search</div><p>After form</p>"
+                + "<header><nav>Menu</header><p>After nav</p>")));
+        assertEquals("Text\nAfter body", extractor.extract(new StringReader(
+                "<body><p>Text</p><form>Search</body><p>After body</p>")));
+        assertEquals("Text", extractor.extract(new StringReader(
+                "<nav><div>Menu</div></nav><div><p>Text</p></div></div><nav>Menu")));
+    }
+
+    @Test
+    public void testUnclosedHead()
+        throws IOException
+    {
+        assertEquals("Hello world", extractor.extract(new StringReader(
+                "<html><head><title>T</title><meta charset=utf-8><body><p>Hello world</p>"
+                + "</body></html>")));
+        assertEquals("T", extractor.getTitle());
+        assertEquals("Hello world", extractor.extract(new StringReader(
+                "<head><link rel=stylesheet href=a.css><noscript><p>No</p></noscript>"
+                + "Hello <b>world</b>")));
+    }
+
+    @Test
+    public void testDropElements()
+        throws IOException
+    {
+        HtmlTextExtractor keepAll = new HtmlTextExtractor("");
+        assertEquals("Menu\nText", keepAll.extract(new StringReader(
+                "<nav>Menu</nav><p>Text</p><script>var x;</script>")));
+    }
+}
@@ -23,8 +23,11 @@ import java.io.IOException;
 
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.Counters;
+import org.apache.hadoop.mapred.Counters.Counter;
 import org.apache.hadoop.mapred.FileSplit;
 import org.apache.hadoop.mapred.InputFormat;
+import org.apache.hadoop.mapred.InputSplit;
 import org.apache.hadoop.mapred.JobConf;
 import org.apache.hadoop.mapred.RecordReader;
 import org.apache.hadoop.mapred.Reporter;
@@ -89,4 +92,53 @@ public class InputFormatTest {
 		
 		return numRecordsRead;
 	}
-}
\ No newline at end of file
+
+	/**
+	 * Reporter that keeps the counters and ignores everything else
+	 */
+	protected static class CountingReporter implements Reporter {
+		private final Counters counters = new Counters();
+
+		public long getValue(Enum<?> name) {
+			return counters.getCounter(name);
+		}
+
+		@Override
+		public void setStatus(String status) {
+		}
+
+		@Override
+		public void progress() {
+		}
+
+		@Override
+		public Counter getCounter(Enum<?> name) {
+			return counters.findCounter(name);
+		}
+
+		@Override
+		public Counter getCounter(String group, String name) {
+			return counters.findCounter(group, name);
+		}
+
+		@Override
+		public void incrCounter(Enum<?> key, long amount) {
+			counters.incrCounter(key, amount);
+		}
+
+		@Override
+		public void incrCounter(String group, String counter, long amount) {
+			counters.incrCounter(group, counter, amount);
+		}
+
+		@Override
+		public InputSplit getInputSplit() {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public float getProgress() {
+			return 0;
+		}
+	}
+}
@@ -0,0 +1,67 @@
+/*******************************************************************************
+ * Copyright 2010,2012
+ * Ubiquitous Knowledge Processing (UKP) Lab
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.dkpro.bigdata.io.hadoop;
+
+import static org.apache.uima.fit.factory.TypeSystemDescriptionFactory.createTypeSystemDescription;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.uima.cas.CAS;
+import org.apache.uima.util.CasCreationUtils;
+import org.junit.Test;
+
+public class LazyBinCasWritableTest
+    extends CASWritableTest
+{
+    public LazyBinCasWritableTest()
+    {
+        writable = LazyBinCasWritable.class;
+    }
+
+    @Test
+    public void testPassThrough()
+        throws Exception
+    {
+        CAS cas = CasCreationUtils.createCas(createTypeSystemDescription(), null, null);
+        cas.setDocumentText("Lorem ipsum");
+        BinCasWritable eager = new BinCasWritable();
+        eager.setCAS(cas);
+        DataOutputBuffer original = new DataOutputBuffer();
+        eager.write(original);
+
+        LazyBinCasWritable lazy = new LazyBinCasWritable();
+        DataInputBuffer in = new DataInputBuffer();
+        in.reset(original.getData(), original.getLength());
+        lazy.readFields(in);
+        assertFalse(lazy.isDeserialized());
+
+        // Untouched records are written unchanged without deserializing them
+        DataOutputBuffer copy = new DataOutputBuffer();
+        lazy.write(copy);
+        assertFalse(lazy.isDeserialized());
+        assertArrayEquals(original.getData(), copy.getData());
+        assertEquals(original.getLength(), copy.getLength());
+
+        assertEquals("Lorem ipsum", lazy.getCAS().getDocumentText());
+        assertTrue(lazy.isDeserialized());
+    }
+}
@@ -18,8 +18,10 @@ package org.dkpro.bigdata.io.hadoop;
 
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 
 import java.io.IOException;
+import java.util.Map;
 
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.mapred.FileSplit;
@@ -161,4 +163,27 @@ public class LeipzigInputFormatTest extends InputFormatTest {
 		assertEquals(2, readArchiveInSplits(archiveFile, Integer.MAX_VALUE, inputFormat, jobConf));
 	}
 	*/
+
+	@Test
+	public void testParseSourceHeader() {
+		Map<String, String> entries = LeipzigInputFormat.parseSourceHeader(
+				"<source><location>http://foo.edu/?a=1&b=<2></location><date>2006-06-21</date>"
+				+ "<user>A &amp; B</user><original_encoding><![CDATA[utf-8]]></original_encoding>"
+				+ "<language></language><issue/></source>");
+		assertEquals("http://foo.edu/?a=1&b=<2>", entries.get("location"));
+		assertEquals("2006-06-21", entries.get("date"));
+		assertEquals("A & B", entries.get("user"));
+		assertEquals("utf-8", entries.get("original_encoding"));
+		assertEquals("", entries.get("language"));
+		assertEquals("", entries.get("issue"));
+		assertNull(entries.get("not existent"));
+
+		assertNull(LeipzigInputFormat.parseSourceHeader(
+				"<source><location>x</location><date2006-06-22<date></source>"));
+		assertNull(LeipzigInputFormat.parseSourceHeader(
+				"<source><location>\u0000x</location></source>"));
+		assertNull(LeipzigInputFormat.parseSourceHeader(
+				"<source><user>a<b</user></source>"));
+		assertNull(LeipzigInputFormat.parseSourceHeader("<source><user>a</user>"));
+	}
 }
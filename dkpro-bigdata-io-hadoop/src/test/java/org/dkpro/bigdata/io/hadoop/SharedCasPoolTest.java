@@ -0,0 +1,64 @@
+/*******************************************************************************
+ * Copyright 2010,2012
+ * Ubiquitous Knowledge Processing (UKP) Lab
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.dkpro.bigdata.io.hadoop;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import org.apache.uima.cas.CAS;
+import org.junit.Test;
+
+public class SharedCasPoolTest
+{
+    @Test
+    public void testReuse()
+        throws Exception
+    {
+        CAS first = SharedCasPool.acquire();
+        first.setDocumentText("Lorem ipsum");
+        CAS second = SharedCasPool.acquire();
+        assertNotSame(first, second);
+        assertSame(first.getTypeSystem(), second.getTypeSystem());
+
+        long hits = SharedCasPool.getHits();
+        long misses = SharedCasPool.getMisses();
+        SharedCasPool.release(first);
+        CAS reused = SharedCasPool.acquire();
+        assertSame(first, reused);
+        // Released CASes are reset
+        assertNull(reused.getDocumentText());
+        assertEquals(hits + 1, SharedCasPool.getHits());
+        assertEquals(misses, SharedCasPool.getMisses());
+
+        SharedCasPool.release(reused);
+        SharedCasPool.release(second);
+    }
+
+    @Test
+    public void testWritableReturnsCasToPool()
+        throws Exception
+    {
+        CASWritable writable = new CASWritable();
+        CAS pooled = writable.getCAS();
+        writable.setCAS(null);
+        assertSame(pooled, SharedCasPool.acquire());
+        SharedCasPool.release(pooled);
+    }
+}
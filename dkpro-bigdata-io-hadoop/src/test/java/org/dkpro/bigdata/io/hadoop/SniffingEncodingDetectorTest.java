@@ -0,0 +1,167 @@
+/*******************************************************************************
+ * Copyright 2012,2013
+ * Ubiquitous Knowledge Processing (UKP) Lab
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.dkpro.bigdata.io.hadoop;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.hadoop.conf.Configuration;
+import org.junit.Test;
+
+public class SniffingEncodingDetectorTest
+{
+    private final SniffingEncodingDetector detector = new SniffingEncodingDetector();
+
+    @Test
+    public void testContentType()
+        throws IOException
+    {
+        byte[] html = "<html><meta charset=\"utf-8\">Gr\u00fc\u00dfe".getBytes("UTF-8");
+        // The header wins over the document
+        assertEquals("ISO-8859-1", detect("text/html; charset=\"iso-8859-1\"", html));
+        // Unknown charsets are ignored
+        assertEquals("UTF-8", detect("text/html; charset=x-unknown", html));
+    }
+
+    @Test
+    public void testByteOrderMark()
+        throws IOException
+    {
+        byte[] data = { (byte) 0xff, (byte) 0xfe, 'a', 0 };
+        assertEquals("UTF-16LE", detect("text/html; charset=iso-8859-1", data));
+    }
+
+    @Test
+    public void testStripByteOrderMark()
+        throws IOException
+    {
+        byte[] data = { (byte) 0xef, (byte) 0xbb, (byte) 0xbf, 'a', 'b' };
+        Charset charset = detector.detect(null, data, 0, data.length);
+        assertEquals("UTF-8", charset.name());
+        assertEquals("ab", SniffingEncodingDetector.stripByteOrderMark(new String(data, charset)));
+        assertEquals("ab", IOUtils.toString(SniffingEncodingDetector.skipByteOrderMark(
+                new InputStreamReader(new ByteArrayInputStream(data), charset))));
+
+        data = new byte[] { (byte) 0xfe, (byte) 0xff, 0, 'a' };
+        charset = detector.detect(null, data, 0, data.length);
+        assertEquals("a", SniffingEncodingDetector.stripByteOrderMark(new String(data, charset)));
+        assertEquals("a", IOUtils.toString(SniffingEncodingDetector.skipByteOrderMark(
+                new InputStreamReader(new ByteArrayInputStream(data), charset))));
+
+        // No byte order mark
+        assertEquals("", IOUtils.toString(SniffingEncodingDetector.skipByteOrderMark(
+                new InputStreamReader(new ByteArrayInputStream(new byte[0]), charset))));
+        assertEquals("ab", SniffingEncodingDetector.stripByteOrderMark("ab"));
+    }
+
+    @Test
+    public void testMetaTag()
+        throws IOException
+    {
+        assertEquals("windows-1251", detect("text/html",
+                "<html><head><META http-equiv=\"Content-Type\" content=\"text/html; charset=windows-1251\">"
+                        .getBytes("US-ASCII")));
+        assertEquals("ISO-8859-2", detect(null,
+                "<?xml version=\"1.0\" encoding='ISO-8859-2'?><doc/>".getBytes("US-ASCII")));
+        // UTF-16 cannot be declared in an ASCII compatible document
+        assertEquals("UTF-8", detect("text/html", "<meta charset=utf-16>".getBytes("US-ASCII")));
+        // Markup is only sniffed in markup documents
+        assertEquals("UTF-8", detect("text/plain",
+                "<meta charset=\"windows-1251\">".getBytes("US-ASCII")));
+    }
+
+    @Test
+    public void testMetaTagOutsidePrefix()
+        throws IOException
+    {
+        Configuration conf = new Configuration(false);
+        conf.setInt(SniffingEncodingDetector.META_PREFIX_SIZE, 16);
+        SniffingEncodingDetector shortPrefix = new SniffingEncodingDetector(conf);
+        byte[] html = "<html><head><title>x</title><meta charset=\"windows-1251\">"
+                .getBytes("US-ASCII");
+        assertEquals("UTF-8", shortPrefix.detect("text/html", html, 0, html.length).name());
+    }
+
+    @Test
+    public void testStatistics()
+        throws IOException
+    {
+        assertEquals("UTF-8", detect(null, "Gr\u00fc\u00dfe".getBytes("UTF-8")));
+        assertEquals("UTF-8", detect(null, "plain ascii".getBytes("UTF-8")));
+        assertEquals("windows-1252", detect(null, "Gr\u00fc\u00dfe".getBytes("ISO-8859-1")));
+        assertEquals("UTF-16BE", detect(null, "some text".getBytes("UTF-16BE")));
+        assertEquals("UTF-16LE", detect(null, "some text".getBytes("UTF-16LE")));
+    }
+
+    @Test
+    public void testConfiguredDefaultAndDetector()
+        throws IOException
+    {
+        byte[] latin1 = "Gr\u00fc\u00dfe".getBytes("ISO-8859-1");
+        Configuration conf = new Configuration(false);
+        conf.set(SniffingEncodingDetector.DEFAULT_ENCODING, "ISO-8859-15");
+        assertEquals("ISO-8859-15",
+                new SniffingEncodingDetector(conf).detect(null, latin1, 0, latin1.length).name());
+
+        conf.setClass(SniffingEncodingDetector.ENCODING_DETECTOR, DummyEncodingDetector.class,
+                EncodingDetector.class);
+        assertEquals("ISO-8859-1",
+                new SniffingEncodingDetector(conf).detect(null, latin1, 0, latin1.length).name());
+    }
+
+    @Test
+    public void testIsUtf8()
+        throws IOException
+    {
+        assertTrue(SniffingEncodingDetector.isUtf8(new byte[] { 'a', (byte) 0xe2, (byte) 0x82 },
+                0, 3));
+        // Overlong encoding of '/'
+        assertFalse(SniffingEncodingDetector.isUtf8(new byte[] { (byte) 0xc0, (byte) 0xaf }, 0,
+                2));
+        // Surrogate
+        assertFalse(SniffingEncodingDetector.isUtf8(new byte[] { (byte) 0xed, (byte) 0xa0,
+                (byte) 0x80 }, 0, 3));
+    }
+
+    @Test
+    public void testDetectFromStream()
+        throws IOException
+    {
+        byte[] data = "Gr\u00fc\u00dfe".getBytes("ISO-8859-1");
+        InputStream in = new BufferedInputStream(new ByteArrayInputStream(data),
+                detector.getSampleSize());
+        Charset charset = detector.detect(null, in);
+        assertEquals("windows-1252", charset.name());
+        // The stream is reset
+        assertEquals('G', in.read());
+    }
+
+    private String detect(String contentType, byte[] data)
+    {
+        return detector.detect(contentType, data, 0, data.length).name();
+    }
+}
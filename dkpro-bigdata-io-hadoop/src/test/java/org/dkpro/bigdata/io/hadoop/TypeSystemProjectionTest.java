@@ -0,0 +1,138 @@
+/*******************************************************************************
+ * Copyright 2010,2012
+ * Ubiquitous Knowledge Processing (UKP) Lab
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.dkpro.bigdata.io.hadoop;
+
+import static java.util.Arrays.asList;
+import static org.apache.uima.fit.factory.TypeSystemDescriptionFactory.createTypeSystemDescription;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.uima.cas.CAS;
+import org.apache.uima.cas.Type;
+import org.apache.uima.resource.metadata.FeatureDescription;
+import org.apache.uima.resource.metadata.TypeDescription;
+import org.apache.uima.resource.metadata.TypeSystemDescription;
+import org.apache.uima.util.CasCreationUtils;
+import org.junit.After;
+import org.junit.Test;
+
+public class TypeSystemProjectionTest
+{
+    private static final String TOKEN = "de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Token";
+    private static final String SENTENCE = "de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Sentence";
+    private static final String POS = "de.tudarmstadt.ukp.dkpro.core.api.lexmorph.type.pos.POS";
+    private static final String NN = "de.tudarmstadt.ukp.dkpro.core.api.lexmorph.type.pos.NN";
+
+    @After
+    public void resetProjection()
+    {
+        SharedCasPool.configure(new Configuration());
+    }
+
+    @Test
+    public void testProject()
+        throws Exception
+    {
+        TypeSystemDescription projected = TypeSystemProjection.project(
+                createTypeSystemDescription(), asList(TOKEN, POS));
+        TypeDescription token = projected.getType(TOKEN);
+        assertNotNull(token);
+        assertNull(projected.getType(SENTENCE));
+        // Subtypes are included
+        assertNotNull(projected.getType(NN));
+        // Features pointing to types that were dropped are dropped as well
+        assertNotNull(findFeature(token, "pos"));
+        assertNull(findFeature(token, "lemma"));
+    }
+
+    @Test
+    public void testOutputTypes()
+        throws Exception
+    {
+        Configuration conf = new Configuration();
+        conf.set(TypeSystemProjection.PARAM_OUTPUT_TYPES, TOKEN);
+        SharedCasPool.configure(conf);
+
+        CAS cas = CasCreationUtils.createCas(createTypeSystemDescription(), null, null);
+        cas.setDocumentText("Lorem ipsum.");
+        cas.addFsToIndexes(cas.createAnnotation(cas.getTypeSystem().getType(SENTENCE), 0, 12));
+        cas.addFsToIndexes(cas.createAnnotation(cas.getTypeSystem().getType(TOKEN), 0, 5));
+        cas.addFsToIndexes(cas.createAnnotation(cas.getTypeSystem().getType(TOKEN), 6, 11));
+
+        BinCasWithTypeSystemWritable out = new BinCasWithTypeSystemWritable();
+        out.setCAS(cas);
+        DataOutputBuffer data = new DataOutputBuffer();
+        out.write(data);
+
+        SharedCasPool.configure(new Configuration());
+        BinCasWithTypeSystemWritable in = new BinCasWithTypeSystemWritable();
+        DataInputBuffer input = new DataInputBuffer();
+        input.reset(data.getData(), data.getLength());
+        in.readFields(input);
+        CAS read = in.getCAS();
+        assertEquals("Lorem ipsum.", read.getDocumentText());
+        assertEquals(2, count(read, TOKEN));
+        assertEquals(0, count(read, SENTENCE));
+    }
+
+    @Test
+    public void testInputTypes()
+        throws Exception
+    {
+        CAS cas = CasCreationUtils.createCas(createTypeSystemDescription(), null, null);
+        cas.setDocumentText("Lorem ipsum.");
+        cas.addFsToIndexes(cas.createAnnotation(cas.getTypeSystem().getType(SENTENCE), 0, 12));
+        cas.addFsToIndexes(cas.createAnnotation(cas.getTypeSystem().getType(TOKEN), 0, 5));
+        BinCasWritable out = new BinCasWritable();
+        out.setCAS(cas);
+        DataOutputBuffer data = new DataOutputBuffer();
+        out.write(data);
+
+        Configuration conf = new Configuration();
+        conf.set(TypeSystemProjection.PARAM_INPUT_TYPES, SENTENCE);
+        SharedCasPool.configure(conf);
+        BinCasWritable in = new BinCasWritable();
+        DataInputBuffer input = new DataInputBuffer();
+        input.reset(data.getData(), data.getLength());
+        in.readFields(input);
+        CAS read = in.getCAS();
+        assertNull(read.getTypeSystem().getType(TOKEN));
+        assertEquals("Lorem ipsum.", read.getDocumentText());
+        assertEquals(1, count(read, SENTENCE));
+    }
+
+    private static FeatureDescription findFeature(TypeDescription type, String name)
+    {
+        for (FeatureDescription feature : type.getFeatures()) {
+            if (feature.getName().equals(name)) {
+                return feature;
+            }
+        }
+        return null;
+    }
+
+    private static int count(CAS cas, String typeName)
+    {
+        Type type = cas.getTypeSystem().getType(typeName);
+        return type == null ? 0 : cas.getAnnotationIndex(type).size();
+    }
+}
@@ -0,0 +1,161 @@
+/*******************************************************************************
+ * Copyright 2012,2013
+ * Ubiquitous Knowledge Processing (UKP) Lab
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.dkpro.bigdata.io.hadoop;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.FileSplit;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.RecordReader;
+import org.apache.hadoop.mapred.Reporter;
+import org.apache.uima.cas.CAS;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import de.tudarmstadt.ukp.dkpro.core.api.metadata.type.DocumentMetaData;
+
+public class WARC2CASInputFormatTest
+{
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testReadSimpleArchive()
+        throws IOException
+    {
+        File archive = new File(WARCInputFormatTest.ARCHIVE_SIMPLE);
+        List<CAS> documents = read(archive, new JobConf());
+
+        assertEquals(2, documents.size());
+        CAS robots = documents.get(1);
+        assertTrue(robots.getDocumentText().startsWith("####"));
+        assertTrue(robots.getDocumentText().contains("# Welcome to the Archive!"));
+        DocumentMetaData metadata = DocumentMetaData.get(robots);
+        assertEquals("http://www.archive.org/robots.txt", metadata.getDocumentUri());
+        assertEquals("<urn:uuid:e7c9eff8-f5bc-4aeb-b3d2-9d3df99afb30>",
+                metadata.getDocumentId());
+    }
+
+    @Test
+    public void testReadHtml()
+        throws IOException
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeResponse(out, "http://example.com/a", "<urn:uuid:a>",
+                "text/html; charset=ISO-8859-1", "de",
+                "<html><head><title>Gr\u00fc\u00dfe</title></head><body><nav>Menu</nav>"
+                        + "<p>Sch\u00f6ne Gr\u00fc\u00dfe</p></body></html>", "ISO-8859-1");
+        writeResponse(out, "http://example.com/logo.png", "<urn:uuid:b>", "image/png", null,
+                "\u0089PNG", "ISO-8859-1");
+        writeResponse(out, "http://example.com/empty", "<urn:uuid:c>", "text/html", null,
+                "<html><script>var empty;</script></html>", "UTF-8");
+        File archive = new File(folder.getRoot(), "archive.warc");
+        FileUtils.writeByteArrayToFile(archive, out.toByteArray());
+
+        JobConf job = new JobConf();
+        job.setBoolean("dkpro.input.filter-mimetypes", true);
+        List<CAS> documents = read(archive, job);
+
+        // The image is filtered, the empty page skipped
+        assertEquals(1, documents.size());
+        CAS cas = documents.get(0);
+        assertEquals("Sch\u00f6ne Gr\u00fc\u00dfe", cas.getDocumentText());
+        assertEquals("de", cas.getDocumentLanguage());
+        DocumentMetaData metadata = DocumentMetaData.get(cas);
+        assertEquals("http://example.com/a", metadata.getDocumentUri());
+        assertEquals("<urn:uuid:a>", metadata.getDocumentId());
+        assertEquals("Gr\u00fc\u00dfe", metadata.getDocumentTitle());
+    }
+
+    @Test
+    public void testSkipBinaryPayloads()
+        throws IOException
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeResponse(out, "http://example.com/a.pdf", "<urn:uuid:a>", "application/pdf", null,
+                "%PDF-1.4 binary", "ISO-8859-1");
+        writeResponse(out, "http://example.com/logo.png", "<urn:uuid:b>", "image/png", null,
+                "\u0089PNG", "ISO-8859-1");
+        writeResponse(out, "http://example.com/b", "<urn:uuid:c>",
+                "application/xhtml+xml; charset=UTF-8", null, "<p>Text</p>", "UTF-8");
+        File archive = new File(folder.getRoot(), "archive.warc");
+        FileUtils.writeByteArrayToFile(archive, out.toByteArray());
+
+        // Without dkpro.input.filter-mimetypes
+        List<CAS> documents = read(archive, new JobConf());
+        assertEquals(1, documents.size());
+        assertEquals("Text", documents.get(0).getDocumentText());
+    }
+
+    private List<CAS> read(File archive, JobConf job)
+        throws IOException
+    {
+        FileSplit split = new FileSplit(new Path(archive.getAbsolutePath()), 0, archive.length(),
+                (String[]) null);
+        RecordReader<Text, CASWritable> reader = new WARC2CASInputFormat().getRecordReader(split,
+                job, Reporter.NULL);
+        List<CAS> documents = new ArrayList<CAS>();
+        Text key = reader.createKey();
+        CASWritable value = reader.createValue();
+        while (reader.next(key, value)) {
+            assertEquals(key.toString(), DocumentMetaData.get(value.getCAS()).getDocumentUri());
+            documents.add(value.getCAS());
+            value = reader.createValue();
+        }
+        reader.close();
+        return documents;
+    }
+
+    private static void writeResponse(ByteArrayOutputStream out, String uri, String id,
+            String contentType, String language, String body, String encoding)
+        throws IOException
+    {
+        byte[] content = body.getBytes(encoding);
+        StringBuilder http = new StringBuilder();
+        http.append("HTTP/1.1 200 OK\r\n");
+        http.append("Content-Type: ").append(contentType).append("\r\n");
+        if (language != null) {
+            http.append("Content-Language: ").append(language).append("\r\n");
+        }
+        http.append("Content-Length: ").append(content.length).append("\r\n\r\n");
+        byte[] httpHeader = http.toString().getBytes("US-ASCII");
+
+        String header = "WARC/1.0\r\n"
+                + "WARC-Type: response\r\n"
+                + "WARC-Target-URI: " + uri + "\r\n"
+                + "WARC-Date: 2016-01-01T00:00:00Z\r\n"
+                + "WARC-Record-ID: " + id + "\r\n"
+                + "Content-Type: application/http; msgtype=response\r\n"
+                + "Content-Length: " + (httpHeader.length + content.length) + "\r\n\r\n";
+        out.write(header.getBytes("US-ASCII"));
+        out.write(httpHeader);
+        out.write(content);
+        out.write("\r\n\r\n".getBytes("US-ASCII"));
+    }
+}
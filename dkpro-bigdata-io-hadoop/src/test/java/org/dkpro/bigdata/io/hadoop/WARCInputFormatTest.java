@@ -16,14 +16,35 @@
  ******************************************************************************/
 package org.dkpro.bigdata.io.hadoop;
 
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
+import java.util.Random;
+import java.util.zip.GZIPOutputStream;
 
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.FileInputFormat;
 import org.apache.hadoop.mapred.FileSplit;
+import org.apache.hadoop.mapred.InputSplit;
 import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.RecordReader;
+import org.apache.hadoop.mapred.Reporter;
 import org.dkpro.bigdata.io.hadoop.WARCInputFormat.WARCRecordReader;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
 /**
  * Unit tests for webcorpus.common.io.ARCInputFormat
@@ -36,6 +57,11 @@ public class WARCInputFormatTest extends InputFormatTest {
 	JobConf jobConf;
 	
 	final static String ARCHIVE_SIMPLE = "src/test/resources/warc/simple-archive.warc";
+	// Same records as ARCHIVE_SIMPLE, one gzip member per record
+	final static String ARCHIVE_SIMPLE_GZ = "src/test/resources/warc/simple-archive.warc.gz";
+	
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
 	
 	@Before
 	public void init() {
@@ -72,4 +98,152 @@ public class WARCInputFormatTest extends InputFormatTest {
 		WARCRecordReader recordReader = new WARCRecordReader(inputSplit, jobConf);
 		checkNRecordsRemaining(recordReader, 1);
 	}
+	
+	@Test
+	public void testHeaderFilters() throws IOException {
+		Path filePath = new Path(ARCHIVE_SIMPLE);
+		FileSplit inputSplit = new FileSplit(filePath, 0, 2177, (String[])null);
+		
+		// The dns record has a payload of 56 bytes, the robots.txt record one of 782 bytes
+		jobConf.setLong(WARCInputFormat.MAX_PAYLOAD_SIZE, 100);
+		CountingReporter reporter = new CountingReporter();
+		checkNRecordsRemaining(new WARCRecordReader(inputSplit, jobConf, reporter), 1);
+		assertEquals(1, reporter.getValue(WARCInputFormat.SkippedRecords.NO_DOCUMENT));
+		assertEquals(1, reporter.getValue(WARCInputFormat.SkippedRecords.TOO_LARGE));
+		
+		jobConf = new JobConf(WARCInputFormatTest.class);
+		jobConf.setLong(WARCInputFormat.MIN_PAYLOAD_SIZE, 100);
+		reporter = new CountingReporter();
+		checkNRecordsRemaining(new WARCRecordReader(inputSplit, jobConf, reporter), 1);
+		assertEquals(1, reporter.getValue(WARCInputFormat.SkippedRecords.TOO_SMALL));
+		
+		// Neither text/dns nor text/plain is in the default whitelist
+		jobConf = new JobConf(WARCInputFormatTest.class);
+		jobConf.setBoolean("dkpro.input.filter-mimetypes", true);
+		reporter = new CountingReporter();
+		checkNRecordsRemaining(new WARCRecordReader(inputSplit, jobConf, reporter), 0);
+		assertEquals(2, reporter.getValue(WARCInputFormat.SkippedRecords.CONTENT_TYPE));
+		
+		jobConf.set("dkpro.input.content-type-whitelist", "text/html, text/plain");
+		checkNRecordsRemaining(new WARCRecordReader(inputSplit, jobConf, Reporter.NULL), 1);
+	}
+	
+	@Test
+	public void testReadSimpleArchiveInSplits() throws IOException {
+		WARCInputFormat inputFormat = new WARCInputFormat();
+		// Every record must be read by exactly one split
+		assertEquals(2, readArchiveInSplits(ARCHIVE_SIMPLE, 10, inputFormat, jobConf));
+		assertEquals(2, readArchiveInSplits(ARCHIVE_SIMPLE, 100, inputFormat, jobConf));
+		assertEquals(2, readArchiveInSplits(ARCHIVE_SIMPLE, 738, inputFormat, jobConf));
+		assertEquals(2, readArchiveInSplits(ARCHIVE_SIMPLE, 1024, inputFormat, jobConf));
+		assertEquals(2, readArchiveInSplits(ARCHIVE_SIMPLE, 1024 * 10, inputFormat, jobConf));
+	}
+	
+	@Test
+	public void testReadCompressedArchiveInSplits() throws IOException {
+		WARCInputFormat inputFormat = new WARCInputFormat();
+		assertEquals(2, readArchiveInSplits(ARCHIVE_SIMPLE_GZ, 10, inputFormat, jobConf));
+		assertEquals(2, readArchiveInSplits(ARCHIVE_SIMPLE_GZ, 463, inputFormat, jobConf));
+		assertEquals(2, readArchiveInSplits(ARCHIVE_SIMPLE_GZ, 500, inputFormat, jobConf));
+		assertEquals(2, readArchiveInSplits(ARCHIVE_SIMPLE_GZ, 1024 * 10, inputFormat, jobConf));
+	}
+	
+	@Test
+	public void testReadCompressedArchiveWithPrefetching() throws IOException {
+		jobConf.setInt(GzipMemberPrefetcher.THREADS, 2);
+		WARCInputFormat inputFormat = new WARCInputFormat();
+		assertEquals(2, readArchiveInSplits(ARCHIVE_SIMPLE_GZ, 10, inputFormat, jobConf));
+		assertEquals(2, readArchiveInSplits(ARCHIVE_SIMPLE_GZ, 707, inputFormat, jobConf));
+		assertEquals(2, readArchiveInSplits(ARCHIVE_SIMPLE_GZ, 1024 * 10, inputFormat, jobConf));
+		
+		// A read-ahead window smaller than a member must not lose records
+		jobConf.setInt(GzipMemberPrefetcher.READ_AHEAD, 100);
+		assertEquals(2, readArchiveInSplits(ARCHIVE_SIMPLE_GZ, 1024 * 10, inputFormat, jobConf));
+	}
+	
+	@Test
+	public void testPrefetcherReinflatesMemberAfterWindowReload() throws IOException {
+		// Members of 303, 303 and 503 bytes: the last one is cut off by the first read-ahead
+		// window of 1000 bytes and complete in the window reloaded for it, which ends at EOF
+		Random random = new Random(42);
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		byte[][] contents = { new byte[280], new byte[280], new byte[480] };
+		for (byte[] content : contents) {
+			random.nextBytes(content);
+			GZIPOutputStream gzip = new GZIPOutputStream(bytes);
+			gzip.write(content);
+			gzip.finish();
+		}
+		assertEquals(1109, bytes.size());
+		File file = new File(folder.getRoot(), "members.gz");
+		FileUtils.writeByteArrayToFile(file, bytes.toByteArray());
+		
+		FSDataInputStream in = FileSystem.getLocal(jobConf).open(new Path(file.getAbsolutePath()));
+		GzipMemberPrefetcher prefetcher = new GzipMemberPrefetcher(in, 0, file.length(),
+				file.length(), 1, 1000);
+		try {
+			for (byte[] content : contents) {
+				GzipMemberPrefetcher.Member member = prefetcher.next();
+				assertArrayEquals(content, IOUtils.toByteArray(member.getInputStream()));
+			}
+			assertNull(prefetcher.next());
+		} finally {
+			prefetcher.close();
+			in.close();
+		}
+	}
+	
+	@Test
+	public void testCdxAlignedSplits() throws IOException {
+		File archive = new File(folder.getRoot(), "simple-archive.warc");
+		FileUtils.copyFile(new File(ARCHIVE_SIMPLE), archive);
+		// The warcinfo record at offset 0 is not indexed, as usual for CDX files
+		FileUtils.writeStringToFile(new File(folder.getRoot(), "simple-archive.warc.cdx"),
+				" CDX N b a m s k r M S V g\n"
+				+ "archive,)/ 20080430204825 dns:www.archive.org text/dns - - - - 305 738 simple-archive.warc\n"
+				+ "org,archive)/robots.txt 20080430204826 http://www.archive.org/robots.txt text/plain 200 - - - 1134 1043 simple-archive.warc\n",
+				"UTF-8");
+		
+		InputSplit[] splits = getSplits(folder.getRoot(), 10);
+		// One split per record, the index itself is not read as input
+		assertEquals(3, splits.length);
+		long[] expectedStarts = { 0, 738, 1043 };
+		for (int i = 0; i < splits.length; i++) {
+			assertTrue(splits[i] instanceof RecordAlignedFileSplit);
+			assertEquals(expectedStarts[i], ((FileSplit) splits[i]).getStart());
+		}
+		assertEquals(2, readSplits(splits));
+	}
+	
+	@Test
+	public void testOffsetIndexAlignedSplitsCompressed() throws IOException {
+		File archive = new File(folder.getRoot(), "simple-archive.warc.gz");
+		FileUtils.copyFile(new File(ARCHIVE_SIMPLE_GZ), archive);
+		FileUtils.writeStringToFile(new File(folder.getRoot(), "simple-archive.warc.gz.cdx"),
+				"0\n463\n707\n", "UTF-8");
+		
+		InputSplit[] splits = getSplits(folder.getRoot(), 2);
+		// Records are 463, 244 and 685 bytes long, the best cut for two splits is at 707
+		assertEquals(2, splits.length);
+		assertEquals(0, ((FileSplit) splits[0]).getStart());
+		assertEquals(707, ((FileSplit) splits[1]).getStart());
+		assertEquals(1392, ((FileSplit) splits[1]).getStart() + ((FileSplit) splits[1]).getLength());
+		assertEquals(2, readSplits(splits));
+	}
+	
+	private InputSplit[] getSplits(File inputDir, int numSplits) throws IOException {
+		FileInputFormat.setInputPaths(jobConf, new Path(inputDir.getAbsolutePath()));
+		return new WARCInputFormat().getSplits(jobConf, numSplits);
+	}
+	
+	private int readSplits(InputSplit[] splits) throws IOException {
+		WARCInputFormat inputFormat = new WARCInputFormat();
+		int numRecordsRead = 0;
+		for (InputSplit split : splits) {
+			RecordReader<Text, CrawlerRecord> recordReader = inputFormat.getRecordReader(split, jobConf, Reporter.NULL);
+			numRecordsRead += checkRecordsRemaining(recordReader);
+			recordReader.close();
+		}
+		return numRecordsRead;
+	}
 }